@@ -6,6 +6,7 @@ import org.apache.commons.cli.Options;
 import org.springframework.security.core.context.SecurityContext;
 import org.springframework.security.core.context.SecurityContextHolder;
 import ubic.gemma.core.analysis.sequence.ProbeMapperConfig;
+import ubic.gemma.core.externalDb.GoldenPathSequenceAnalysis;
 import ubic.gemma.core.loader.expression.arrayDesign.ArrayDesignProbeMapperService;
 import ubic.gemma.core.util.AbstractCLI;
 import ubic.gemma.model.common.auditAndSecurity.AuditEvent;
@@ -15,6 +16,7 @@ import ubic.gemma.model.expression.arrayDesign.ArrayDesign;
 import ubic.gemma.model.expression.arrayDesign.TechnologyType;
 import ubic.gemma.model.expression.designElement.CompositeSequence;
 import ubic.gemma.model.genome.Taxon;
+import ubic.gemma.model.genome.biosequence.BioSequence;
 import ubic.gemma.model.genome.sequenceAnalysis.BlatAssociation;
 import ubic.gemma.persistence.service.common.description.ExternalDatabaseService;
 import ubic.gemma.persistence.service.expression.designElement.CompositeSequenceService;
@@ -651,6 +653,9 @@ public class ArrayDesignProbeMapperCli extends ArrayDesignSequenceManipulatingCl
         this.configure( arrayDesign );
         CompositeSequenceService compositeSequenceService = this.getBean( CompositeSequenceService.class );
 
+        // one per taxon for the whole run, so its annotation index is only loaded once, not for each probe
+        Map<Taxon, GoldenPathSequenceAnalysis> goldenPathDbs = new HashMap<>();
+
         for ( String probeName : this.probeNames ) {
             CompositeSequence probe = compositeSequenceService.findByName( arrayDesign, probeName );
 
@@ -661,8 +666,19 @@ public class ArrayDesignProbeMapperCli extends ArrayDesignSequenceManipulatingCl
 
             compositeSequenceService.thaw( Collections.singleton( probe ) );
 
+            GoldenPathSequenceAnalysis goldenPathDb = null;
+            BioSequence bs = probe.getBiologicalCharacteristic();
+            if ( bs != null ) {
+                Taxon t = taxon != null ? taxon : bs.getTaxon();
+                goldenPathDb = goldenPathDbs.get( t );
+                if ( goldenPathDb == null ) {
+                    goldenPathDb = new GoldenPathSequenceAnalysis( t );
+                    goldenPathDbs.put( t, goldenPathDb );
+                }
+            }
+
             Map<String, Collection<BlatAssociation>> results = this.arrayDesignProbeMapperService
-                    .processCompositeSequence( this.config, taxon, null, probe );
+                    .processCompositeSequence( this.config, taxon, goldenPathDb, probe );
 
             for ( Collection<BlatAssociation> col : results.values() ) {
                 for ( BlatAssociation association : col ) {
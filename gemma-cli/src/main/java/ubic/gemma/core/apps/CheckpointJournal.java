@@ -0,0 +1,130 @@
+/*
+ * The Gemma project
+ *
+ * Copyright (c) 2026 University of British Columbia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ubic.gemma.core.apps;
+
+import ubic.gemma.model.expression.experiment.ExpressionExperiment;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Records which experiments a batch run has finished with, one line per experiment, written as soon as each is done so
+ * that an interrupted run can be resumed. Each line has the experiment ID, short name, status (OK or ERROR), time taken
+ * in milliseconds and when it was finished, separated by tabs. Lines that can't be read, such as one that was being
+ * written when the run was killed, are ignored; an experiment only counts as done if both its ID and its short name
+ * match a line.
+ *
+ * @author agent
+ */
+class CheckpointJournal implements Closeable {
+
+    private static final String OK = "OK";
+    private static final String ERROR = "ERROR";
+
+    private final BufferedWriter writer;
+
+    /**
+     * @param file   the journal
+     * @param append whether to keep what is already in the journal, when resuming a run
+     * @throws IOException if the journal could not be opened
+     */
+    CheckpointJournal( File file, boolean append ) throws IOException {
+        boolean partialLine = append && CheckpointJournal.endsWithPartialLine( file );
+        this.writer = Files.newBufferedWriter( file.toPath(), StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE,
+                append ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING );
+        if ( partialLine ) {
+            // end the line that was being written when the last run was killed, so it isn't continued by the next
+            writer.newLine();
+            writer.flush();
+        }
+    }
+
+    /**
+     * @return short names of the experiments that were processed successfully according to the journal, by ID; empty if
+     *         it does not exist.
+     * @throws IOException if the journal could not be read
+     */
+    static Map<Long, String> readCompleted( File file ) throws IOException {
+        Map<Long, String> completed = new HashMap<>();
+        if ( !file.exists() ) {
+            return completed;
+        }
+        for ( String line : Files.readAllLines( file.toPath(), StandardCharsets.UTF_8 ) ) {
+            String[] fields = line.split( "\t" );
+            if ( fields.length < 5 ) {
+                continue;
+            }
+            try {
+                Long id = Long.parseLong( fields[0] );
+                if ( CheckpointJournal.OK.equals( fields[2] ) ) {
+                    completed.put( id, fields[1] );
+                } else {
+                    // a later failure supersedes an earlier success
+                    completed.remove( id );
+                }
+            } catch ( NumberFormatException e ) {
+                // not a journal line
+            }
+        }
+        return completed;
+    }
+
+    /**
+     * @return true if the experiment is listed as processed successfully, by both its ID and its short name.
+     */
+    static boolean isCompleted( Map<Long, String> completed, ExpressionExperiment ee ) {
+        String shortName = completed.get( ee.getId() );
+        return shortName != null && shortName.equals( ee.getShortName() );
+    }
+
+    /**
+     * Record that an experiment is done; the journal is flushed right away.
+     */
+    synchronized void record( ExpressionExperiment ee, boolean success, long millis ) throws IOException {
+        writer.write( ee.getId() + "\t" + ee.getShortName() + "\t" + ( success ?
+                CheckpointJournal.OK :
+                CheckpointJournal.ERROR ) + "\t" + millis + "\t" + System.currentTimeMillis() );
+        writer.newLine();
+        writer.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        writer.close();
+    }
+
+    private static boolean endsWithPartialLine( File file ) throws IOException {
+        if ( !file.exists() || file.length() == 0 ) {
+            return false;
+        }
+        try ( RandomAccessFile raf = new RandomAccessFile( file, "r" ) ) {
+            raf.seek( raf.length() - 1 );
+            return raf.read() != '\n';
+        }
+    }
+}
@@ -33,7 +33,6 @@ import ubic.gemma.core.analysis.util.ExperimentalDesignUtils;
 import ubic.gemma.core.util.AbstractCLI;
 import ubic.gemma.model.analysis.expression.diff.DifferentialExpressionAnalysis;
 import ubic.gemma.model.common.auditAndSecurity.eventType.DifferentialExpressionAnalysisEvent;
-import ubic.gemma.model.expression.experiment.BioAssaySet;
 import ubic.gemma.model.expression.experiment.ExperimentalFactor;
 import ubic.gemma.model.expression.experiment.ExperimentalFactorValueObject;
 import ubic.gemma.model.expression.experiment.ExpressionExperiment;
@@ -87,11 +86,7 @@ public class DifferentialExpressionAnalysisCli extends ExpressionExperimentManip
     protected void doWork() throws Exception {
         SecurityService securityService = this.getBean( SecurityService.class );
 
-        for ( BioAssaySet ee : expressionExperiments ) {
-            if ( !( ee instanceof ExpressionExperiment ) ) {
-                continue;
-            }
-
+        this.processExpressionExperiments( expressionExperiments, ee -> {
             if ( expressionExperiments.size() > 1 ) {
                 AbstractCLI.log.info( ">>>>>> Begin processing: " + ee );
             }
@@ -103,11 +98,11 @@ public class DifferentialExpressionAnalysisCli extends ExpressionExperimentManip
 //
 //            if ( !securityService.isOwnedByCurrentUser( ee ) && this.expressionExperiments.size() > 1 ) {
 //                AbstractCLI.log.warn( "Experiment is not owned by current user, skipping: " + ee );
-//                continue;
+//                return;
 //            }
 
-            this.processExperiment( ( ExpressionExperiment ) ee );
-        }
+            this.processExperiment( ee );
+        } );
     }
 
     @Override
@@ -131,6 +126,8 @@ public class DifferentialExpressionAnalysisCli extends ExpressionExperimentManip
         super.addAutoOption( options );
         this.autoSeekEventType = DifferentialExpressionAnalysisEvent.class;
         super.addForceOption( options );
+        super.addThreadsOption( options );
+        super.addCheckpointOptions( options );
 
         Option factors = Option.builder( "factors" ).hasArg().desc(
                         "ID numbers, categories or names of the factor(s) to use, comma-delimited, with spaces replaced by underscores" )
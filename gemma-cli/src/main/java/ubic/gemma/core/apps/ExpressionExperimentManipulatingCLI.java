@@ -22,6 +22,8 @@ import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.time.DurationFormatUtils;
+import org.apache.commons.lang3.time.StopWatch;
 import ubic.gemma.core.apps.GemmaCLI.CommandGroup;
 import ubic.gemma.core.genome.gene.service.GeneService;
 import ubic.gemma.core.search.SearchException;
@@ -41,9 +43,12 @@ import ubic.gemma.persistence.service.expression.arrayDesign.ArrayDesignService;
 import ubic.gemma.persistence.service.expression.experiment.ExpressionExperimentService;
 import ubic.gemma.persistence.service.expression.experiment.ExpressionExperimentSetService;
 import ubic.gemma.persistence.service.genome.taxon.TaxonService;
+import ubic.gemma.persistence.util.Settings;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.Callable;
 import java.util.stream.Collectors;
 
 /**
@@ -63,10 +68,24 @@ import java.util.stream.Collectors;
  * Some of these options can be (or should be) combined, and modified by a (optional) "force" option, and will have
  * customized behavior.
  * In addition, EEs can be excluded based on a list given in a separate file.
+ * <p>
+ * Subclasses that use {@link #processExpressionExperiments(Collection, ExperimentTask)} can process several experiments
+ * at once (with the threads option) and resume an interrupted run (with the checkpoint options).
+ * </p>
  *
  * @author Paul
  */
 public abstract class ExpressionExperimentManipulatingCLI extends AbstractCLIContextCLI {
+
+    /**
+     * Rough number of database connections used while processing one experiment, which bounds how many experiments can
+     * be processed at once without exhausting the connection pool.
+     */
+    private static final int CONNECTIONS_PER_EXPERIMENT = 4;
+
+    private static final String CHECKPOINT_OPTION = "checkpoint";
+    private static final String RESUME_OPTION = "resume";
+
     ExpressionExperimentService eeService;
     Set<BioAssaySet> expressionExperiments = new HashSet<>();
     private boolean allowProcessingAll = true;
@@ -100,6 +119,8 @@ public abstract class ExpressionExperimentManipulatingCLI extends AbstractCLICon
     private TaxonService taxonService;
     private GeneService geneService;
     private SearchService searchService;
+    private File checkpointFile = null;
+    private boolean resume = false;
 
     @Override
     public CommandGroup getCommandGroup() {
@@ -168,6 +189,31 @@ public abstract class ExpressionExperimentManipulatingCLI extends AbstractCLICon
             this.force = true;
         }
 
+        if ( commandLine.hasOption( AbstractCLI.THREADS_OPTION ) ) {
+            this.numThreads = this.getIntegerOptionValue( commandLine, AbstractCLI.THREADS_OPTION );
+            if ( this.numThreads < 1 ) {
+                throw new IllegalArgumentException( "Number of threads must be at least 1." );
+            }
+            int maxThreads = Math.max( 1, Settings.getInt( "gemma.db.maxtotal", 75 )
+                    / ExpressionExperimentManipulatingCLI.CONNECTIONS_PER_EXPERIMENT );
+            if ( this.numThreads > maxThreads ) {
+                AbstractCLI.log.warn( "Using " + maxThreads + " threads instead of " + this.numThreads
+                        + ", to leave enough database connections for each; see gemma.db.maxtotal" );
+                this.numThreads = maxThreads;
+            }
+        }
+
+        if ( commandLine.hasOption( ExpressionExperimentManipulatingCLI.CHECKPOINT_OPTION ) ) {
+            this.checkpointFile = new File(
+                    commandLine.getOptionValue( ExpressionExperimentManipulatingCLI.CHECKPOINT_OPTION ) );
+        }
+        if ( commandLine.hasOption( ExpressionExperimentManipulatingCLI.RESUME_OPTION ) ) {
+            if ( this.checkpointFile == null ) {
+                throw new IllegalArgumentException( "The resume option requires a checkpoint file" );
+            }
+            this.resume = true;
+        }
+
         if ( commandLine.hasOption( "eeset" ) ) {
             this.experimentsFromEeSet( commandLine.getOptionValue( "eeset" ) );
         } else if ( commandLine.hasOption( 'e' ) ) {
@@ -399,6 +445,164 @@ public abstract class ExpressionExperimentManipulatingCLI extends AbstractCLICon
                 .collect( Collectors.toSet() );
     }
 
+    /**
+     * Process the given experiments, several at once if more than one thread was asked for. Each experiment is processed
+     * by itself: there is no transaction spanning several experiments, so the services called by the task each run in
+     * their own, and a failure only affects the experiment it happened on. Exceptions thrown by the task are recorded
+     * as errors; otherwise the task records its own results.
+     * <p>
+     * Progress is logged as each experiment is done, with the throughput and the estimated time left, and the time
+     * taken by each experiment is reported at the end. If a checkpoint file was given, each finished experiment is
+     * written to it, and with the resume option, the experiments it lists as successfully processed are skipped.
+     * </p>
+     *
+     * @param ees  experiments to process; other kinds of BioAssaySets are skipped
+     * @param task the work to do for each experiment
+     * @throws InterruptedException if interrupted while waiting for the experiments to be processed
+     * @throws IOException          if the checkpoint file could not be read or opened
+     */
+    protected void processExpressionExperiments( Collection<? extends BioAssaySet> ees, final ExperimentTask task )
+            throws InterruptedException, IOException {
+        Map<Long, String> completed = this.resume ?
+                CheckpointJournal.readCompleted( this.checkpointFile ) :
+                Collections.<Long, String>emptyMap();
+
+        List<ExpressionExperiment> todo = new ArrayList<>( ees.size() );
+        for ( BioAssaySet bas : ees ) {
+            if ( !( bas instanceof ExpressionExperiment ) ) {
+                AbstractCLI.log.debug( bas + " is not an ExpressionExperiment, skipping" );
+            } else if ( !CheckpointJournal.isCompleted( completed, ( ExpressionExperiment ) bas ) ) {
+                todo.add( ( ExpressionExperiment ) bas );
+            }
+        }
+        if ( todo.size() < ees.size() && !completed.isEmpty() ) {
+            AbstractCLI.log.info( "Resuming from " + this.checkpointFile + ": " + ( ees.size() - todo.size() )
+                    + " experiments were already done, " + todo.size() + " left" );
+        }
+
+        try ( CheckpointJournal journal = this.checkpointFile == null ?
+                null :
+                new CheckpointJournal( this.checkpointFile, this.resume ) ) {
+            final BatchProgress progress = new BatchProgress( todo.size(), journal );
+
+            if ( this.numThreads > 1 && todo.size() > 1 ) {
+                AbstractCLI.log.info( "Processing " + todo.size() + " experiments with " + this.numThreads + " threads" );
+                List<Callable<Void>> tasks = new ArrayList<>( todo.size() );
+                for ( final ExpressionExperiment ee : todo ) {
+                    tasks.add( () -> {
+                        this.processExpressionExperiment( ee, task, progress );
+                        return null;
+                    } );
+                }
+                this.executeBatchTasks( tasks );
+            } else {
+                for ( ExpressionExperiment ee : todo ) {
+                    this.processExpressionExperiment( ee, task, progress );
+                }
+            }
+
+            progress.summarize();
+        }
+    }
+
+    /**
+     * Same as giving the checkpoint option, and the resume option if requested.
+     */
+    void setCheckpointFile( File checkpointFile, boolean resume ) {
+        this.checkpointFile = checkpointFile;
+        this.resume = resume;
+    }
+
+    /**
+     * Add the options for writing a checkpoint file and resuming from it, for subclasses that use
+     * {@link #processExpressionExperiments(Collection, ExperimentTask)}.
+     */
+    protected void addCheckpointOptions( Options options ) {
+        options.addOption( Option.builder( ExpressionExperimentManipulatingCLI.CHECKPOINT_OPTION ).hasArg()
+                .argName( "file" )
+                .desc( "Record each experiment in this file as soon as it is processed, so the run can be resumed" )
+                .build() );
+        options.addOption( Option.builder( ExpressionExperimentManipulatingCLI.RESUME_OPTION )
+                .desc( "Skip the experiments that the checkpoint file lists as successfully processed, "
+                        + "and add to it instead of starting over" )
+                .build() );
+    }
+
+    private void processExpressionExperiment( ExpressionExperiment ee, ExperimentTask task, BatchProgress progress ) {
+        StopWatch timer = StopWatch.createStarted();
+        try {
+            task.process( ee );
+        } catch ( Exception e ) {
+            this.addErrorObject( ee, e.getMessage(), e );
+        } finally {
+            progress.done( ee, !this.hasErrorObject( ee ), timer.getTime() );
+        }
+    }
+
+    /**
+     * Keeps track of the progress of {@link #processExpressionExperiments(Collection, ExperimentTask)}.
+     */
+    private class BatchProgress {
+
+        private final int total;
+        private final CheckpointJournal journal;
+        private final StopWatch timer = StopWatch.createStarted();
+        private final Map<ExpressionExperiment, Long> timings = new HashMap<>();
+
+        private BatchProgress( int total, CheckpointJournal journal ) {
+            this.total = total;
+            this.journal = journal;
+        }
+
+        private void done( ExpressionExperiment ee, boolean success, long millis ) {
+            if ( journal != null ) {
+                try {
+                    journal.record( ee, success, millis );
+                } catch ( IOException e ) {
+                    AbstractCLI.log.error( "Could not record " + ee.getShortName() + " in the checkpoint file", e );
+                }
+            }
+
+            int count;
+            synchronized ( this ) {
+                timings.put( ee, millis );
+                count = timings.size();
+            }
+            long elapsed = timer.getTime();
+            double perHour = count * 3600000.0 / Math.max( 1, elapsed );
+            long remaining = ( long ) ( ( total - count ) * ( double ) elapsed / count );
+            AbstractCLI.log.info( String.format( "Done with %s in %.1f s; %d/%d experiments, %.1f per hour, "
+                            + "about %s left", ee.getShortName(), millis / 1000.0, count, total, perHour,
+                    DurationFormatUtils.formatDuration( remaining, "H:mm:ss" ) ) );
+        }
+
+        private synchronized void summarize() {
+            if ( timings.size() < 2 ) {
+                return;
+            }
+            List<Map.Entry<ExpressionExperiment, Long>> sorted = new ArrayList<>( timings.entrySet() );
+            sorted.sort( Map.Entry.<ExpressionExperiment, Long>comparingByValue().reversed() );
+            long sum = 0;
+            StringBuilder buf = new StringBuilder();
+            for ( Map.Entry<ExpressionExperiment, Long> e : sorted ) {
+                sum += e.getValue();
+                buf.append( String.format( "%s\t%.1f s\n", e.getKey().getShortName(), e.getValue() / 1000.0 ) );
+            }
+            AbstractCLI.log.info( String.format( "\n---------------------\nTime spent on %d experiments: %.1f s in total, "
+                            + "%.1f s elapsed with %d threads\n%s---------------------", sorted.size(), sum / 1000.0,
+                    timer.getTime() / 1000.0, numThreads, buf ) );
+        }
+    }
+
+    /**
+     * The work done on one experiment by {@link #processExpressionExperiments(Collection, ExperimentTask)}. It may be
+     * called from several threads at once, so it must not modify state shared between experiments.
+     */
+    @FunctionalInterface
+    protected interface ExperimentTask {
+        void process( ExpressionExperiment ee ) throws Exception;
+    }
+
     /**
      * Disable the ability for this CLI to process all experiments when no other specification is given.
      * The user must explicitly define the experiments to be processed.
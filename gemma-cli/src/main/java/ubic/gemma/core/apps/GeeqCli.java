@@ -29,8 +29,6 @@ import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
 import ubic.gemma.core.util.AbstractCLI;
 import ubic.gemma.model.common.auditAndSecurity.eventType.GeeqEvent;
-import ubic.gemma.model.expression.experiment.BioAssaySet;
-import ubic.gemma.model.expression.experiment.ExpressionExperiment;
 import ubic.gemma.persistence.service.expression.experiment.ExpressionExperimentService;
 import ubic.gemma.persistence.service.expression.experiment.GeeqService;
 
@@ -75,6 +73,8 @@ public class GeeqCli extends ExpressionExperimentManipulatingCLI {
         super.addDateOption( options );
         this.autoSeekEventType = GeeqEvent.class;
         super.addForceOption( options );
+        super.addThreadsOption( options );
+        super.addCheckpointOptions( options );
 
         Option modeOption = Option.builder( "m" ).longOpt( "mode" )
                 .desc( "If specified, switches the scoring mode. By default the mode is set to 'all'" //
@@ -89,24 +89,14 @@ public class GeeqCli extends ExpressionExperimentManipulatingCLI {
 
     @Override
     protected void doWork() throws Exception {
-        for ( BioAssaySet bioassay : expressionExperiments ) {
-            if ( !( bioassay instanceof ExpressionExperiment ) ) {
-                log.debug( bioassay.getName() + " is not an ExpressionExperiment" );
-                continue;
-            }
-            ExpressionExperiment ee = ( ExpressionExperiment ) bioassay;
-
+        this.processExpressionExperiments( expressionExperiments, ee -> {
             if ( !force && this.noNeedToRun( ee, GeeqEvent.class ) ) {
                 AbstractCLI.log.debug( "Can't or don't need to run " + ee );
-                continue;
+                return;
             }
 
-            try {
-                geeqService.calculateScore( ee.getId(), mode );
-                addSuccessObject( ee, "Successfully processed " + ee );
-            } catch ( Exception e ) {
-                addErrorObject( ee, " failed: " + e.getMessage(), e );
-            }
-        }
+            geeqService.calculateScore( ee.getId(), mode );
+            addSuccessObject( ee, "Successfully processed " + ee );
+        } );
     }
 }
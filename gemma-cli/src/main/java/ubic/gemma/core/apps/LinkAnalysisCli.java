@@ -183,12 +183,11 @@ public class LinkAnalysisCli extends ExpressionExperimentManipulatingCLI {
             }
 
             for ( BioAssaySet ee : sees ) {
-                if ( ee instanceof ExpressionExperiment ) {
-                    this.processExperiment( ( ExpressionExperiment ) ee );
-                } else {
+                if ( !( ee instanceof ExpressionExperiment ) ) {
                     throw new UnsupportedOperationException( "Can't handle non-EE BioAssaySets yet" );
                 }
             }
+            this.processExpressionExperiments( sees, this::processExperiment );
         }
     }
 
@@ -295,6 +294,11 @@ public class LinkAnalysisCli extends ExpressionExperimentManipulatingCLI {
                 .build();
         options.addOption( skipQC );
 
+        Option streamingOption = Option.builder( "streaming" ).desc(
+                "Don't cache correlations between passes over the data, recomputing them instead; "
+                        + "uses much less memory for large data sets" ).build();
+        options.addOption( streamingOption );
+
         Option deleteOption = Option.builder( "delete" ).desc(
                 "Delete analyses for selected experiments, instead of doing analysis; supersedes all other options" )
                 .build();
@@ -302,6 +306,8 @@ public class LinkAnalysisCli extends ExpressionExperimentManipulatingCLI {
 
         this.addForceOption( options );
         this.addAutoOption( options );
+        this.addThreadsOption( options );
+        this.addCheckpointOptions( options );
     }
 
     @Override
@@ -423,6 +429,19 @@ public class LinkAnalysisCli extends ExpressionExperimentManipulatingCLI {
             }
         }
 
+        if ( commandLine.hasOption( "streaming" ) ) {
+            this.linkAnalysisConfig.setStreaming( true );
+        }
+
+        if ( commandLine.hasOption( AbstractCLI.THREADS_OPTION ) ) {
+            this.linkAnalysisConfig.setNumThreads( this.getIntegerOptionValue( commandLine, AbstractCLI.THREADS_OPTION ) );
+            /*
+             * The threads are for computing the correlations; data sets are still done one at a time, largest first, as
+             * the configuration is shared and doing them in order reduces the fragmentation of the link tables.
+             */
+            this.numThreads = 1;
+        }
+
         if ( commandLine.hasOption( "probeDegreeLim" ) ) {
             this.linkAnalysisConfig.setProbeDegreeThreshold( this.getIntegerOptionValue( commandLine, "probeDegreeLim" ) );
         }
@@ -25,7 +25,6 @@ import ubic.gemma.core.analysis.preprocess.PreprocessingException;
 import ubic.gemma.core.analysis.preprocess.PreprocessorService;
 import ubic.gemma.core.analysis.preprocess.ProcessedExpressionDataVectorCreateHelperService;
 import ubic.gemma.core.util.AbstractCLI;
-import ubic.gemma.model.expression.experiment.BioAssaySet;
 import ubic.gemma.model.expression.experiment.ExpressionExperiment;
 import ubic.gemma.persistence.service.common.auditAndSecurity.AuditTrailService;
 import ubic.gemma.persistence.service.expression.bioAssayData.ProcessedExpressionDataVectorServiceImpl;
@@ -59,6 +58,8 @@ public class ProcessedDataComputeCLI extends ExpressionExperimentManipulatingCLI
 
         super.addForceOption( options );
         this.addDateOption( options );
+        this.addThreadsOption( options );
+        this.addCheckpointOptions( options );
 
         options.addOption( "diagupdate",
                 "Only update the diagnostics without recomputing data (PCA, M-V, sample correlation, GEEQ; may be combined with other options)" );
@@ -98,9 +99,7 @@ public class ProcessedDataComputeCLI extends ExpressionExperimentManipulatingCLI
             return;
         }
 
-        for ( BioAssaySet ee : expressionExperiments ) {
-            this.processExperiment( ( ExpressionExperiment ) ee );
-        }
+        this.processExpressionExperiments( expressionExperiments, this::processExperiment );
     }
 
     @Override
@@ -20,19 +20,22 @@
 package ubic.gemma.core.apps;
 
 import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
 import ubic.gemma.core.analysis.preprocess.svd.SVDService;
 import ubic.gemma.core.apps.GemmaCLI.CommandGroup;
 import ubic.gemma.core.util.AbstractCLI;
 import ubic.gemma.model.common.auditAndSecurity.eventType.PCAAnalysisEvent;
-import ubic.gemma.model.expression.experiment.BioAssaySet;
-import ubic.gemma.model.expression.experiment.ExpressionExperiment;
 
 /**
  * @author paul
  */
 public class SVDCli extends ExpressionExperimentManipulatingCLI {
 
+    private static final String COMPONENTS_OPTION = "components";
+
+    private Integer numComponents = null;
+
     @Override
     public String getShortDesc() {
         return "Run PCA (using SVD) on data sets";
@@ -47,6 +50,20 @@ public class SVDCli extends ExpressionExperimentManipulatingCLI {
     protected void buildOptions( Options options ) {
         super.buildOptions( options );
         super.addForceOption( options );
+        super.addThreadsOption( options );
+        super.addCheckpointOptions( options );
+        options.addOption( Option.builder( SVDCli.COMPONENTS_OPTION ).hasArg().argName( "number" )
+                .desc( "Only compute this many components, with a truncated SVD; 0 for all of them. "
+                        + "Default is set by gemma.svd.components" )
+                .build() );
+    }
+
+    @Override
+    protected void processOptions( CommandLine commandLine ) {
+        super.processOptions( commandLine );
+        if ( commandLine.hasOption( SVDCli.COMPONENTS_OPTION ) ) {
+            this.numComponents = this.getIntegerOptionValue( commandLine, SVDCli.COMPONENTS_OPTION );
+        }
     }
 
     @Override
@@ -56,26 +73,24 @@ public class SVDCli extends ExpressionExperimentManipulatingCLI {
 
     @Override
     protected void doWork() throws Exception {
-        SVDService svdService = this.getBean( SVDService.class );
-
-        for ( BioAssaySet bas : this.expressionExperiments ) {
+        final SVDService svdService = this.getBean( SVDService.class );
 
-            if ( !force && this.noNeedToRun( bas, PCAAnalysisEvent.class ) ) {
-                addErrorObject( bas, "Already has PCA; use -force to override" );
-                continue;
+        this.processExpressionExperiments( this.expressionExperiments, ee -> {
+            if ( !force && this.noNeedToRun( ee, PCAAnalysisEvent.class ) ) {
+                addErrorObject( ee, "Already has PCA; use -force to override" );
+                return;
             }
 
-            try {
-                AbstractCLI.log.info( "Processing: " + bas );
-                ExpressionExperiment ee = ( ExpressionExperiment ) bas;
+            AbstractCLI.log.info( "Processing: " + ee );
 
+            if ( numComponents != null ) {
+                svdService.svd( ee.getId(), numComponents );
+            } else {
                 svdService.svd( ee.getId() );
-
-                addSuccessObject( bas, "Successfully processed " + bas );
-            } catch ( Exception e ) {
-                addErrorObject( bas, e.getMessage(), e );
             }
-        }
+
+            addSuccessObject( ee, "Successfully processed " + ee );
+        } );
     }
 
 }
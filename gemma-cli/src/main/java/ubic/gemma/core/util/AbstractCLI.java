@@ -101,6 +101,7 @@ public abstract class AbstractCLI implements CLI {
     // needs to be concurrently modifiable and kept in-order
     private final List<BatchProcessingResult> errorObjects = Collections.synchronizedList( new ArrayList<BatchProcessingResult>() );
     private final List<BatchProcessingResult> successObjects = Collections.synchronizedList( new ArrayList<BatchProcessingResult>() );
+    private final Set<Object> errorSources = ConcurrentHashMap.newKeySet();
 
     /**
      * Run the command.
@@ -403,6 +404,9 @@ public abstract class AbstractCLI implements CLI {
      */
     protected void addErrorObject( Object errorObject, String message, Throwable throwable ) {
         errorObjects.add( new BatchProcessingResult( errorObject, message ) );
+        if ( errorObject != null ) {
+            errorSources.add( errorObject );
+        }
         log.error( errorObject + ": " + message, throwable );
     }
 
@@ -413,9 +417,19 @@ public abstract class AbstractCLI implements CLI {
      */
     protected void addErrorObject( Object errorObject, String message ) {
         errorObjects.add( new BatchProcessingResult( errorObject, message ) );
+        if ( errorObject != null ) {
+            errorSources.add( errorObject );
+        }
         log.error( errorObject + ": " + message );
     }
 
+    /**
+     * @return true if an error was added for the given object.
+     */
+    protected boolean hasErrorObject( Object errorObject ) {
+        return errorSources.contains( errorObject );
+    }
+
     /**
      * Print out a summary of what the program did. Useful when analyzing lists of experiments etc. Use the
      * 'successObjects' and 'errorObjects'
@@ -456,6 +470,12 @@ public abstract class AbstractCLI implements CLI {
      * @throws InterruptedException
      */
     protected <T> List<T> executeBatchTasks( Collection<? extends Callable<T>> tasks ) throws InterruptedException {
+        // created here rather than with the standard options, as subclasses set the number of threads afterwards
+        synchronized ( this ) {
+            if ( executorService == null ) {
+                executorService = new ForkJoinPool( this.numThreads );
+            }
+        }
         List<Future<T>> futures = executorService.invokeAll( tasks );
         List<T> futureResults = new ArrayList<>( futures.size() );
         for ( Future<T> future : futures ) {
@@ -554,7 +574,6 @@ public abstract class AbstractCLI implements CLI {
         if ( this.numThreads < 1 ) {
             throw new IllegalArgumentException( "Number of threads must be greater than 1." );
         }
-        this.executorService = new ForkJoinPool( this.numThreads );
     }
 
     private static Level toLog4jLevel( int level ) {
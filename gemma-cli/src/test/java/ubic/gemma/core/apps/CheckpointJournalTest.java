@@ -0,0 +1,127 @@
+/*
+ * The Gemma project
+ *
+ * Copyright (c) 2026 University of British Columbia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ubic.gemma.core.apps;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import ubic.gemma.model.expression.experiment.ExpressionExperiment;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author agent
+ */
+public class CheckpointJournalTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile( "checkpoint", ".txt" );
+    }
+
+    @After
+    public void tearDown() {
+        if ( !file.delete() ) {
+            file.deleteOnExit();
+        }
+    }
+
+    @Test
+    public void testRecordAndRead() throws IOException {
+        try ( CheckpointJournal journal = new CheckpointJournal( file, false ) ) {
+            journal.record( CheckpointJournalTest.ee( 1L, "GSE1" ), true, 10 );
+            journal.record( CheckpointJournalTest.ee( 2L, "GSE2" ), false, 20 );
+            journal.record( CheckpointJournalTest.ee( 3L, "GSE3" ), true, 30 );
+            journal.record( CheckpointJournalTest.ee( 3L, "GSE3" ), false, 30 );
+        }
+        Map<Long, String> completed = CheckpointJournal.readCompleted( file );
+        assertEquals( 1, completed.size() );
+        assertEquals( "GSE1", completed.get( 1L ) );
+        assertTrue( CheckpointJournal.isCompleted( completed, CheckpointJournalTest.ee( 1L, "GSE1" ) ) );
+        assertFalse( CheckpointJournal.isCompleted( completed, CheckpointJournalTest.ee( 2L, "GSE2" ) ) );
+        assertFalse( CheckpointJournal.isCompleted( completed, CheckpointJournalTest.ee( 1L, "GSE100" ) ) );
+    }
+
+    @Test
+    public void testMissingFile() throws IOException {
+        assertTrue( file.delete() );
+        assertTrue( CheckpointJournal.readCompleted( file ).isEmpty() );
+    }
+
+    @Test
+    public void testNotAppending() throws IOException {
+        try ( CheckpointJournal journal = new CheckpointJournal( file, false ) ) {
+            journal.record( CheckpointJournalTest.ee( 1L, "GSE1" ), true, 10 );
+        }
+        try ( CheckpointJournal journal = new CheckpointJournal( file, false ) ) {
+            journal.record( CheckpointJournalTest.ee( 2L, "GSE2" ), true, 10 );
+        }
+        Map<Long, String> completed = CheckpointJournal.readCompleted( file );
+        assertEquals( 1, completed.size() );
+        assertTrue( completed.containsKey( 2L ) );
+    }
+
+    /**
+     * A run killed while writing a line leaves it without a newline; appending must not continue it.
+     */
+    @Test
+    public void testAppendAfterTruncatedLine() throws IOException {
+        try ( CheckpointJournal journal = new CheckpointJournal( file, false ) ) {
+            journal.record( CheckpointJournalTest.ee( 1L, "GSE1" ), true, 10 );
+        }
+        Files.write( file.toPath(), "12".getBytes( StandardCharsets.UTF_8 ), StandardOpenOption.APPEND );
+
+        try ( CheckpointJournal journal = new CheckpointJournal( file, true ) ) {
+            journal.record( CheckpointJournalTest.ee( 456L, "GSE456" ), true, 10 );
+        }
+
+        Map<Long, String> completed = CheckpointJournal.readCompleted( file );
+        assertEquals( 2, completed.size() );
+        assertEquals( "GSE1", completed.get( 1L ) );
+        assertEquals( "GSE456", completed.get( 456L ) );
+        assertFalse( completed.containsKey( 12456L ) );
+        assertEquals( 3, Files.readAllLines( file.toPath(), StandardCharsets.UTF_8 ).size() );
+    }
+
+    /**
+     * Even if a damaged line reads as another experiment's ID, the short name doesn't match it.
+     */
+    @Test
+    public void testShortNameMustMatch() throws IOException {
+        Files.write( file.toPath(), "12456\tGSE456\tOK\t10\t0\n".getBytes( StandardCharsets.UTF_8 ) );
+        Map<Long, String> completed = CheckpointJournal.readCompleted( file );
+        assertFalse( CheckpointJournal.isCompleted( completed, CheckpointJournalTest.ee( 12456L, "GSE12456" ) ) );
+    }
+
+    static ExpressionExperiment ee( Long id, String shortName ) {
+        ExpressionExperiment ee = ExpressionExperiment.Factory.newInstance();
+        ee.setId( id );
+        ee.setShortName( shortName );
+        return ee;
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * The Gemma project
+ *
+ * Copyright (c) 2026 University of British Columbia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ubic.gemma.core.apps;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import ubic.gemma.model.expression.experiment.BioAssaySet;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for running a task over experiments with
+ * {@link ExpressionExperimentManipulatingCLI#processExpressionExperiments}.
+ *
+ * @author agent
+ */
+public class ExpressionExperimentManipulatingCLITest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile( "checkpoint", ".txt" );
+    }
+
+    @After
+    public void tearDown() {
+        if ( !file.delete() ) {
+            file.deleteOnExit();
+        }
+    }
+
+    @Test
+    public void testProcessAndResume() throws Exception {
+        List<BioAssaySet> ees = new ArrayList<>();
+        for ( long i = 1; i <= 6; i++ ) {
+            ees.add( CheckpointJournalTest.ee( i, "GSE" + i ) );
+        }
+
+        final Set<Long> processed = Collections.synchronizedSet( new HashSet<Long>() );
+        TestCli cli = new TestCli( 3 );
+        cli.setCheckpointFile( file, false );
+        cli.processExpressionExperiments( ees, ee -> {
+            processed.add( ee.getId() );
+            if ( ee.getId() % 2 == 0 ) {
+                throw new IllegalStateException( "failed on purpose" );
+            }
+        } );
+        assertEquals( 6, processed.size() );
+        assertTrue( cli.hasErrorObject( ees.get( 1 ) ) );
+        assertFalse( cli.hasErrorObject( ees.get( 0 ) ) );
+        assertEquals( new HashSet<>( Arrays.asList( 1L, 3L, 5L ) ),
+                CheckpointJournal.readCompleted( file ).keySet() );
+
+        // only the ones that failed are done again
+        processed.clear();
+        cli = new TestCli( 1 );
+        cli.setCheckpointFile( file, true );
+        cli.processExpressionExperiments( ees, ee -> processed.add( ee.getId() ) );
+        assertEquals( new HashSet<>( Arrays.asList( 2L, 4L, 6L ) ), processed );
+        assertEquals( 6, CheckpointJournal.readCompleted( file ).size() );
+    }
+
+    @Test
+    public void testWithoutCheckpoint() throws Exception {
+        List<BioAssaySet> ees = new ArrayList<>();
+        for ( long i = 1; i <= 3; i++ ) {
+            ees.add( CheckpointJournalTest.ee( i, "GSE" + i ) );
+        }
+        final List<Long> processed = new ArrayList<>();
+        new TestCli( 1 ).processExpressionExperiments( ees, ee -> processed.add( ee.getId() ) );
+        assertEquals( Arrays.asList( 1L, 2L, 3L ), processed );
+    }
+
+    private static class TestCli extends ExpressionExperimentManipulatingCLI {
+
+        private TestCli( int numThreads ) {
+            this.numThreads = numThreads;
+        }
+
+        @Override
+        public String getCommandName() {
+            return "test";
+        }
+
+        @Override
+        protected void doWork() {
+        }
+
+        @Override
+        protected boolean hasErrorObject( Object errorObject ) {
+            return super.hasErrorObject( errorObject );
+        }
+    }
+}
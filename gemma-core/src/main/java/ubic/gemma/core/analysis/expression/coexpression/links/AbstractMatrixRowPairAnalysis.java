@@ -20,13 +20,12 @@ package ubic.gemma.core.analysis.expression.coexpression.links;
 
 import cern.colt.bitvector.BitMatrix;
 import cern.colt.list.DoubleArrayList;
-import cern.colt.list.ObjectArrayList;
+import cern.colt.list.IntArrayList;
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.time.StopWatch;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import ubic.basecode.dataStructure.Link;
 import ubic.basecode.dataStructure.matrix.CompressedSparseDoubleMatrix;
 import ubic.basecode.dataStructure.matrix.Matrix2D;
 import ubic.basecode.math.CorrelationStats;
@@ -56,7 +55,7 @@ public abstract class AbstractMatrixRowPairAnalysis implements MatrixRowPairAnal
     BitMatrix used = null;
     Map<Gene, Collection<CompositeSequence>> geneToProbeMap = null;
     boolean[] hasMissing = null;
-    ObjectArrayList keepers = null;
+    LinkList keepers = null;
     /**
      * If fewer than this number values are available, the correlation is rejected. This helps keep the correlation
      * distribution reasonable. This is primarily relevant when there are missing values in the data, but to be
@@ -79,7 +78,19 @@ public abstract class AbstractMatrixRowPairAnalysis implements MatrixRowPairAnal
     private boolean usePvalueThreshold = true;
     private long crossHybridizationRejections = 0;
     private int numUniqueGenes = 0;
+    /**
+     * Values gathered by workers that are to go in the results once all the workers are done; workers read the
+     * results, so they cannot be written to in the meantime.
+     */
+    private final IntArrayList pendingRows = new IntArrayList();
+    private final IntArrayList pendingColumns = new IntArrayList();
+    private final DoubleArrayList pendingValues = new DoubleArrayList();
     private boolean omitNegativeCorrelationLinks = false;
+    /**
+     * Number of threads to use for the correlation pass; when more than one, the blocked kernel is used, if the
+     * implementation provides one.
+     */
+    int numThreads = 1;
 
     /**
      * Read back the histogram as a DoubleArrayList of counts.
@@ -98,10 +109,10 @@ public abstract class AbstractMatrixRowPairAnalysis implements MatrixRowPairAnal
     /**
      * Identify the correlations that are above the set thresholds.
      *
-     * @return cern.colt.list.ObjectArrayList
+     * @return the retained links
      */
     @Override
-    public ObjectArrayList getKeepers() {
+    public LinkList getKeepers() {
         return keepers;
     }
 
@@ -123,7 +134,7 @@ public abstract class AbstractMatrixRowPairAnalysis implements MatrixRowPairAnal
      */
     @Override
     public int numCached() {
-        return results.cardinality();
+        return results == null ? 0 : results.cardinality();
     }
 
     @Override
@@ -209,6 +220,14 @@ public abstract class AbstractMatrixRowPairAnalysis implements MatrixRowPairAnal
         return usePvalueThreshold;
     }
 
+    @Override
+    public void setNumThreads( int numThreads ) {
+        if ( numThreads < 1 ) {
+            throw new IllegalArgumentException( "Number of threads must be at least 1." );
+        }
+        this.numThreads = numThreads;
+    }
+
     /**
      * @param usePvalueThreshold the usePvalueThreshold to set
      */
@@ -262,7 +281,7 @@ public abstract class AbstractMatrixRowPairAnalysis implements MatrixRowPairAnal
      * Flag the correlation matrix as un-fillable. This means that when PearsonMatrix is called, only the histogram will
      * be filled in. Also trashes any values that might have been stored there.
      */
-    @SuppressWarnings("unused") // Possible external use
+    @Override
     public void nullMatrix() {
         results = null;
     }
@@ -364,11 +383,21 @@ public abstract class AbstractMatrixRowPairAnalysis implements MatrixRowPairAnal
             return;
         }
 
+        if ( this.isKeeper( i, j, correl, numused ) ) {
+            keepers.add( i, j, correl );
+        }
+
+    }
+
+    /**
+     * @return true if the correlation passes the set thresholds.
+     */
+    boolean isKeeper( int i, int j, double correl, int numused ) {
         if ( Double.isNaN( correl ) )
-            return;
+            return false;
 
         if ( omitNegativeCorrelationLinks && correl < 0.0 ) {
-            return;
+            return false;
         }
 
         double acorrel = Math.abs( correl );
@@ -382,13 +411,12 @@ public abstract class AbstractMatrixRowPairAnalysis implements MatrixRowPairAnal
 
         if ( upperTailThreshold != 0.0 && c >= upperTailThreshold && ( !this.usePvalueThreshold
                 || this.correctedPvalue( i, j, correl, numused ) <= this.pValueThreshold ) ) {
-
-            keepers.add( new Link( i, j, correl ) );
-        } else if ( !useAbsoluteValue && lowerTailThreshold != 0.0 && c <= lowerTailThreshold && (
-                !this.usePvalueThreshold || this.correctedPvalue( i, j, correl, numused ) <= this.pValueThreshold ) ) {
-            keepers.add( new Link( i, j, correl ) );
+            return true;
+        } else {
+            return !useAbsoluteValue && lowerTailThreshold != 0.0 && c <= lowerTailThreshold && (
+                    !this.usePvalueThreshold
+                            || this.correctedPvalue( i, j, correl, numused ) <= this.pValueThreshold );
         }
-
     }
 
     /**
@@ -469,35 +497,14 @@ public abstract class AbstractMatrixRowPairAnalysis implements MatrixRowPairAnal
         if ( Double.isNaN( correl ) )
             return;
 
-        if ( correl < -1.00001 || correl > 1.00001 ) {
-            throw new IllegalArgumentException( "Correlation out of valid range: " + correl );
-        }
-
-        if ( correl < -1.0 ) {
-            correl = -1.0;
-        } else if ( correl > 1.0 ) {
-            correl = 1.0;
-        }
+        correl = this.checkCorrelationRange( correl );
 
         double acorrel = Math.abs( correl );
 
-        // it is possible, due to roundoff, to overflow the bins.
-        int lastBinIndex = fastHistogram.length - 1;
         if ( !histogramIsFilled ) {
-
-            if ( useAbsoluteValue ) {
-                int bin = Math
-                        .min( ( int ) ( ( 1.0 + acorrel ) * AbstractMatrixRowPairAnalysis.HALF_BIN ), lastBinIndex );
-                fastHistogram[bin]++;
-                globalTotal += acorrel;
-                // histogram.fill( acorrel ); // this is suprisingly slow due to zillions of calls to Math.floor.
-            } else {
-                globalTotal += correl;
-                int bin = Math
-                        .min( ( int ) ( ( 1.0 + correl ) * AbstractMatrixRowPairAnalysis.HALF_BIN ), lastBinIndex );
-                fastHistogram[bin]++;
-                // histogram.fill( correl );
-            }
+            fastHistogram[this.histogramBin( correl )]++;
+            // histogram.fill( correl ); // this is suprisingly slow due to zillions of calls to Math.floor.
+            globalTotal += useAbsoluteValue ? acorrel : correl;
             numVals++;
         }
 
@@ -509,6 +516,53 @@ public abstract class AbstractMatrixRowPairAnalysis implements MatrixRowPairAnal
 
     }
 
+    /**
+     * Fold the values gathered by one worker of a multithreaded computation back into this. Accumulators should be
+     * merged in row order so that the keepers come out in the same order as a sequential pass. The values to cache
+     * are only put in the results by {@link #storePendingResults()}, once no worker is running.
+     */
+    void merge( CorrelationAccumulator accumulator ) {
+        if ( !histogramIsFilled ) {
+            for ( int k = 0; k < fastHistogram.length; k++ ) {
+                fastHistogram[k] += accumulator.histogram[k];
+            }
+            globalTotal += accumulator.total;
+            numVals += accumulator.numVals;
+        }
+        crossHybridizationRejections += accumulator.crossHybridizationRejections;
+
+        if ( results != null ) {
+            for ( int k = 0, n = accumulator.cachedRows.size(); k < n; k++ ) {
+                pendingRows.add( accumulator.cachedRows.get( k ) );
+                pendingColumns.add( accumulator.cachedColumns.get( k ) );
+                pendingValues.add( accumulator.cachedValues.get( k ) );
+            }
+        }
+
+        if ( keepers != null ) {
+            accumulator.keepers.sort();
+            keepers.addAll( accumulator.keepers );
+        }
+    }
+
+    /**
+     * Put the values gathered by {@link #merge(CorrelationAccumulator)} in the results. Must not be called while
+     * workers are running.
+     */
+    void storePendingResults() {
+        if ( results != null ) {
+            for ( int k = 0, n = pendingRows.size(); k < n; k++ ) {
+                results.set( pendingRows.get( k ), pendingColumns.get( k ), pendingValues.get( k ) );
+            }
+        }
+        pendingRows.clear();
+        pendingColumns.clear();
+        pendingValues.clear();
+        pendingRows.trimToSize();
+        pendingColumns.trimToSize();
+        pendingValues.trimToSize();
+    }
+
     /**
      * Set an (absolute value) correlation, below which values are not maintained in the correlation matrix. They are
      * still kept in the histogram. (In some implementations this can greatly reduce the memory requirements for the
@@ -528,9 +582,8 @@ public abstract class AbstractMatrixRowPairAnalysis implements MatrixRowPairAnal
             itemB = this.dataMatrix.getRowElement( j );
             if ( !this.hasGene( itemB ) )
                 continue;
-            if ( !docalcs || results.get( i, j ) != 0.0 ) { // second pass over matrix. Don't calculate it
-                // if we
-                // already have it. Just do the requisite checks.
+            // second pass over matrix. Don't calculate it if we already have it. Just do the requisite checks.
+            if ( !docalcs || ( results != null && results.get( i, j ) != 0.0 ) ) {
                 this.keepCorrellation( i, j, results.get( i, j ), numcols );
                 continue;
             }
@@ -543,6 +596,30 @@ public abstract class AbstractMatrixRowPairAnalysis implements MatrixRowPairAnal
         return numComputed;
     }
 
+    /**
+     * @return the correlation, clamped to [-1, 1] to guard against roundoff.
+     * @throws IllegalArgumentException if the value is too far out of range to be attributed to roundoff.
+     */
+    private double checkCorrelationRange( double correl ) {
+        if ( correl < -1.00001 || correl > 1.00001 ) {
+            throw new IllegalArgumentException( "Correlation out of valid range: " + correl );
+        }
+
+        if ( correl < -1.0 ) {
+            return -1.0;
+        } else if ( correl > 1.0 ) {
+            return 1.0;
+        }
+        return correl;
+    }
+
+    private int histogramBin( double correl ) {
+        // it is possible, due to roundoff, to overflow the bins.
+        int lastBinIndex = fastHistogram.length - 1;
+        double c = useAbsoluteValue ? Math.abs( correl ) : correl;
+        return Math.min( ( int ) ( ( 1.0 + c ) * AbstractMatrixRowPairAnalysis.HALF_BIN ), lastBinIndex );
+    }
+
     /**
      * Initialize caches.
      */
@@ -649,4 +726,57 @@ public abstract class AbstractMatrixRowPairAnalysis implements MatrixRowPairAnal
         }
         return testCount;
     }
+
+    /**
+     * Thread-confined counterpart of {@link #setCorrel(int, int, double, int)}, used by workers of a multithreaded
+     * computation. The histogram, the values to cache and the keepers are gathered locally and folded back with
+     * {@link #merge(CorrelationAccumulator)} once the worker is done.
+     */
+    class CorrelationAccumulator {
+        private final int[] histogram = new int[MatrixRowPairAnalysis.NUM_BINS];
+        private final IntArrayList cachedRows = new IntArrayList();
+        private final IntArrayList cachedColumns = new IntArrayList();
+        private final DoubleArrayList cachedValues = new DoubleArrayList();
+        private final LinkList keepers = new LinkList();
+        private double total = 0.0;
+        private int numVals = 0;
+        private long crossHybridizationRejections = 0;
+
+        void setCorrel( int i, int j, double correl, int numused ) {
+            if ( AbstractMatrixRowPairAnalysis.this.crossHybridizes( i, j ) ) {
+                crossHybridizationRejections++;
+                return;
+            }
+
+            if ( Double.isNaN( correl ) )
+                return;
+
+            correl = AbstractMatrixRowPairAnalysis.this.checkCorrelationRange( correl );
+
+            double acorrel = Math.abs( correl );
+
+            if ( !histogramIsFilled ) {
+                histogram[AbstractMatrixRowPairAnalysis.this.histogramBin( correl )]++;
+                total += useAbsoluteValue ? acorrel : correl;
+                numVals++;
+            }
+
+            if ( acorrel > storageThresholdValue && results != null ) {
+                cachedRows.add( i );
+                cachedColumns.add( j );
+                cachedValues.add( correl );
+            }
+
+            this.keepCorrellation( i, j, correl, numused );
+        }
+
+        void keepCorrellation( int i, int j, double correl, int numused ) {
+            if ( AbstractMatrixRowPairAnalysis.this.keepers == null ) {
+                return;
+            }
+            if ( AbstractMatrixRowPairAnalysis.this.isKeeper( i, j, correl, numused ) ) {
+                keepers.add( i, j, correl );
+            }
+        }
+    }
 }
@@ -19,10 +19,8 @@
 package ubic.gemma.core.analysis.expression.coexpression.links;
 
 import cern.colt.list.DoubleArrayList;
-import cern.colt.list.ObjectArrayList;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import ubic.basecode.dataStructure.Link;
 import ubic.basecode.dataStructure.matrix.MatrixUtil;
 import ubic.basecode.io.ByteArrayConverter;
 import ubic.basecode.math.CorrelationStats;
@@ -59,7 +57,7 @@ public class LinkAnalysis {
     private BioAssaySet expressionExperiment;
     private NumberFormat form;
 
-    private ObjectArrayList keep; // links that are retained.
+    private LinkList keep; // links that are retained.
 
     private MatrixRowPairAnalysis metricMatrix;
     private Map<Integer, Integer> probeDegreeMap = new HashMap<>();
@@ -191,7 +189,7 @@ public class LinkAnalysis {
         return genes;
     }
 
-    public ObjectArrayList getKeep() {
+    public LinkList getKeep() {
         return keep;
     }
 
@@ -249,10 +247,16 @@ public class LinkAnalysis {
             metricMatrix = new SpearmanMetrics( dataMatrix, config.getCorrelationCacheThreshold() );
         }
 
+        if ( config.isStreaming() ) {
+            LinkAnalysis.log.info( "Correlations will not be cached between passes" );
+            metricMatrix.nullMatrix();
+        }
+
         metricMatrix.setMinNumpresent( config.getMinNumPresent() );
         metricMatrix.setOmitNegativeCorrelationLinks( config.isOmitNegLinks() );
         metricMatrix.setDuplicateMap( probeToGeneMap ); // populates numUniqueGenes
         metricMatrix.setUseAbsoluteValue( config.isAbsoluteValue() );
+        metricMatrix.setNumThreads( config.getNumThreads() );
         this.init();
 
         metricMatrix.calculateMetrics();
@@ -386,9 +390,8 @@ public class LinkAnalysis {
         }
 
         for ( int i = 0; i < keep.size(); i++ ) {
-            Link l = ( Link ) keep.get( i );
-            Integer x = l.getx();
-            Integer y = l.gety();
+            Integer x = keep.getx( i );
+            Integer y = keep.gety( i );
 
             probeDegreeMap.put( x, probeDegreeMap.get( x ) + 1 );
             probeDegreeMap.put( y, probeDegreeMap.get( y ) + 1 );
@@ -67,6 +67,10 @@ public class LinkAnalysisConfig implements Serializable {
      */
     private int minNumPresent = AbstractMatrixRowPairAnalysis.HARD_LIMIT_MIN_NUM_USED;
     private NormalizationMethod normalizationMethod = NormalizationMethod.none;
+    /**
+     * How many threads to use for computing the correlations.
+     */
+    private int numThreads = Runtime.getRuntime().availableProcessors();
     /**
      * Remove negative correlated values at the end.
      */
@@ -80,6 +84,12 @@ public class LinkAnalysisConfig implements Serializable {
      */
     private int probeDegreeThreshold = DEFAULT_PROBE_DEGREE_THRESHOLD;
     private SingularThreshold singularThreshold = SingularThreshold.none; // fwe|cdfCut
+    /**
+     * If true, correlations are not cached between the first pass over the data (which fills the histogram) and the
+     * second (which selects links): they are computed again. Only the retained links are kept in memory, which allows
+     * analyzing large matrices at the cost of computing the correlations twice.
+     */
+    private boolean streaming = false;
     private boolean subset = false;
     private double subsetSize = 0.0;
     private boolean subsetUsed = false;
@@ -175,6 +185,14 @@ public class LinkAnalysisConfig implements Serializable {
         this.normalizationMethod = normalizationMethod;
     }
 
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    public void setNumThreads( int numThreads ) {
+        this.numThreads = numThreads;
+    }
+
     public File getOutputFile() {
         return outputFile;
     }
@@ -281,6 +299,14 @@ public class LinkAnalysisConfig implements Serializable {
         this.omitNegLinks = omitNegLinks;
     }
 
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    public void setStreaming( boolean streaming ) {
+        this.streaming = streaming;
+    }
+
     public boolean isSubset() {
         return subset;
     }
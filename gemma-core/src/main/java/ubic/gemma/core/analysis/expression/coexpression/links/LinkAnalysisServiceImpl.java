@@ -18,7 +18,6 @@
  */
 package ubic.gemma.core.analysis.expression.coexpression.links;
 
-import cern.colt.list.ObjectArrayList;
 import cern.colt.matrix.DoubleMatrix1D;
 import cern.colt.matrix.impl.DenseDoubleMatrix1D;
 import cern.jet.math.Functions;
@@ -28,7 +27,6 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
-import ubic.basecode.dataStructure.Link;
 import ubic.basecode.io.ByteArrayConverter;
 import ubic.gemma.core.analysis.preprocess.InsufficientProbesException;
 import ubic.gemma.core.analysis.preprocess.OutlierDetails;
@@ -531,7 +529,7 @@ public class LinkAnalysisServiceImpl implements LinkAnalysisService {
      */
     private void writeLinks( final LinkAnalysis la, FilterConfig filterConfig, Writer wr ) throws IOException {
         Map<CompositeSequence, Set<Gene>> probeToGeneMap = la.getProbeToGeneMap();
-        ObjectArrayList links = la.getKeep();
+        LinkList links = la.getKeep();
         double subsetSize = la.getConfig().getSubsetSize();
         List<String> buf = new ArrayList<>();
         if ( la.getConfig().isSubset() && links.size() > subsetSize ) {
@@ -552,14 +550,10 @@ public class LinkAnalysisServiceImpl implements LinkAnalysisService {
         int skippedDueToDegree = 0;
         for ( int n = links.size(); i < n; i++ ) {
 
-            Object val = links.getQuick( i );
-            if ( val == null )
-                continue;
-            Link m = ( Link ) val;
-            Double w = m.getWeight();
+            double w = links.getWeight( i );
 
-            int x = m.getx();
-            int y = m.gety();
+            int x = links.getx( i );
+            int y = links.gety( i );
 
             if ( probeDegreeThreshold > 0 && ( la.getProbeDegree( x ) > probeDegreeThreshold
                     || la.getProbeDegree( y ) > probeDegreeThreshold ) ) {
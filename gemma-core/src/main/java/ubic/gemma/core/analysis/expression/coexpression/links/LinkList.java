@@ -0,0 +1,141 @@
+/*
+ * The Gemma project
+ *
+ * Copyright (c) 2026 University of British Columbia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ubic.gemma.core.analysis.expression.coexpression.links;
+
+import cern.colt.GenericSorting;
+import ubic.basecode.dataStructure.Link;
+
+import java.util.Arrays;
+
+/**
+ * Append-only list of links between rows of a matrix, kept in primitive arrays. Each link costs 16 bytes, a fraction
+ * of what a list of {@link Link} objects needs, which matters when millions of links are retained.
+ *
+ * @author agent
+ */
+public class LinkList {
+
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    private int[] x;
+    private int[] y;
+    private double[] weights;
+    private int size = 0;
+
+    public LinkList() {
+        this( LinkList.DEFAULT_CAPACITY );
+    }
+
+    public LinkList( int initialCapacity ) {
+        this.x = new int[initialCapacity];
+        this.y = new int[initialCapacity];
+        this.weights = new double[initialCapacity];
+    }
+
+    public void add( int i, int j, double weight ) {
+        this.ensureCapacity( size + 1 );
+        x[size] = i;
+        y[size] = j;
+        weights[size] = weight;
+        size++;
+    }
+
+    public void addAll( LinkList other ) {
+        this.ensureCapacity( size + other.size );
+        System.arraycopy( other.x, 0, x, size, other.size );
+        System.arraycopy( other.y, 0, y, size, other.size );
+        System.arraycopy( other.weights, 0, weights, size, other.size );
+        size += other.size;
+    }
+
+    /**
+     * @return a new {@link Link} for the link at the given position.
+     */
+    public Link get( int index ) {
+        this.checkIndex( index );
+        return new Link( x[index], y[index], weights[index] );
+    }
+
+    public int getx( int index ) {
+        this.checkIndex( index );
+        return x[index];
+    }
+
+    public int gety( int index ) {
+        this.checkIndex( index );
+        return y[index];
+    }
+
+    public double getWeight( int index ) {
+        this.checkIndex( index );
+        return weights[index];
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Sort the links by row, then by column; that is, the order in which a pass over the upper triangle visits them.
+     */
+    public void sort() {
+        GenericSorting.mergeSort( 0, size, ( a, b ) -> {
+            int c = Integer.compare( x[a], x[b] );
+            return c != 0 ? c : Integer.compare( y[a], y[b] );
+        }, ( a, b ) -> {
+            int t = x[a];
+            x[a] = x[b];
+            x[b] = t;
+            t = y[a];
+            y[a] = y[b];
+            y[b] = t;
+            double w = weights[a];
+            weights[a] = weights[b];
+            weights[b] = w;
+        } );
+    }
+
+    /**
+     * Release the unused capacity.
+     */
+    public void trimToSize() {
+        x = Arrays.copyOf( x, size );
+        y = Arrays.copyOf( y, size );
+        weights = Arrays.copyOf( weights, size );
+    }
+
+    private void checkIndex( int index ) {
+        if ( index < 0 || index >= size ) {
+            throw new IndexOutOfBoundsException( "Index: " + index + ", size: " + size );
+        }
+    }
+
+    private void ensureCapacity( int minCapacity ) {
+        if ( minCapacity <= x.length )
+            return;
+        int newCapacity = Math.max( minCapacity, Math.max( x.length + ( x.length >> 1 ), LinkList.DEFAULT_CAPACITY ) );
+        x = Arrays.copyOf( x, newCapacity );
+        y = Arrays.copyOf( y, newCapacity );
+        weights = Arrays.copyOf( weights, newCapacity );
+    }
+}
@@ -19,7 +19,6 @@
 package ubic.gemma.core.analysis.expression.coexpression.links;
 
 import cern.colt.list.DoubleArrayList;
-import cern.colt.list.ObjectArrayList;
 import ubic.gemma.core.datastructure.matrix.ExpressionDataMatrixRowElement;
 import ubic.gemma.model.common.quantitationtype.QuantitationType;
 import ubic.gemma.model.expression.designElement.CompositeSequence;
@@ -36,14 +35,26 @@ public interface MatrixRowPairAnalysis {
 
     void calculateMetrics();
     DoubleArrayList getHistogramArrayList();
-    ObjectArrayList getKeepers();
+    LinkList getKeepers();
     QuantitationType getMetricType();
     CompositeSequence getProbeForRow( ExpressionDataMatrixRowElement rowEl );
     double getScoreInBin( int i );
     int numCached();
+
+    /**
+     * Don't cache correlations between passes over the data; the second pass recomputes them instead. Memory is then
+     * proportional to the number of links retained rather than the number of pairs.
+     */
+    void nullMatrix();
     void setDuplicateMap( Map<CompositeSequence, Set<Gene>> probeToGeneMap );
     void setLowerTailThreshold( double k );
     void setMinNumpresent( int minSamplesToKeepCorrelation );
+
+    /**
+     * @param numThreads how many threads to use when computing the correlations; default is 1.
+     */
+    void setNumThreads( int numThreads );
+
     void setOmitNegativeCorrelationLinks( boolean omitNegativeCorrelationLinks );
     void setPValueThreshold( double k );
     void setUpperTailThreshold( double k );
@@ -18,7 +18,6 @@
  */
 package ubic.gemma.core.analysis.expression.coexpression.links;
 
-import cern.colt.list.ObjectArrayList;
 import org.apache.commons.lang3.time.StopWatch;
 import ubic.basecode.dataStructure.matrix.CompressedSparseDoubleMatrix;
 import ubic.basecode.math.Constants;
@@ -26,6 +25,11 @@ import ubic.gemma.core.datastructure.matrix.ExpressionDataDoubleMatrix;
 import ubic.gemma.core.datastructure.matrix.ExpressionDataMatrixRowElement;
 import ubic.gemma.model.common.quantitationtype.*;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+
 /**
  * A correlation analysis for a given data set, designed for selection of values based on criteria set by the user.
  * On the first pass over the data, a histogram is filled in to hold the distribution of the values found. You can set
@@ -41,6 +45,12 @@ import ubic.gemma.model.common.quantitationtype.*;
 @SuppressWarnings({ "unused", "WeakerAccess" }) // Possible external use
 public class PearsonMetrics extends AbstractMatrixRowPairAnalysis {
 
+    /**
+     * Number of rows in a tile for the blocked computation. A tile's worth of centered rows fits comfortably in the L2
+     * cache for typical numbers of samples, and tiles are small enough to balance the load over the upper triangle.
+     */
+    static final int TILE_SIZE = 64;
+
     double[] rowMeans = null;
     double[] rowSumSquaresSqrt = null;
 
@@ -70,7 +80,7 @@ public class PearsonMetrics extends AbstractMatrixRowPairAnalysis {
         if ( size > 0 ) {
             results = new CompressedSparseDoubleMatrix<>( size, size );
         }
-        keepers = new ObjectArrayList();
+        keepers = new LinkList();
     }
 
     /**
@@ -140,7 +150,7 @@ public class PearsonMetrics extends AbstractMatrixRowPairAnalysis {
                     continue;
 
                 // second pass over matrix? Don't calculate it if we already have it. Just do the requisite checks.
-                if ( !docalcs || results.get( i, j ) != 0.0 ) {
+                if ( !docalcs || ( results != null && results.get( i, j ) != 0.0 ) ) {
                     this.keepCorrellation( i, j, results.get( i, j ), numcols );
                     continue;
                 }
@@ -284,6 +294,146 @@ public class PearsonMetrics extends AbstractMatrixRowPairAnalysis {
         return c;
     }
 
+    /**
+     * When more than one thread is requested, the pass over the upper triangle is done with the blocked kernel.
+     */
+    @Override
+    int computeMetrics( int numrows, int numcols, boolean docalcs, StopWatch timer, int skipped, int numComputed,
+            double[][] data ) {
+        if ( !docalcs || this.numThreads <= 1 ) {
+            return super.computeMetrics( numrows, numcols, docalcs, timer, skipped, numComputed, data );
+        }
+        return skipped + this.computeMetricsBlocked( numrows, numcols, data );
+    }
+
+    /**
+     * Multithreaded, cache-blocked pass over the upper triangle, for data without missing values. Rows are centered
+     * once so each pair reduces to a dot product over a tile of rows that stays in cache. The arithmetic is done in the
+     * same order as {@link #correlFast(double[], double[], double, double, double, double)}, and the workers' results
+     * are merged in row order, so the histogram and keepers are identical to those of the single-threaded pass.
+     *
+     * @return how many rows were skipped for lack of a gene
+     * @throws CancellationException if the thread was interrupted; the results are then incomplete.
+     */
+    private int computeMetricsBlocked( int numrows, int numcols, double[][] data ) {
+        int[] rows = new int[numrows];
+        int numRowsUsed = 0;
+        double[][] centered = new double[numrows][];
+        for ( int i = 0; i < numrows; i++ ) {
+            if ( !this.hasGene( this.dataMatrix.getRowElement( i ) ) ) {
+                continue;
+            }
+            rows[numRowsUsed++] = i;
+            // rows with no variance are left null; their correlations are NaN.
+            if ( rowSumSquaresSqrt[i] >= Constants.SMALL ) {
+                double[] c = new double[numcols];
+                for ( int k = 0; k < numcols; k++ ) {
+                    c[k] = data[i][k] - rowMeans[i];
+                }
+                centered[i] = c;
+            }
+        }
+        final int[] rowsUsed = Arrays.copyOf( rows, numRowsUsed );
+
+        int numTiles = ( numRowsUsed + PearsonMetrics.TILE_SIZE - 1 ) / PearsonMetrics.TILE_SIZE;
+        List<Callable<CorrelationAccumulator>> tasks = new ArrayList<>( numTiles );
+        for ( int t = 0; t < numTiles; t++ ) {
+            final int tile = t;
+            tasks.add( () -> this.computeTileRow( rowsUsed, centered, numcols, tile ) );
+        }
+
+        AbstractMatrixRowPairAnalysis.log
+                .info( "Computing correlations for " + numRowsUsed + " rows in " + numTiles + " tiles using "
+                        + this.numThreads + " threads" );
+        StopWatch timer = StopWatch.createStarted();
+        ExecutorService executor = new ForkJoinPool( this.numThreads );
+        try {
+            // tiles are submitted in row order, and merged in the same order.
+            List<Future<CorrelationAccumulator>> futures = new ArrayList<>( numTiles );
+            for ( Callable<CorrelationAccumulator> task : tasks ) {
+                futures.add( executor.submit( task ) );
+            }
+            int tilesDone = 0;
+            for ( Future<CorrelationAccumulator> future : futures ) {
+                this.merge( future.get() );
+                if ( ++tilesDone % 100 == 0 ) {
+                    AbstractMatrixRowPairAnalysis.log
+                            .info( String.format( "%d/%d tiles done, %d scores retained, %.2fs elapsed", tilesDone,
+                                    numTiles, keepers.size(), timer.getTime() / 1000.0 ) );
+                }
+            }
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException( "Interrupted while computing correlations" );
+        } catch ( ExecutionException e ) {
+            throw new RuntimeException( e.getCause() );
+        } finally {
+            executor.shutdownNow();
+        }
+        // workers read the results, so they must all be stopped before it is written to.
+        try {
+            executor.awaitTermination( Long.MAX_VALUE, TimeUnit.MILLISECONDS );
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException( "Interrupted while computing correlations" );
+        }
+        this.storePendingResults();
+        return numrows - numRowsUsed;
+    }
+
+    /**
+     * Compute the correlations of one tile row of the upper triangle, going over the tiles to its right.
+     */
+    private CorrelationAccumulator computeTileRow( int[] rows, double[][] centered, int numcols, int tile ) {
+        CorrelationAccumulator accumulator = new CorrelationAccumulator();
+        int iStart = tile * PearsonMetrics.TILE_SIZE;
+        int iEnd = Math.min( iStart + PearsonMetrics.TILE_SIZE, rows.length );
+        for ( int jStart = iStart; jStart < rows.length; jStart += PearsonMetrics.TILE_SIZE ) {
+            int jEnd = Math.min( jStart + PearsonMetrics.TILE_SIZE, rows.length );
+            for ( int a = iStart; a < iEnd; a++ ) {
+                int i = rows[a];
+                double[] ci = centered[i];
+                for ( int b = Math.max( jStart, a + 1 ); b < jEnd; b++ ) {
+                    int j = rows[b];
+                    // second pass over matrix? Don't calculate it if we already have it.
+                    if ( results != null && results.get( i, j ) != 0.0 ) {
+                        accumulator.keepCorrellation( i, j, results.get( i, j ), numcols );
+                        continue;
+                    }
+                    accumulator.setCorrel( i, j, this.correlCentered( ci, centered[j], i, j ), numcols );
+                }
+            }
+        }
+        return accumulator;
+    }
+
+    /**
+     * Equivalent of {@link #correlFast(double[], double[], int, int)} for rows that were already centered.
+     *
+     * @param ci centered row i, or null if it has no variance
+     * @param cj centered row j, or null if it has no variance
+     */
+    private double correlCentered( double[] ci, double[] cj, int i, int j ) {
+        if ( ci == null || cj == null )
+            return Double.NaN;
+        double sxy = 0.0;
+        for ( int k = 0, n = ci.length; k < n; k++ ) {
+            sxy += ci[k] * cj[k];
+        }
+        double c = sxy / ( rowSumSquaresSqrt[i] * rowSumSquaresSqrt[j] );
+
+        assert c > -1.0001 && c < 1.0001 : c;
+
+        // roundoff guard
+        if ( c < -1.0 ) {
+            c = -1.0;
+        } else if ( c > 1.0 ) {
+            c = 1.0;
+        }
+
+        return c;
+    }
+
     /**
      * Calculate a linear correlation matrix for a matrix. Use this if you know there are no missing values, or don't
      * care about NaNs. Rows that are not mapped to genes are skipped.
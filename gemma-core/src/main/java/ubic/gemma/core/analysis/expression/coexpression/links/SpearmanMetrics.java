@@ -19,7 +19,6 @@
 package ubic.gemma.core.analysis.expression.coexpression.links;
 
 import cern.colt.list.DoubleArrayList;
-import cern.colt.list.ObjectArrayList;
 import org.apache.commons.lang3.time.StopWatch;
 import ubic.basecode.dataStructure.matrix.CompressedSparseDoubleMatrix;
 import ubic.basecode.math.CorrelationStats;
@@ -65,7 +64,7 @@ public class SpearmanMetrics extends PearsonMetrics {
         if ( size > 0 ) {
             results = new CompressedSparseDoubleMatrix<>( size, size );
         }
-        keepers = new ObjectArrayList();
+        keepers = new LinkList();
     }
 
     /**
@@ -125,7 +124,7 @@ public class SpearmanMetrics extends PearsonMetrics {
                     continue;
 
                 // second pass over matrix? Don't calculate it if we already have it. Just do the requisite checks.
-                if ( !doCalcs || results.get( i, j ) != 0.0 ) {
+                if ( !doCalcs || ( results != null && results.get( i, j ) != 0.0 ) ) {
                     this.keepCorrellation( i, j, results.get( i, j ), numcols );
                     continue;
                 }
@@ -72,6 +72,8 @@ public class DifferentialExpressionAnalyzerServiceImpl implements DifferentialEx
     private ExpressionExperimentService expressionExperimentService;
     @Autowired
     private ExpressionAnalysisResultSetService expressionAnalysisResultSetService;
+    @Autowired
+    private DifferentialExpressionResultColumnsService differentialExpressionResultColumnsService;
 
     @Override
     public int deleteAnalyses( ExpressionExperiment expressionExperiment ) {
@@ -90,6 +92,7 @@ public class DifferentialExpressionAnalyzerServiceImpl implements DifferentialEx
             DifferentialExpressionAnalyzerServiceImpl.log
                     .info( "Deleting old differential expression analysis for experiment " + expressionExperiment
                             .getShortName() + ": Analysis ID=" + de.getId() );
+            this.deleteResultSetColumns( de );
             differentialExpressionAnalysisService.remove( de );
 
             this.deleteStatistics( expressionExperiment, de );
@@ -106,6 +109,7 @@ public class DifferentialExpressionAnalyzerServiceImpl implements DifferentialEx
         DifferentialExpressionAnalyzerServiceImpl.log
                 .info( "Deleting old differential expression analysis for experiment " + expressionExperiment
                         .getShortName() + " Analysis ID=" + existingAnalysis.getId() );
+        this.deleteResultSetColumns( existingAnalysis );
         differentialExpressionAnalysisService.remove( existingAnalysis );
 
         this.deleteStatistics( expressionExperiment, existingAnalysis );
@@ -241,6 +245,11 @@ public class DifferentialExpressionAnalyzerServiceImpl implements DifferentialEx
         DifferentialExpressionAnalyzerServiceImpl.log.info( "Saving results" );
         helperService.addResults( persistentAnalysis, resultSets );
 
+        // now that the results have IDs, keep a columnar copy for exports and top hits
+        for ( ExpressionAnalysisResultSet rs : resultSets ) {
+            differentialExpressionResultColumnsService.write( rs );
+        }
+
         // get a clean copy of the analysis object from the DB.
         analysis = differentialExpressionAnalysisService.load( analysis.getId() );
         // we do this here because now we have IDs for everything.
@@ -351,6 +360,16 @@ public class DifferentialExpressionAnalyzerServiceImpl implements DifferentialEx
         return config;
     }
 
+    /**
+     * Delete the files with the results of each result set as columns, if they were written.
+     */
+    private void deleteResultSetColumns( DifferentialExpressionAnalysis analysis ) {
+        differentialExpressionAnalysisService.thaw( analysis );
+        for ( ExpressionAnalysisResultSet rs : analysis.getResultSets() ) {
+            differentialExpressionResultColumnsService.delete( rs.getId() );
+        }
+    }
+
     /**
      * Delete any flat files that might have been generated.
      */
@@ -405,6 +424,9 @@ public class DifferentialExpressionAnalyzerServiceImpl implements DifferentialEx
     private void extendResultSet( ExpressionAnalysisResultSet oldrs, ExpressionAnalysisResultSet temprs ) {
         assert oldrs.getId() != null;
 
+        // the columns no longer match the results; readers will use the database
+        differentialExpressionResultColumnsService.delete( oldrs.getId() );
+
         /*
          * Copy the results over.
          */
@@ -31,6 +31,7 @@ public class DifferentialExpressionFileUtils {
 
     public static final String PVALUE_DIST_SUFFIX = ".dist.txt";
     private static final String PVALUE_DIST = "diff" + File.separatorChar + "diffExStatDistributions";
+    private static final String RESULT_SET_COLUMNS = "diff" + File.separatorChar + "resultSetColumns";
     private static final Log log = LogFactory.getLog( DifferentialExpressionFileUtils.class );
     private static final String analysisStoragePath = Settings.getAnalysisStoragePath();
 
@@ -50,4 +51,13 @@ public class DifferentialExpressionFileUtils {
         return f;
     }
 
+    /**
+     * @param  resultSetId id of the result set
+     * @return file holding the columns of the result set, see {@link DifferentialExpressionResultColumnsService}.
+     */
+    public static File getResultSetColumnsFile( Long resultSetId ) {
+        return new File( DifferentialExpressionFileUtils.analysisStoragePath + File.separatorChar
+                + DifferentialExpressionFileUtils.RESULT_SET_COLUMNS + File.separatorChar + resultSetId + ".bin" );
+    }
+
 }
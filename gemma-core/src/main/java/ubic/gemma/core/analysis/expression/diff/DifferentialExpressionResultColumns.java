@@ -0,0 +1,393 @@
+/*
+ * The Gemma project
+ *
+ * Copyright (c) 2026 University of British Columbia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package ubic.gemma.core.analysis.expression.diff;
+
+import ubic.gemma.model.analysis.expression.diff.ContrastResult;
+import ubic.gemma.model.analysis.expression.diff.DifferentialExpressionAnalysisResult;
+import ubic.gemma.model.analysis.expression.diff.ExpressionAnalysisResultSet;
+import ubic.gemma.model.expression.experiment.FactorValue;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * The results of an {@link ExpressionAnalysisResultSet} held as one primitive array per column instead of one
+ * {@link DifferentialExpressionAnalysisResult} and its {@link ContrastResult}s per probe. Rows are sorted by corrected
+ * p-value, so the top hits are a prefix. Missing values are NaN, and missing IDs are -1.
+ * <p>
+ * They are stored in a simple binary format, see {@link #write(DataOutputStream)}; if it changes,
+ * {@link #FORMAT_VERSION} must be incremented so files in the old format are not misread.
+ *
+ * @author agent
+ * @see DifferentialExpressionResultColumnsService
+ */
+public class DifferentialExpressionResultColumns {
+
+    /**
+     * Start of the stored format, "DERC".
+     */
+    private static final int MAGIC = 0x44455243;
+
+    private static final int FORMAT_VERSION = 1;
+
+    private static final long NONE = -1L;
+
+    private final Long resultSetId;
+
+    private final long[] resultIds;
+    private final long[] probeIds;
+    private final String[] probeNames;
+    private final double[] pvalues;
+    private final double[] correctedPvalues;
+    private final double[] ranks;
+
+    /**
+     * Factor values of each contrast, in the order they are displayed: by ID of the first, then of the second factor
+     * value.
+     */
+    private final long[] factorValueIds;
+    private final long[] secondFactorValueIds;
+
+    /**
+     * Indexed by contrast, then by row.
+     */
+    private final long[][] contrastIds;
+    private final double[][] logFoldChanges;
+    private final double[][] tstats;
+    private final double[][] contrastPvalues;
+
+    private DifferentialExpressionResultColumns( Long resultSetId, int numRows, int numContrasts ) {
+        this.resultSetId = resultSetId;
+        this.resultIds = new long[numRows];
+        this.probeIds = new long[numRows];
+        this.probeNames = new String[numRows];
+        this.pvalues = new double[numRows];
+        this.correctedPvalues = new double[numRows];
+        this.ranks = new double[numRows];
+        this.factorValueIds = new long[numContrasts];
+        this.secondFactorValueIds = new long[numContrasts];
+        this.contrastIds = new long[numContrasts][numRows];
+        this.logFoldChanges = new double[numContrasts][numRows];
+        this.tstats = new double[numContrasts][numRows];
+        this.contrastPvalues = new double[numContrasts][numRows];
+    }
+
+    /**
+     * @param  resultSet a persistent result set, with its results, their probes and contrasts
+     * @return           the results of the result set, as columns.
+     */
+    public static DifferentialExpressionResultColumns fromResultSet( ExpressionAnalysisResultSet resultSet ) {
+        List<DifferentialExpressionAnalysisResult> results = new ArrayList<>( resultSet.getResults() );
+        results.sort( Comparator.comparing( DifferentialExpressionAnalysisResult::getCorrectedPvalue,
+                        Comparator.nullsLast( Comparator.naturalOrder() ) )
+                .thenComparing( DifferentialExpressionAnalysisResult::getPvalue,
+                        Comparator.nullsLast( Comparator.naturalOrder() ) )
+                .thenComparing( DifferentialExpressionAnalysisResult::getId ) );
+
+        // all the combinations of factor values, not only those of the first result, since some may be missing
+        SortedSet<List<Long>> factorValuePairs = new TreeSet<>( Comparator
+                .comparing( ( List<Long> p ) -> DifferentialExpressionResultColumns.lastIfNone( p.get( 0 ) ) )
+                .thenComparing( p -> DifferentialExpressionResultColumns.lastIfNone( p.get( 1 ) ) ) );
+        for ( DifferentialExpressionAnalysisResult r : results ) {
+            for ( ContrastResult c : r.getContrasts() ) {
+                factorValuePairs.add( DifferentialExpressionResultColumns.factorValuePair( c ) );
+            }
+        }
+        Map<List<Long>, Integer> contrastIndices = new HashMap<>();
+        for ( List<Long> pair : factorValuePairs ) {
+            contrastIndices.put( pair, contrastIndices.size() );
+        }
+
+        DifferentialExpressionResultColumns columns = new DifferentialExpressionResultColumns( resultSet.getId(),
+                results.size(), contrastIndices.size() );
+        for ( Map.Entry<List<Long>, Integer> e : contrastIndices.entrySet() ) {
+            columns.factorValueIds[e.getValue()] = e.getKey().get( 0 );
+            columns.secondFactorValueIds[e.getValue()] = e.getKey().get( 1 );
+            Arrays.fill( columns.contrastIds[e.getValue()], DifferentialExpressionResultColumns.NONE );
+            Arrays.fill( columns.logFoldChanges[e.getValue()], Double.NaN );
+            Arrays.fill( columns.tstats[e.getValue()], Double.NaN );
+            Arrays.fill( columns.contrastPvalues[e.getValue()], Double.NaN );
+        }
+
+        int i = 0;
+        for ( DifferentialExpressionAnalysisResult r : results ) {
+            columns.resultIds[i] = r.getId();
+            columns.probeIds[i] = r.getProbe().getId();
+            columns.probeNames[i] = r.getProbe().getName();
+            columns.pvalues[i] = DifferentialExpressionResultColumns.unbox( r.getPvalue() );
+            columns.correctedPvalues[i] = DifferentialExpressionResultColumns.unbox( r.getCorrectedPvalue() );
+            columns.ranks[i] = DifferentialExpressionResultColumns.unbox( r.getRank() );
+            for ( ContrastResult c : r.getContrasts() ) {
+                int j = contrastIndices.get( DifferentialExpressionResultColumns.factorValuePair( c ) );
+                columns.contrastIds[j][i] = c.getId();
+                columns.logFoldChanges[j][i] = DifferentialExpressionResultColumns.unbox( c.getLogFoldChange() );
+                columns.tstats[j][i] = DifferentialExpressionResultColumns.unbox( c.getTstat() );
+                columns.contrastPvalues[j][i] = DifferentialExpressionResultColumns.unbox( c.getPvalue() );
+            }
+            i++;
+        }
+        return columns;
+    }
+
+    /**
+     * Read columns written by {@link #write(DataOutputStream)}.
+     *
+     * @throws IOException if the input is not in the expected format or version, or could not be read.
+     */
+    public static DifferentialExpressionResultColumns read( DataInputStream in ) throws IOException {
+        int magic = in.readInt();
+        if ( magic != DifferentialExpressionResultColumns.MAGIC ) {
+            throw new IOException( "Not a result columns file" );
+        }
+        int version = in.readInt();
+        if ( version != DifferentialExpressionResultColumns.FORMAT_VERSION ) {
+            throw new IOException(
+                    "Unsupported format version " + version + ", expected " + DifferentialExpressionResultColumns.FORMAT_VERSION );
+        }
+        Long resultSetId = in.readLong();
+        int numRows = in.readInt();
+        int numContrasts = in.readInt();
+        if ( numRows < 0 || numContrasts < 0 ) {
+            throw new IOException( "Invalid dimensions: " + numRows + " x " + numContrasts );
+        }
+
+        DifferentialExpressionResultColumns columns = new DifferentialExpressionResultColumns( resultSetId, numRows,
+                numContrasts );
+        DifferentialExpressionResultColumns.readLongs( in, columns.resultIds );
+        DifferentialExpressionResultColumns.readLongs( in, columns.probeIds );
+        for ( int i = 0; i < numRows; i++ ) {
+            columns.probeNames[i] = in.readBoolean() ? in.readUTF() : null;
+        }
+        DifferentialExpressionResultColumns.readDoubles( in, columns.pvalues );
+        DifferentialExpressionResultColumns.readDoubles( in, columns.correctedPvalues );
+        DifferentialExpressionResultColumns.readDoubles( in, columns.ranks );
+        DifferentialExpressionResultColumns.readLongs( in, columns.factorValueIds );
+        DifferentialExpressionResultColumns.readLongs( in, columns.secondFactorValueIds );
+        for ( int j = 0; j < numContrasts; j++ ) {
+            DifferentialExpressionResultColumns.readLongs( in, columns.contrastIds[j] );
+            DifferentialExpressionResultColumns.readDoubles( in, columns.logFoldChanges[j] );
+            DifferentialExpressionResultColumns.readDoubles( in, columns.tstats[j] );
+            DifferentialExpressionResultColumns.readDoubles( in, columns.contrastPvalues[j] );
+        }
+        return columns;
+    }
+
+    private static void readLongs( DataInputStream in, long[] values ) throws IOException {
+        for ( int i = 0; i < values.length; i++ ) {
+            values[i] = in.readLong();
+        }
+    }
+
+    private static void readDoubles( DataInputStream in, double[] values ) throws IOException {
+        for ( int i = 0; i < values.length; i++ ) {
+            values[i] = in.readDouble();
+        }
+    }
+
+    private static void writeLongs( DataOutputStream out, long[] values ) throws IOException {
+        for ( long value : values ) {
+            out.writeLong( value );
+        }
+    }
+
+    private static void writeDoubles( DataOutputStream out, double[] values ) throws IOException {
+        for ( double value : values ) {
+            out.writeDouble( value );
+        }
+    }
+
+    private static List<Long> factorValuePair( ContrastResult c ) {
+        return Arrays.asList( DifferentialExpressionResultColumns.idOf( c.getFactorValue() ),
+                DifferentialExpressionResultColumns.idOf( c.getSecondFactorValue() ) );
+    }
+
+    private static long idOf( FactorValue fv ) {
+        return fv == null ? DifferentialExpressionResultColumns.NONE : fv.getId();
+    }
+
+    private static long lastIfNone( long id ) {
+        return id == DifferentialExpressionResultColumns.NONE ? Long.MAX_VALUE : id;
+    }
+
+    private static double unbox( Double d ) {
+        return d == null ? Double.NaN : d;
+    }
+
+    private static Double box( double d ) {
+        return Double.isNaN( d ) ? null : d;
+    }
+
+    private static Long toLong( long id ) {
+        return id == DifferentialExpressionResultColumns.NONE ? null : id;
+    }
+
+    /**
+     * Write the columns: a header with {@link #MAGIC} and {@link #FORMAT_VERSION}, the result set ID and the dimensions,
+     * then the columns of the results, the factor values of the contrasts and the columns of each contrast, in the order
+     * they are declared.
+     */
+    public void write( DataOutputStream out ) throws IOException {
+        out.writeInt( DifferentialExpressionResultColumns.MAGIC );
+        out.writeInt( DifferentialExpressionResultColumns.FORMAT_VERSION );
+        out.writeLong( resultSetId );
+        out.writeInt( this.size() );
+        out.writeInt( this.getNumContrasts() );
+        DifferentialExpressionResultColumns.writeLongs( out, resultIds );
+        DifferentialExpressionResultColumns.writeLongs( out, probeIds );
+        for ( String probeName : probeNames ) {
+            out.writeBoolean( probeName != null );
+            if ( probeName != null ) {
+                out.writeUTF( probeName );
+            }
+        }
+        DifferentialExpressionResultColumns.writeDoubles( out, pvalues );
+        DifferentialExpressionResultColumns.writeDoubles( out, correctedPvalues );
+        DifferentialExpressionResultColumns.writeDoubles( out, ranks );
+        DifferentialExpressionResultColumns.writeLongs( out, factorValueIds );
+        DifferentialExpressionResultColumns.writeLongs( out, secondFactorValueIds );
+        for ( int j = 0; j < this.getNumContrasts(); j++ ) {
+            DifferentialExpressionResultColumns.writeLongs( out, contrastIds[j] );
+            DifferentialExpressionResultColumns.writeDoubles( out, logFoldChanges[j] );
+            DifferentialExpressionResultColumns.writeDoubles( out, tstats[j] );
+            DifferentialExpressionResultColumns.writeDoubles( out, contrastPvalues[j] );
+        }
+    }
+
+    public Long getResultSetId() {
+        return resultSetId;
+    }
+
+    /**
+     * @return number of results, i.e. of rows.
+     */
+    public int size() {
+        return resultIds.length;
+    }
+
+    public int getNumContrasts() {
+        return factorValueIds.length;
+    }
+
+    public long getResultId( int row ) {
+        return resultIds[row];
+    }
+
+    public long getProbeId( int row ) {
+        return probeIds[row];
+    }
+
+    public String getProbeName( int row ) {
+        return probeNames[row];
+    }
+
+    public Double getPvalue( int row ) {
+        return DifferentialExpressionResultColumns.box( pvalues[row] );
+    }
+
+    public Double getCorrectedPvalue( int row ) {
+        return DifferentialExpressionResultColumns.box( correctedPvalues[row] );
+    }
+
+    public Double getRank( int row ) {
+        return DifferentialExpressionResultColumns.box( ranks[row] );
+    }
+
+    /**
+     * @return the probe IDs of all the rows.
+     */
+    public Collection<Long> getProbeIds() {
+        Collection<Long> result = new ArrayList<>( probeIds.length );
+        for ( long id : probeIds ) {
+            result.add( id );
+        }
+        return result;
+    }
+
+    /**
+     * @return ID of the first factor value of the contrast, or null if there is none (e.g. for continuous factors).
+     */
+    public Long getFactorValueId( int contrast ) {
+        return DifferentialExpressionResultColumns.toLong( factorValueIds[contrast] );
+    }
+
+    /**
+     * @return ID of the second factor value of the contrast, null unless it is an interaction.
+     */
+    public Long getSecondFactorValueId( int contrast ) {
+        return DifferentialExpressionResultColumns.toLong( secondFactorValueIds[contrast] );
+    }
+
+    /**
+     * @return ID of the contrast result, or null if the result has no value for that contrast.
+     */
+    public Long getContrastId( int contrast, int row ) {
+        return DifferentialExpressionResultColumns.toLong( contrastIds[contrast][row] );
+    }
+
+    public Double getLogFoldChange( int contrast, int row ) {
+        return DifferentialExpressionResultColumns.box( logFoldChanges[contrast][row] );
+    }
+
+    public Double getTstat( int contrast, int row ) {
+        return DifferentialExpressionResultColumns.box( tstats[contrast][row] );
+    }
+
+    public Double getContrastPvalue( int contrast, int row ) {
+        return DifferentialExpressionResultColumns.box( contrastPvalues[contrast][row] );
+    }
+
+    /**
+     * Same selection as {@link ubic.gemma.persistence.service.analysis.expression.diff.DifferentialExpressionResultService#findInResultSet}:
+     * the results meeting the threshold, up to the limit, or the top results if there are too few of them.
+     *
+     * @param  threshold          maximum corrected p-value
+     * @param  limit              maximum number of results, or null for no limit
+     * @param  minNumberOfResults minimum number of results
+     * @return                    number of rows, from the first, that are top hits.
+     */
+    public int countTopHits( double threshold, Integer limit, int minNumberOfResults ) {
+        // first row above the threshold; NaN is sorted last and never meets it
+        int lo = 0, hi = correctedPvalues.length;
+        while ( lo < hi ) {
+            int mid = ( lo + hi ) >>> 1;
+            if ( correctedPvalues[mid] <= threshold ) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        int n = limit != null ? Math.min( lo, limit ) : lo;
+        if ( n < minNumberOfResults ) {
+            n = minNumberOfResults;
+        }
+        return Math.min( n, this.size() );
+    }
+
+    /**
+     * @param  numBins number of bins between 0 and 1
+     * @return         the number of p-values in each bin; missing p-values are not counted.
+     */
+    public double[] getPvalueDistribution( int numBins ) {
+        double[] counts = new double[numBins];
+        for ( double p : pvalues ) {
+            if ( Double.isNaN( p ) || p < 0.0 || p > 1.0 )
+                continue;
+            counts[Math.min( ( int ) ( p * numBins ), numBins - 1 )]++;
+        }
+        return counts;
+    }
+}
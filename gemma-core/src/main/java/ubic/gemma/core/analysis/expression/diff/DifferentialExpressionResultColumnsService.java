@@ -0,0 +1,49 @@
+/*
+ * The Gemma project
+ *
+ * Copyright (c) 2026 University of British Columbia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package ubic.gemma.core.analysis.expression.diff;
+
+import ubic.gemma.model.analysis.expression.diff.ExpressionAnalysisResultSet;
+
+/**
+ * Stores the results of each result set as {@link DifferentialExpressionResultColumns}, in a file next to the other
+ * analysis outputs, so that exports, top hits and p-value distributions don't have to load the results from the
+ * database. The columns are optional: they are written at analysis time if enabled with
+ * gemma.analysis.diff.columns, and callers must fall back on the database when there are none.
+ *
+ * @author agent
+ */
+public interface DifferentialExpressionResultColumnsService {
+
+    /**
+     * Write, or replace, the columns of a result set. Failures are logged, not thrown, since the columns are only a
+     * copy of what is in the database.
+     *
+     * @param resultSet a persistent result set, with its results, their probes and contrasts
+     */
+    void write( ExpressionAnalysisResultSet resultSet );
+
+    /**
+     * @param  resultSetId id of the result set
+     * @return the columns of the result set, or null if there are none.
+     */
+    DifferentialExpressionResultColumns load( Long resultSetId );
+
+    /**
+     * Remove the columns of a result set, for example because its results were changed or deleted.
+     *
+     * @param resultSetId id of the result set
+     */
+    void delete( Long resultSetId );
+}
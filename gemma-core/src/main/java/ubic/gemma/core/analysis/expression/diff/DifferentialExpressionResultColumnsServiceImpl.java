@@ -0,0 +1,127 @@
+/*
+ * The Gemma project
+ *
+ * Copyright (c) 2026 University of British Columbia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package ubic.gemma.core.analysis.expression.diff;
+
+import org.apache.commons.lang3.time.StopWatch;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.stereotype.Component;
+import ubic.gemma.model.analysis.expression.diff.ContrastResult;
+import ubic.gemma.model.analysis.expression.diff.DifferentialExpressionAnalysisResult;
+import ubic.gemma.model.analysis.expression.diff.ExpressionAnalysisResultSet;
+import ubic.gemma.persistence.util.Settings;
+
+import java.io.*;
+
+/**
+ * Stores the columns in the versioned binary format of {@link DifferentialExpressionResultColumns}. Files are written
+ * under a temporary name and then renamed, so readers never see a partial file.
+ *
+ * @author agent
+ */
+@Component
+public class DifferentialExpressionResultColumnsServiceImpl implements DifferentialExpressionResultColumnsService {
+
+    private static final Log log = LogFactory.getLog( DifferentialExpressionResultColumnsServiceImpl.class );
+
+    private final boolean enabled = Settings.getBoolean( "gemma.analysis.diff.columns", true );
+
+    @Override
+    public void write( ExpressionAnalysisResultSet resultSet ) {
+        if ( !enabled || resultSet.getId() == null )
+            return;
+
+        for ( DifferentialExpressionAnalysisResult r : resultSet.getResults() ) {
+            if ( r.getId() == null || r.getProbe() == null ) {
+                DifferentialExpressionResultColumnsServiceImpl.log
+                        .warn( "Results of " + resultSet + " are not all persistent, not writing its columns" );
+                return;
+            }
+            for ( ContrastResult c : r.getContrasts() ) {
+                if ( c.getId() == null ) {
+                    DifferentialExpressionResultColumnsServiceImpl.log
+                            .warn( "Contrasts of " + resultSet + " are not all persistent, not writing its columns" );
+                    return;
+                }
+            }
+        }
+
+        StopWatch timer = StopWatch.createStarted();
+        DifferentialExpressionResultColumns columns = DifferentialExpressionResultColumns.fromResultSet( resultSet );
+        File f = DifferentialExpressionFileUtils.getResultSetColumnsFile( resultSet.getId() );
+        File tmp = new File( f.getParentFile(), f.getName() + ".tmp" );
+        try {
+            if ( !f.getParentFile().exists() && !f.getParentFile().mkdirs() && !f.getParentFile().exists() ) {
+                throw new IOException( "Could not create " + f.getParentFile() );
+            }
+            try ( DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream( new FileOutputStream( tmp ) ) ) ) {
+                columns.write( out );
+            }
+            if ( ( f.exists() && !f.delete() ) || !tmp.renameTo( f ) ) {
+                throw new IOException( "Could not move " + tmp + " to " + f );
+            }
+        } catch ( IOException e ) {
+            DifferentialExpressionResultColumnsServiceImpl.log
+                    .error( "Could not write the columns of " + resultSet + ": " + e.getMessage() );
+            if ( tmp.exists() && !tmp.delete() ) {
+                DifferentialExpressionResultColumnsServiceImpl.log.warn( "Could not remove: " + tmp );
+            }
+            return;
+        }
+
+        if ( timer.getTime() > 1000 ) {
+            DifferentialExpressionResultColumnsServiceImpl.log
+                    .info( "Wrote " + columns.size() + " results of " + resultSet + " as columns in " + timer.getTime()
+                            + " ms" );
+        }
+    }
+
+    @Override
+    public DifferentialExpressionResultColumns load( Long resultSetId ) {
+        if ( !enabled )
+            return null;
+        File f = DifferentialExpressionFileUtils.getResultSetColumnsFile( resultSetId );
+        if ( !f.exists() )
+            return null;
+        if ( !f.canRead() ) {
+            DifferentialExpressionResultColumnsServiceImpl.log
+                    .warn( "Cannot read " + f + ", will use the database instead" );
+            return null;
+        }
+        try ( DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( f ) ) ) ) {
+            DifferentialExpressionResultColumns columns = DifferentialExpressionResultColumns.read( in );
+            if ( !resultSetId.equals( columns.getResultSetId() ) ) {
+                DifferentialExpressionResultColumnsServiceImpl.log
+                        .warn( f + " holds the columns of another result set, ignoring it" );
+                return null;
+            }
+            return columns;
+        } catch ( IOException e ) {
+            // e.g. written in another format version, or truncated; the database is still there
+            DifferentialExpressionResultColumnsServiceImpl.log
+                    .warn( "Could not read " + f + ", will use the database instead: " + e.getMessage() );
+            return null;
+        }
+    }
+
+    @Override
+    public void delete( Long resultSetId ) {
+        File f = DifferentialExpressionFileUtils.getResultSetColumnsFile( resultSetId );
+        if ( f.exists() && !f.delete() ) {
+            DifferentialExpressionResultColumnsServiceImpl.log.warn( "Could not remove: " + f );
+        }
+    }
+}
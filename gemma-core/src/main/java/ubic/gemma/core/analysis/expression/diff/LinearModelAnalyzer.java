@@ -53,6 +53,7 @@ import ubic.gemma.model.expression.biomaterial.BioMaterial;
 import ubic.gemma.model.expression.designElement.CompositeSequence;
 import ubic.gemma.model.expression.experiment.*;
 import ubic.gemma.model.genome.Gene;
+import ubic.gemma.persistence.util.Settings;
 
 import java.io.*;
 import java.util.*;
@@ -89,6 +90,26 @@ public class LinearModelAnalyzer extends AbstractDifferentialExpressionAnalyzer
         }
     };
 
+    /**
+     * Maximum number of models (e.g. one per subset) fitted at the same time. Defaults to the number of processors.
+     */
+    private static final String MAX_CONCURRENT_FITS_PROPERTY = "gemma.analysis.diff.maxConcurrentFits";
+
+    /**
+     * Time allowed for fitting the models of any analysis, in minutes. If zero or less, fits are never timed out.
+     */
+    private static final String FIT_TIME_BUDGET_PROPERTY = "gemma.analysis.diff.fitTimeBudget";
+
+    /**
+     * Additional time allowed for fitting the models, in minutes per million values in the data matrix.
+     */
+    private static final String FIT_TIME_BUDGET_PER_MILLION_VALUES_PROPERTY = "gemma.analysis.diff.fitTimeBudgetPerMillionValues";
+
+    /**
+     * How often progress of a running fit is reported, in milliseconds.
+     */
+    private static final long FIT_PROGRESS_UPDATE_INTERVAL_MILLIS = 60 * 1000;
+
     private static final String EXCLUDE_WARNING = "Found Factor Value with DE_Exclude characteristic. Skipping current subset.";
 
     public static void populateFactorValuesFromBASet( BioAssaySet ee, ExperimentalFactor f,
@@ -441,69 +462,7 @@ public class LinearModelAnalyzer extends AbstractDifferentialExpressionAnalyzer
             /*
              * Now analyze each subset
              */
-            for ( FactorValue subsetFactorValue : subsets.keySet() ) {
-
-                LinearModelAnalyzer.log.info( "Analyzing subset: " + subsetFactorValue );
-
-                /*
-                 * Checking for DE_Exclude characteristics, which should not be included in the analysis.
-                 * As requested in issue #4458 (bugzilla)
-                 */
-                boolean include = true;
-                for ( Characteristic c : subsetFactorValue.getCharacteristics() ) {
-                    if ( LinearModelAnalyzer.EXCLUDE_CHARACTERISTICS_VALUES.contains( c.getValue() ) ) {
-                        include = false;
-                        break;
-                    }
-                }
-                if ( !include ) {
-                    LinearModelAnalyzer.log.warn( LinearModelAnalyzer.EXCLUDE_WARNING );
-                    continue;
-                }
-
-                List<BioMaterial> bioMaterials = ExperimentalDesignUtils
-                        .getOrderedSamples( subsets.get( subsetFactorValue ), factors );
-
-                /*
-                 * make a EESubSet
-                 */
-                ExpressionExperimentSubSet eeSubSet = ExpressionExperimentSubSet.Factory.newInstance();
-                eeSubSet.setSourceExperiment( expressionExperiment );
-                eeSubSet.setName( "Subset for " + subsetFactorValue );
-                Collection<BioAssay> bioAssays = new HashSet<>();
-                for ( BioMaterial bm : bioMaterials ) {
-                    bioAssays.addAll( bm.getBioAssaysUsedIn() );
-                }
-                eeSubSet.getBioAssays().addAll( bioAssays );
-
-                Collection<ExperimentalFactor> subsetFactors = this
-                        .fixFactorsForSubset( subsets.get( subsetFactorValue ), eeSubSet, factors );
-
-                DifferentialExpressionAnalysisConfig subsetConfig = this
-                        .fixConfigForSubset( factors, config, subsetFactorValue );
-
-                if ( subsetFactors.isEmpty() ) {
-                    LinearModelAnalyzer.log
-                            .warn( "Experimental design is not valid for subset: " + subsetFactorValue + "; skipping" );
-                    continue;
-                }
-
-                /*
-                 * Run analysis on the subset.
-                 */
-                DifferentialExpressionAnalysis analysis = this
-                        .doAnalysis( eeSubSet, subsetConfig, subsets.get( subsetFactorValue ), bioMaterials,
-                                new ArrayList<>( subsetFactors ), subsetFactorValue );
-
-                if ( analysis == null ) {
-                    LinearModelAnalyzer.log
-                            .warn( "No analysis results were obtained for subset: " + subsetFactorValue );
-                    continue;
-                }
-
-                results.add( analysis );
-
-            }
+            results.addAll( this.runSubsetAnalyses( expressionExperiment, config, factors, subsets ) );
 
         } else {
 
@@ -648,6 +607,33 @@ public class LinearModelAnalyzer extends AbstractDifferentialExpressionAnalyzer
     private DifferentialExpressionAnalysis doAnalysis( BioAssaySet bioAssaySet,
             DifferentialExpressionAnalysisConfig config, ExpressionDataDoubleMatrix expressionData,
             List<BioMaterial> samplesUsed, List<ExperimentalFactor> factors, FactorValue subsetFactorValue ) {
+        PreparedAnalysis prepared = this
+                .prepareAnalysis( bioAssaySet, config, expressionData, samplesUsed, factors, subsetFactorValue );
+        if ( prepared == null ) {
+            return null;
+        }
+
+        /*
+         * Run the analysis
+         */
+        final Map<String, LinearModelSummary> rawResults = this
+                .runAnalysis( prepared.bareFilteredDataMatrix, prepared.finalDataMatrix, prepared.designMatrix,
+                        prepared.librarySizes, config );
+
+        return this.finishAnalysis( prepared, rawResults );
+    }
+
+    /**
+     * Set up the design and the data for fitting. This is the part of the analysis that deals with the experimental
+     * design entities.
+     *
+     * @see #doAnalysis(BioAssaySet, DifferentialExpressionAnalysisConfig, ExpressionDataDoubleMatrix, List, List,
+     *      FactorValue)
+     * @return the prepared analysis, or null if there was a problem.
+     */
+    private PreparedAnalysis prepareAnalysis( BioAssaySet bioAssaySet,
+            DifferentialExpressionAnalysisConfig config, ExpressionDataDoubleMatrix expressionData,
+            List<BioMaterial> samplesUsed, List<ExperimentalFactor> factors, FactorValue subsetFactorValue ) {
 
         if ( factors.isEmpty() ) {
             LinearModelAnalyzer.log.error( "Must provide at least one factor" );
@@ -716,11 +702,28 @@ public class LinearModelAnalyzer extends AbstractDifferentialExpressionAnalyzer
         DesignMatrix properDesignMatrix = this
                 .makeDesignMatrix( designMatrix, interactionFactorLists, baselineConditions );
 
-        /*
-         * Run the analysis
-         */
-        final Map<String, LinearModelSummary> rawResults = this
-                .runAnalysis( bareFilteredDataMatrix, finalDataMatrix, properDesignMatrix, librarySizes, config );
+        return new PreparedAnalysis( bioAssaySet, config, label2Factors, baselineConditions, interceptFactor,
+                interactionFactorLists, oneSampleTTest, bareFilteredDataMatrix, finalDataMatrix, properDesignMatrix,
+                librarySizes, subsetFactorValue );
+    }
+
+    /**
+     * Turn the results of the fit into an analysis, with its result sets, contrasts, ranks and q-values.
+     *
+     * @return analysis, or null if there was a problem.
+     */
+    private DifferentialExpressionAnalysis finishAnalysis( PreparedAnalysis prepared,
+            Map<String, LinearModelSummary> rawResults ) {
+        BioAssaySet bioAssaySet = prepared.bioAssaySet;
+        DifferentialExpressionAnalysisConfig config = prepared.config;
+        Map<String, Collection<ExperimentalFactor>> label2Factors = prepared.label2Factors;
+        Map<ExperimentalFactor, FactorValue> baselineConditions = prepared.baselineConditions;
+        ExperimentalFactor interceptFactor = prepared.interceptFactor;
+        List<String[]> interactionFactorLists = prepared.interactionFactorLists;
+        boolean oneSampleTTest = prepared.oneSampleTTest;
+        DoubleMatrix<CompositeSequence, BioMaterial> bareFilteredDataMatrix = prepared.bareFilteredDataMatrix;
+        DesignMatrix properDesignMatrix = prepared.designMatrix;
+        FactorValue subsetFactorValue = prepared.subsetFactorValue;
 
         if ( rawResults.size() == 0 ) {
             LinearModelAnalyzer.log.error( "Got no results from the analysis" );
@@ -1363,6 +1366,143 @@ public class LinearModelAnalyzer extends AbstractDifferentialExpressionAnalyzer
 
     }
 
+    /**
+     * Set up the analysis of one subset; its models are fitted by {@link #runSubsetAnalyses}.
+     *
+     * @return the prepared analysis, or null if the subset is to be skipped.
+     */
+    private PreparedAnalysis prepareSubsetAnalysis( ExpressionExperiment expressionExperiment,
+            DifferentialExpressionAnalysisConfig config, List<ExperimentalFactor> factors,
+            Map<FactorValue, ExpressionDataDoubleMatrix> subsets, FactorValue subsetFactorValue ) {
+        LinearModelAnalyzer.log.info( "Analyzing subset: " + subsetFactorValue );
+
+        /*
+         * Checking for DE_Exclude characteristics, which should not be included in the analysis.
+         * As requested in issue #4458 (bugzilla)
+         */
+        boolean include = true;
+        for ( Characteristic c : subsetFactorValue.getCharacteristics() ) {
+            if ( LinearModelAnalyzer.EXCLUDE_CHARACTERISTICS_VALUES.contains( c.getValue() ) ) {
+                include = false;
+                break;
+            }
+        }
+        if ( !include ) {
+            LinearModelAnalyzer.log.warn( LinearModelAnalyzer.EXCLUDE_WARNING );
+            return null;
+        }
+
+        List<BioMaterial> bioMaterials = ExperimentalDesignUtils
+                .getOrderedSamples( subsets.get( subsetFactorValue ), factors );
+
+        /*
+         * make a EESubSet
+         */
+        ExpressionExperimentSubSet eeSubSet = ExpressionExperimentSubSet.Factory.newInstance();
+        eeSubSet.setSourceExperiment( expressionExperiment );
+        eeSubSet.setName( "Subset for " + subsetFactorValue );
+        Collection<BioAssay> bioAssays = new HashSet<>();
+        for ( BioMaterial bm : bioMaterials ) {
+            bioAssays.addAll( bm.getBioAssaysUsedIn() );
+        }
+        eeSubSet.getBioAssays().addAll( bioAssays );
+
+        Collection<ExperimentalFactor> subsetFactors = this
+                .fixFactorsForSubset( subsets.get( subsetFactorValue ), eeSubSet, factors );
+
+        DifferentialExpressionAnalysisConfig subsetConfig = this
+                .fixConfigForSubset( factors, config, subsetFactorValue );
+
+        if ( subsetFactors.isEmpty() ) {
+            LinearModelAnalyzer.log
+                    .warn( "Experimental design is not valid for subset: " + subsetFactorValue + "; skipping" );
+            return null;
+        }
+
+        PreparedAnalysis prepared = this
+                .prepareAnalysis( eeSubSet, subsetConfig, subsets.get( subsetFactorValue ), bioMaterials,
+                        new ArrayList<>( subsetFactors ), subsetFactorValue );
+
+        if ( prepared == null ) {
+            LinearModelAnalyzer.log.warn( "No analysis results were obtained for subset: " + subsetFactorValue );
+        }
+        return prepared;
+    }
+
+    /**
+     * Fit the models of the subsets concurrently, on a bounded pool. Only the fitting, which doesn't touch any
+     * entities, is done in the worker threads; the subsets are set up, and the results turned into analyses, one at a
+     * time, in order, in the calling thread. A subset is only set up when a thread is free to fit it, so no more than
+     * one prepared data set per thread is held at once. Each fit is exactly the one a sequential run would do.
+     * If a subset's fit takes longer than allowed, or the calling thread is interrupted, all fits are cancelled and the
+     * analysis fails, rather than returning results that silently lack a subset.
+     *
+     * @return analyses, skipping the subsets for which there were no results.
+     * @throws CancellationException if the calling thread was interrupted.
+     * @throws FitTimeoutException if the fit of a subset took longer than allowed.
+     */
+    private Collection<DifferentialExpressionAnalysis> runSubsetAnalyses( ExpressionExperiment expressionExperiment,
+            DifferentialExpressionAnalysisConfig config, List<ExperimentalFactor> factors,
+            Map<FactorValue, ExpressionDataDoubleMatrix> subsets ) {
+        Collection<DifferentialExpressionAnalysis> results = new ArrayList<>( subsets.size() );
+        if ( subsets.isEmpty() ) {
+            return results;
+        }
+
+        int numThreads = Math.max( 1, Math.min( subsets.size(),
+                Settings.getInt( LinearModelAnalyzer.MAX_CONCURRENT_FITS_PROPERTY,
+                        Runtime.getRuntime().availableProcessors() ) ) );
+        LinearModelAnalyzer.log.info( "Fitting models for " + subsets.size() + " subsets using " + numThreads
+                + " threads" );
+
+        ExecutorService executor = Executors.newFixedThreadPool( numThreads );
+        try {
+            Deque<RunningFit> running = new ArrayDeque<>( numThreads );
+            Iterator<FactorValue> it = subsets.keySet().iterator();
+            while ( it.hasNext() || !running.isEmpty() ) {
+                while ( it.hasNext() && running.size() < numThreads ) {
+                    if ( Thread.currentThread().isInterrupted() ) {
+                        throw new CancellationException( "Analysis was interrupted" );
+                    }
+                    PreparedAnalysis prepared = this
+                            .prepareSubsetAnalysis( expressionExperiment, config, factors, subsets, it.next() );
+                    if ( prepared != null ) {
+                        running.add( new RunningFit( prepared, executor ) );
+                    }
+                }
+
+                RunningFit fit = running.poll();
+                if ( fit == null ) {
+                    continue;
+                }
+                PreparedAnalysis prepared = fit.prepared;
+                boolean finished;
+                try {
+                    finished = this.waitForAnalysis( fit.future, fit.progress,
+                            this.getFitTimeBudget( prepared.finalDataMatrix ), fit.timer );
+                } catch ( FitTimeoutException e ) {
+                    throw new FitTimeoutException(
+                            "Fit for subset " + prepared.subsetFactorValue + " of " + expressionExperiment
+                                    + " was taking too long, the analysis was cancelled" );
+                }
+                if ( !finished ) {
+                    throw new CancellationException( "Analysis was interrupted" );
+                }
+
+                DifferentialExpressionAnalysis analysis = this.finishAnalysis( prepared, fit.rawResults );
+                if ( analysis == null ) {
+                    LinearModelAnalyzer.log
+                            .warn( "No analysis results were obtained for subset: " + prepared.subsetFactorValue );
+                    continue;
+                }
+                results.add( analysis );
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return results;
+    }
+
     /**
      * Important bit. Run the analysis
      *
@@ -1373,55 +1513,86 @@ public class LinearModelAnalyzer extends AbstractDifferentialExpressionAnalyzer
             final DoubleMatrix1D librarySize, final DifferentialExpressionAnalysisConfig config ) {
 
         final Map<String, LinearModelSummary> rawResults = new ConcurrentHashMap<>();
+        final FitProgress progress = new FitProgress( config );
 
-        Future<?> f = this.runAnalysisFuture( designMatrix, sNamedMatrix, rawResults, librarySize, config );
-
-        StopWatch timer = new StopWatch();
-        timer.start();
-        long lastTime = 0;
+        StopWatch timer = StopWatch.createStarted();
+        Future<?> f = this.runAnalysisFuture( designMatrix, sNamedMatrix, rawResults, librarySize, config, progress );
 
-        // this analysis should take just 10 or 20 seconds for most data sets.
-        double MAX_ANALYSIS_TIME = 60 * 1000 * 10; // 10 minutes.
-        double updateIntervalMillis = 60 * 1000;// 1 minute
-        while ( !f.isDone() ) {
-            try {
-                Thread.sleep( 500 );
+        if ( this.waitForAnalysis( f, progress, this.getFitTimeBudget( sNamedMatrix ), timer ) ) {
+            assert rawResults.size() == namedMatrix.rows() : "expected " + namedMatrix.rows() + " results, got " + rawResults.size();
+        }
+        return rawResults;
+    }
 
-                if ( timer.getTime() - lastTime > updateIntervalMillis ) {
-                    LinearModelAnalyzer.log.info( String
-                            .format( "Analysis running, %.1f minutes elapsed ...", timer.getTime() / 60000.00 ) );
-                    lastTime = timer.getTime();
+    /**
+     * Wait for a fit to complete, reporting its progress periodically. Since this is done in the calling thread, the
+     * progress updates reach the task that requested the analysis, if any. If the calling thread is interrupted (e.g.
+     * the task was cancelled), the fit is cancelled as well.
+     *
+     * @param  timeBudgetMillis time allowed for the fit; if zero or less, there is no limit.
+     * @param  timer            started when the fit was submitted, so the time spent before waiting counts too.
+     * @return false if we were interrupted while waiting, or the fit was cancelled.
+     * @throws FitTimeoutException if the fit took longer than allowed; it is cancelled.
+     */
+    private boolean waitForAnalysis( Future<?> f, FitProgress progress, long timeBudgetMillis, StopWatch timer ) {
+
+        while ( true ) {
+            long waitMillis = LinearModelAnalyzer.FIT_PROGRESS_UPDATE_INTERVAL_MILLIS;
+            if ( timeBudgetMillis > 0 ) {
+                long remainingMillis = timeBudgetMillis - timer.getTime();
+                if ( remainingMillis <= 0 ) {
+                    LinearModelAnalyzer.log.error( String.format(
+                            "Analysis is taking too long (more than %.1f minutes, %s); cancelling",
+                            timeBudgetMillis / 60000.00, progress ) );
+                    f.cancel( true );
+                    throw new FitTimeoutException( "Analysis was taking too long, it was cancelled" );
                 }
-
-            } catch ( InterruptedException e ) {
-                LinearModelAnalyzer.log.warn( "Analysis interrupted!" );
-                return rawResults;
+                waitMillis = Math.min( waitMillis, remainingMillis );
             }
 
-            if ( timer.getTime() > MAX_ANALYSIS_TIME ) {
-                LinearModelAnalyzer.log
-                        .error( "Analysis is taking too long, something bad must have happened; cancelling" );
+            try {
+                f.get( waitMillis, TimeUnit.MILLISECONDS );
+                break;
+            } catch ( TimeoutException e ) {
+                LinearModelAnalyzer.log.info( String.format( "Analysis running, %s, %.1f minutes elapsed ...", progress,
+                        timer.getTime() / 60000.00 ) );
+            } catch ( InterruptedException e ) {
+                LinearModelAnalyzer.log.warn( "Analysis interrupted, cancelling the fit" );
                 f.cancel( true );
-                throw new RuntimeException( "Analysis was taking too long, it was cancelled" );
+                Thread.currentThread().interrupt();
+                return false;
+            } catch ( CancellationException e ) {
+                LinearModelAnalyzer.log.warn( "Analysis was cancelled" );
+                return false;
+            } catch ( ExecutionException e ) {
+                if ( e.getCause() instanceof CancellationException ) {
+                    LinearModelAnalyzer.log.warn( "Analysis was cancelled" );
+                    return false;
+                }
+                throw new RuntimeException( e );
             }
         }
 
-        if ( timer.getTime() > updateIntervalMillis ) {
+        if ( timer.getTime() > LinearModelAnalyzer.FIT_PROGRESS_UPDATE_INTERVAL_MILLIS ) {
             LinearModelAnalyzer.log
                     .info( String.format( "Analysis finished in %.1f minutes.", timer.getTime() / 60000.00 ) );
         }
 
-        try {
-            f.get();
-        } catch ( InterruptedException e ) {
-            LinearModelAnalyzer.log.warn( "Job was interrupted" );
-            return rawResults;
-        } catch ( ExecutionException e ) {
-            throw new RuntimeException( e );
-        }
+        return true;
+    }
 
-        assert rawResults.size() == namedMatrix.rows() : "expected " + namedMatrix.rows() + " results, got " + rawResults.size();
-        return rawResults;
+    /**
+     * @return the time allowed for fitting models to the given data, in milliseconds, or zero if there is no limit.
+     */
+    private long getFitTimeBudget( DoubleMatrix<String, String> data ) {
+        double budgetMinutes = Settings.getDouble( LinearModelAnalyzer.FIT_TIME_BUDGET_PROPERTY, 10.0 );
+        if ( budgetMinutes <= 0 ) {
+            return 0;
+        }
+        double millionValues = ( double ) data.rows() * data.columns() / 1e6;
+        budgetMinutes += millionValues * Settings
+                .getDouble( LinearModelAnalyzer.FIT_TIME_BUDGET_PER_MILLION_VALUES_PROPERTY, 10.0 );
+        return ( long ) ( budgetMinutes * 60 * 1000 );
     }
 
     /**
@@ -1431,27 +1602,51 @@ public class LinearModelAnalyzer extends AbstractDifferentialExpressionAnalyzer
      * @param rawResults Where the results will go
      * @param librarySize RNA-seq library sizes
      * @param config settings for the analysis
+     * @param progress updated as the fit proceeds
      */
     private Future<?> runAnalysisFuture( final DesignMatrix designMatrix, final DoubleMatrix<String, String> preparedData,
             final Map<String, LinearModelSummary> rawResults, final DoubleMatrix1D librarySize,
-            final DifferentialExpressionAnalysisConfig config ) {
+            final DifferentialExpressionAnalysisConfig config, final FitProgress progress ) {
 
         Future<?> f = taskExecutor.submit( new Runnable() {
             @Override
             public void run() {
-                StopWatch timer = new StopWatch();
-                timer.start();
-                LeastSquaresFit fit;
-                if ( config.getUseWeights() ) {
-                    MeanVarianceEstimator mv = new MeanVarianceEstimator( designMatrix, preparedData, librarySize );
-                    LinearModelAnalyzer.log.info( "Model weights from mean-variance model: " + timer.getTime() + "ms" );
-                    timer.reset();
-                    timer.start();
-                    fit = new LeastSquaresFit( designMatrix, preparedData, mv.getWeights() );
-
-                    // DEBUG CODE
+                rawResults.putAll( LinearModelAnalyzer.this
+                        .fit( designMatrix, preparedData, librarySize, config, progress ) );
+            }
+        } );
+
+        return f;
+    }
+
+    /**
+     * Fit the models, moderating the statistics if requested, and summarize them. Cancellation is checked between the
+     * steps of the fit.
+     * <p>
+     * All the rows are fitted at once; fitting blocks of rows concurrently is deferred. ebayes estimates its prior from
+     * the residual variances and degrees of freedom of all the rows, and ModeratedTstat only takes a whole
+     * LeastSquaresFit, so moderating blocks fitted separately needs support for that in basecode first.
+     *
+     * @return summaries, keyed by row name
+     * @throws CancellationException if the thread was interrupted
+     */
+    private Map<String, LinearModelSummary> fit( DesignMatrix designMatrix, DoubleMatrix<String, String> preparedData,
+            DoubleMatrix1D librarySize, DifferentialExpressionAnalysisConfig config, FitProgress progress ) {
+        StopWatch timer = new StopWatch();
+        timer.start();
+        LeastSquaresFit fit;
+        if ( config.getUseWeights() ) {
+            progress.begin( "estimating weights from the mean-variance relationship" );
+            MeanVarianceEstimator mv = new MeanVarianceEstimator( designMatrix, preparedData, librarySize );
+            LinearModelAnalyzer.log.info( "Model weights from mean-variance model: " + timer.getTime() + "ms" );
+            timer.reset();
+            timer.start();
+            progress.begin( "fitting models" );
+            fit = new LeastSquaresFit( designMatrix, preparedData, mv.getWeights() );
+
+            // DEBUG CODE
 //                    try {
-                    // String dir = "/Users/pzoot";
+            // String dir = "/Users/pzoot";
 //                        File file = File.createTempFile( "loess-fit-", ".txt", new File( dir ) );
 //                        OutputStream os = new PrintStream( file );
 //                        ubic.basecode.io.writer.MatrixWriter w = new ubic.basecode.io.writer.MatrixWriter( os );
@@ -1485,41 +1680,156 @@ public class LinearModelAnalyzer extends AbstractDifferentialExpressionAnalyzer
 //                        ///
 //                    }
 
-                } else {
-                    fit = new LeastSquaresFit( designMatrix, preparedData );
-                }
-                LinearModelAnalyzer.log
-                        .info( "Model fit preparedData matrix " + preparedData.rows() + " x " + preparedData.columns() + ": " + timer.getTime()
-                                + "ms" );
-                timer.reset();
-                timer.start();
-                if ( config.getModerateStatistics() ) {
-                    ModeratedTstat.ebayes( fit );
-
-                    // just for printing to logs:
-                    double rdof = 0.0;
-                    if ( fit.isHasMissing() ) {
-                        List<Integer> dofs = fit.getResidualDofs();
-                        for ( Integer k : dofs ) {
-                            rdof += k;
-                        }
-                        rdof = rdof / ( double ) dofs.size();
-                    } else {
-                        rdof = fit.getResidualDof();
-                    }
-                    LinearModelAnalyzer.log.info( "Moderate test statistics: " + timer.getTime() + "ms; Mean.residual.dof=" + rdof + " dfPrior=" + fit.getDfPrior() + " varPrior=" + fit.getVarPrior() );
+        } else {
+            progress.begin( "fitting models" );
+            fit = new LeastSquaresFit( designMatrix, preparedData );
+        }
+        LinearModelAnalyzer.log
+                .info( "Model fit preparedData matrix " + preparedData.rows() + " x " + preparedData.columns() + ": " + timer.getTime()
+                        + "ms" );
+        timer.reset();
+        timer.start();
+        if ( config.getModerateStatistics() ) {
+            progress.begin( "moderating test statistics" );
+            ModeratedTstat.ebayes( fit );
+
+            // just for printing to logs:
+            double rdof = 0.0;
+            if ( fit.isHasMissing() ) {
+                List<Integer> dofs = fit.getResidualDofs();
+                for ( Integer k : dofs ) {
+                    rdof += k;
                 }
+                rdof = rdof / ( double ) dofs.size();
+            } else {
+                rdof = fit.getResidualDof();
+            }
+            LinearModelAnalyzer.log.info( "Moderate test statistics: " + timer.getTime() + "ms; Mean.residual.dof=" + rdof + " dfPrior=" + fit.getDfPrior() + " varPrior=" + fit.getVarPrior() );
+        }
+
+        timer.reset();
+
+        timer.start();
+        progress.begin( "summarizing models" );
+        Map<String, LinearModelSummary> res = fit.summarizeByKeys( true );
+        LinearModelAnalyzer.log.info( "Model summarize/ANOVA: " + timer.getTime() + "ms" );
+        progress.done();
+        LinearModelAnalyzer.log.info( "Analysis phase done ..." );
+        return res;
+    }
 
-                timer.reset();
+    /**
+     * Progress of a fit, as the fraction of its steps that are done. It is updated by the thread doing the fit and read
+     * by the one waiting for it.
+     */
+    private static class FitProgress {
+        private final int numSteps;
+        private volatile int stepsDone = 0;
+        private volatile String currentStep = "waiting to start";
+        private boolean started = false;
+
+        private FitProgress( DifferentialExpressionAnalysisConfig config ) {
+            // fitting and summarizing are always done
+            this.numSteps = 2 + ( config.getUseWeights() ? 1 : 0 ) + ( config.getModerateStatistics() ? 1 : 0 );
+        }
 
-                timer.start();
-                Map<String, LinearModelSummary> res = fit.summarizeByKeys( true );
-                LinearModelAnalyzer.log.info( "Model summarize/ANOVA: " + timer.getTime() + "ms" );
-                rawResults.putAll( res );
-                LinearModelAnalyzer.log.info( "Analysis phase done ..." );
+        /**
+         * Mark the current step as done, if any, and start the next one.
+         *
+         * @throws CancellationException if the current thread was interrupted
+         */
+        private void begin( String step ) {
+            if ( Thread.currentThread().isInterrupted() ) {
+                throw new CancellationException( "Fit was cancelled while " + currentStep );
             }
-        } );
+            if ( started ) {
+                stepsDone++;
+            }
+            started = true;
+            currentStep = step;
+        }
 
-        return f;
+        private void done() {
+            stepsDone = numSteps;
+            currentStep = "done";
+        }
+
+        @Override
+        public String toString() {
+            return String.format( "%.0f%% done, %s", 100.0 * stepsDone / numSteps, currentStep );
+        }
+    }
+
+    /**
+     * Everything needed to fit the models of an analysis, and to turn the fit into the analysis.
+     */
+    private static class PreparedAnalysis {
+        private final BioAssaySet bioAssaySet;
+        private final DifferentialExpressionAnalysisConfig config;
+        private final Map<String, Collection<ExperimentalFactor>> label2Factors;
+        private final Map<ExperimentalFactor, FactorValue> baselineConditions;
+        private final ExperimentalFactor interceptFactor;
+        private final List<String[]> interactionFactorLists;
+        private final boolean oneSampleTTest;
+        private final DoubleMatrix<CompositeSequence, BioMaterial> bareFilteredDataMatrix;
+        private final DoubleMatrix<String, String> finalDataMatrix;
+        private final DesignMatrix designMatrix;
+        private final DoubleMatrix1D librarySizes;
+        private final FactorValue subsetFactorValue;
+
+        private PreparedAnalysis( BioAssaySet bioAssaySet, DifferentialExpressionAnalysisConfig config,
+                Map<String, Collection<ExperimentalFactor>> label2Factors,
+                Map<ExperimentalFactor, FactorValue> baselineConditions, ExperimentalFactor interceptFactor,
+                List<String[]> interactionFactorLists, boolean oneSampleTTest,
+                DoubleMatrix<CompositeSequence, BioMaterial> bareFilteredDataMatrix,
+                DoubleMatrix<String, String> finalDataMatrix, DesignMatrix designMatrix, DoubleMatrix1D librarySizes,
+                FactorValue subsetFactorValue ) {
+            this.bioAssaySet = bioAssaySet;
+            this.config = config;
+            this.label2Factors = label2Factors;
+            this.baselineConditions = baselineConditions;
+            this.interceptFactor = interceptFactor;
+            this.interactionFactorLists = interactionFactorLists;
+            this.oneSampleTTest = oneSampleTTest;
+            this.bareFilteredDataMatrix = bareFilteredDataMatrix;
+            this.finalDataMatrix = finalDataMatrix;
+            this.designMatrix = designMatrix;
+            this.librarySizes = librarySizes;
+            this.subsetFactorValue = subsetFactorValue;
+        }
+    }
+
+    /**
+     * A prepared analysis whose models are being fitted.
+     */
+    private class RunningFit {
+        private final PreparedAnalysis prepared;
+        private final Map<String, LinearModelSummary> rawResults = new ConcurrentHashMap<>();
+        private final FitProgress progress;
+        private final StopWatch timer;
+        private final Future<?> future;
+
+        private RunningFit( final PreparedAnalysis prepared, ExecutorService executor ) {
+            this.prepared = prepared;
+            this.progress = new FitProgress( prepared.config );
+            this.timer = StopWatch.createStarted();
+            this.future = executor.submit( new Runnable() {
+                @Override
+                public void run() {
+                    rawResults.putAll( LinearModelAnalyzer.this
+                            .fit( prepared.designMatrix, prepared.finalDataMatrix, prepared.librarySizes,
+                                    prepared.config, progress ) );
+                }
+            } );
+        }
+    }
+
+    /**
+     * Thrown when fitting the models takes longer than allowed.
+     */
+    private static class FitTimeoutException extends RuntimeException {
+        private FitTimeoutException( String message ) {
+            super( message );
+        }
     }
 }
@@ -42,6 +42,7 @@ import ubic.basecode.math.DescriptiveWithMissing;
 import ubic.basecode.math.distribution.Histogram;
 import ubic.basecode.math.linearmodels.DesignMatrix;
 import ubic.basecode.math.linearmodels.LeastSquaresFit;
+import ubic.gemma.persistence.util.Settings;
 
 import java.awt.*;
 import java.io.File;
@@ -49,10 +50,11 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * An implementation of the <a href="http://jlab.byu.edu/ComBat/Download.html">ComBat algorithm described by Johson et al</a>
@@ -68,6 +70,11 @@ public class ComBat<R, C> {
     private static final String BATCH_COLUMN_NAME = "batch";
     private static final Log log = LogFactory.getLog( ComBat.class );
 
+    /**
+     * Smallest number of rows of a batch fitted by one task of the nonparametric estimation.
+     */
+    private static final int MIN_ROWS_PER_TASK = 64;
+
     private final ObjectMatrix<C, String, ?> sampleInfo;
     private final DoubleMatrix<R, C> data;
 
@@ -390,65 +397,67 @@ public class ComBat<R, C> {
         }
     }
 
-    private void runNonParametric( final DoubleMatrix2D sdata, DoubleMatrix2D gammastar, DoubleMatrix2D deltastar ) {
-        final ConcurrentHashMap<String, DoubleMatrix1D[]> results = new ConcurrentHashMap<>();
-        int numThreads = Math.min( batches.size(), Runtime.getRuntime().availableProcessors() );
-
-        ComBat.log.info( "Runing nonparametric estimation on " + numThreads + " threads" );
-
-        Future<?>[] futures = new Future[numThreads];
-        ExecutorService service = Executors.newCachedThreadPool();
-
-        /*
-         * Divvy up batches over threads.
-         */
-
-        int batchesPerThread = batches.size() / numThreads;
-
+    /**
+     * The nonparametric fit is O(genes^2) for each batch, so the genes of each batch are split into blocks that are
+     * fitted independently, to keep all processors busy even when there are few batches.
+     */
+    private void runNonParametric( final DoubleMatrix2D sdata, final DoubleMatrix2D gammastar,
+            final DoubleMatrix2D deltastar ) {
+        ForkJoinPool pool = ComBat.Workers.POOL;
         final String[] batchIds = batches.keySet().toArray( new String[] {} );
-
-        for ( int i = 0; i < numThreads; i++ ) {
-
-            final int firstBatch = i * batchesPerThread;
-            final int lastBatch = i == ( numThreads - 1 ) ? batches.size() : firstBatch + batchesPerThread;
-
-            futures[i] = service.submit( new Runnable() {
-                @Override
-                public void run() {
-                    for ( int k = firstBatch; k < lastBatch; k++ ) {
-                        String batchId = batchIds[k];
-                        DoubleMatrix2D batchData = ComBat.this.getBatchData( sdata, batchId );
-                        DoubleMatrix1D[] batchResults = ComBat.this
-                                .nonParametricFit( batchData, gammaHat.viewRow( k ), deltaHat.viewRow( k ) );
-                        results.put( batchId, batchResults );
+        int rows = sdata.rows();
+        int blockSize = Math.max( ComBat.MIN_ROWS_PER_TASK,
+                ( int ) Math.ceil( ( double ) rows * batchIds.length / ( 4.0 * pool.getParallelism() ) ) );
+
+        ComBat.log.info( "Running nonparametric estimation for " + batchIds.length + " batches on " + pool
+                .getParallelism() + " threads, " + blockSize + " rows per task" );
+
+        StopWatch timer = StopWatch.createStarted();
+        final AtomicInteger rowsDone = new AtomicInteger();
+        final int totalRows = rows * batchIds.length;
+
+        Collection<Callable<Void>> tasks = new ArrayList<>();
+        for ( int k = 0; k < batchIds.length; k++ ) {
+            final int batchIndex = k;
+            final double[][] batchData = this.getBatchData( sdata, batchIds[k] ).toArray();
+            final double[] gHat = gammaHat.viewRow( k ).toArray();
+            final double[] dHat = deltaHat.viewRow( k ).toArray();
+            for ( int from = 0; from < rows; from += blockSize ) {
+                final int first = from;
+                final int last = Math.min( rows, from + blockSize );
+                tasks.add( new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        // each task writes to its own cells
+                        ComBat.this.nonParametricFit( batchData, gHat, dHat, first, last,
+                                gammastar.viewRow( batchIndex ), deltastar.viewRow( batchIndex ) );
+                        int done = rowsDone.addAndGet( last - first );
+                        if ( done / 10000 != ( done - last + first ) / 10000 ) {
+                            ComBat.log.info( String.format( "%d/%d rows done", done, totalRows ) );
+                        }
+                        return null;
                     }
-                }
-            } );
+                } );
+            }
         }
 
-        service.shutdown();
-
-        boolean allDone = false;
-        do {
-            for ( Future<?> f : futures ) {
-                allDone = true;
-                if ( !f.isDone() && !f.isCancelled() ) {
-                    allDone = false;
-                    break;
+        // invokeAll only returns once every task is done
+        List<Future<Void>> futures = pool.invokeAll( tasks );
+        for ( Future<Void> f : futures ) {
+            try {
+                f.get();
+            } catch ( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+                throw new ComBatException( "Interrupted while waiting for the nonparametric fit" );
+            } catch ( ExecutionException e ) {
+                if ( e.getCause() instanceof RuntimeException ) {
+                    throw ( RuntimeException ) e.getCause();
                 }
-            }
-        } while ( !allDone );
-
-        for ( int i = 0; i < batchIds.length; i++ ) {
-            String batchId = batchIds[i];
-            DoubleMatrix1D[] batchResults = results.get( batchId );
-            for ( int j = 0; j < batchResults[0].size(); j++ ) {
-                gammastar.set( i, j, batchResults[0].get( j ) );
-            }
-            for ( int j = 0; j < batchResults[1].size(); j++ ) {
-                deltastar.set( i, j, batchResults[1].get( j ) );
+                throw new RuntimeException( e.getCause() );
             }
         }
+
+        ComBat.log.info( String.format( "Nonparametric estimation done in %.1fs", timer.getTime() / 1000.0 ) );
     }
 
     private DoubleArrayList aPrior( DoubleMatrix2D d ) {
@@ -642,12 +651,26 @@ public class ComBat<R, C> {
         numProbes = y.rows();
     }
 
+    /**
+     * Iterative solution for the parametric estimates. Each iteration updates all the genes of the batch in a single
+     * pass over the data.
+     */
     private DoubleMatrix1D[] itSol( DoubleMatrix2D matrix, DoubleMatrix1D gHat, DoubleMatrix1D dHat, double gbar,
             double t2b, double a, double b ) throws ComBatException {
 
-        DoubleMatrix1D n = this.rowNonMissingCounts( matrix );
-        DoubleMatrix1D gold = gHat;
-        DoubleMatrix1D dold = dHat;
+        double[][] rows = matrix.toArray();
+        int numRows = rows.length;
+        double[] g = gHat.toArray();
+        double[] n = new double[numRows];
+        for ( int i = 0; i < numRows; i++ ) {
+            for ( double v : rows[i] ) {
+                if ( !Double.isNaN( v ) )
+                    n[i]++;
+            }
+        }
+
+        double[] gold = g;
+        double[] dold = dHat.toArray();
         final double conv = 0.0001;
         double change = 1.0;
         int count = 0;
@@ -655,23 +678,40 @@ public class ComBat<R, C> {
         int MAXITERS = 500;
 
         while ( change > conv ) {
-            DoubleMatrix1D gnew = this.postMean( gHat, gbar, n, dold, t2b );
-            DoubleMatrix1D sum2 = this.stepSum( matrix, gnew );
-            DoubleMatrix1D dnew = this.postVar( sum2, n, a, b );
-
-            DoubleMatrix1D gnewtmp = gnew.copy().assign( gold, Functions.minus ).assign( Functions.abs )
-                    .assign( gold, Functions.div );
-
-            DoubleMatrix1D dnewtmp = dnew.copy().assign( dold, Functions.minus ).assign( Functions.abs )
-                    .assign( dold, Functions.div );
-            double gnewmax;
-            double dnewmax;
-            if ( hasMissing ) {
-                gnewmax = DescriptiveWithMissing.max( new DoubleArrayList( gnewtmp.toArray() ) );
-                dnewmax = DescriptiveWithMissing.max( new DoubleArrayList( dnewtmp.toArray() ) );
-            } else {
-                gnewmax = gnewtmp.aggregate( Functions.max, Functions.identity );
-                dnewmax = dnewtmp.aggregate( Functions.max, Functions.identity );
+            double[] gnew = new double[numRows];
+            double[] dnew = new double[numRows];
+            double gnewmax = Double.NEGATIVE_INFINITY;
+            double dnewmax = Double.NEGATIVE_INFINITY;
+            for ( int i = 0; i < numRows; i++ ) {
+                // posterior mean
+                double gi = ( t2b * n[i] * g[i] + dold[i] * gbar ) / ( t2b * n[i] + dold[i] );
+
+                // sum of squares around it, ignoring missing values
+                double sum2 = 0.0;
+                for ( double v : rows[i] ) {
+                    if ( !Double.isNaN( v ) ) {
+                        double delta = v - gi;
+                        sum2 += delta * delta;
+                    }
+                }
+
+                // posterior variance
+                double di = ( 0.5 * sum2 + b ) / ( n[i] / 2.0 + a - 1.0 );
+
+                gnew[i] = gi;
+                dnew[i] = di;
+
+                double gchange = Math.abs( gi - gold[i] ) / gold[i];
+                double dchange = Math.abs( di - dold[i] ) / dold[i];
+                if ( hasMissing ) {
+                    if ( !Double.isNaN( gchange ) )
+                        gnewmax = Math.max( gnewmax, gchange );
+                    if ( !Double.isNaN( dchange ) )
+                        dnewmax = Math.max( dnewmax, dchange );
+                } else {
+                    gnewmax = Math.max( gnewmax, gchange );
+                    dnewmax = Math.max( dnewmax, dchange );
+                }
             }
 
             change = Math.max( gnewmax, dnewmax );
@@ -690,46 +730,42 @@ public class ComBat<R, C> {
             }
         }
 
-        return new DoubleMatrix1D[] { gold, dold };
+        return new DoubleMatrix1D[] { new DenseDoubleMatrix1D( gold ), new DenseDoubleMatrix1D( dold ) };
     }
 
-    private DoubleMatrix1D[] nonParametricFit( DoubleMatrix2D matrix, DoubleMatrix1D gHat, DoubleMatrix1D dHat ) {
-        DoubleMatrix1D gstar = new DenseDoubleMatrix1D( matrix.rows() );
-        DoubleMatrix1D dstar = new DenseDoubleMatrix1D( matrix.rows() );
+    /**
+     * Nonparametric estimates for rows [first, last) of the data of a batch, which are written to gstar and dstar.
+     */
+    private void nonParametricFit( double[][] matrix, double[] gHat, double[] dHat, int first, int last,
+            DoubleMatrix1D gstar, DoubleMatrix1D dstar ) {
         double twopi = 2.0 * Math.PI;
 
-        StopWatch timer = new StopWatch();
-        timer.start();
-
         /*
          * Vectorized schmectorized. In R you end up looping over the data many times. It's slow here too... but not too
          * horrible. 1000 rows of a 10k probe data set with 10 samples takes about 7.5 seconds on my laptop -- but this
          * has to be done for each batch. It's O( M*N^2 )
          */
-        int c = 1;
-        for ( int i = 0; i < matrix.rows(); i++ ) {
+        for ( int i = first; i < last; i++ ) {
 
-            double[] x = MatrixUtil.removeMissing( matrix.viewRow( i ) ).toArray();
+            double[] x = MatrixUtil.removeMissing( new DenseDoubleMatrix1D( matrix[i] ) ).toArray();
             int n = x.length;
             double no2 = n / 2.0;
 
             double sumLH = 0.0;
             double sumgLH = 0.0;
             double sumdLH = 0.0;
-            for ( int j = 0; j < matrix.rows(); j++ ) {
+            for ( int j = 0; j < matrix.length; j++ ) {
 
                 if ( j == i )
                     continue;
-                double g = gHat.getQuick( j );
-                double d = dHat.getQuick( j );
+                double g = gHat[j];
+                double d = dHat[j];
 
                 // compute the sum of squares of the difference between gHat[j] and the current data row.
-                // this is slower, though it's the "colt api" way.
-                // double sum2 = x.copy().assign( Functions.minus( g ) ).aggregate( Functions.plus, Functions.square );
-
                 double sum2 = 0.0;
                 for ( double aX : x ) {
-                    sum2 += Math.pow( aX - g, 2 );
+                    double delta = aX - g;
+                    sum2 += delta * delta;
                 }
 
                 double LH = ( 1.0 / Math.pow( twopi * d, no2 ) ) * Math.exp( -sum2 / ( 2 * d ) );
@@ -747,31 +783,7 @@ public class ComBat<R, C> {
 
             gstar.set( i, sumgLH / sumLH );
             dstar.set( i, sumdLH / sumLH );
-
-            if ( c++ % 1000 == 0 ) {
-                ComBat.log.info( i + String.format( " rows done, %.1fs elapsed", timer.getTime() / 1000.00 ) );
-            }
-        }
-
-        return new DoubleMatrix1D[] { gstar, dstar };
-    }
-
-    private DoubleMatrix1D postMean( DoubleMatrix1D ghat, double gbar, DoubleMatrix1D n, DoubleMatrix1D dstar,
-            double t2b ) {
-        DoubleMatrix1D result = new DenseDoubleMatrix1D( ghat.size() );
-        for ( int i = 0; i < ghat.size(); i++ ) {
-            result.set( i, ( t2b * n.get( i ) * ghat.get( i ) + dstar.get( i ) * gbar ) / ( t2b * n.get( i ) + dstar
-                    .get( i ) ) );
         }
-        return result;
-    }
-
-    private DoubleMatrix1D postVar( DoubleMatrix1D sum2, DoubleMatrix1D n, double a, double b ) {
-        DoubleMatrix1D result = new DenseDoubleMatrix1D( sum2.size() );
-        for ( int i = 0; i < sum2.size(); i++ ) {
-            result.set( i, ( 0.5 * sum2.get( i ) + b ) / ( n.get( i ) / 2.0 + a - 1.0 ) );
-        }
-        return result;
     }
 
     private DoubleMatrix2D rawAdjust( DoubleMatrix2D sdata, DoubleMatrix2D gammastar, DoubleMatrix2D deltastar ) {
@@ -824,42 +836,6 @@ public class ComBat<R, C> {
         return varRestore.assign( standMean, Functions.plus );
     }
 
-    private DoubleMatrix1D rowNonMissingCounts( DoubleMatrix2D matrix ) {
-        DoubleMatrix1D result = new DenseDoubleMatrix1D( matrix.rows() );
-        for ( int i = 0; i < matrix.rows(); i++ ) {
-            result.set( i, DescriptiveWithMissing
-                    .sizeWithoutMissingValues( new DoubleArrayList( matrix.viewRow( i ).toArray() ) ) );
-        }
-        return result;
-    }
-
-    private DoubleMatrix1D stepSum( DoubleMatrix2D matrix, DoubleMatrix1D gnew ) {
-
-        Algebra s = new Algebra();
-
-        DoubleMatrix2D g = new DenseDoubleMatrix2D( 1, gnew.size() );
-        for ( int i = 0; i < gnew.size(); i++ ) {
-            g.set( 0, i, gnew.get( i ) );
-        }
-
-        DoubleMatrix2D a = new DenseDoubleMatrix2D( 1, matrix.columns() );
-        a.assign( 1.0 );
-
-        /*
-         * subtract column gnew from each column of data; square; then sum over each row.
-         */
-
-        DoubleMatrix2D deltas = matrix.copy().assign( ( s.mult( s.transpose( g ), a ) ), Functions.minus )
-                .assign( Functions.square );
-        DoubleMatrix1D sumsq = new DenseDoubleMatrix1D( deltas.rows() );
-        sumsq.assign( 0.0 );
-
-        for ( int i = 0; i < deltas.rows(); i++ ) {
-            sumsq.set( i, DescriptiveWithMissing.sum( new DoubleArrayList( deltas.viewRow( i ).toArray() ) ) );
-        }
-        return sumsq;
-    }
-
     private void deltaHat( DoubleMatrix2D sdata ) {
         int batchIndex;
         deltaHat = new DenseDoubleMatrix2D( numBatches, numProbes );
@@ -875,4 +851,11 @@ public class ComBat<R, C> {
         }
     }
 
+    /**
+     * Threads shared by all ComBat runs, created when first needed. Idle threads are let go after a while.
+     */
+    private static class Workers {
+        private static final ForkJoinPool POOL = new ForkJoinPool( Math.max( 1,
+                Settings.getInt( "gemma.analysis.combat.numThreads", Runtime.getRuntime().availableProcessors() ) ) );
+    }
 }
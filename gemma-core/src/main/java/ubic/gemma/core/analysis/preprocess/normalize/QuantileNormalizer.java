@@ -18,8 +18,11 @@
  */
 package ubic.gemma.core.analysis.preprocess.normalize;
 
+import cern.colt.GenericSorting;
+import ubic.basecode.dataStructure.matrix.DenseDoubleMatrix;
 import ubic.basecode.dataStructure.matrix.DoubleMatrix;
-import ubic.basecode.math.MatrixNormalizer;
+
+import java.util.stream.IntStream;
 
 /**
  * Perform quantile normalization on a matrix, as described in:
@@ -30,17 +33,159 @@ import ubic.basecode.math.MatrixNormalizer;
  * Bolstad, B. M., Irizarry R. A., Astrand, M, and Speed, T. P. (2003) _A Comparison of Normalization Methods for High
  * Density Oligonucleotide Array Data Based on Bias and Variance._ Bioinformatics 19(2) ,pp 185-193. <a
  * href="http://www.stat.berkeley.edu/~bolstad/normalize/normalize.html">web page</a>.
- * However, note that this deals with missing values differently than the Bioconductor implementation.
+ * However, note that this deals with missing values differently than the Bioconductor implementation: missing values
+ * are sorted last in each column and stay missing, and the mean of each quantile is taken over the columns that have a
+ * value for it. Tied values get the average of the means of the quantiles they span.
+ * <p>
+ * The work is done on plain arrays of the columns, which are sorted in parallel. For data that doesn't fit in memory,
+ * see {@link StreamingQuantileNormalizer}.
+ * </p>
  *
  * @author pavlidis
  * @see ubic.basecode.math.MatrixNormalizer
  */
 public class QuantileNormalizer<R, C> {
 
+    /**
+     * Normalize the columns of the given data, in place.
+     *
+     * @param columns the data, one array per column; all the columns must have the same length.
+     */
+    public static void normalizeColumns( final double[][] columns ) {
+        int rows = columns.length == 0 ? 0 : columns[0].length;
+        for ( double[] column : columns ) {
+            if ( column.length != rows ) {
+                throw new IllegalArgumentException( "All columns must have the same length" );
+            }
+        }
+
+        final SortedColumn[] sorted = new SortedColumn[columns.length];
+        IntStream.range( 0, columns.length ).parallel()
+                .forEach( j -> sorted[j] = QuantileNormalizer.sort( columns[j] ) );
+
+        double[] sums = new double[rows];
+        int[] counts = new int[rows];
+        for ( SortedColumn column : sorted ) {
+            column.addTo( sums, counts );
+        }
+        final double[] cumulativeMeans = QuantileNormalizer.cumulativeMeans( sums, counts );
+
+        IntStream.range( 0, columns.length ).parallel()
+                .forEach( j -> sorted[j].fill( cumulativeMeans, columns[j] ) );
+    }
+
+    /**
+     * Sort a column, keeping track of where each value came from. Missing values end up last.
+     */
+    static SortedColumn sort( double[] column ) {
+        final double[] values = column.clone();
+        final int[] order = new int[values.length];
+        for ( int i = 0; i < order.length; i++ ) {
+            order[i] = i;
+        }
+        GenericSorting.quickSort( 0, values.length, ( a, b ) -> Double.compare( values[a], values[b] ), ( a, b ) -> {
+            double v = values[a];
+            values[a] = values[b];
+            values[b] = v;
+            int o = order[a];
+            order[a] = order[b];
+            order[b] = o;
+        } );
+        return new SortedColumn( values, order );
+    }
+
+    /**
+     * @return the running sums of the means of the quantiles, starting with zero, so the mean over quantiles [a, b) is
+     * (result[b] - result[a]) / (b - a).
+     */
+    static double[] cumulativeMeans( double[] sums, int[] counts ) {
+        double[] result = new double[sums.length + 1];
+        for ( int i = 0; i < sums.length; i++ ) {
+            // a quantile without any values can't be used by any column
+            result[i + 1] = result[i] + ( counts[i] == 0 ? 0.0 : sums[i] / counts[i] );
+        }
+        return result;
+    }
+
     public DoubleMatrix<R, C> normalize( DoubleMatrix<R, C> dataMatrix ) {
+        int rows = dataMatrix.rows();
+        double[][] columns = new double[dataMatrix.columns()][];
+        for ( int j = 0; j < columns.length; j++ ) {
+            columns[j] = dataMatrix.getColumn( j );
+        }
+
+        QuantileNormalizer.normalizeColumns( columns );
+
+        double[][] result = new double[rows][columns.length];
+        for ( int j = 0; j < columns.length; j++ ) {
+            for ( int i = 0; i < rows; i++ ) {
+                result[i][j] = columns[j][i];
+            }
+        }
+        DoubleMatrix<R, C> normalized = new DenseDoubleMatrix<>( result );
+        normalized.setRowNames( dataMatrix.getRowNames() );
+        normalized.setColumnNames( dataMatrix.getColNames() );
+        return normalized;
+    }
+
+    /**
+     * A sorted column, with the original position of each value.
+     */
+    static class SortedColumn {
+
+        private final double[] values;
+        private final int[] order;
+        private final int nonMissing;
+
+        SortedColumn( double[] values, int[] order ) {
+            this.values = values;
+            this.order = order;
+            int n = values.length;
+            while ( n > 0 && Double.isNaN( values[n - 1] ) ) {
+                n--;
+            }
+            this.nonMissing = n;
+        }
+
+        double[] getValues() {
+            return values;
+        }
+
+        int[] getOrder() {
+            return order;
+        }
 
-        MatrixNormalizer<R, C> m = new MatrixNormalizer<>();
-        return m.quantileNormalize( dataMatrix );
+        /**
+         * Add the values to the totals of their quantile.
+         */
+        void addTo( double[] sums, int[] counts ) {
+            for ( int k = 0; k < nonMissing; k++ ) {
+                sums[k] += values[k];
+                counts[k]++;
+            }
+        }
 
+        /**
+         * Replace each value by the mean of its quantile(s), putting it back where it came from.
+         *
+         * @param cumulativeMeans see {@link QuantileNormalizer#cumulativeMeans(double[], int[])}
+         * @param result          the column to write to, which may be the original one
+         */
+        void fill( double[] cumulativeMeans, double[] result ) {
+            int k = 0;
+            while ( k < nonMissing ) {
+                int end = k + 1;
+                while ( end < nonMissing && Double.compare( values[end], values[k] ) == 0 ) {
+                    end++;
+                }
+                double mean = ( cumulativeMeans[end] - cumulativeMeans[k] ) / ( end - k );
+                for ( ; k < end; k++ ) {
+                    result[order[k]] = mean;
+                }
+            }
+            for ( ; k < values.length; k++ ) {
+                result[order[k]] = Double.NaN;
+            }
+        }
     }
 }
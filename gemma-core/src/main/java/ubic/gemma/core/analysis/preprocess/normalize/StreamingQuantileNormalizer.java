@@ -0,0 +1,154 @@
+/*
+ * The Gemma project
+ *
+ * Copyright (c) 2026 University of British Columbia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ubic.gemma.core.analysis.preprocess.normalize;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Quantile normalization, as done by {@link QuantileNormalizer}, for data that is too large to be held in memory. The
+ * columns are added one at a time; each is sorted and written to a memory-mapped scratch file, so only the totals of
+ * the quantiles stay on the heap. Once all the columns are in, the normalized columns can be read back one at a time.
+ * Columns can be added from several threads at once.
+ * <p>
+ * The scratch file is deleted by {@link #close()}.
+ * </p>
+ *
+ * @author agent
+ */
+public class StreamingQuantileNormalizer implements Closeable {
+
+    /**
+     * Each column is stored as its sorted values, followed by the original position of each value.
+     */
+    private static final int BYTES_PER_VALUE = 8 + 4;
+
+    private final int rows;
+    private final File scratchFile;
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+
+    private final double[] sums;
+    private final int[] counts;
+    private int columns = 0;
+    private double[] cumulativeMeans = null;
+
+    /**
+     * @param rows             the number of rows of each column
+     * @param scratchDirectory where to put the scratch file, or null to use the default temporary directory
+     * @throws IOException if the scratch file could not be created
+     */
+    public StreamingQuantileNormalizer( int rows, File scratchDirectory ) throws IOException {
+        this.rows = rows;
+        this.sums = new double[rows];
+        this.counts = new int[rows];
+        this.scratchFile = File.createTempFile( "qnorm.", ".tmp", scratchDirectory );
+        this.scratchFile.deleteOnExit();
+        this.file = new RandomAccessFile( scratchFile, "rw" );
+        this.channel = file.getChannel();
+    }
+
+    /**
+     * @param column the values of the next column, which are not modified
+     * @return the index of the column, to use with {@link #getNormalizedColumn(int)}
+     * @throws IOException if the column could not be written to the scratch file
+     */
+    public int addColumn( double[] column ) throws IOException {
+        if ( column.length != rows ) {
+            throw new IllegalArgumentException( "Column has " + column.length + " values, expected " + rows );
+        }
+
+        QuantileNormalizer.SortedColumn sorted = QuantileNormalizer.sort( column );
+
+        int index;
+        synchronized ( this ) {
+            if ( cumulativeMeans != null ) {
+                throw new IllegalStateException( "Cannot add columns once normalized columns have been read" );
+            }
+            sorted.addTo( sums, counts );
+            index = columns++;
+        }
+
+        MappedByteBuffer buf = channel.map( FileChannel.MapMode.READ_WRITE, this.offset( index ),
+                ( long ) rows * StreamingQuantileNormalizer.BYTES_PER_VALUE );
+        buf.asDoubleBuffer().put( sorted.getValues() );
+        buf.position( rows * 8 );
+        buf.asIntBuffer().put( sorted.getOrder() );
+        return index;
+    }
+
+    /**
+     * @return the number of columns added so far
+     */
+    public synchronized int columns() {
+        return columns;
+    }
+
+    /**
+     * Should only be called once all the columns have been added.
+     *
+     * @param index of the column, as returned by {@link #addColumn(double[])}
+     * @return the normalized values of the column, in their original order
+     * @throws IOException if the column could not be read from the scratch file
+     */
+    public double[] getNormalizedColumn( int index ) throws IOException {
+        double[] means;
+        synchronized ( this ) {
+            if ( index < 0 || index >= columns ) {
+                throw new IndexOutOfBoundsException( "No column " + index + ", there are " + columns );
+            }
+            if ( cumulativeMeans == null ) {
+                cumulativeMeans = QuantileNormalizer.cumulativeMeans( sums, counts );
+            }
+            means = cumulativeMeans;
+        }
+
+        MappedByteBuffer buf = channel.map( FileChannel.MapMode.READ_ONLY, this.offset( index ),
+                ( long ) rows * StreamingQuantileNormalizer.BYTES_PER_VALUE );
+        double[] values = new double[rows];
+        int[] order = new int[rows];
+        buf.asDoubleBuffer().get( values );
+        buf.position( rows * 8 );
+        buf.asIntBuffer().get( order );
+
+        double[] result = new double[rows];
+        new QuantileNormalizer.SortedColumn( values, order ).fill( means, result );
+        return result;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            channel.close();
+            file.close();
+        } finally {
+            if ( !scratchFile.delete() ) {
+                throw new IOException( "Could not delete " + scratchFile );
+            }
+        }
+    }
+
+    private long offset( int index ) {
+        return ( long ) index * rows * StreamingQuantileNormalizer.BYTES_PER_VALUE;
+    }
+}
@@ -50,6 +50,12 @@ import java.util.List;
  * V matrix columns are the <em>eigengenes</em>. See also http://genome-www.stanford.edu/SVD/.
  * Because SVD can't be done on a matrix with missing values, values are imputed. Rows with no variance are removed, and
  * rows with too many missing values are also removed (MIN_PRESENT_FRACTION_FOR_ROW)
+ * <p>
+ * If a number of components is given, only those are computed, with a randomized method (see {@link RandomizedSVD}),
+ * which is much faster and uses much less memory for experiments with many samples. In that case U has only that many
+ * columns, V has one row per sample and one column per component, and the operations that need all the components
+ * ({@link #equalize()}, {@link #uMatrixAsExpressionData()}) are not available.
+ * </p>
  *
  * @author paul
  */
@@ -62,6 +68,15 @@ public class ExpressionDataSVD {
     private ExpressionDataDoubleMatrix expressionData;
     private boolean normalized = false;
 
+    /*
+     * Only for truncated SVD: the matrix that was decomposed and the results.
+     */
+    private double[][] decomposed;
+    private RandomizedSVD truncated;
+    private DoubleMatrix<CompositeSequence, Integer> truncatedU;
+    private DoubleMatrix<Integer, BioMaterial> truncatedV;
+    private DoubleMatrix<Integer, Integer> truncatedS;
+
     /**
      * Does normalization.
      *
@@ -77,6 +92,17 @@ public class ExpressionDataSVD {
      *                        rows and columns ("double-standardized")
      */
     public ExpressionDataSVD( ExpressionDataDoubleMatrix expressionData, boolean normalizeMatrix ) {
+        this( expressionData, normalizeMatrix, 0 );
+    }
+
+    /**
+     * @param expressionData  Note that this may be modified!
+     * @param normalizeMatrix If true, the data matrix will be rescaled and centred to mean zero, variance one, for both
+     *                        rows and columns ("double-standardized")
+     * @param numComponents   if greater than zero and less than the number of samples, only compute that many
+     *                        components, with a randomized truncated SVD. Otherwise the full SVD is done.
+     */
+    public ExpressionDataSVD( ExpressionDataDoubleMatrix expressionData, boolean normalizeMatrix, int numComponents ) {
         this.expressionData = expressionData;
 
         ArrayDesign arrayDesign = expressionData.getRowElement( 0 ).getDesignElement().getArrayDesign();
@@ -135,7 +161,13 @@ public class ExpressionDataSVD {
             matrix = MatrixStats.doubleStandardize( matrix );
         }
 
-        this.svd = new SingularValueDecomposition<>( matrix );
+        if ( numComponents > 0 && numComponents < matrix.columns() ) {
+            this.decomposed = matrix.getRawMatrix();
+            this.truncated = new RandomizedSVD( decomposed, numComponents );
+            this.initTruncatedResults( matrix );
+        } else {
+            this.svd = new SingularValueDecomposition<>( matrix );
+        }
     }
 
     /**
@@ -145,6 +177,7 @@ public class ExpressionDataSVD {
      * @return the reconstructed matrix; values that were missing before are re-masked.
      */
     public ExpressionDataDoubleMatrix equalize() {
+        this.checkNotTruncated();
         DoubleMatrix<Integer, Integer> copy = svd.getS().copy();
 
         for ( int i = 0; i < copy.columns(); i++ ) {
@@ -211,7 +244,7 @@ public class ExpressionDataSVD {
      * @return how many rows the U matrix has.
      */
     public int getNumVariables() {
-        return this.svd.getU().rows();
+        return this.getU().rows();
     }
 
     /**
@@ -219,18 +252,52 @@ public class ExpressionDataSVD {
      *         from 0).
      */
     public DoubleMatrix<Integer, Integer> getS() {
-        return svd.getS();
+        return truncated != null ? truncatedS : svd.getS();
     }
 
     public double[] getSingularValues() {
-        return this.svd.getSingularValues();
+        return truncated != null ? truncated.getSingularValues() : this.svd.getSingularValues();
+    }
+
+    /**
+     * @return the number of components computed.
+     */
+    public int getNumComponents() {
+        return this.getSingularValues().length;
+    }
+
+    /**
+     * @return true if only some of the components were computed.
+     */
+    public boolean isTruncated() {
+        return truncated != null;
+    }
+
+    /**
+     * @return the total variance of the data, that is, the sum of all the eigenvalues, including those of components
+     *         that were not computed.
+     */
+    public double getTotalVariance() {
+        return this.getTotalSumOfSquares() / ( this.getNumVariables() - 1 );
+    }
+
+    /**
+     * @return how much of the data is not accounted for by the components computed: the Frobenius norm of the
+     *         difference between the decomposed matrix and its reconstruction from the components, relative to the
+     *         norm of the matrix. Zero (to rounding) for the full SVD.
+     */
+    public double getTruncationError() {
+        if ( truncated == null ) {
+            return 0.0;
+        }
+        return truncated.getResidualNorm() / Math.sqrt( truncated.getTotalSumOfSquares() );
     }
 
     /**
      * @return the left singular vectors. The column indices are of the eigenarrays (starting from 0).
      */
     public DoubleMatrix<CompositeSequence, Integer> getU() {
-        return svd.getU();
+        return truncated != null ? truncatedU : svd.getU();
     }
 
     /**
@@ -238,24 +305,17 @@ public class ExpressionDataSVD {
      *         are of the original samples in the given ExpressionDataDoubleMatrix.
      */
     public DoubleMatrix<Integer, BioMaterial> getV() {
-        return svd.getV();
+        return truncated != null ? truncatedV : svd.getV();
     }
 
     /**
      * @return fractions of the variance for each singular vector.
      */
     public Double[] getVarianceFractions() {
-        double[] singularValues = svd.getSingularValues();
+        double[] singularValues = this.getSingularValues();
         // d should be be square roots of the eigenvalues scaled by number of variables: check
 
-        int numVariables = this.getNumVariables();
-
-        double sum = 0;
-        for ( double d : singularValues ) {
-
-            double d2 = d * d / ( numVariables - 1 );
-            sum += d2;
-        }
+        double sum = this.getTotalVariance();
         Double[] answer = new Double[singularValues.length];
         for ( int i = 0; i < singularValues.length; i++ ) {
             answer[i] = singularValues[i] * singularValues[i] / sum;
@@ -273,6 +333,9 @@ public class ExpressionDataSVD {
      * @return                       the reconstructed matrix; values that were missing before are re-masked.
      */
     public ExpressionDataDoubleMatrix removeHighestComponents( int numComponentsToRemove ) {
+        if ( truncated != null ) {
+            return this.removeHighestComponentsTruncated( numComponentsToRemove );
+        }
         DoubleMatrix<Integer, Integer> copy = svd.getS().copy();
 
         for ( int i = 0; i < numComponentsToRemove; i++ ) {
@@ -321,6 +384,7 @@ public class ExpressionDataSVD {
         if ( !normalized ) {
             throw new IllegalStateException( "You must do SVD on the normalized matrix" );
         }
+        this.checkNotTruncated();
 
         DoubleMatrix<CompositeSequence, Integer> rawUMatrix = svd.getU();
 
@@ -426,6 +490,77 @@ public class ExpressionDataSVD {
 
     }
 
+    private void checkNotTruncated() {
+        if ( truncated != null ) {
+            throw new IllegalStateException( "Not available when only some of the components were computed" );
+        }
+    }
+
+    private double getTotalSumOfSquares() {
+        if ( truncated != null ) {
+            return truncated.getTotalSumOfSquares();
+        }
+        double sum = 0.0;
+        for ( double d : svd.getSingularValues() ) {
+            sum += d * d;
+        }
+        return sum;
+    }
+
+    private void initTruncatedResults( DoubleMatrix<CompositeSequence, BioMaterial> matrix ) {
+        int k = truncated.getSingularValues().length;
+        List<Integer> componentNames = new ArrayList<>( k );
+        for ( int c = 0; c < k; c++ ) {
+            componentNames.add( c );
+        }
+
+        truncatedU = new DenseDoubleMatrix<>( truncated.getU() );
+        truncatedU.setRowNames( matrix.getRowNames() );
+        truncatedU.setColumnNames( componentNames );
+
+        // one row per sample, as for the full SVD; but there are fewer columns than samples, so they can't be named.
+        truncatedV = new DenseDoubleMatrix<>( truncated.getV() );
+
+        truncatedS = new DenseDoubleMatrix<>( k, k );
+        for ( int c = 0; c < k; c++ ) {
+            truncatedS.set( c, c, truncated.getSingularValues()[c] );
+        }
+        truncatedS.setRowNames( componentNames );
+        truncatedS.setColumnNames( componentNames );
+    }
+
+    /**
+     * Subtract the highest components from the decomposed matrix, rather than rebuilding it from all the components.
+     */
+    private ExpressionDataDoubleMatrix removeHighestComponentsTruncated( int numComponentsToRemove ) {
+        int k = truncated.getSingularValues().length;
+        if ( numComponentsToRemove > k ) {
+            throw new IllegalArgumentException(
+                    "Cannot remove " + numComponentsToRemove + " components, only " + k + " were computed" );
+        }
+        double[][] u = truncated.getU();
+        double[][] v = truncated.getV();
+        double[] s = truncated.getSingularValues();
+
+        DoubleMatrix<CompositeSequence, BioMaterial> reconstructed = new DenseDoubleMatrix<>( decomposed.length,
+                decomposed[0].length );
+        for ( int i = 0; i < decomposed.length; i++ ) {
+            for ( int j = 0; j < decomposed[i].length; j++ ) {
+                double d = decomposed[i][j];
+                for ( int c = 0; c < numComponentsToRemove; c++ ) {
+                    d -= u[i][c] * s[c] * v[j][c];
+                }
+                // re-mask the missing values.
+                reconstructed.set( i, j, Double.isNaN( this.missingValueInfo.get( i, j ) ) ? Double.NaN : d );
+            }
+        }
+
+        reconstructed.setRowNames( this.expressionData.getMatrix().getRowNames() );
+        reconstructed.setColumnNames( this.expressionData.getMatrix().getColNames() );
+
+        return new ExpressionDataDoubleMatrix( this.expressionData, reconstructed );
+    }
+
     /**
      * Simple imputation method. Generally (but not always), missing values correspond to "low expression". Therefore
      * imputed values of zero are defensible. However, because at this point the matrix has probably already been
@@ -0,0 +1,268 @@
+/*
+ * The Gemma project
+ *
+ * Copyright (c) 2026 University of British Columbia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ubic.gemma.core.analysis.preprocess.svd;
+
+import cern.colt.matrix.DoubleMatrix2D;
+import cern.colt.matrix.impl.DenseDoubleMatrix2D;
+import cern.colt.matrix.linalg.SingularValueDecomposition;
+import cern.jet.random.Normal;
+import cern.jet.random.engine.MersenneTwister;
+
+import java.util.stream.IntStream;
+
+/**
+ * Truncated SVD of a matrix, A ~ U S V', computing only the first k components, using the randomized range finder with
+ * power iterations described in:
+ * <p>
+ * Halko, N, Martinsson, PG and Tropp, JA (2011). Finding structure with randomness: probabilistic algorithms for
+ * constructing approximate matrix decompositions. SIAM Review 53(2):217-288.
+ * </p>
+ * Besides the input, only matrices with k + 10 columns are held in memory. The products with the input are computed in
+ * parallel over its rows. The random numbers are seeded, so the results are reproducible.
+ *
+ * @author agent
+ */
+class RandomizedSVD {
+
+    /**
+     * Extra dimensions sampled beyond the number of components asked for.
+     */
+    private static final int OVERSAMPLING = 10;
+
+    /**
+     * Number of power iterations; this sharpens the decay of the spectrum, which is slow for expression data.
+     */
+    private static final int POWER_ITERATIONS = 2;
+
+    private static final int SEED = 4357;
+
+    private final double[][] u;
+    private final double[] singularValues;
+    private final double[][] v;
+    private final double totalSumOfSquares;
+
+    /**
+     * @param a the matrix, by rows, which is not modified; must have at least as many rows as columns.
+     * @param k the number of components, at most the number of columns of a.
+     */
+    RandomizedSVD( final double[][] a, int k ) {
+        int m = a.length;
+        int n = m == 0 ? 0 : a[0].length;
+        if ( k < 1 || k > n || m < n ) {
+            throw new IllegalArgumentException( "Cannot compute " + k + " components of a " + m + " x " + n + " matrix" );
+        }
+        int l = Math.min( n, k + RandomizedSVD.OVERSAMPLING );
+
+        // random projection of the columns
+        Normal normal = new Normal( 0.0, 1.0, new MersenneTwister( RandomizedSVD.SEED ) );
+        double[][] omega = new double[l][n];
+        for ( double[] column : omega ) {
+            for ( int j = 0; j < n; j++ ) {
+                column[j] = normal.nextDouble();
+            }
+        }
+
+        double[][] q = RandomizedSVD.orthonormalize( RandomizedSVD.mult( a, omega ) );
+        for ( int i = 0; i < RandomizedSVD.POWER_ITERATIONS; i++ ) {
+            double[][] z = RandomizedSVD.orthonormalize( RandomizedSVD.multTransposed( a, q ) );
+            q = RandomizedSVD.orthonormalize( RandomizedSVD.mult( a, z ) );
+        }
+
+        /*
+         * A ~ Q Q'A = Q B; B' = A'Q is n x l, so has at least as many rows as columns, as colt needs. If B' = W S X', then
+         * A ~ (Q X) S W'.
+         */
+        double[][] bt = RandomizedSVD.multTransposed( a, q );
+        DoubleMatrix2D btm = new DenseDoubleMatrix2D( n, l );
+        for ( int c = 0; c < l; c++ ) {
+            for ( int j = 0; j < n; j++ ) {
+                btm.setQuick( j, c, bt[c][j] );
+            }
+        }
+        SingularValueDecomposition small = new SingularValueDecomposition( btm );
+        DoubleMatrix2D w = small.getU();
+        DoubleMatrix2D x = small.getV();
+        double[] s = small.getSingularValues();
+
+        this.singularValues = new double[k];
+        System.arraycopy( s, 0, singularValues, 0, k );
+
+        this.v = new double[n][k];
+        for ( int j = 0; j < n; j++ ) {
+            for ( int c = 0; c < k; c++ ) {
+                v[j][c] = w.getQuick( j, c );
+            }
+        }
+
+        this.u = new double[m][k];
+        for ( int i = 0; i < m; i++ ) {
+            for ( int c = 0; c < k; c++ ) {
+                double sum = 0.0;
+                for ( int t = 0; t < l; t++ ) {
+                    sum += q[t][i] * x.getQuick( t, c );
+                }
+                u[i][c] = sum;
+            }
+        }
+
+        this.totalSumOfSquares = IntStream.range( 0, m ).parallel().mapToDouble( i -> {
+            double sum = 0.0;
+            for ( double d : a[i] ) {
+                sum += d * d;
+            }
+            return sum;
+        } ).sum();
+    }
+
+    /**
+     * @return the left singular vectors, by rows (m x k).
+     */
+    double[][] getU() {
+        return u;
+    }
+
+    /**
+     * @return the right singular vectors, by rows (n x k).
+     */
+    double[][] getV() {
+        return v;
+    }
+
+    /**
+     * @return the first k singular values, in decreasing order.
+     */
+    double[] getSingularValues() {
+        return singularValues;
+    }
+
+    /**
+     * @return the sum of squares of the input, which is also the sum of the squares of all its singular values.
+     */
+    double getTotalSumOfSquares() {
+        return totalSumOfSquares;
+    }
+
+    /**
+     * As U is orthonormal and U S V' = U U'A, this is exact for the computed components, not an estimate.
+     *
+     * @return the Frobenius norm of A - U S V'.
+     */
+    double getResidualNorm() {
+        double captured = 0.0;
+        for ( double s : singularValues ) {
+            captured += s * s;
+        }
+        return Math.sqrt( Math.max( 0.0, totalSumOfSquares - captured ) );
+    }
+
+    /**
+     * @param a       m x n, by rows
+     * @param columns of an n x l matrix
+     * @return columns of the m x l product
+     */
+    private static double[][] mult( final double[][] a, final double[][] columns ) {
+        final double[][] result = new double[columns.length][a.length];
+        IntStream.range( 0, a.length ).parallel().forEach( i -> {
+            double[] row = a[i];
+            for ( int c = 0; c < columns.length; c++ ) {
+                double[] column = columns[c];
+                double sum = 0.0;
+                for ( int j = 0; j < row.length; j++ ) {
+                    sum += row[j] * column[j];
+                }
+                result[c][i] = sum;
+            }
+        } );
+        return result;
+    }
+
+    /**
+     * @param a       m x n, by rows
+     * @param columns of an m x l matrix
+     * @return columns of the n x l product of a' and the matrix; each thread sums over a block of rows of a.
+     */
+    private static double[][] multTransposed( final double[][] a, final double[][] columns ) {
+        final int n = a[0].length;
+        final int l = columns.length;
+        final int blockSize = 1024;
+        int numBlocks = ( a.length + blockSize - 1 ) / blockSize;
+        return IntStream.range( 0, numBlocks ).parallel().mapToObj( b -> {
+            double[][] partial = new double[l][n];
+            for ( int i = b * blockSize; i < Math.min( a.length, ( b + 1 ) * blockSize ); i++ ) {
+                double[] row = a[i];
+                for ( int c = 0; c < l; c++ ) {
+                    double q = columns[c][i];
+                    if ( q == 0.0 )
+                        continue;
+                    double[] p = partial[c];
+                    for ( int j = 0; j < n; j++ ) {
+                        p[j] += row[j] * q;
+                    }
+                }
+            }
+            return partial;
+        } ).reduce( ( x, y ) -> {
+            for ( int c = 0; c < l; c++ ) {
+                for ( int j = 0; j < n; j++ ) {
+                    x[c][j] += y[c][j];
+                }
+            }
+            return x;
+        } ).orElseThrow( IllegalStateException::new );
+    }
+
+    /**
+     * Modified Gram-Schmidt, done twice for stability. Columns that are dependent on the previous ones are zeroed.
+     *
+     * @param columns modified in place
+     * @return the columns
+     */
+    private static double[][] orthonormalize( double[][] columns ) {
+        for ( int c = 0; c < columns.length; c++ ) {
+            double[] col = columns[c];
+            double before = RandomizedSVD.norm( col );
+            for ( int pass = 0; pass < 2; pass++ ) {
+                for ( int p = 0; p < c; p++ ) {
+                    double[] prev = columns[p];
+                    double dot = 0.0;
+                    for ( int i = 0; i < col.length; i++ ) {
+                        dot += col[i] * prev[i];
+                    }
+                    for ( int i = 0; i < col.length; i++ ) {
+                        col[i] -= dot * prev[i];
+                    }
+                }
+            }
+            double norm = RandomizedSVD.norm( col );
+            double scale = norm <= before * 1e-12 ? 0.0 : 1.0 / norm;
+            for ( int i = 0; i < col.length; i++ ) {
+                col[i] *= scale;
+            }
+        }
+        return columns;
+    }
+
+    private static double norm( double[] x ) {
+        double sum = 0.0;
+        for ( double d : x ) {
+            sum += d * d;
+        }
+        return Math.sqrt( sum );
+    }
+}
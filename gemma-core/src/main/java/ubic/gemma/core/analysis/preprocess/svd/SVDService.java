@@ -32,6 +32,11 @@ public interface SVDService {
 
     SVDValueObject svd( Long eeId );
 
+    /**
+     * @param numComponents how many components to compute, with a truncated SVD; zero for all of them.
+     */
+    SVDValueObject svd( Long eeId, int numComponents );
+
     SVDValueObject getSvdFactorAnalysis( Long eeId );
 
 }
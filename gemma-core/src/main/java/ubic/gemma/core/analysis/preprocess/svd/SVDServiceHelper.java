@@ -40,9 +40,19 @@ public interface SVDServiceHelper {
     @Secured({ "GROUP_USER", "ACL_SECURABLE_EDIT" })
     void svd( Collection<ExpressionExperiment> ees );
 
+    /**
+     * Compute the SVD with the default number of components (setting gemma.svd.components; if zero, all of them).
+     */
     @Secured({ "GROUP_USER", "ACL_SECURABLE_EDIT" })
     SVDValueObject svd( ExpressionExperiment ee );
 
+    /**
+     * @param numComponents how many components to compute, with a truncated SVD; if zero or at least the number of
+     *                      samples, all of them are.
+     */
+    @Secured({ "GROUP_USER", "ACL_SECURABLE_EDIT" })
+    SVDValueObject svd( ExpressionExperiment ee, int numComponents );
+
     @Secured({ "IS_AUTHENTICATED_ANONYMOUSLY", "ACL_SECURABLE_READ" })
     Map<ProbeLoading, DoubleVectorValueObject> getTopLoadedVectors( ExpressionExperiment ee, int component, int count );
 
@@ -45,6 +45,7 @@ import ubic.gemma.persistence.service.common.auditAndSecurity.AuditTrailService;
 import ubic.gemma.persistence.service.expression.bioAssayData.ProcessedExpressionDataVectorService;
 import ubic.gemma.persistence.service.expression.experiment.ExpressionExperimentService;
 import ubic.gemma.persistence.util.EntityUtils;
+import ubic.gemma.persistence.util.Settings;
 
 import java.util.*;
 
@@ -71,6 +72,11 @@ public class SVDServiceHelperImpl implements SVDServiceHelper {
 
     private static final int MAX_EIGEN_GENES_TO_TEST = 5;
 
+    /**
+     * Default number of components to compute; zero for all of them.
+     */
+    private static final String NUM_COMPONENTS_PROPERTY = "gemma.svd.components";
+
     private static final Log log = LogFactory.getLog( SVDServiceHelperImpl.class );
 
     @Autowired
@@ -150,6 +156,11 @@ public class SVDServiceHelperImpl implements SVDServiceHelper {
 
     @Override
     public SVDValueObject svd( ExpressionExperiment ee ) {
+        return this.svd( ee, Settings.getInt( SVDServiceHelperImpl.NUM_COMPONENTS_PROPERTY, 0 ) );
+    }
+
+    @Override
+    public SVDValueObject svd( ExpressionExperiment ee, int numComponents ) {
         assert ee != null;
 
         Collection<ProcessedExpressionDataVector> vectors = processedExpressionDataVectorService
@@ -162,10 +173,16 @@ public class SVDServiceHelperImpl implements SVDServiceHelper {
         processedExpressionDataVectorService.thaw( vectors );
         ExpressionDataDoubleMatrix mat = new ExpressionDataDoubleMatrix( vectors );
 
-        SVDServiceHelperImpl.log.info( "Starting SVD" );
-        ExpressionDataSVD svd = new ExpressionDataSVD( mat );
+        SVDServiceHelperImpl.log
+                .info( "Starting SVD" + ( numComponents > 0 ? ", " + numComponents + " components" : "" ) );
+        ExpressionDataSVD svd = new ExpressionDataSVD( mat, true, numComponents );
 
-        SVDServiceHelperImpl.log.info( "SVD done, postprocessing and storing results." );
+        if ( svd.isTruncated() ) {
+            SVDServiceHelperImpl.log.info( String.format( "Truncated SVD done, relative error %.3g; postprocessing and "
+                    + "storing results.", svd.getTruncationError() ) );
+        } else {
+            SVDServiceHelperImpl.log.info( "SVD done, postprocessing and storing results." );
+        }
 
         /*
          * Save the results
@@ -585,7 +602,8 @@ public class SVDServiceHelperImpl implements SVDServiceHelper {
             DoubleMatrix<Integer, BioMaterial> v, BioAssayDimension b ) {
         principalComponentAnalysisService.removeForExperiment( ee );
         PrincipalComponentAnalysis pca = principalComponentAnalysisService
-                .create( ee, svd.getU(), svd.getEigenvalues(), v, b, SVDServiceHelperImpl.MAX_NUM_COMPONENTS_TO_PERSIST,
+                .create( ee, svd.getU(), svd.getEigenvalues(), svd.getTotalVariance(), v, b,
+                        SVDServiceHelperImpl.MAX_NUM_COMPONENTS_TO_PERSIST,
                         SVDServiceHelperImpl.MAX_LOADINGS_TO_PERSIST );
 
         ee = expressionExperimentService.thawLite( ee ); // I wish this wasn't needed.
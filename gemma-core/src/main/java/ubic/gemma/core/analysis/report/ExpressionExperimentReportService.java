@@ -75,6 +75,15 @@ public interface ExpressionExperimentReportService {
     // Possible external use
     Collection<ExpressionExperimentDetailsValueObject> retrieveSummaryObjects( Collection<Long> ids );
 
+    /**
+     * Regenerates the reports of experiments that were updated since the reports were last generated or refreshed; if
+     * they never were, generates them all. The time of the last refresh is not persisted, so the first refresh after a
+     * restart generates them all.
+     */
+    @SuppressWarnings("unused") // Used by scheduler
+    @Secured({ "GROUP_AGENT" })
+    void refreshSummaryObjects();
+
     /**
      * Recalculates the batch effect and batch confound information for datasets that have been updated
      * in the last 24 hours.
@@ -28,6 +28,7 @@ import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.access.annotation.Secured;
 import org.springframework.stereotype.Service;
+import ubic.basecode.util.BatchIterator;
 import ubic.gemma.core.visualization.ExperimentalDesignVisualizationService;
 import ubic.gemma.model.analysis.expression.diff.DifferentialExpressionAnalysisValueObject;
 import ubic.gemma.model.common.Auditable;
@@ -43,6 +44,7 @@ import ubic.gemma.persistence.service.expression.bioAssayData.ProcessedDataVecto
 import ubic.gemma.persistence.service.expression.experiment.ExpressionExperimentService;
 import ubic.gemma.persistence.util.CacheUtils;
 import ubic.gemma.persistence.util.EntityUtils;
+import ubic.gemma.persistence.util.Settings;
 
 import java.util.*;
 
@@ -60,6 +62,11 @@ public class ExpressionExperimentReportServiceImpl implements ExpressionExperime
     private static final String NOTE_UPDATED_CONFOUND = "Updated batch confound";
     private static final String NOTE_UPDATED_EFFECT = "Updated batch effect";
     private static final String EESTATS_CACHE_NAME = "ExpressionExperimentReportsCache";
+    private static final int DEFAULT_MAX_REPORTS = 20000;
+    /**
+     * How many reports are generated at once.
+     */
+    private static final int REPORT_BATCH_SIZE = 100;
     private final Log log = LogFactory.getLog( this.getClass() );
     /**
      * Batch of classes we can get events for all at once.
@@ -85,15 +92,24 @@ public class ExpressionExperimentReportServiceImpl implements ExpressionExperime
     private ProcessedDataVectorCache processedDataVectorCache;
 
     /**
-     * Cache to hold stats in memory. This is used to avoid hittinig the disk for reports too often.
+     * Holds the reports in memory. Reports don't expire; they are replaced when the experiment is changed, either
+     * through {@link #evictFromCache(Long)} or by {@link #refreshSummaryObjects()}, which looks for experiments updated
+     * since the last refresh.
      */
     private Cache statsCache;
 
+    /**
+     * When the reports were last generated or refreshed; null if they never were. This is only kept in memory, like the
+     * reports, so the first refresh after a restart regenerates all of them.
+     */
+    private volatile Date lastRefresh = null;
+
     @Override
     public void afterPropertiesSet() {
         this.statsCache = CacheUtils
                 .createOrLoadCache( cacheManager, ExpressionExperimentReportServiceImpl.EESTATS_CACHE_NAME,
-                        5000, false, false, 0, 300 );
+                        Settings.getInt( "gemma.cache.eereports.maxelements",
+                                ExpressionExperimentReportServiceImpl.DEFAULT_MAX_REPORTS ), false, true, 0, 0 );
 
     }
 
@@ -109,6 +125,7 @@ public class ExpressionExperimentReportServiceImpl implements ExpressionExperime
     @Override
     public ExpressionExperimentDetailsValueObject generateSummary( Long id ) {
         assert id != null;
+        this.evictFromCache( id );
         Collection<Long> ids = Collections.singletonList( id );
         Collection<ExpressionExperimentDetailsValueObject> results = this.generateSummaryObjects( ids );
         if ( results.size() > 0 ) {
@@ -120,10 +137,15 @@ public class ExpressionExperimentReportServiceImpl implements ExpressionExperime
     @Override
     @Secured({ "GROUP_AGENT" })
     public void generateSummaryObjects() {
+        Date started = new Date();
+        StopWatch timer = StopWatch.createStarted();
         Collection<Long> ids = EntityUtils.getIds( expressionExperimentService.loadAll() );
-        Collection<ExpressionExperimentDetailsValueObject> vos = expressionExperimentService
-                .loadDetailsValueObjects( ids );
-        this.getStats( vos );
+        for ( Collection<Long> batch : new BatchIterator<>( ids,
+                ExpressionExperimentReportServiceImpl.REPORT_BATCH_SIZE ) ) {
+            this.generateSummaryObjects( batch );
+        }
+        this.lastRefresh = started;
+        log.info( "Generated reports for " + ids.size() + " experiments in " + timer.getTime() + "ms" );
     }
 
     /**
@@ -314,12 +336,11 @@ public class ExpressionExperimentReportServiceImpl implements ExpressionExperime
         Collection<ExpressionExperimentDetailsValueObject> eeValueObjects = new ArrayList<>();
         Collection<Long> filteredIds = this.securityFilterExpressionExperimentIds( ids );
 
-        int incache = 0;
+        Collection<Long> missing = new ArrayList<>();
         for ( Long id : filteredIds ) {
 
             Element cachedElement = this.statsCache.get( id );
             if ( cachedElement != null ) {
-                incache++;
                 Object el = cachedElement.getObjectValue();
                 assert el instanceof ExpressionExperimentDetailsValueObject;
 
@@ -327,15 +348,46 @@ public class ExpressionExperimentReportServiceImpl implements ExpressionExperime
                 continue;
             }
 
-            ExpressionExperimentDetailsValueObject valueObject = this.generateSummary( id );
-            eeValueObjects.add( valueObject );
+            missing.add( id );
         }
+
+        // generate the missing ones together rather than one at a time
+        for ( Collection<Long> batch : new BatchIterator<>( missing,
+                ExpressionExperimentReportServiceImpl.REPORT_BATCH_SIZE ) ) {
+            eeValueObjects.addAll( this.generateSummaryObjects( batch ) );
+        }
+
         if ( ids.size() > 1 ) {
-            log.info( incache + "/" + ids.size() + " reports were found in the cache" );
+            log.info( ( filteredIds.size() - missing.size() ) + "/" + ids.size()
+                    + " reports were found in the cache" );
         }
         return eeValueObjects;
     }
 
+    @Override
+    @Secured({ "GROUP_AGENT" })
+    public void refreshSummaryObjects() {
+        if ( this.lastRefresh == null ) {
+            this.generateSummaryObjects();
+            return;
+        }
+
+        Date started = new Date();
+        Collection<ExpressionExperiment> updated = expressionExperimentService.findUpdatedAfter( this.lastRefresh );
+        Collection<Long> ids = new HashSet<>( EntityUtils.getIds( updated ) );
+        for ( Long id : ids ) {
+            this.evictFromCache( id );
+        }
+        for ( Collection<Long> batch : new BatchIterator<>( ids,
+                ExpressionExperimentReportServiceImpl.REPORT_BATCH_SIZE ) ) {
+            this.generateSummaryObjects( batch );
+        }
+        this.lastRefresh = started;
+        if ( !ids.isEmpty() ) {
+            log.info( "Refreshed reports for " + ids.size() + " updated experiments" );
+        }
+    }
+
     @Override
     @Secured({ "GROUP_AGENT" })
     public void recalculateBatchInfo() {
@@ -407,7 +459,6 @@ public class ExpressionExperimentReportServiceImpl implements ExpressionExperime
         this.getStats( vos );
 
         for ( ExpressionExperimentValueObject vo : vos ) {
-            this.evictFromCache( vo.getId() );
             statsCache.put( new Element( vo.getId(), vo ) );
         }
         return vos;
@@ -431,38 +482,27 @@ public class ExpressionExperimentReportServiceImpl implements ExpressionExperime
     }
 
     /**
-     * Compute statistics for EEs, that aren't immediately part of the value object.
+     * Compute statistics for EEs, that aren't immediately part of the value object. The analyses of all the EEs are
+     * fetched at once.
      */
     private void getStats( Collection<ExpressionExperimentDetailsValueObject> vos ) {
         log.debug( "Getting stats for " + vos.size() + " value objects." );
-        int count = 0;
-        for ( ExpressionExperimentDetailsValueObject object : vos ) {
-            this.getStats( object );
-
-            if ( ++count % 10 == 0 ) {
-                log.debug( "Processed " + count + " reports." );
-            }
-        }
-        log.debug( "Done, processed " + count + " reports" );
-    }
-
-    /**
-     * Get the stats report for one EE
-     */
-    private void getStats( ExpressionExperimentDetailsValueObject eeVo ) {
-        Long id = eeVo.getId();
-        assert id != null;
+        if ( vos.isEmpty() )
+            return;
 
         Map<ExpressionExperimentDetailsValueObject, List<DifferentialExpressionAnalysisValueObject>> analysis = differentialExpressionAnalysisService
-                .getAnalysesByExperiment( Collections.singleton( id ) );
-        if ( analysis != null && analysis.containsKey( eeVo ) ) {
-            eeVo.setDifferentialExpressionAnalyses( analysis.get( eeVo ) );
-        }
+                .getAnalysesByExperiment( EntityUtils.getIds( vos ) );
 
         Date timestamp = new Date( System.currentTimeMillis() );
-        eeVo.setDateCached( timestamp );
-        assert eeVo.getLastUpdated() != null;
-
+        for ( ExpressionExperimentDetailsValueObject eeVo : vos ) {
+            assert eeVo.getId() != null;
+            if ( analysis != null && analysis.containsKey( eeVo ) ) {
+                eeVo.setDifferentialExpressionAnalyses( analysis.get( eeVo ) );
+            }
+            eeVo.setDateCached( timestamp );
+            assert eeVo.getLastUpdated() != null;
+        }
+        log.debug( "Done, processed " + vos.size() + " reports" );
     }
 
     private Collection<Long> securityFilterExpressionExperimentIds( Collection<Long> ids ) {
@@ -1,5 +1,6 @@
 package ubic.gemma.core.analysis.service;
 
+import ubic.gemma.core.analysis.expression.diff.DifferentialExpressionResultColumns;
 import ubic.gemma.model.analysis.expression.diff.DifferentialExpressionAnalysisResult;
 import ubic.gemma.model.analysis.expression.diff.ExpressionAnalysisResultSet;
 import ubic.gemma.model.genome.Gene;
@@ -29,4 +30,15 @@ public interface ExpressionAnalysisResultSetFileService extends TsvFileService<E
      * @throws IOException
      */
     void writeTsvToAppendable( ExpressionAnalysisResultSet analysisResultSet, Map<DifferentialExpressionAnalysisResult, List<Gene>> result2Genes, Appendable appendable ) throws IOException;
+
+    /**
+     * Write the analysis result set to an {@link Appendable} in the same format, reading the results from their
+     * columns instead of from {@link DifferentialExpressionAnalysisResult}s.
+     *
+     * @param analysisResultSet the result set, only used for its experimental factors
+     * @param columns           the results of the result set
+     * @param probe2Genes       the genes of the probes, by probe ID
+     * @throws IOException
+     */
+    void writeTsvToAppendable( ExpressionAnalysisResultSet analysisResultSet, DifferentialExpressionResultColumns columns, Map<Long, List<Gene>> probe2Genes, Appendable appendable ) throws IOException;
 }
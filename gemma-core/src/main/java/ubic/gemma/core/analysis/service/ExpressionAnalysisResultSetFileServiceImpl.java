@@ -4,6 +4,7 @@ import lombok.extern.apachecommons.CommonsLog;
 import org.apache.commons.csv.CSVPrinter;
 import org.apache.commons.lang3.tuple.Pair;
 import org.springframework.stereotype.Service;
+import ubic.gemma.core.analysis.expression.diff.DifferentialExpressionResultColumns;
 import ubic.gemma.model.analysis.expression.diff.ContrastResult;
 import ubic.gemma.model.analysis.expression.diff.DifferentialExpressionAnalysisResult;
 import ubic.gemma.model.analysis.expression.diff.ExpressionAnalysisResultSet;
@@ -14,6 +15,7 @@ import ubic.gemma.model.expression.experiment.FactorValue;
 import ubic.gemma.model.genome.Gene;
 
 import java.io.IOException;
+import java.text.NumberFormat;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -96,6 +98,61 @@ public class ExpressionAnalysisResultSetFileServiceImpl extends AbstractTsvFileS
         }
     }
 
+    @Override
+    public void writeTsvToAppendable( ExpressionAnalysisResultSet analysisResultSet, DifferentialExpressionResultColumns columns, Map<Long, List<Gene>> probe2Genes, Appendable appendable ) throws IOException {
+        String experimentalFactorsMetadata = "[" + analysisResultSet.getExperimentalFactors().stream()
+                .map( this::formatExperimentalFactor )
+                .collect( Collectors.joining( ", " ) ) + "]";
+
+        List<String> header = new ArrayList<>( Arrays.asList( "id", "probe_id", "probe_name", "gene_id", "gene_name", "gene_ncbi_id", "gene_official_symbol", "gene_official_name", "pvalue", "corrected_pvalue", "rank" ) );
+
+        // the columns are already in the order the factor values are displayed
+        for ( int c = 0; c < columns.getNumContrasts(); c++ ) {
+            String contrastResultPrefix = "contrast"
+                    + ( columns.getFactorValueId( c ) != null ? "_" + columns.getFactorValueId( c ) : "" )
+                    + ( columns.getSecondFactorValueId( c ) != null ? "_" + columns.getSecondFactorValueId( c ) : "" );
+            header.addAll( Arrays.asList(
+                    contrastResultPrefix + "_log2fc",
+                    contrastResultPrefix + "_tstat",
+                    contrastResultPrefix + "_pvalue" ) );
+        }
+
+        // the formatter is not thread-safe, but can be reused for the whole file
+        NumberFormat numberFormat = getNumberFormat();
+        try ( CSVPrinter printer = getTsvFormatBuilder( "Experimental factors: " + experimentalFactorsMetadata )
+                .setHeader( header.toArray( new String[0] ) )
+                .build()
+                .print( appendable ) ) {
+            List<Object> record = new ArrayList<>( header.size() );
+            for ( int i = 0; i < columns.size(); i++ ) {
+                final List<Gene> genes = probe2Genes.getOrDefault( columns.getProbeId( i ), Collections.emptyList() );
+                record.clear();
+                record.add( columns.getResultId( i ) );
+                record.add( columns.getProbeId( i ) );
+                record.add( columns.getProbeName( i ) );
+                record.add( genes.stream().map( Gene::getId ).map( String::valueOf ).collect( Collectors.joining( getSubDelimiter() ) ) );
+                record.add( genes.stream().map( Gene::getName ).collect( Collectors.joining( getSubDelimiter() ) ) );
+                record.add( genes.stream().map( Gene::getNcbiGeneId ).map( String::valueOf ).collect( Collectors.joining( getSubDelimiter() ) ) );
+                record.add( genes.stream().map( Gene::getOfficialSymbol ).collect( Collectors.joining( getSubDelimiter() ) ) );
+                record.add( genes.stream().map( Gene::getOfficialName ).collect( Collectors.joining( getSubDelimiter() ) ) );
+                record.add( format( numberFormat, columns.getPvalue( i ) ) );
+                record.add( format( numberFormat, columns.getCorrectedPvalue( i ) ) );
+                record.add( format( numberFormat, columns.getRank( i ) ) );
+                for ( int c = 0; c < columns.getNumContrasts(); c++ ) {
+                    // missing contrasts are rendered as empty values
+                    record.add( format( numberFormat, columns.getLogFoldChange( c, i ) ) );
+                    record.add( format( numberFormat, columns.getTstat( c, i ) ) );
+                    record.add( format( numberFormat, columns.getContrastPvalue( c, i ) ) );
+                }
+                printer.printRecord( record );
+            }
+        }
+    }
+
+    private String format( NumberFormat numberFormat, Double d ) {
+        return d == null ? "" : numberFormat.format( d );
+    }
+
     private String formatExperimentalFactor( ExperimentalFactor experimentalFactor ) {
         return "name: " + experimentalFactor.getName() + ", values: [" +
                 experimentalFactor.getFactorValues()
@@ -24,7 +24,6 @@ import org.apache.commons.logging.LogFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 import ubic.basecode.math.Rank;
-import ubic.basecode.ontology.model.OntologyTerm;
 import ubic.gemma.core.genome.gene.service.GeneService;
 import ubic.gemma.core.ontology.OntologyService;
 import ubic.gemma.core.ontology.providers.GeneOntologyService;
@@ -35,10 +34,7 @@ import ubic.gemma.model.genome.gene.Multifunctionality;
 import ubic.gemma.persistence.service.association.Gene2GOAssociationService;
 import ubic.gemma.persistence.service.genome.taxon.TaxonService;
 
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
+import java.util.*;
 
 /**
  * Compute gene multifunctionality and store it in the database.
@@ -82,7 +78,7 @@ public class GeneMultifunctionalityPopulationServiceImpl implements GeneMultifun
             return;
         }
 
-        Map<Gene, Collection<String>> gomap = this.fetchGoAnnotations( genes );
+        Map<Gene, BitSet> gomap = this.fetchGoAnnotations( genes );
 
         Map<Gene, Multifunctionality> mfs = this.computeMultifunctionality( gomap );
 
@@ -116,10 +112,10 @@ public class GeneMultifunctionalityPopulationServiceImpl implements GeneMultifun
     /**
      * Implementation of multifunctionality computations as described in Gillis and Pavlidis (2011) PLoS ONE 6:2:e17258.
      *
-     * @param  gomap gomap
+     * @param  gomap gomap, propagated GO terms of each gene as indices in the compiled ontology
      * @return       map
      */
-    private Map<Gene, Multifunctionality> computeMultifunctionality( Map<Gene, Collection<String>> gomap ) {
+    private Map<Gene, Multifunctionality> computeMultifunctionality( Map<Gene, BitSet> gomap ) {
 
         /*
          * See ermineJ Multifunctionality.java for another implementation.
@@ -127,16 +123,7 @@ public class GeneMultifunctionalityPopulationServiceImpl implements GeneMultifun
 
         assert !gomap.isEmpty();
 
-        Map<String, Integer> goGroupSizes = new HashMap<>();
-        for ( Gene g : gomap.keySet() ) {
-            for ( String go : gomap.get( g ) ) {
-                if ( !goGroupSizes.containsKey( go ) ) {
-                    goGroupSizes.put( go, 1 );
-                } else {
-                    goGroupSizes.put( go, goGroupSizes.get( go ) + 1 );
-                }
-            }
-        }
+        int[] goGroupSizes = goService.getClosure( true ).countOccurrences( gomap.values() );
 
         GeneMultifunctionalityPopulationServiceImpl.log.info( "Computed GO group sizes" );
 
@@ -148,11 +135,10 @@ public class GeneMultifunctionalityPopulationServiceImpl implements GeneMultifun
 
             Multifunctionality mf = Multifunctionality.Factory.newInstance();
             double mfscore = 0.0;
-            Collection<String> sets = gomap.get( gene );
-            for ( String goset : sets ) {
+            BitSet sets = gomap.get( gene );
+            for ( int goset = sets.nextSetBit( 0 ); goset >= 0; goset = sets.nextSetBit( goset + 1 ) ) {
 
-                assert goGroupSizes.containsKey( goset );
-                int inGroup = goGroupSizes.get( goset );
+                int inGroup = goGroupSizes[goset];
                 assert inGroup > 0;
 
                 int outGroup = numGenes - inGroup;
@@ -162,11 +148,11 @@ public class GeneMultifunctionalityPopulationServiceImpl implements GeneMultifun
                     continue;
                 }
 
-                mfscore += 1.0 / ( inGroup * outGroup );
+                mfscore += 1.0 / ( ( double ) inGroup * outGroup );
             }
             assert mfscore >= 0.0 && mfscore <= 1.0;
 
-            mf.setNumGoTerms( gomap.get( gene ).size() );
+            mf.setNumGoTerms( sets.cardinality() );
             mf.setScore( mfscore );
 
             geneMultifunctionalityScore.put( gene, mfscore );
@@ -189,7 +175,7 @@ public class GeneMultifunctionalityPopulationServiceImpl implements GeneMultifun
         return geneMultifunctionality;
     }
 
-    private Map<Gene, Collection<String>> fetchGoAnnotations( Collection<Gene> genes ) {
+    private Map<Gene, BitSet> fetchGoAnnotations( Collection<Gene> genes ) {
 
         if ( !goService.isRunning() ) {
             goService.init( true );
@@ -205,55 +191,29 @@ public class GeneMultifunctionalityPopulationServiceImpl implements GeneMultifun
         }
 
         /*
-         * Build the GO 'matrix'.
+         * Build the GO 'matrix', one set of terms per gene, propagated.
          */
-        int count = 0;
-        Map<Gene, Collection<String>> gomap = new HashMap<>();
+        Map<Gene, Collection<Characteristic>> annotations = gene2GOService.findByGenes( genes );
+        Map<Gene, BitSet> gomap = new HashMap<>();
         for ( Gene gene : genes ) {
-            Collection<Characteristic> annots = gene2GOService.findByGene( gene );
-
-            Collection<String> termsForGene = new HashSet<>();
-
-            //noinspection StatementWithEmptyBody // TODO we just count it as a gene with lowest multifunctionality
-            if ( annots.isEmpty() ) {
-                // continue;
-            }
-
-            /*
-             * Propagate.
-             */
-
-            for ( Characteristic t : annots ) {
-                if ( ontologyService.isObsolete( t.getValueUri() ) ) {
-                    GeneMultifunctionalityPopulationServiceImpl.log
-                            .warn( "Obsolete term annotated to " + gene + " : " + t );
-                    continue;
+            Collection<Characteristic> annots = new HashSet<>();
+
+            // genes without annotations are counted as having the lowest multifunctionality
+            if ( annotations.containsKey( gene ) ) {
+                for ( Characteristic t : annotations.get( gene ) ) {
+                    if ( ontologyService.isObsolete( t.getValueUri() ) ) {
+                        GeneMultifunctionalityPopulationServiceImpl.log
+                                .warn( "Obsolete term annotated to " + gene + " : " + t );
+                        continue;
+                    }
+                    annots.add( t );
                 }
-
-                termsForGene.add( t.getValue() );
-
-                Collection<OntologyTerm> parents = goService
-                        .getAllParents( goService.getTerm( t.getValueUri() ) );
-
-                for ( OntologyTerm p : parents ) {
-                    if ( p == null ) continue;
-                    termsForGene.add( p.getTerm() );
-                }
-            }
-
-            //noinspection StatementWithEmptyBody // TODO we just count it as a gene with lowest multifunctionality
-            if ( termsForGene.isEmpty() ) {
-                // continue;
-            }
-
-            gomap.put( gene, termsForGene );
-
-            if ( ++count % 1000 == 0 ) {
-                GeneMultifunctionalityPopulationServiceImpl.log
-                        .info( "Fetched GO annotations for: " + count + "/" + genes.size() + " genes" );
             }
 
+            gomap.put( gene, goService.getPropagatedTerms( annots, true ) );
         }
+        GeneMultifunctionalityPopulationServiceImpl.log
+                .info( "Fetched GO annotations for " + genes.size() + " genes" );
         return gomap;
     }
 
@@ -0,0 +1,304 @@
+/*
+ * The Gemma project
+ *
+ * Copyright (c) 2026 University of British Columbia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ubic.gemma.core.externalDb;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.time.StopWatch;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import ubic.basecode.util.SQLUtils;
+import ubic.gemma.core.analysis.sequence.SequenceManipulation;
+
+import java.sql.Blob;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+
+/**
+ * In-memory copy of the GoldenPath annotation tracks used for probe mapping, so that finding the transcripts, mRNAs
+ * or ESTs at a location does not take a query. The features of a chromosome are loaded with one query per table the
+ * first time the chromosome is looked at, and put in an {@link IntervalTree} per strand. Exons and alignment blocks
+ * are kept as arrays of starts and ends.
+ * Regions are matched the same way as the location queries of {@link GoldenPathSequenceAnalysis}: transcripts that
+ * overlap or touch the region, and alignments as selected by the strict comparisons of the mRNA and EST queries (see
+ * {@link #overlapsAlignmentQuery}).
+ *
+ * @author agent
+ */
+public class GoldenPathAnnotationIndex {
+
+    private static final Log log = LogFactory.getLog( GoldenPathAnnotationIndex.class );
+
+    private static final String[] STRANDS = { "+", "-" };
+
+    /**
+     * The annotation tables. Transcript queries give the same columns as the location queries of
+     * {@link GoldenPathSequenceAnalysis}, followed by the location to index them by (for known genes that map to a
+     * refSeq gene, this is the location of the known gene, while the rest is from refSeq). Alignment queries give the
+     * same columns as the location queries for mRNAs and ESTs.
+     */
+    public enum Track {
+        REF_GENE( false, "SELECT r.name, r.geneName, r.txStart, r.txEnd, r.strand, r.exonStarts, r.exonEnds, "
+                + "CONCAT('Refseq gene: ', kgXref.description), r.txStart, r.txEnd, r.strand "
+                + "FROM refFlat as r left outer join kgXref on r.geneName = kgXref.geneSymbol WHERE r.chrom = ?" ),
+        KNOWN_GENE( false, "SELECT r.name, r.geneName, r.txStart, r.txEnd, r.strand, r.exonStarts, r.exonEnds, "
+                + "CONCAT('Refseq gene: ', kgr.description), kg.txStart, kg.txEnd, kg.strand "
+                + " FROM knownGene as kg INNER JOIN knownToRefSeq kr on kr.name=kg.name inner join kgXref kgr on kgr.kgID=kg.name "
+                + " INNER JOIN refFlat r ON r.name=kr.value WHERE kg.chrom = ?",
+                "SELECT kgxr.mRNA, kgxr.geneSymbol, kg.txStart, kg.txEnd, kg.strand, kg.exonStarts, kg.exonEnds, "
+                        + "CONCAT('Known gene: ', kgxr.description), kg.txStart, kg.txEnd, kg.strand "
+                        + " FROM knownGene as kg INNER JOIN kgXref AS kgxr ON kg.name=kgxr.kgID "
+                        + "LEFT OUTER JOIN knownToRefSeq kr on kr.name=kg.name WHERE kr.value IS NULL AND kg.chrom = ?" ),
+        MRNA( true, "SELECT mrna.qName, mrna.qName, mrna.tStart, mrna.tEnd, mrna.strand, mrna.blockSizes, mrna.tStarts "
+                + " FROM all_mrna as mrna WHERE mrna.tName = ?" ),
+        EST( true, "SELECT est.qName, est.qName, est.tStart, est.tEnd, est.strand, est.blockSizes, est.tStarts "
+                + " FROM all_est as est WHERE est.tName = ?" );
+
+        private final boolean alignments;
+        private final String[] queries;
+
+        Track( boolean alignments, String... queries ) {
+            this.alignments = alignments;
+            this.queries = queries;
+        }
+    }
+
+    /**
+     * A transcript or an alignment, as read from GoldenPath. Blocks are null if the table had none.
+     */
+    public static class Feature {
+
+        private final String name;
+        private final String symbol;
+        private final String description;
+        private final String strand;
+        private final int start;
+        private final int end;
+        private final int[] blockStarts;
+        private final int[] blockEnds;
+
+        Feature( String name, String symbol, String description, String strand, int start, int end,
+                int[] blockStarts, int[] blockEnds ) {
+            this.name = name;
+            this.symbol = symbol;
+            this.description = description;
+            this.strand = strand;
+            this.start = start;
+            this.end = end;
+            this.blockStarts = blockStarts;
+            this.blockEnds = blockEnds;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getSymbol() {
+            return symbol;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+
+        public String getStrand() {
+            return strand;
+        }
+
+        public int getStart() {
+            return start;
+        }
+
+        public int getEnd() {
+            return end;
+        }
+
+        public int[] getBlockStarts() {
+            return blockStarts;
+        }
+
+        public int[] getBlockEnds() {
+            return blockEnds;
+        }
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final Set<Track> tracks;
+
+    /**
+     * Indexed by track, then by chromosome and strand.
+     */
+    private final Map<Track, Map<String, IntervalTree<Feature>>> trees = new EnumMap<>( Track.class );
+
+    /**
+     * @param jdbcTemplate for the GoldenPath database of the taxon
+     * @param tracks       the tracks to index; others are not available from this index.
+     */
+    public GoldenPathAnnotationIndex( JdbcTemplate jdbcTemplate, Collection<Track> tracks ) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.tracks = tracks.isEmpty() ? EnumSet.noneOf( Track.class ) : EnumSet.copyOf( tracks );
+        for ( Track track : this.tracks ) {
+            trees.put( track, new HashMap<String, IntervalTree<Feature>>() );
+        }
+    }
+
+    public boolean isIndexed( Track track ) {
+        return tracks.contains( track );
+    }
+
+    /**
+     * @param chromosome chromosome, in the GoldenPath format (e.g. "chr1")
+     * @param strand     '+' or '-', or null for both strands
+     * @return the features of the track at the location.
+     */
+    public Collection<Feature> find( Track track, String chromosome, long start, long end, String strand ) {
+        if ( !this.isIndexed( track ) )
+            throw new IllegalArgumentException( track + " is not indexed" );
+        Collection<Feature> result = new ArrayList<>();
+        for ( String s : GoldenPathAnnotationIndex.STRANDS ) {
+            if ( strand != null && !strand.equals( s ) )
+                continue;
+            IntervalTree<Feature> tree = this.getTrees( track, chromosome ).get( s );
+            if ( tree == null )
+                continue;
+            // the tree finds everything that touches the region, which is a superset of what the alignment queries give
+            for ( Feature feature : tree.find( start, end ) ) {
+                if ( !track.alignments || GoldenPathAnnotationIndex
+                        .overlapsAlignmentQuery( feature.getStart(), feature.getEnd(), start, end ) ) {
+                    result.add( feature );
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The condition of the mRNA and EST location queries of {@link GoldenPathSequenceAnalysis}, which only use strict
+     * comparisons. So an alignment that starts exactly at the start of the region, or ends exactly at its end, is only
+     * selected if its other end is inside the region; in particular, an alignment with exactly the bounds of the
+     * region is not. This is kept as is, so the index gives the same results as the queries.
+     *
+     * @return true if the alignment from tStart to tEnd is selected for the region from start to end.
+     */
+    static boolean overlapsAlignmentQuery( long tStart, long tEnd, long start, long end ) {
+        return ( tStart > start && tEnd < end ) || ( tStart < start && tEnd > end ) || ( tStart > start
+                && tStart < end ) || ( tEnd > start && tEnd < end );
+    }
+
+    /**
+     * Read a row with the name, symbol, start, end, strand, exon starts, exon ends and description of a transcript.
+     *
+     * @return the transcript, or null if it has no name.
+     */
+    static Feature readTranscript( ResultSet rs ) throws SQLException {
+        String name = rs.getString( 1 );
+        if ( StringUtils.isBlank( name ) ) {
+            return null;
+        }
+        return new Feature( name, rs.getString( 2 ), rs.getString( 8 ), rs.getString( 5 ), rs.getInt( 3 ),
+                rs.getInt( 4 ), GoldenPathAnnotationIndex.readBlocks( rs.getBlob( 6 ) ),
+                GoldenPathAnnotationIndex.readBlocks( rs.getBlob( 7 ) ) );
+    }
+
+    /**
+     * Read a row with the name, symbol, start, end, strand, block sizes and block starts of an alignment.
+     */
+    static Feature readAlignment( ResultSet rs ) throws SQLException {
+        int[] sizes = GoldenPathAnnotationIndex.readBlocks( rs.getBlob( 6 ) );
+        int[] starts = GoldenPathAnnotationIndex.readBlocks( rs.getBlob( 7 ) );
+        int[] ends = null;
+        if ( sizes != null && starts != null ) {
+            assert sizes.length == starts.length;
+            ends = new int[starts.length];
+            for ( int i = 0; i < starts.length; i++ ) {
+                ends[i] = starts[i] + sizes[i];
+            }
+        } else {
+            starts = null;
+        }
+        return new Feature( rs.getString( 1 ), rs.getString( 2 ), null, rs.getString( 5 ), rs.getInt( 3 ),
+                rs.getInt( 4 ), starts, ends );
+    }
+
+    private static int[] readBlocks( Blob blob ) throws SQLException {
+        if ( blob == null )
+            return null;
+        return SequenceManipulation.blatLocationsToIntArray( SQLUtils.blobToString( blob ) );
+    }
+
+    private synchronized Map<String, IntervalTree<Feature>> getTrees( Track track, String chromosome ) {
+        Map<String, IntervalTree<Feature>> byChromosome = trees.get( track );
+        if ( !byChromosome.containsKey( chromosome + GoldenPathAnnotationIndex.STRANDS[0] ) ) {
+            this.load( track, chromosome, byChromosome );
+        }
+        Map<String, IntervalTree<Feature>> result = new HashMap<>();
+        for ( String s : GoldenPathAnnotationIndex.STRANDS ) {
+            result.put( s, byChromosome.get( chromosome + s ) );
+        }
+        return result;
+    }
+
+    private void load( final Track track, String chromosome, Map<String, IntervalTree<Feature>> byChromosome ) {
+        StopWatch timer = StopWatch.createStarted();
+        final Map<String, IntervalTree.Builder<Feature>> builders = new HashMap<>();
+        for ( String s : GoldenPathAnnotationIndex.STRANDS ) {
+            builders.put( s, new IntervalTree.Builder<Feature>() );
+        }
+
+        for ( String query : track.queries ) {
+            jdbcTemplate.query( query, new Object[] { chromosome }, new RowCallbackHandler() {
+                @Override
+                public void processRow( ResultSet rs ) throws SQLException {
+                    Feature feature;
+                    int start, end;
+                    String strand;
+                    if ( track.alignments ) {
+                        feature = GoldenPathAnnotationIndex.readAlignment( rs );
+                        start = feature.getStart();
+                        end = feature.getEnd();
+                        strand = feature.getStrand();
+                    } else {
+                        feature = GoldenPathAnnotationIndex.readTranscript( rs );
+                        if ( feature == null )
+                            return;
+                        start = rs.getInt( 9 );
+                        end = rs.getInt( 10 );
+                        strand = rs.getString( 11 );
+                    }
+                    IntervalTree.Builder<Feature> builder = builders.get( strand );
+                    if ( builder != null && start <= end ) {
+                        builder.add( start, end, feature );
+                    }
+                }
+            } );
+        }
+
+        int count = 0;
+        for ( String s : GoldenPathAnnotationIndex.STRANDS ) {
+            IntervalTree<Feature> tree = builders.get( s ).build();
+            byChromosome.put( chromosome + s, tree );
+            count += tree.size();
+        }
+        GoldenPathAnnotationIndex.log
+                .info( "Indexed " + count + " " + track + " features on " + chromosome + " in " + timer.getTime()
+                        + " ms" );
+    }
+}
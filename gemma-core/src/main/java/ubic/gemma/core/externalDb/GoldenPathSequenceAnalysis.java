@@ -38,13 +38,12 @@ import ubic.gemma.model.genome.sequenceAnalysis.BlatAssociation;
 import ubic.gemma.model.genome.sequenceAnalysis.BlatResult;
 import ubic.gemma.model.genome.sequenceAnalysis.ThreePrimeDistanceMethod;
 import ubic.gemma.persistence.util.SequenceBinUtils;
+import ubic.gemma.persistence.util.Settings;
 
 import java.sql.Blob;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.Collection;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.*;
 
 /**
  * Using the Goldenpath databases for comparing sequence alignments to gene locations.
@@ -65,8 +64,25 @@ public class GoldenPathSequenceAnalysis extends GoldenPath {
      */
     private final LRUMap cache = new LRUMap( 2000 );
 
+    /**
+     * Annotations to look up locations in without querying, or null if this is disabled.
+     */
+    private final GoldenPathAnnotationIndex index;
+
     public GoldenPathSequenceAnalysis( Taxon taxon ) {
         super( taxon );
+        if ( Settings.getBoolean( "gemma.goldenpath.index", true ) ) {
+            Collection<GoldenPathAnnotationIndex.Track> tracks = EnumSet
+                    .of( GoldenPathAnnotationIndex.Track.REF_GENE, GoldenPathAnnotationIndex.Track.KNOWN_GENE,
+                            GoldenPathAnnotationIndex.Track.MRNA );
+            // there are millions of them for human and mouse
+            if ( Settings.getBoolean( "gemma.goldenpath.index.ests", false ) ) {
+                tracks.add( GoldenPathAnnotationIndex.Track.EST );
+            }
+            this.index = new GoldenPathAnnotationIndex( this.getJdbcTemplate(), tracks );
+        } else {
+            this.index = null;
+        }
     }
 
     /**
@@ -203,6 +219,12 @@ public class GoldenPathSequenceAnalysis extends GoldenPath {
     public Collection<Gene> findESTs( final String chromosome, Long regionStart, Long regionEnd, String strand ) {
 
         String searchChrom = SequenceManipulation.blatFormatChromosomeName( chromosome );
+
+        if ( this.isIndexed( GoldenPathAnnotationIndex.Track.EST ) ) {
+            return this.toGenes( chromosome,
+                    index.find( GoldenPathAnnotationIndex.Track.EST, searchChrom, regionStart, regionEnd, strand ) );
+        }
+
         String query = "SELECT est.qName, est.qName, est.tStart, est.tEnd, est.strand, est.blockSizes, est.tStarts  "
                 + " FROM all_est as est  WHERE "
                 + "((est.tStart > ? AND est.tEnd < ?) OR (est.tStart < ? AND est.tEnd > ?) OR "
@@ -240,6 +262,11 @@ public class GoldenPathSequenceAnalysis extends GoldenPath {
     public Collection<GeneProduct> findKnownGenesByLocation( String chromosome, Long start, Long end, String strand ) {
         String searchChrom = SequenceManipulation.blatFormatChromosomeName( chromosome );
 
+        if ( this.isIndexed( GoldenPathAnnotationIndex.Track.KNOWN_GENE ) ) {
+            return this.toGeneProducts( searchChrom,
+                    index.find( GoldenPathAnnotationIndex.Track.KNOWN_GENE, searchChrom, start, end, strand ) );
+        }
+
         /*
          * Rat has changed again for rn6 and rn7, dropped the use of RGD symbols and there is no Known Gene track, so this must
          * be skipped for rat (3/2018, 7/2022)
@@ -292,6 +319,11 @@ public class GoldenPathSequenceAnalysis extends GoldenPath {
     public Collection<GeneProduct> findRefGenesByLocation( String chromosome, Long start, Long end, String strand ) {
         String searchChrom = SequenceManipulation.blatFormatChromosomeName( chromosome );
 
+        if ( this.isIndexed( GoldenPathAnnotationIndex.Track.REF_GENE ) ) {
+            return this.toGeneProducts( searchChrom,
+                    index.find( GoldenPathAnnotationIndex.Track.REF_GENE, searchChrom, start, end, strand ) );
+        }
+
         /*
          * Use kgXRef only to get the description - sometimes missing thus the outer join.
          */
@@ -319,6 +351,12 @@ public class GoldenPathSequenceAnalysis extends GoldenPath {
     public Collection<Gene> findRNAs( final String chromosome, Long regionStart, Long regionEnd, String strand ) {
 
         String searchChrom = SequenceManipulation.blatFormatChromosomeName( chromosome );
+
+        if ( this.isIndexed( GoldenPathAnnotationIndex.Track.MRNA ) ) {
+            return this.toGenes( chromosome,
+                    index.find( GoldenPathAnnotationIndex.Track.MRNA, searchChrom, regionStart, regionEnd, strand ) );
+        }
+
         String query = "SELECT mrna.qName, mrna.qName, mrna.tStart, mrna.tEnd, mrna.strand, mrna.blockSizes, mrna.tStarts  "
                 + " FROM all_mrna as mrna  WHERE "
                 + "((mrna.tStart > ? AND mrna.tEnd < ?) OR (mrna.tStart < ? AND mrna.tEnd > ?) OR "
@@ -404,47 +442,54 @@ public class GoldenPathSequenceAnalysis extends GoldenPath {
 
             @Override
             public Collection<Gene> extractData( ResultSet rs ) throws SQLException, DataAccessException {
-
-                Collection<Gene> r = new HashSet<>();
+                Collection<GoldenPathAnnotationIndex.Feature> r = new ArrayList<>();
                 while ( rs.next() ) {
+                    r.add( GoldenPathAnnotationIndex.readAlignment( rs ) );
+                }
+                return GoldenPathSequenceAnalysis.this.toGenes( chromosome, r );
+            }
+        } );
+    }
 
-                    Gene gene = Gene.Factory.newInstance();
+    /**
+     * Convert mRNAs or ESTs, which are promoted to genes.
+     */
+    private Collection<Gene> toGenes( String chromosome, Collection<GoldenPathAnnotationIndex.Feature> alignments ) {
+        Collection<Gene> r = new HashSet<>();
+        for ( GoldenPathAnnotationIndex.Feature alignment : alignments ) {
 
-                    gene.setNcbiGeneId( Integer.parseInt( rs.getString( 1 ) ) );
-                    gene.setOfficialSymbol( rs.getString( 2 ) );
-                    gene.setName( gene.getOfficialSymbol() );
+            Gene gene = Gene.Factory.newInstance();
 
-                    PhysicalLocation pl = PhysicalLocation.Factory.newInstance();
-                    pl.setNucleotide( rs.getLong( 3 ) );
-                    pl.setNucleotideLength( rs.getInt( 4 ) - rs.getInt( 3 ) );
-                    pl.setStrand( rs.getString( 5 ) );
-                    pl.setBin( SequenceBinUtils.binFromRange( ( int ) rs.getLong( 3 ), rs.getInt( 4 ) ) );
+            gene.setNcbiGeneId( Integer.parseInt( alignment.getName() ) );
+            gene.setOfficialSymbol( alignment.getSymbol() );
+            gene.setName( gene.getOfficialSymbol() );
 
-                    Chromosome c = new Chromosome( SequenceManipulation.deBlatFormatChromosomeName( chromosome ),
-                            GoldenPathSequenceAnalysis.this.getTaxon() );
-                    pl.setChromosome( c );
+            PhysicalLocation pl = PhysicalLocation.Factory.newInstance();
+            pl.setNucleotide( ( long ) alignment.getStart() );
+            pl.setNucleotideLength( alignment.getEnd() - alignment.getStart() );
+            pl.setStrand( alignment.getStrand() );
+            pl.setBin( SequenceBinUtils.binFromRange( alignment.getStart(), alignment.getEnd() ) );
 
-                    // note that we aren't setting the chromosome here; we already know that.
-                    gene.setPhysicalLocation( pl );
-                    r.add( gene );
+            Chromosome c = new Chromosome( SequenceManipulation.deBlatFormatChromosomeName( chromosome ),
+                    this.getTaxon() );
+            pl.setChromosome( c );
 
-                    Blob blockSizes = rs.getBlob( 6 );
-                    Blob blockStarts = rs.getBlob( 7 );
+            // note that we aren't setting the chromosome here; we already know that.
+            gene.setPhysicalLocation( pl );
+            r.add( gene );
 
-                    GoldenPathSequenceAnalysis.this.setBlocks( gene, blockSizes, blockStarts );
+            this.setBlocks( gene, alignment );
 
-                }
-                return r;
-            }
-        } );
+        }
+        return r;
     }
 
-    private Set<PhysicalLocation> blocksToPhysicalLocations( int[] blockSizes, int[] blockStarts,
+    private Set<PhysicalLocation> blocksToPhysicalLocations( int[] blockStarts, int[] blockEnds,
             Chromosome chromosome ) {
         Set<PhysicalLocation> blocks = new HashSet<>();
-        for ( int i = 0; i < blockSizes.length; i++ ) {
+        for ( int i = 0; i < blockStarts.length; i++ ) {
             long exonStart = blockStarts[i];
-            int exonSize = blockSizes[i];
+            int exonSize = blockEnds[i] - blockStarts[i];
             PhysicalLocation block = PhysicalLocation.Factory.newInstance();
             block.setChromosome( chromosome );
             block.setNucleotide( exonStart );
@@ -690,90 +735,101 @@ public class GoldenPathSequenceAnalysis extends GoldenPath {
 
             @Override
             public Collection<GeneProduct> extractData( ResultSet rs ) throws SQLException, DataAccessException {
-                Collection<GeneProduct> r = new HashSet<>();
+                Collection<GoldenPathAnnotationIndex.Feature> r = new ArrayList<>();
                 while ( rs.next() ) {
-
-                    GeneProduct product = GeneProduct.Factory.newInstance();
-
-                    String name = rs.getString( 1 );
+                    GoldenPathAnnotationIndex.Feature transcript = GoldenPathAnnotationIndex.readTranscript( rs );
 
                     /*
                      * This happens for a very few cases in kgXref, where the gene is 'abParts'. We have to skip these.
                      */
-                    if ( StringUtils.isBlank( name ) ) {
+                    if ( transcript == null ) {
                         continue;
                     }
+                    r.add( transcript );
+                }
+                return GoldenPathSequenceAnalysis.this.toGeneProducts( chromosome, r );
+            }
 
-                    /*
-                     * The name is our database identifier (either genbank or ensembl)
-                     */
-                    DatabaseEntry accession = DatabaseEntry.Factory.newInstance();
-                    accession.setAccession( name );
-                    if ( name.startsWith( "ENST" ) ) {
-                        accession.setExternalDatabase( NcbiGeneConverter.getEnsembl() );
-                    } else {
-                        accession.setExternalDatabase( NcbiGeneConverter.getGenbank() );
-                    }
+        } );
 
-                    product.getAccessions().add( accession );
+    }
 
-                    Gene gene = Gene.Factory.newInstance();
-                    gene.setOfficialSymbol( rs.getString( 2 ) );
-                    gene.setName( gene.getOfficialSymbol() );
-                    Taxon taxon = GoldenPathSequenceAnalysis.this.getTaxon();
+    /**
+     * @param chromosome chromosome, in the GoldenPath format
+     * @return List of GeneProducts. This is a collection of transient instances, not from Gemma's database.
+     */
+    private Collection<GeneProduct> toGeneProducts( String chromosome,
+            Collection<GoldenPathAnnotationIndex.Feature> transcripts ) {
+        Collection<GeneProduct> r = new HashSet<>();
+        for ( GoldenPathAnnotationIndex.Feature transcript : transcripts ) {
 
-                    assert taxon != null;
-                    gene.setTaxon( taxon );
+            GeneProduct product = GeneProduct.Factory.newInstance();
 
-                    PhysicalLocation pl = PhysicalLocation.Factory.newInstance();
-                    pl.setNucleotide( rs.getLong( 3 ) );
-                    pl.setNucleotideLength( rs.getInt( 4 ) - rs.getInt( 3 ) );
-                    pl.setStrand( rs.getString( 5 ) );
-                    pl.setBin( SequenceBinUtils.binFromRange( ( int ) rs.getLong( 3 ), rs.getInt( 4 ) ) );
-                    PhysicalLocation genePl = PhysicalLocation.Factory.newInstance();
-                    genePl.setStrand( pl.getStrand() );
+            String name = transcript.getName();
 
-                    Chromosome c = new Chromosome( SequenceManipulation.deBlatFormatChromosomeName( chromosome ),
-                            taxon );
-                    pl.setChromosome( c );
-                    genePl.setChromosome( c );
+            /*
+             * The name is our database identifier (either genbank or ensembl)
+             */
+            DatabaseEntry accession = DatabaseEntry.Factory.newInstance();
+            accession.setAccession( name );
+            if ( name.startsWith( "ENST" ) ) {
+                accession.setExternalDatabase( NcbiGeneConverter.getEnsembl() );
+            } else {
+                accession.setExternalDatabase( NcbiGeneConverter.getGenbank() );
+            }
 
-                    /*
-                     * this only contains the chromosome and strand: the nucleotide positions are only valid for the
-                     * gene product
-                     */
-                    gene.setPhysicalLocation( genePl );
+            product.getAccessions().add( accession );
 
-                    product.setName( name );
+            Gene gene = Gene.Factory.newInstance();
+            gene.setOfficialSymbol( transcript.getSymbol() );
+            gene.setName( gene.getOfficialSymbol() );
+            Taxon taxon = this.getTaxon();
 
-                    String descriptionFromGP = rs.getString( 8 );
-                    if ( StringUtils.isBlank( descriptionFromGP ) ) {
-                        product.setDescription( "Imported from GoldenPath" );
-                    } else {
-                        product.setDescription( "Imported from Golden Path: " + descriptionFromGP );
-                    }
-                    product.setPhysicalLocation( pl );
-                    product.setGene( gene );
+            assert taxon != null;
+            gene.setTaxon( taxon );
 
-                    Blob exonStarts = rs.getBlob( 6 );
-                    Blob exonEnds = rs.getBlob( 7 );
-                    product.setExons( GoldenPathSequenceAnalysis.this.getExons( c, exonStarts, exonEnds ) );
+            PhysicalLocation pl = PhysicalLocation.Factory.newInstance();
+            pl.setNucleotide( ( long ) transcript.getStart() );
+            pl.setNucleotideLength( transcript.getEnd() - transcript.getStart() );
+            pl.setStrand( transcript.getStrand() );
+            pl.setBin( SequenceBinUtils.binFromRange( transcript.getStart(), transcript.getEnd() ) );
+            PhysicalLocation genePl = PhysicalLocation.Factory.newInstance();
+            genePl.setStrand( pl.getStrand() );
 
-                    /*
-                     * For microRNAs, we don't get exons, so we just use the whole length for now.
-                     */
-                    if ( product.getExons().size() == 0 ) {
-                        product.getExons().add( pl );
-                    }
+            Chromosome c = new Chromosome( SequenceManipulation.deBlatFormatChromosomeName( chromosome ), taxon );
+            pl.setChromosome( c );
+            genePl.setChromosome( c );
 
-                    r.add( product );
+            /*
+             * this only contains the chromosome and strand: the nucleotide positions are only valid for the
+             * gene product
+             */
+            gene.setPhysicalLocation( genePl );
 
-                }
-                return r;
+            product.setName( name );
+
+            String descriptionFromGP = transcript.getDescription();
+            if ( StringUtils.isBlank( descriptionFromGP ) ) {
+                product.setDescription( "Imported from GoldenPath" );
+            } else {
+                product.setDescription( "Imported from Golden Path: " + descriptionFromGP );
             }
+            product.setPhysicalLocation( pl );
+            product.setGene( gene );
 
-        } );
+            product.setExons( this.getExons( c, transcript.getBlockStarts(), transcript.getBlockEnds() ) );
+
+            /*
+             * For microRNAs, we don't get exons, so we just use the whole length for now.
+             */
+            if ( product.getExons().size() == 0 ) {
+                product.getExons().add( pl );
+            }
+
+            r.add( product );
 
+        }
+        return r;
     }
 
     /**
@@ -836,32 +892,23 @@ public class GoldenPathSequenceAnalysis extends GoldenPath {
     }
 
     /**
-     * Fill in the exon information for a gene, given the raw blobs from the GoldenPath database.
-     * Be sure to pass the right Blob arguments!
+     * Fill in the exon information for a gene.
      *
      * @param exonStarts starts
      * @param exonEnds ends
-     * @throws SQLException sql problem
      */
-    private Set<PhysicalLocation> getExons( Chromosome chrom, Blob exonStarts, Blob exonEnds )
-            throws SQLException {
+    private Set<PhysicalLocation> getExons( Chromosome chrom, int[] exonStarts, int[] exonEnds ) {
 
         Set<PhysicalLocation> exons = new HashSet<>();
         if ( exonStarts == null || exonEnds == null ) {
             return exons;
         }
 
-        String exonStartLocations = SQLUtils.blobToString( exonStarts );
-        String exonEndLocations = SQLUtils.blobToString( exonEnds );
-
-        int[] exonStartsInts = SequenceManipulation.blatLocationsToIntArray( exonStartLocations );
-        int[] exonEndsInts = SequenceManipulation.blatLocationsToIntArray( exonEndLocations );
+        assert exonStarts.length == exonEnds.length;
 
-        assert exonStartsInts.length == exonEndsInts.length;
-
-        for ( int i = 0; i < exonEndsInts.length; i++ ) {
-            int exonStart = exonStartsInts[i];
-            int exonEnd = exonEndsInts[i];
+        for ( int i = 0; i < exonEnds.length; i++ ) {
+            int exonStart = exonStarts[i];
+            int exonEnd = exonEnds[i];
             PhysicalLocation exon = PhysicalLocation.Factory.newInstance();
 
             exon.setChromosome( chrom );
@@ -902,31 +949,21 @@ public class GoldenPathSequenceAnalysis extends GoldenPath {
     }
 
     /**
-     * Handle the format used by the all_mrna and other GoldenPath tables, which go by sizes of blocks and their starts,
-     * not the starts and ends.
-     * Be sure to pass the right Blob arguments!
+     * Fill in the blocks of an alignment from the all_mrna and other GoldenPath tables.
      *
      * @param gene gene
-     * @param blockSizes sizes
-     * @param blockStarts starts
+     * @param alignment the alignment the gene was made from
      */
-    private void setBlocks( Gene gene, Blob blockSizes, Blob blockStarts ) throws SQLException {
-        if ( blockSizes == null || blockStarts == null )
+    private void setBlocks( Gene gene, GoldenPathAnnotationIndex.Feature alignment ) {
+        if ( alignment.getBlockStarts() == null )
             return;
 
-        String exonSizes = SQLUtils.blobToString( blockSizes );
-        String exonStarts = SQLUtils.blobToString( blockStarts );
-
-        int[] exonSizeInts = SequenceManipulation.blatLocationsToIntArray( exonSizes );
-        int[] exonStartInts = SequenceManipulation.blatLocationsToIntArray( exonStarts );
-
-        assert exonSizeInts.length == exonStartInts.length;
-
         GeneProduct gp = GeneProduct.Factory.newInstance();
         Chromosome chromosome = null;
         if ( gene.getPhysicalLocation() != null )
             chromosome = gene.getPhysicalLocation().getChromosome();
-        Set<PhysicalLocation> exons = this.blocksToPhysicalLocations( exonSizeInts, exonStartInts, chromosome );
+        Set<PhysicalLocation> exons = this
+                .blocksToPhysicalLocations( alignment.getBlockStarts(), alignment.getBlockEnds(), chromosome );
         gp.setExons( exons );
         gp.setName( gene.getNcbiGeneId().toString() ); // this isn't right?
         Set<GeneProduct> products = new HashSet<>();
@@ -934,4 +971,8 @@ public class GoldenPathSequenceAnalysis extends GoldenPath {
         gene.setProducts( products );
     }
 
+    private boolean isIndexed( GoldenPathAnnotationIndex.Track track ) {
+        return index != null && index.isIndexed( track );
+    }
+
 }
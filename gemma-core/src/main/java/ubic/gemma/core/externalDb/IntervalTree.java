@@ -0,0 +1,126 @@
+/*
+ * The Gemma project
+ *
+ * Copyright (c) 2026 University of British Columbia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ubic.gemma.core.externalDb;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Immutable set of closed intervals with values, for finding those that overlap a region. The intervals are held
+ * sorted by start in arrays, which are read as an implicit balanced binary tree (the middle of each range is the root
+ * of the range) where each node knows the largest end in its subtree.
+ *
+ * @author agent
+ */
+class IntervalTree<T> {
+
+    private final int[] starts;
+    private final int[] ends;
+    private final int[] maxEnds;
+    private final Object[] values;
+
+    private IntervalTree( List<Entry<T>> entries ) {
+        entries.sort( Comparator.comparingInt( e -> e.start ) );
+        int n = entries.size();
+        this.starts = new int[n];
+        this.ends = new int[n];
+        this.maxEnds = new int[n];
+        this.values = new Object[n];
+        for ( int i = 0; i < n; i++ ) {
+            Entry<T> e = entries.get( i );
+            starts[i] = e.start;
+            ends[i] = e.end;
+            values[i] = e.value;
+        }
+        this.computeMaxEnds( 0, n );
+    }
+
+    /**
+     * @return the values of the intervals that overlap the region, including those that only touch it.
+     */
+    Collection<T> find( long start, long end ) {
+        Collection<T> result = new ArrayList<>();
+        if ( start <= end ) {
+            this.find( 0, starts.length, start, end, result );
+        }
+        return result;
+    }
+
+    int size() {
+        return starts.length;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void find( int lo, int hi, long start, long end, Collection<T> result ) {
+        if ( lo >= hi )
+            return;
+        int mid = ( lo + hi ) >>> 1;
+        if ( maxEnds[mid] < start )
+            return; // nothing in this subtree reaches the region
+        this.find( lo, mid, start, end, result );
+        if ( starts[mid] > end )
+            return; // this and everything to its right starts after the region
+        if ( ends[mid] >= start )
+            result.add( ( T ) values[mid] );
+        this.find( mid + 1, hi, start, end, result );
+    }
+
+    private int computeMaxEnds( int lo, int hi ) {
+        if ( lo >= hi )
+            return Integer.MIN_VALUE;
+        int mid = ( lo + hi ) >>> 1;
+        int max = Math.max( ends[mid], Math.max( this.computeMaxEnds( lo, mid ), this.computeMaxEnds( mid + 1, hi ) ) );
+        maxEnds[mid] = max;
+        return max;
+    }
+
+    static class Builder<T> {
+
+        private final List<Entry<T>> entries = new ArrayList<>();
+
+        /**
+         * @param start first base of the interval
+         * @param end   last base of the interval
+         */
+        Builder<T> add( int start, int end, T value ) {
+            if ( end < start )
+                throw new IllegalArgumentException( "End must not be less than start" );
+            entries.add( new Entry<>( start, end, value ) );
+            return this;
+        }
+
+        IntervalTree<T> build() {
+            return new IntervalTree<>( new ArrayList<>( entries ) );
+        }
+    }
+
+    private static class Entry<T> {
+        private final int start;
+        private final int end;
+        private final T value;
+
+        private Entry( int start, int end, T value ) {
+            this.start = start;
+            this.end = end;
+            this.value = value;
+        }
+    }
+}
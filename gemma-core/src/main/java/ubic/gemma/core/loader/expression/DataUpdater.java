@@ -59,6 +59,7 @@ import ubic.gemma.persistence.service.expression.bioAssayData.BioAssayDimensionS
 import ubic.gemma.persistence.service.expression.bioAssayData.RawExpressionDataVectorService;
 import ubic.gemma.persistence.service.expression.experiment.ExpressionExperimentService;
 import ubic.gemma.persistence.util.EntityUtils;
+import ubic.gemma.persistence.util.Settings;
 
 import java.io.IOException;
 import java.util.*;
@@ -571,13 +572,18 @@ public class DataUpdater {
             }
         }
 
-        Collection<RawExpressionDataVector> vectors = this.makeNewVectors( ee, targetPlatform, data, qt );
+        if ( this.isLarge( data ) ) {
+            ee = this.persistVectorsInBatches( ee, targetPlatform, data, qt, false,
+                    Settings.getInt( "gemma.loader.vectors.batchSize", 1000 ) );
+        } else {
+            Collection<RawExpressionDataVector> vectors = this.makeNewVectors( ee, targetPlatform, data, qt );
 
-        if ( vectors.isEmpty() ) {
-            throw new IllegalStateException( "no vectors!" );
-        }
+            if ( vectors.isEmpty() ) {
+                throw new IllegalStateException( "no vectors!" );
+            }
 
-        ee = experimentService.addRawVectors( ee, vectors );
+            ee = experimentService.addRawVectors( ee, vectors );
+        }
 
         this.audit( ee, "Data vectors added for " + targetPlatform + ", " + qt, false );
 
@@ -645,12 +651,17 @@ public class DataUpdater {
         QuantitationType qt = qts.iterator().next();
         qt.setIsPreferred( true );
 
-        Collection<RawExpressionDataVector> vectors = this.makeNewVectors( ee, targetPlatform, data, qt );
-        if ( vectors.isEmpty() ) {
-            throw new IllegalStateException( "no vectors!" );
-        }
+        if ( this.isLarge( data ) ) {
+            ee = this.persistVectorsInBatches( ee, targetPlatform, data, qt, true,
+                    Settings.getInt( "gemma.loader.vectors.batchSize", 1000 ) );
+        } else {
+            Collection<RawExpressionDataVector> vectors = this.makeNewVectors( ee, targetPlatform, data, qt );
+            if ( vectors.isEmpty() ) {
+                throw new IllegalStateException( "no vectors!" );
+            }
 
-        ee = experimentService.replaceRawVectors( ee, vectors );
+            ee = experimentService.replaceRawVectors( ee, vectors );
+        }
 
         if ( !targetPlatform.equals( originalArrayDesign ) ) {
 
@@ -982,6 +993,16 @@ public class DataUpdater {
      */
     private Collection<RawExpressionDataVector> makeNewVectors( ExpressionExperiment ee, ArrayDesign targetPlatform,
             ExpressionDataDoubleMatrix data, QuantitationType qt ) {
+        return this.makeNewVectors( ee, targetPlatform, data, qt, 0, data.rows() );
+    }
+
+    /**
+     * @param  fromRow first row to make a vector for
+     * @param  toRow   row after the last one to make a vector for
+     * @return raw vectors for the given rows
+     */
+    private Collection<RawExpressionDataVector> makeNewVectors( ExpressionExperiment ee, ArrayDesign targetPlatform,
+            ExpressionDataDoubleMatrix data, QuantitationType qt, int fromRow, int toRow ) {
         ByteArrayConverter bArrayConverter = new ByteArrayConverter();
 
         Collection<RawExpressionDataVector> vectors = new HashSet<>();
@@ -995,7 +1016,7 @@ public class DataUpdater {
 
         assert !bioAssayDimension.getBioAssays().isEmpty();
 
-        for ( int i = 0; i < data.rows(); i++ ) {
+        for ( int i = fromRow; i < toRow; i++ ) {
             byte[] bdata = bArrayConverter.doubleArrayToBytes( data.getRow( i ) );
 
             RawExpressionDataVector vector = RawExpressionDataVector.Factory.newInstance();
@@ -1062,6 +1083,59 @@ public class DataUpdater {
         return rpkmqt;
     }
 
+    /**
+     * @return true if the data are big enough that their vectors should be made and persisted in batches.
+     */
+    private boolean isLarge( ExpressionDataDoubleMatrix data ) {
+        return ( long ) data.rows() * data.columns() > Settings
+                .getLong( "gemma.loader.vectors.streaming.threshold", 200000000L );
+    }
+
+    /**
+     * Make and persist the vectors a batch of rows at a time, so that only one batch of serialized vectors is held at
+     * once. Each batch is persisted in its own transaction. If a batch fails, the vectors of the earlier ones are
+     * removed again, so the experiment is left with the data it had.
+     *
+     * @param  replace   if true, the existing vectors are removed once all the new ones are persisted
+     * @param  batchSize number of vectors to persist at once
+     * @return ee
+     */
+    ExpressionExperiment persistVectorsInBatches( ExpressionExperiment ee, ArrayDesign targetPlatform,
+            ExpressionDataDoubleMatrix data, QuantitationType qt, boolean replace, int batchSize ) {
+        int numVectors = 0;
+        try {
+            for ( int fromRow = 0; fromRow < data.rows(); fromRow += batchSize ) {
+                int toRow = Math.min( fromRow + batchSize, data.rows() );
+                Collection<RawExpressionDataVector> vectors = this
+                        .makeNewVectors( ee, targetPlatform, data, qt, fromRow, toRow );
+                if ( vectors.isEmpty() ) {
+                    continue;
+                }
+                ee = experimentService.addRawVectors( ee, vectors );
+                numVectors += vectors.size();
+                DataUpdater.log.info( "Persisted " + numVectors + "/" + data.rows() + " vectors" );
+            }
+        } catch ( RuntimeException e ) {
+            if ( numVectors > 0 ) {
+                DataUpdater.log.error( "Failed after persisting " + numVectors + " vectors, removing them" );
+                try {
+                    experimentService.removeRawVectors( ee, qt );
+                } catch ( RuntimeException e2 ) {
+                    e.addSuppressed( e2 );
+                }
+            }
+            throw e;
+        }
+
+        if ( numVectors == 0 ) {
+            throw new IllegalStateException( "no vectors!" );
+        }
+        if ( replace ) {
+            ee = experimentService.removeOtherRawVectors( ee, qt );
+        }
+        return ee;
+    }
+
     /**
      * Generic
      *
@@ -19,10 +19,10 @@
 package ubic.gemma.core.loader.expression.arrayDesign;
 
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.time.StopWatch;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.task.TaskExecutor;
 import org.springframework.security.concurrent.DelegatingSecurityContextRunnable;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
@@ -55,18 +55,19 @@ import ubic.gemma.persistence.service.genome.biosequence.BioSequenceService;
 import ubic.gemma.persistence.service.genome.gene.GeneProductService;
 import ubic.gemma.persistence.service.genome.sequenceAnalysis.AnnotationAssociationService;
 import ubic.gemma.persistence.service.genome.sequenceAnalysis.BlatResultService;
+import ubic.gemma.persistence.util.Gene2CsIndex;
+import ubic.gemma.persistence.util.Settings;
 
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
-import java.util.Collection;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.StringTokenizer;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.*;
+import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * For an array design, generate gene product mappings for the sequences.
@@ -77,6 +78,8 @@ import java.util.concurrent.atomic.AtomicBoolean;
 public class ArrayDesignProbeMapperServiceImpl implements ArrayDesignProbeMapperService {
 
     private static final int QUEUE_SIZE = 20000;
+    private static final int DEFAULT_BATCH_SIZE = 500;
+    private static final int DEFAULT_NUM_WRITERS = 2;
     private static final Log log = LogFactory.getLog( ArrayDesignProbeMapperServiceImpl.class.getName() );
 
     private final AnnotationAssociationService annotationAssociationService;
@@ -89,9 +92,9 @@ public class ArrayDesignProbeMapperServiceImpl implements ArrayDesignProbeMapper
     private final ExpressionDataFileService expressionDataFileService;
     private final GeneProductService geneProductService;
     private final GeneService geneService;
+    private final Gene2CsIndex gene2CsIndex;
     private final Persister persisterHelper;
     private final ProbeMapper probeMapper;
-    private final TaskExecutor taskExecutor;
 
     @Autowired
     public ArrayDesignProbeMapperServiceImpl( AnnotationAssociationService annotationAssociationService,
@@ -99,7 +102,8 @@ public class ArrayDesignProbeMapperServiceImpl implements ArrayDesignProbeMapper
             ArrayDesignReportService arrayDesignReportService, ArrayDesignService arrayDesignService,
             ProbeMapper probeMapper, BioSequenceService bioSequenceService, BlatResultService blatResultService,
             CompositeSequenceService compositeSequenceService, ExpressionDataFileService expressionDataFileService,
-            GeneProductService geneProductService, GeneService geneService, Persister persisterHelper, TaskExecutor taskExecutor ) {
+            GeneProductService geneProductService, GeneService geneService, Gene2CsIndex gene2CsIndex,
+            Persister persisterHelper ) {
         this.annotationAssociationService = annotationAssociationService;
         this.arrayDesignAnnotationService = arrayDesignAnnotationService;
         this.arrayDesignReportService = arrayDesignReportService;
@@ -111,8 +115,8 @@ public class ArrayDesignProbeMapperServiceImpl implements ArrayDesignProbeMapper
         this.expressionDataFileService = expressionDataFileService;
         this.geneProductService = geneProductService;
         this.geneService = geneService;
+        this.gene2CsIndex = gene2CsIndex;
         this.persisterHelper = persisterHelper;
-        this.taskExecutor = taskExecutor;
     }
 
     @Override
@@ -148,62 +152,66 @@ public class ArrayDesignProbeMapperServiceImpl implements ArrayDesignProbeMapper
 
         GoldenPathSequenceAnalysis goldenPathDb = new GoldenPathSequenceAnalysis( taxon );
 
-        BlockingQueue<BACS> persistingQueue = new ArrayBlockingQueue<>( ArrayDesignProbeMapperServiceImpl.QUEUE_SIZE );
-        AtomicBoolean generatorDone = new AtomicBoolean( false );
-        AtomicBoolean loaderDone = new AtomicBoolean( false );
-
-        this.load( persistingQueue, generatorDone, loaderDone, useDB );
-
         if ( useDB ) {
             ArrayDesignProbeMapperServiceImpl.log.info( "Removing any old alignment-based associations" );
             arrayDesignService.deleteGeneProductAlignmentAssociations( arrayDesign );
         }
 
+        AssociationWriter writer = new AssociationWriter( useDB );
+
         int count = 0;
         int hits = 0;
         int numWithNoResults = 0;
         ArrayDesignProbeMapperServiceImpl.log
                 .info( "Start processing " + arrayDesign.getCompositeSequences().size() + " probes ..." );
-        for ( CompositeSequence compositeSequence : arrayDesign.getCompositeSequences() ) {
+        StopWatch timer = StopWatch.createStarted();
+        try {
+            for ( CompositeSequence compositeSequence : arrayDesign.getCompositeSequences() ) {
 
-            Map<String, Collection<BlatAssociation>> results = this
-                    .processCompositeSequence( config, taxon, goldenPathDb, compositeSequence );
+                Map<String, Collection<BlatAssociation>> results = this
+                        .processCompositeSequence( config, taxon, goldenPathDb, compositeSequence );
 
-            if ( results == null ) {
-                numWithNoResults++;
-                continue;
-            }
+                if ( results == null ) {
+                    numWithNoResults++;
+                    continue;
+                }
 
-            for ( Collection<BlatAssociation> col : results.values() ) {
-                for ( BlatAssociation association : col ) {
-                    if ( ArrayDesignProbeMapperServiceImpl.log.isDebugEnabled() )
-                        ArrayDesignProbeMapperServiceImpl.log.debug( association );
-                    persistingQueue.add( new BACS( compositeSequence, association ) );
+                for ( Collection<BlatAssociation> col : results.values() ) {
+                    for ( BlatAssociation association : col ) {
+                        if ( ArrayDesignProbeMapperServiceImpl.log.isDebugEnabled() )
+                            ArrayDesignProbeMapperServiceImpl.log.debug( association );
+                        writer.add( new BACS( compositeSequence, association ) );
 
+                    }
+                    ++hits;
                 }
-                ++hits;
-            }
 
-            if ( ++count % 200 == 0 ) {
-                ArrayDesignProbeMapperServiceImpl.log
-                        .info( "Processed " + count + " composite sequences" + " with blat results; " + hits
-                                + " mappings found." );
+                if ( ++count % 200 == 0 ) {
+                    ArrayDesignProbeMapperServiceImpl.log
+                            .info( "Processed " + count + " composite sequences" + " with blat results; " + hits
+                                    + " mappings found (" + String
+                                    .format( "%.1f", count / Math.max( timer.getTime() / 1000.0, 0.001 ) )
+                                    + " probes/s); " + writer.getQueueSize() + " associations waiting to be written" );
+                }
             }
-        }
-
-        generatorDone.set( true );
-
-        ArrayDesignProbeMapperServiceImpl.log.info( "Waiting for loading to complete ..." );
-        while ( !loaderDone.get() ) {
+        } catch ( RuntimeException | Error e ) {
+            // don't write what is left in the queue, but let the threads stop before giving up
+            writer.abort();
             try {
-                Thread.sleep( 1000 );
-            } catch ( InterruptedException e ) {
-                throw new RuntimeException( e );
+                writer.finish();
+            } catch ( RuntimeException e2 ) {
+                e.addSuppressed( e2 );
             }
+            throw e;
         }
 
+        ArrayDesignProbeMapperServiceImpl.log.info( "Waiting for loading to complete ..." );
+        writer.finish();
+
         ArrayDesignProbeMapperServiceImpl.log
-                .info( "Processed " + count + " composite sequences with blat results; " + hits + " mappings found." );
+                .info( "Processed " + count + " composite sequences with blat results; " + hits + " mappings found in "
+                        + timer.getTime() / 1000 + "s." );
+        writer.logStatistics();
 
         if ( numWithNoResults > 0 ) {
             ArrayDesignProbeMapperServiceImpl.log.info( numWithNoResults + " had no blat results" );
@@ -212,6 +220,7 @@ public class ArrayDesignProbeMapperServiceImpl implements ArrayDesignProbeMapper
         arrayDesignReportService.generateArrayDesignReport( arrayDesign.getId() );
 
         this.deleteOldFiles( arrayDesign );
+        gene2CsIndex.evict( arrayDesign.getId() );
     }
 
     @Override
@@ -369,6 +378,7 @@ public class ArrayDesignProbeMapperServiceImpl implements ArrayDesignProbeMapper
             arrayDesignReportService.generateArrayDesignReport( arrayDesign.getId() );
 
             this.deleteOldFiles( arrayDesign );
+            gene2CsIndex.evict( arrayDesign.getId() );
 
             ArrayDesignProbeMapperServiceImpl.log
                     .info( "Completed association processing for " + arrayDesign + ", " + numSkipped
@@ -409,65 +419,6 @@ public class ArrayDesignProbeMapperServiceImpl implements ArrayDesignProbeMapper
         return probeMapper.processBlatResults( db, blatResults, config );
     }
 
-    private void doLoad( final BlockingQueue<BACS> queue, AtomicBoolean generatorDone, AtomicBoolean loaderDone,
-            boolean persist ) {
-        int loadedAssociationCount = 0;
-        while ( !( generatorDone.get() && queue.isEmpty() ) ) {
-
-            try {
-                BACS bacs = queue.poll();
-                if ( bacs == null ) {
-                    continue;
-                }
-
-                GeneProduct geneProduct = bacs.ba.getGeneProduct();
-
-                if ( geneProduct.getId() == null ) {
-                    GeneProduct existing = geneProductService.find( geneProduct );
-
-                    if ( existing == null ) {
-
-                        existing = this.checkForAlias( geneProduct );
-                        if ( existing == null ) {
-                            /*
-                             * We have to be careful not to cruft up the gene table now that I so carefully cleaned it.
-                             * But this is a problem if we aren't adding some other association to the gene at least.
-                             * But generally the mRNAs that GP has that NCBI doesn't are "alternative" or "additional".
-                             */
-                            if ( ArrayDesignProbeMapperServiceImpl.log.isDebugEnabled() )
-                                ArrayDesignProbeMapperServiceImpl.log
-                                        .debug( "New gene product from GoldenPath is not in Gemma: " + geneProduct
-                                                + " skipping association to " + bacs.ba.getBioSequence()
-                                                + " [skipping policy in place]" );
-                            continue;
-                        }
-                    }
-                    bacs.ba.setGeneProduct( existing );
-                }
-
-                if ( persist ) {
-                    persisterHelper.persist( bacs.ba );
-
-                    if ( ++loadedAssociationCount % 1000 == 0 ) {
-                        ArrayDesignProbeMapperServiceImpl.log
-                                .info( "Persisted " + loadedAssociationCount + " blat associations. "
-                                        + "Current queue has " + queue.size() + " items." );
-                    }
-                } else {
-                    this.printResult( bacs.cs, bacs.ba );
-                }
-
-            } catch ( Exception e ) {
-                ArrayDesignProbeMapperServiceImpl.log.error( e, e );
-                loaderDone.set( true );
-                throw new RuntimeException( e );
-            }
-        }
-        ArrayDesignProbeMapperServiceImpl.log
-                .info( "Load thread done: loaded " + loadedAssociationCount + " blat associations. " );
-        loaderDone.set( true );
-    }
-
     private GeneProduct checkForAlias( GeneProduct geneProduct ) {
         Collection<GeneProduct> candidates = geneProductService
                 .findByName( geneProduct.getName(), geneProduct.getGene().getTaxon() );
@@ -510,20 +461,6 @@ public class ArrayDesignProbeMapperServiceImpl implements ArrayDesignProbeMapper
 
     }
 
-    /**
-     * @param persist true to get results saved to database; otherwise output is to standard out.
-     */
-    private void load( final BlockingQueue<BACS> queue, final AtomicBoolean generatorDone,
-            final AtomicBoolean loaderDone, final boolean persist ) {
-        this.taskExecutor.execute( new DelegatingSecurityContextRunnable( new Runnable() {
-            @Override
-            public void run() {
-                ArrayDesignProbeMapperServiceImpl.this.doLoad( queue, generatorDone, loaderDone, persist );
-            }
-        } ) );
-
-    }
-
     /**
      * Print line of result to STDOUT.
      */
@@ -535,10 +472,252 @@ public class ArrayDesignProbeMapperServiceImpl implements ArrayDesignProbeMapper
                         + gene.getOfficialSymbol() + "\t" + gene.getClass().getSimpleName() );
     }
 
+    /**
+     * Writes the associations found by the mapping using a pool of threads that take them from a bounded queue in
+     * batches. Each batch is persisted in one transaction. Gene products from GoldenPath are matched to those in Gemma
+     * only once each, and the matches are shared by the threads.
+     */
+    class AssociationWriter {
+
+        private final BlockingQueue<BACS> queue = new ArrayBlockingQueue<>(
+                ArrayDesignProbeMapperServiceImpl.QUEUE_SIZE );
+        private final boolean persist;
+        private final int batchSize;
+        private final ExecutorService executor;
+        private final CountDownLatch done;
+        private final AtomicBoolean generatorDone = new AtomicBoolean( false );
+        private final AtomicBoolean aborted = new AtomicBoolean( false );
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        /**
+         * Gene products of Gemma, by name and gene symbol of the GoldenPath ones they match; keys of those that have no
+         * match are kept apart.
+         */
+        private final Map<String, GeneProduct> matchedGeneProducts = new ConcurrentHashMap<>();
+        private final Set<String> unmatchedGeneProducts = Collections
+                .newSetFromMap( new ConcurrentHashMap<String, Boolean>() );
+
+        private final AtomicLong numWritten = new AtomicLong();
+        private final AtomicLong numSkipped = new AtomicLong();
+        private final AtomicLong matchTimeMillis = new AtomicLong();
+        private final AtomicLong writeTimeMillis = new AtomicLong();
+
+        /**
+         * @param persist true to get results saved to database; otherwise output is to standard out.
+         */
+        private AssociationWriter( boolean persist ) {
+            this( persist, Settings.getInt( "gemma.arrayDesign.probeMapper.batchSize",
+                    ArrayDesignProbeMapperServiceImpl.DEFAULT_BATCH_SIZE ),
+                    Settings.getInt( "gemma.arrayDesign.probeMapper.writers",
+                            ArrayDesignProbeMapperServiceImpl.DEFAULT_NUM_WRITERS ) );
+        }
+
+        /**
+         * @param persist    true to get results saved to database; otherwise output is to standard out.
+         * @param batchSize  maximum number of associations written at once
+         * @param numThreads number of threads writing
+         */
+        AssociationWriter( boolean persist, int batchSize, int numThreads ) {
+            this.persist = persist;
+            this.batchSize = Math.max( 1, batchSize );
+            numThreads = Math.max( 1, numThreads );
+            this.done = new CountDownLatch( numThreads );
+            final AtomicInteger threadNumber = new AtomicInteger();
+            this.executor = Executors.newFixedThreadPool( numThreads, new ThreadFactory() {
+                @Override
+                public Thread newThread( Runnable r ) {
+                    return new Thread( r, "probe-mapper-writer-" + threadNumber.incrementAndGet() );
+                }
+            } );
+            for ( int i = 0; i < numThreads; i++ ) {
+                executor.execute( new DelegatingSecurityContextRunnable( new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            AssociationWriter.this.work();
+                        } finally {
+                            done.countDown();
+                        }
+                    }
+                } ) );
+            }
+            ArrayDesignProbeMapperServiceImpl.log
+                    .info( "Writing associations with " + numThreads + " threads, in batches of " + batchSize );
+        }
+
+        /**
+         * Queue an association, waiting for room in the queue as long as there are threads to write it.
+         */
+        void add( BACS bacs ) {
+            this.checkFailure();
+            try {
+                while ( !queue.offer( bacs, 1, TimeUnit.SECONDS ) ) {
+                    this.checkFailure();
+                    if ( done.getCount() == 0 ) {
+                        throw new IllegalStateException( "No threads are left to write blat associations" );
+                    }
+                }
+            } catch ( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException( e );
+            }
+        }
+
+        private int getQueueSize() {
+            return queue.size();
+        }
+
+        /**
+         * Stop writing; associations still in the queue are dropped. {@link #finish()} must still be called.
+         */
+        void abort() {
+            aborted.set( true );
+        }
+
+        /**
+         * Wait for the queued associations to be written.
+         */
+        void finish() {
+            generatorDone.set( true );
+            try {
+                done.await();
+            } catch ( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException( e );
+            } finally {
+                executor.shutdownNow();
+            }
+            this.checkFailure();
+        }
+
+        private void logStatistics() {
+            ArrayDesignProbeMapperServiceImpl.log
+                    .info( "Load threads done: " + ( persist ? "persisted " : "printed " ) + numWritten.get()
+                            + " blat associations, skipped " + numSkipped.get()
+                            + " whose gene product is not in Gemma; " + matchedGeneProducts.size()
+                            + " distinct gene products matched; " + matchTimeMillis.get()
+                            + " ms matching and " + writeTimeMillis.get() + " ms writing, summed over threads." );
+        }
+
+        private void checkFailure() {
+            if ( failure.get() != null ) {
+                throw new RuntimeException( "Failed to write blat associations", failure.get() );
+            }
+        }
+
+        private void work() {
+            while ( !( generatorDone.get() && queue.isEmpty() ) ) {
+                List<BACS> batch = new ArrayList<>( batchSize );
+                try {
+                    BACS bacs = queue.poll( 1, TimeUnit.SECONDS );
+                    if ( bacs == null ) {
+                        continue;
+                    }
+                    batch.add( bacs );
+                } catch ( InterruptedException e ) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                queue.drainTo( batch, batchSize - 1 );
+
+                // after a failure, keep emptying the queue so the mapping does not block; it will stop soon.
+                if ( failure.get() != null || aborted.get() ) {
+                    continue;
+                }
+
+                try {
+                    this.write( batch );
+                } catch ( Throwable e ) {
+                    ArrayDesignProbeMapperServiceImpl.log.error( e, e );
+                    failure.compareAndSet( null, e );
+                }
+            }
+        }
+
+        private void write( List<BACS> batch ) {
+            StopWatch timer = StopWatch.createStarted();
+            Collection<BlatAssociation> toPersist = new ArrayList<>( batch.size() );
+            int written = 0;
+            for ( BACS bacs : batch ) {
+                GeneProduct geneProduct = this.match( bacs.ba );
+                if ( geneProduct == null ) {
+                    numSkipped.incrementAndGet();
+                    continue;
+                }
+                bacs.ba.setGeneProduct( geneProduct );
+
+                if ( persist ) {
+                    toPersist.add( bacs.ba );
+                } else {
+                    ArrayDesignProbeMapperServiceImpl.this.printResult( bacs.cs, bacs.ba );
+                }
+                written++;
+            }
+            matchTimeMillis.addAndGet( timer.getTime() );
+
+            timer.reset();
+            timer.start();
+            if ( !toPersist.isEmpty() ) {
+                persisterHelper.persist( toPersist );
+            }
+            writeTimeMillis.addAndGet( timer.getTime() );
+
+            long total = numWritten.addAndGet( written );
+            if ( persist && total / 1000 > ( total - written ) / 1000 ) {
+                ArrayDesignProbeMapperServiceImpl.log
+                        .info( "Persisted " + total + " blat associations. " + "Current queue has " + queue.size()
+                                + " items." );
+            }
+        }
+
+        /**
+         * @return the gene product of Gemma for the association, or null if there is none.
+         */
+        private GeneProduct match( BlatAssociation association ) {
+            GeneProduct geneProduct = association.getGeneProduct();
+
+            if ( geneProduct.getId() != null ) {
+                return geneProduct;
+            }
+
+            String key = geneProduct.getName() + "|" + geneProduct.getGene().getOfficialSymbol();
+            GeneProduct existing = matchedGeneProducts.get( key );
+            if ( existing != null ) {
+                return existing;
+            }
+            if ( unmatchedGeneProducts.contains( key ) ) {
+                return null;
+            }
+
+            existing = geneProductService.find( geneProduct );
+
+            if ( existing == null ) {
+
+                existing = ArrayDesignProbeMapperServiceImpl.this.checkForAlias( geneProduct );
+                if ( existing == null ) {
+                    /*
+                     * We have to be careful not to cruft up the gene table now that I so carefully cleaned it.
+                     * But this is a problem if we aren't adding some other association to the gene at least.
+                     * But generally the mRNAs that GP has that NCBI doesn't are "alternative" or "additional".
+                     */
+                    if ( ArrayDesignProbeMapperServiceImpl.log.isDebugEnabled() )
+                        ArrayDesignProbeMapperServiceImpl.log
+                                .debug( "New gene product from GoldenPath is not in Gemma: " + geneProduct
+                                        + " skipping association to " + association.getBioSequence()
+                                        + " [skipping policy in place]" );
+                    unmatchedGeneProducts.add( key );
+                    return null;
+                }
+            }
+            matchedGeneProducts.put( key, existing );
+            return existing;
+        }
+    }
+
     /**
      * Wrapper
      */
-    private class BACS {
+    class BACS {
         final BlatAssociation ba;
 
         final CompositeSequence cs;
@@ -20,6 +20,7 @@ import ubic.gemma.core.loader.util.converter.Converter;
 import ubic.gemma.model.common.quantitationtype.QuantitationType;
 import ubic.gemma.model.expression.experiment.ExpressionExperiment;
 import ubic.gemma.model.genome.Taxon;
+import ubic.gemma.persistence.util.DataVectorSpool;
 
 import java.util.Collection;
 import java.util.List;
@@ -62,6 +63,13 @@ public interface GeoConverter extends Converter<GeoData, Object> {
 
     byte[] convertData( List<Object> vector, QuantitationType qt );
 
+    /**
+     * @return the scratch file holding the data of the vectors converted since the last {@link #clear()}, if there
+     *         were too many values to keep in memory (see gemma.loader.vectors.streaming.threshold); null otherwise.
+     *         It has to be passed on to the persister along with the experiments, and closed once they are persisted.
+     */
+    DataVectorSpool getDataVectorSpool();
+
     /**
      * @param forceConvertElements Set the behaviour when a platform that normally would not be loaded in detail is
      *        encountered, such as an Exon
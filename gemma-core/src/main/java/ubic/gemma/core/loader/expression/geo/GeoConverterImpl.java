@@ -58,6 +58,7 @@ import ubic.gemma.core.loader.expression.geo.model.GeoSample;
 import ubic.gemma.core.loader.expression.geo.model.GeoSeries;
 import ubic.gemma.core.loader.expression.geo.model.GeoSeries.SeriesType;
 import ubic.gemma.core.loader.expression.geo.model.GeoSubset;
+import ubic.gemma.core.loader.expression.geo.model.GeoValueVector;
 import ubic.gemma.core.loader.expression.geo.model.GeoValues;
 import ubic.gemma.core.loader.expression.geo.model.GeoVariable;
 import ubic.gemma.core.loader.expression.geo.model.GeoVariable.VariableType;
@@ -92,6 +93,7 @@ import ubic.gemma.model.genome.biosequence.SequenceType;
 import ubic.gemma.model.genome.gene.phenotype.valueObject.CharacteristicBasicValueObject;
 import ubic.gemma.persistence.service.common.description.ExternalDatabaseService;
 import ubic.gemma.persistence.service.genome.taxon.TaxonService;
+import ubic.gemma.persistence.util.DataVectorSpool;
 import ubic.gemma.persistence.util.Settings;
 
 /**
@@ -153,6 +155,10 @@ public class GeoConverterImpl implements GeoConverter {
      */
     private int tooManyElements = Settings
             .getInt( "geo.platform.import.maxelements", GeoConverterImpl.DEFAULT_DEFINITION_OF_TOO_MANY_ELEMENTS );
+    /**
+     * Once more values than this have been converted, the data of further vectors are spilled to a scratch file.
+     */
+    private final long streamingThreshold = Settings.getLong( "gemma.loader.vectors.streaming.threshold", 200000000L );
     @Autowired
     private ExternalDatabaseService externalDatabaseService;
     @Autowired
@@ -164,9 +170,13 @@ public class GeoConverterImpl implements GeoConverter {
     private ExternalDatabase genbank;
     private boolean splitByPlatform = false;
     private boolean forceConvertElements = false;
+    private long numValuesConverted = 0;
+    private DataVectorSpool spool;
 
     @Override
     public void clear() {
+        this.closeDataVectorSpool();
+        numValuesConverted = 0;
         results = new HashSet<>();
         seenPlatforms = new HashMap<>();
         platformDesignElementMap = new HashMap<>();
@@ -330,6 +340,11 @@ public class GeoConverterImpl implements GeoConverter {
 
     }
 
+    @Override
+    public DataVectorSpool getDataVectorSpool() {
+        return spool;
+    }
+
     @Override
     public void setSplitByPlatform( boolean splitByPlatform ) {
         this.splitByPlatform = splitByPlatform;
@@ -439,6 +454,28 @@ public class GeoConverterImpl implements GeoConverter {
         return bytes;
     }
 
+    /**
+     * Like {@link #convertData(List, QuantitationType)}, but numeric vectors are encoded directly from their primitive
+     * values.
+     *
+     * @param vector values for one design element
+     * @param qt     The quantitation type for the values to be converted.
+     * @return the bytes, or null if all the values are missing.
+     */
+    private byte[] convertData( GeoValueVector vector, QuantitationType qt ) {
+        PrimitiveType pt = qt.getRepresentation();
+        if ( pt.equals( PrimitiveType.DOUBLE ) && vector.isNumeric() ) {
+            if ( vector.getNumMissing() == vector.size() )
+                return null;
+            return byteArrayConverter.doubleArrayToBytes( vector.getDoubles() );
+        } else if ( pt.equals( PrimitiveType.INT ) && vector.isInteger() ) {
+            if ( vector.getNumMissing() == vector.size() )
+                return null;
+            return byteArrayConverter.intArrayToBytes( vector.getInts() );
+        }
+        return this.convertData( vector.toList(), qt );
+    }
+
     @Override
     public void setForceConvertElements( boolean forceConvertElements ) {
         this.forceConvertElements = forceConvertElements;
@@ -1025,6 +1062,39 @@ public class GeoConverterImpl implements GeoConverter {
         values.clear( geoPlatform );
     }
 
+    /**
+     * Delete the spool of the vectors converted last, if there is one.
+     */
+    private void closeDataVectorSpool() {
+        if ( spool == null )
+            return;
+        try {
+            spool.close();
+        } catch ( IOException e ) {
+            GeoConverterImpl.log.warn( "Could not delete the vector spool: " + e.getMessage() );
+        }
+        spool = null;
+    }
+
+    /**
+     * Once the values converted so far exceed the streaming threshold, move the data of the vector to the spool.
+     */
+    private void spillIfNeeded( RawExpressionDataVector vector, int numValues ) {
+        numValuesConverted += numValues;
+        if ( streamingThreshold < 0 || numValuesConverted <= streamingThreshold )
+            return;
+        try {
+            if ( spool == null ) {
+                GeoConverterImpl.log.info( "More than " + streamingThreshold
+                        + " values converted, further vector data will be spooled to disk" );
+                spool = DataVectorSpool.create();
+            }
+            spool.spill( vector );
+        } catch ( IOException e ) {
+            throw new RuntimeException( "Could not spool vector data", e );
+        }
+    }
+
     private void convertDatasetDescriptions( GeoDataset geoDataset, ExpressionExperiment expExp ) {
         if ( StringUtils.isEmpty( expExp.getDescription() ) ) {
             expExp.setDescription( geoDataset.getDescription() ); // probably not empty.
@@ -1046,7 +1116,7 @@ public class GeoConverterImpl implements GeoConverter {
 
     private RawExpressionDataVector convertDesignElementDataVector( GeoPlatform geoPlatform,
             ExpressionExperiment expExp, BioAssayDimension bioAssayDimension, String designElementName,
-            List<Object> dataVector, QuantitationType qt ) {
+            GeoValueVector dataVector, QuantitationType qt ) {
 
         if ( dataVector == null || dataVector.size() == 0 )
             return null;
@@ -2422,7 +2492,7 @@ public class GeoConverterImpl implements GeoConverter {
             GeoConverterImpl.log.debug( "Processing " + quantitationType + " (column=" + quantitationTypeIndex
                     + " - according to sample, it's " + columnAccordingToSample + ")" );
 
-            Map<String, List<Object>> dataVectors = this
+            Map<String, GeoValueVector> dataVectors = this
                     .makeDataVectors( values, datasetSamples, quantitationTypeIndex );
 
             if ( dataVectors == null || dataVectors.size() == 0 ) {
@@ -2432,7 +2502,7 @@ public class GeoConverterImpl implements GeoConverter {
             }
             GeoConverterImpl.log.info( dataVectors.size() + " data vectors for " + quantitationType );
 
-            Object exampleValue = dataVectors.values().iterator().next().iterator().next();
+            Object exampleValue = dataVectors.values().iterator().next().get( 0 );
 
             QuantitationType qt = QuantitationType.Factory.newInstance();
             qt.setName( quantitationType );
@@ -2444,7 +2514,7 @@ public class GeoConverterImpl implements GeoConverter {
             int count = 0;
             int skipped = 0;
             for ( String designElementName : dataVectors.keySet() ) {
-                List<Object> dataVector = dataVectors.get( designElementName );
+                GeoValueVector dataVector = dataVectors.get( designElementName );
                 if ( dataVector == null || dataVector.size() == 0 )
                     continue;
 
@@ -2466,6 +2536,7 @@ public class GeoConverterImpl implements GeoConverter {
                                     + dataVector.size() + " elements in vector" );
                 }
 
+                this.spillIfNeeded( vector, dataVector.size() );
                 expExp.getRawExpressionDataVectors().add( vector );
 
                 if ( ++count % GeoConverterImpl.LOGGING_VECTOR_COUNT_UPDATE == 0 && GeoConverterImpl.log
@@ -2938,20 +3009,13 @@ public class GeoConverterImpl implements GeoConverter {
      * Check to see if we got any data. If not, we should return null. This can happen if the quantitation type was
      * filtered during parsing.
      */
-    private boolean isPopulated( Map<String, List<Object>> dataVectors ) {
-        boolean filledIn = false;
-        for ( List<Object> vector : dataVectors.values() ) {
-            for ( Object object : vector ) {
-                if ( object != null ) {
-                    filledIn = true;
-                    break;
-                }
-            }
-            if ( filledIn ) {
-                break;
+    private boolean isPopulated( Map<String, GeoValueVector> dataVectors ) {
+        for ( GeoValueVector vector : dataVectors.values() ) {
+            if ( vector.hasValues() ) {
+                return true;
             }
         }
-        return filledIn;
+        return false;
     }
 
     /**
@@ -2974,12 +3038,12 @@ public class GeoConverterImpl implements GeoConverter {
      * @param  datasetSamples           The samples we want to get data for. These should all have been run on the same
      *                                  platform.
      * @param  quantitationTypeIndex    - first index is 0
-     * @return                          A map of Strings (design element names) to Lists of Strings containing the data.
+     * @return                          A map of Strings (design element names) to vectors containing the data.
      * @throws IllegalArgumentException if the columnNumber is not valid
      */
-    private Map<String, List<Object>> makeDataVectors( GeoValues values, List<GeoSample> datasetSamples,
+    private Map<String, GeoValueVector> makeDataVectors( GeoValues values, List<GeoSample> datasetSamples,
             Integer quantitationTypeIndex ) {
-        Map<String, List<Object>> dataVectors = new HashMap<>( GeoConverterImpl.INITIAL_VECTOR_CAPACITY );
+        Map<String, GeoValueVector> dataVectors = new HashMap<>( GeoConverterImpl.INITIAL_VECTOR_CAPACITY );
         Collections.sort( datasetSamples );
         GeoPlatform platform = this.getPlatformForSamples( datasetSamples );
 
@@ -3003,7 +3067,7 @@ public class GeoConverterImpl implements GeoConverter {
              * Note: null data can happen if the platform has probes that aren't in the data, or if this is a
              * quantitation type that was filtered out during parsing, or absent from some samples.
              */
-            List<Object> ob = values.getValues( platform, quantitationTypeIndex, designElementName, indices );
+            GeoValueVector ob = values.getVector( platform, quantitationTypeIndex, designElementName, indices );
             if ( ob == null || ob.size() == 0 )
                 continue;
             assert ob.size() == datasetSamples.size();
@@ -0,0 +1,393 @@
+/*
+ * The Gemma project
+ *
+ * Copyright (c) 2026 University of British Columbia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ubic.gemma.core.loader.expression.geo.model;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * The values of one design element for one quantitation type, in the order of the samples. As long as the values are
+ * integers, or then numbers, they are held in a primitive array; blank values and values that were never added (the
+ * padding done by {@link GeoValues#validate()}) are kept in masks. The first value that is not a number (GEO files have
+ * things like "Error" or "null") switches the vector to holding the values as they were given.
+ * Values read back as objects are equivalent to those that were added: numbers are given as strings that parse to the
+ * same value, blanks as empty strings and missing values as null.
+ *
+ * @author agent
+ */
+public class GeoValueVector implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * Longest string of digits (with a sign) that always fits in an int.
+     */
+    private static final int MAX_INT_DIGITS = 9;
+
+    private enum Mode {
+        INT, DOUBLE, OBJECT
+    }
+
+    private Mode mode = Mode.INT;
+    private int size = 0;
+    private int[] ints = new int[GeoValueVector.INITIAL_CAPACITY];
+    private double[] doubles;
+    private Object[] objects;
+
+    /**
+     * Positions that have a value, possibly blank.
+     */
+    private final BitSet present = new BitSet();
+    private final BitSet blank = new BitSet();
+
+    /**
+     * In DOUBLE mode, positions whose value was given as an integer, so it can be given back as one.
+     */
+    private BitSet integral;
+
+    /**
+     * @param value the value to append; null for a missing value.
+     */
+    public void add( Object value ) {
+        this.ensureCapacity( size + 1 );
+        int i = size++;
+        if ( value == null )
+            return;
+        present.set( i );
+
+        if ( mode == Mode.OBJECT ) {
+            objects[i] = value;
+            return;
+        }
+
+        if ( !( value instanceof String ) ) {
+            this.toObjects();
+            objects[i] = value;
+            return;
+        }
+
+        String s = ( String ) value;
+        if ( StringUtils.isBlank( s ) ) {
+            blank.set( i );
+            return;
+        }
+
+        if ( GeoValueVector.isInteger( s ) ) {
+            int v = Integer.parseInt( s );
+            if ( mode == Mode.INT ) {
+                ints[i] = v;
+            } else {
+                doubles[i] = v;
+                integral.set( i );
+            }
+        } else if ( GeoValueVector.isDecimal( s ) ) {
+            try {
+                double v = Double.parseDouble( s );
+                if ( mode == Mode.INT ) {
+                    this.toDoubles();
+                }
+                doubles[i] = v;
+                integral.clear( i );
+            } catch ( NumberFormatException e ) {
+                this.toObjects();
+                objects[i] = s;
+            }
+        } else {
+            this.toObjects();
+            objects[i] = s;
+        }
+    }
+
+    /**
+     * @return the value at the given position, as described in the class documentation.
+     */
+    public Object get( int i ) {
+        if ( i >= size )
+            throw new IndexOutOfBoundsException( "Index: " + i + ", size: " + size );
+        if ( !present.get( i ) )
+            return null;
+        switch ( mode ) {
+            case OBJECT:
+                return objects[i];
+            case DOUBLE:
+                if ( blank.get( i ) )
+                    return "";
+                return integral.get( i ) ? Integer.toString( ( int ) doubles[i] ) : Double.toString( doubles[i] );
+            default:
+                return blank.get( i ) ? "" : Integer.toString( ints[i] );
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return true if any of the values is not null, even if it is blank.
+     */
+    public boolean hasValues() {
+        return !present.isEmpty();
+    }
+
+    /**
+     * @return true if the values are held as numbers, and so are available from {@link #getDoubles()}.
+     */
+    public boolean isNumeric() {
+        return mode != Mode.OBJECT;
+    }
+
+    /**
+     * @return true if the values are held as integers, and so are available from {@link #getInts()}.
+     */
+    public boolean isInteger() {
+        return mode == Mode.INT;
+    }
+
+    /**
+     * @return number of values that are null or blank.
+     */
+    public int getNumMissing() {
+        BitSet missing = ( BitSet ) blank.clone();
+        missing.flip( 0, size );
+        missing.and( present );
+        return size - missing.cardinality();
+    }
+
+    /**
+     * @return the values, with NaN for missing ones.
+     * @throws IllegalStateException if the values are not numeric.
+     */
+    public double[] getDoubles() {
+        if ( !this.isNumeric() )
+            throw new IllegalStateException( "Values are not numeric" );
+        double[] result = new double[size];
+        for ( int i = 0; i < size; i++ ) {
+            if ( !present.get( i ) || blank.get( i ) ) {
+                result[i] = Double.NaN;
+            } else {
+                result[i] = mode == Mode.INT ? ints[i] : doubles[i];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the values, with 0 for missing ones.
+     * @throws IllegalStateException if the values are not integers.
+     */
+    public int[] getInts() {
+        if ( !this.isInteger() )
+            throw new IllegalStateException( "Values are not integers" );
+        int[] result = new int[size];
+        for ( int i = 0; i < size; i++ ) {
+            if ( present.get( i ) && !blank.get( i ) ) {
+                result[i] = ints[i];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param indices positions of the values to take, in the order wanted; a null index gives a missing value.
+     * @return a new vector with the values at the given positions.
+     */
+    public GeoValueVector slice( Integer[] indices ) {
+        GeoValueVector result = new GeoValueVector();
+        result.mode = mode;
+        result.size = indices.length;
+        switch ( mode ) {
+            case OBJECT:
+                result.ints = null;
+                result.objects = new Object[indices.length];
+                break;
+            case DOUBLE:
+                result.ints = null;
+                result.doubles = new double[indices.length];
+                result.integral = new BitSet();
+                break;
+            default:
+                result.ints = new int[indices.length];
+        }
+
+        for ( int j = 0; j < indices.length; j++ ) {
+            Integer i = indices[j];
+            if ( i == null )
+                continue;
+            if ( i >= size )
+                throw new IndexOutOfBoundsException( "Index: " + i + ", size: " + size );
+            result.copyFrom( this, i, j );
+        }
+        return result;
+    }
+
+    /**
+     * @return the values as objects, as described in the class documentation.
+     */
+    public List<Object> toList() {
+        List<Object> result = new ArrayList<>( size );
+        for ( int i = 0; i < size; i++ ) {
+            result.add( this.get( i ) );
+        }
+        return result;
+    }
+
+    /**
+     * Append the value of another vector.
+     */
+    void add( GeoValueVector from, int i ) {
+        if ( from.mode == Mode.OBJECT || !from.present.get( i ) || from.blank.get( i ) ) {
+            this.add( from.get( i ) );
+            return;
+        }
+        this.ensureCapacity( size + 1 );
+        if ( from.mode.compareTo( mode ) > 0 ) {
+            this.toDoubles();
+        }
+        this.copyFrom( from, i, size++ );
+    }
+
+    /**
+     * Pad with missing values.
+     */
+    void pad( int newSize ) {
+        this.ensureCapacity( newSize );
+        size = Math.max( size, newSize );
+    }
+
+    @Override
+    public String toString() {
+        return StringUtils.join( this.toList(), "\t" );
+    }
+
+    /**
+     * Copy a value from a vector whose mode is the same as this one, or lower.
+     */
+    private void copyFrom( GeoValueVector from, int i, int j ) {
+        if ( !from.present.get( i ) )
+            return;
+        present.set( j );
+        if ( from.blank.get( i ) ) {
+            blank.set( j );
+            return;
+        }
+        switch ( mode ) {
+            case OBJECT:
+                objects[j] = from.get( i );
+                break;
+            case DOUBLE:
+                if ( from.mode == Mode.INT ) {
+                    doubles[j] = from.ints[i];
+                    integral.set( j );
+                } else {
+                    doubles[j] = from.doubles[i];
+                    if ( from.integral.get( i ) )
+                        integral.set( j );
+                }
+                break;
+            default:
+                ints[j] = from.ints[i];
+        }
+    }
+
+    private void ensureCapacity( int capacity ) {
+        int length;
+        switch ( mode ) {
+            case OBJECT:
+                length = objects.length;
+                break;
+            case DOUBLE:
+                length = doubles.length;
+                break;
+            default:
+                length = ints.length;
+        }
+        if ( capacity <= length )
+            return;
+        int newLength = Math.max( capacity, length + ( length >> 1 ) );
+        switch ( mode ) {
+            case OBJECT:
+                objects = Arrays.copyOf( objects, newLength );
+                break;
+            case DOUBLE:
+                doubles = Arrays.copyOf( doubles, newLength );
+                break;
+            default:
+                ints = Arrays.copyOf( ints, newLength );
+        }
+    }
+
+    private void toDoubles() {
+        assert mode == Mode.INT;
+        doubles = new double[ints.length];
+        integral = new BitSet();
+        for ( int i = 0; i < size; i++ ) {
+            doubles[i] = ints[i];
+            if ( present.get( i ) && !blank.get( i ) )
+                integral.set( i );
+        }
+        ints = null;
+        mode = Mode.DOUBLE;
+    }
+
+    private void toObjects() {
+        Object[] o = new Object[mode == Mode.INT ? ints.length : doubles.length];
+        for ( int i = 0; i < size; i++ ) {
+            o[i] = this.get( i );
+        }
+        objects = o;
+        ints = null;
+        doubles = null;
+        integral = null;
+        mode = Mode.OBJECT;
+    }
+
+    private static boolean isInteger( String s ) {
+        int start = s.charAt( 0 ) == '-' || s.charAt( 0 ) == '+' ? 1 : 0;
+        if ( s.length() == start || s.length() - start > GeoValueVector.MAX_INT_DIGITS )
+            return false;
+        for ( int i = start; i < s.length(); i++ ) {
+            if ( s.charAt( i ) < '0' || s.charAt( i ) > '9' )
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Only plain decimal notation is kept as a number, so that the value given back is equivalent. In particular,
+     * {@link Double#parseDouble(String)} would also accept surrounding whitespace, "Infinity" and hexadecimal. "NaN" is
+     * kept as NaN, which is how it would be converted anyway.
+     */
+    private static boolean isDecimal( String s ) {
+        if ( s.equals( "NaN" ) )
+            return true;
+        for ( int i = 0; i < s.length(); i++ ) {
+            char c = s.charAt( i );
+            if ( !( c >= '0' && c <= '9' ) && c != '.' && c != '-' && c != '+' && c != 'e' && c != 'E' )
+                return false;
+        }
+        return true;
+    }
+}
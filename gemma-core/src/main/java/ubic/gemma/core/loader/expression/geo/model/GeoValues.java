@@ -30,7 +30,8 @@ import java.util.Map.Entry;
 /**
  * Class to store the expression data prior to conversion. The data are read from series files sample by sample, and
  * within each sample designElement by designElement, and within each designElement, quantitationType by
- * quantitationType. Values are stored in vectors, roughly equivalent to DesignElementDataVectors.
+ * quantitationType. Values are stored in vectors, roughly equivalent to DesignElementDataVectors; numeric values are
+ * kept as primitives (see {@link GeoValueVector}), as the values of a large series would not fit in memory otherwise.
  * This is an important class as it encompasses how we convert GEO sample data into vectors. There are a couple of
  * assumptions that this is predicated on. First, we assume that all samples are presented with their quantitation types
  * in the same order. Second, we assume that all samples have the same quantitation type, OR at worst, some are missing
@@ -228,7 +229,7 @@ public class GeoValues implements Serializable {
     /*
      * Map of platform --> quantitationtype -> designElement -> values; values in same order as sampleVector.
      */
-    private final Map<GeoPlatform, Map<Integer, Map<String, List<Object>>>> data = new HashMap<>();
+    private final Map<GeoPlatform, Map<Integer, Map<String, GeoValueVector>>> data = new HashMap<>();
     private final Map<GeoPlatform, Map<Integer, Collection<String>>> quantitationTypeIndexMap = new HashMap<>();
     private final Map<GeoPlatform, Map<String, Integer>> quantitationTypeNameMap = new HashMap<>();
 
@@ -387,17 +388,17 @@ public class GeoValues implements Serializable {
         GeoPlatform platform = this.addSample( sample, quantitationTypeIndex );
 
         if ( !data.containsKey( platform ) ) {
-            data.put( platform, new HashMap<Integer, Map<String, List<Object>>>() );
+            data.put( platform, new HashMap<Integer, Map<String, GeoValueVector>>() );
         }
 
-        Map<Integer, Map<String, List<Object>>> platformMap = data.get( platform );
+        Map<Integer, Map<String, GeoValueVector>> platformMap = data.get( platform );
         if ( !platformMap.containsKey( quantitationTypeIndex ) ) {
-            platformMap.put( quantitationTypeIndex, new HashMap<String, List<Object>>() );
+            platformMap.put( quantitationTypeIndex, new HashMap<String, GeoValueVector>() );
         }
 
-        Map<String, List<Object>> qtMap = platformMap.get( quantitationTypeIndex );
+        Map<String, GeoValueVector> qtMap = platformMap.get( quantitationTypeIndex );
         if ( !qtMap.containsKey( designElement ) ) {
-            qtMap.put( designElement, new ArrayList<>() );
+            qtMap.put( designElement, new GeoValueVector() );
         }
 
         qtMap.get( designElement ).add( value );
@@ -496,7 +497,8 @@ public class GeoValues implements Serializable {
 
     @SuppressWarnings({ "unused", "WeakerAccess" }) // Possible external use
     public List<Object> getValues( GeoPlatform platform, Integer quantitationType, String designElement ) {
-        return data.get( platform ).get( quantitationType ).get( designElement );
+        GeoValueVector vector = data.get( platform ).get( quantitationType ).get( designElement );
+        return vector == null ? null : vector.toList();
     }
 
     /**
@@ -508,42 +510,41 @@ public class GeoValues implements Serializable {
      */
     public List<Object> getValues( GeoPlatform platform, Integer quantitationType, String designElement,
             Integer[] indices ) {
-        List<Object> result = new ArrayList<>();
-        Map<Integer, Map<String, List<Object>>> map = data.get( platform );
+        GeoValueVector vector = this.getVector( platform, quantitationType, designElement, indices );
+        return vector == null ? null : vector.toList();
+    }
+
+    /**
+     * @param quantitationType QT
+     * @param designElement    design element
+     * @param indices          indices
+     * @param platform         platforms
+     * @return a 'slice' of the data corresponding to the indices provided, without converting numeric values to
+     * objects.
+     */
+    public GeoValueVector getVector( GeoPlatform platform, Integer quantitationType, String designElement,
+            Integer[] indices ) {
+        Map<Integer, Map<String, GeoValueVector>> map = data.get( platform );
         assert map != null : "No data for platform=" + platform;
-        Map<String, List<Object>> map2 = map.get( quantitationType );
+        Map<String, GeoValueVector> map2 = map.get( quantitationType );
         assert map2 != null : "No data for qt " + quantitationType + " on " + platform;
-        List<Object> rawvals = map2.get( designElement );
+        GeoValueVector rawvals = map2.get( designElement );
 
         // this can happen if the data doesn't contain that designElement.
         if ( rawvals == null )
             return null;
         for ( Integer i : indices ) {
-            if ( i == null ) {
-                result.add( null );
-            } else {
-
-                /*
-                 * There can be values missing if some data are missing for some samples. For example, on GSE1004,
-                 * sample GSM15832 was run on HG-U95V1 while the rest are on HG-U95V2, so a few probes are missing data.
-                 */
-                if ( rawvals.size() < ( i + 1 ) ) {
-                    throw new IllegalStateException(
-                            "Data out of bounds index=" + i + " (" + designElement + " on " + platform
-                                    + " quant.type # " + quantitationType + ") - vector has only " + rawvals.size()
-                                    + " values." );
-                }
-                Object value = rawvals.get( i );
-                if ( value == null ) {
-                    if ( GeoValues.log.isDebugEnabled() )
-                        GeoValues.log.debug( "No data for index " + i + " (" + designElement + " on " + platform
-                                + " quant.type # " + quantitationType + ") - vector has " + rawvals.size()
-                                + " values." );
-                }
-                result.add( value );
+            /*
+             * There can be values missing if some data are missing for some samples. For example, on GSE1004,
+             * sample GSM15832 was run on HG-U95V1 while the rest are on HG-U95V2, so a few probes are missing data.
+             */
+            if ( i != null && rawvals.size() < ( i + 1 ) ) {
+                throw new IllegalStateException(
+                        "Data out of bounds index=" + i + " (" + designElement + " on " + platform + " quant.type # "
+                                + quantitationType + ") - vector has only " + rawvals.size() + " values." );
             }
         }
-        return result;
+        return rawvals.slice( indices );
     }
 
     public boolean hasData() {
@@ -593,12 +594,12 @@ public class GeoValues implements Serializable {
                     }
                 }
 
-                v.data.put( p, new HashMap<Integer, Map<String, List<Object>>>() );
+                v.data.put( p, new HashMap<Integer, Map<String, GeoValueVector>>() );
                 for ( Integer o : this.data.get( p ).keySet() ) {
-                    v.data.get( p ).put( o, new HashMap<String, List<Object>>() );
+                    v.data.get( p ).put( o, new HashMap<String, GeoValueVector>() );
 
                     for ( String probeId : this.data.get( p ).get( o ).keySet() ) {
-                        v.data.get( p ).get( o ).put( probeId, new ArrayList<>() );
+                        v.data.get( p ).get( o ).put( probeId, new GeoValueVector() );
                     }
                 }
             }
@@ -617,9 +618,9 @@ public class GeoValues implements Serializable {
 
                     if ( samples.contains( geoSample ) ) {
 
-                        Map<String, List<Object>> newmap = v.data.get( p ).get( o );
+                        Map<String, GeoValueVector> newmap = v.data.get( p ).get( o );
                         for ( String probeId : newmap.keySet() ) {
-                            newmap.get( probeId ).add( this.data.get( p ).get( o ).get( probeId ).get( i ) );
+                            newmap.get( probeId ).add( this.data.get( p ).get( o ).get( probeId ), i );
                         }
 
                     } else {
@@ -664,14 +665,14 @@ public class GeoValues implements Serializable {
                 }
                 buf.append( "\n" );
 
-                Map<String, List<Object>> map = data.get( platform ).get( qType );
+                Map<String, GeoValueVector> map = data.get( platform ).get( qType );
                 assert map != null;
                 List<String> els = new ArrayList<>( map.keySet() );
                 Collections.sort( els );
                 for ( String dEl : els ) {
                     buf.append( dEl );
 
-                    for ( Object val : map.get( dEl ) ) {
+                    for ( Object val : map.get( dEl ).toList() ) {
                         if ( val == null || StringUtils.isBlank( val.toString() ) ) {
                             val = ".";
                         }
@@ -697,7 +698,7 @@ public class GeoValues implements Serializable {
     public void validate() {
         for ( GeoPlatform platform : sampleDimensions.keySet() ) {
 
-            Map<Integer, Map<String, List<Object>>> d = data.get( platform );
+            Map<Integer, Map<String, GeoValueVector>> d = data.get( platform );
 
             for ( Integer qType : sampleDimensions.get( platform ).keySet() ) {
 
@@ -719,11 +720,11 @@ public class GeoValues implements Serializable {
                 }
                 Collection<String> qtNames = qtMap.get( qType );
 
-                Map<String, List<Object>> q = d.get( qType );
+                Map<String, GeoValueVector> q = d.get( qType );
                 boolean warned = false;
-                for ( Entry<String, List<Object>> e : q.entrySet() ) {
+                for ( Entry<String, GeoValueVector> e : q.entrySet() ) {
                     String designElement = e.getKey();
-                    List<Object> vals = e.getValue();
+                    GeoValueVector vals = e.getValue();
 
                     if ( vals.size() < numSamples ) {
                         int paddingAmount = numSamples - vals.size();
@@ -732,9 +733,7 @@ public class GeoValues implements Serializable {
                                     + " values for quantitation type " + qType + "(" + StringUtils.join( qtNames, "/" )
                                     + ")" );
                         warned = true;
-                        for ( int i = 0; i < paddingAmount; i++ ) {
-                            vals.add( null );
-                        }
+                        vals.pad( numSamples );
                     } else if ( vals.size() > numSamples ) {
                         GeoValues.log.error( "Samples so far: " + StringUtils
                                 .join( sampleDimensions.get( platform ).get( qType ), ',' ) );
@@ -43,7 +43,9 @@ import ubic.gemma.persistence.service.expression.bioAssay.BioAssayService;
 import ubic.gemma.persistence.service.expression.experiment.ExpressionExperimentService;
 import ubic.gemma.persistence.service.genome.taxon.TaxonService;
 import ubic.gemma.persistence.util.ArrayDesignsForExperimentCache;
+import ubic.gemma.persistence.util.DataVectorSpool;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
@@ -252,12 +254,24 @@ public class GeoServiceImpl extends AbstractGeoService {
         assert persisterHelper != null;
 
         Collection<ExpressionExperiment> persistedResult = new HashSet<>();
-        for ( ExpressionExperiment ee : result ) {
-            c = expressionExperimentPrePersistService.prepare( ee, c );
-            ee = persisterHelper.persist( ee, c );
-            persistedResult.add( ee );
-            AbstractGeoService.log.debug( "Persisted " + seriesAccession );
+        // the data of the vectors of very large series are on disk until they are persisted.
+        DataVectorSpool spool = geoConverter.getDataVectorSpool();
+        try {
+            for ( ExpressionExperiment ee : result ) {
+                c = expressionExperimentPrePersistService.prepare( ee, c );
+                ee = persisterHelper.persist( ee, c, spool );
+                persistedResult.add( ee );
+                AbstractGeoService.log.debug( "Persisted " + seriesAccession );
 
+            }
+        } finally {
+            if ( spool != null ) {
+                try {
+                    spool.close();
+                } catch ( IOException e ) {
+                    AbstractGeoService.log.warn( "Could not delete the vector spool: " + e.getMessage() );
+                }
+            }
         }
         this.updateReports( persistedResult );
 
@@ -26,6 +26,7 @@ import org.springframework.stereotype.Component;
 import ubic.basecode.dataStructure.matrix.DoubleMatrix;
 import ubic.basecode.dataStructure.matrix.SparseDoubleMatrix;
 import ubic.basecode.ontology.model.OntologyTerm;
+import ubic.gemma.core.ontology.providers.GeneOntologyClosure;
 import ubic.gemma.core.ontology.providers.GeneOntologyService;
 import ubic.gemma.core.ontology.providers.GeneOntologyServiceImpl;
 import ubic.gemma.model.common.description.Characteristic;
@@ -274,17 +275,18 @@ public class GoMetric {
         gene2term.setColumnNames( goTerms );
         gene2term.setRowNames( geneSet );
 
+        // only visit the terms each gene has, rather than every column
+        Set<String> columns = new HashSet<>( goTerms );
         for ( Long id : gene2term.getRowNames() ) {
 
-            Collection<String> terms = gene2go.get( id );
-            for ( String goId : gene2term.getColNames() ) {
+            for ( String goId : gene2go.get( id ) ) {
 
-                if ( terms.contains( goId ) ) {
-                    if ( weight ) {
-                        gene2term.setByKeys( id, goId, GOTermFrequency.get( goId ) );
-                    } else {
-                        gene2term.setByKeys( id, goId, ( double ) 1 );
-                    }
+                if ( !columns.contains( goId ) )
+                    continue;
+                if ( weight ) {
+                    gene2term.setByKeys( id, goId, GOTermFrequency.get( goId ) );
+                } else {
+                    gene2term.setByKeys( id, goId, ( double ) 1 );
                 }
             }
         }
@@ -373,29 +375,27 @@ public class GoMetric {
      */
     private Double checkParents( OntologyTerm ontoM, OntologyTerm ontoC, Map<String, Double> GOProbMap ) {
 
-        Collection<OntologyTerm> parentM = geneOntologyService.getAllParents( ontoM, partOf );
-        parentM.add( ontoM );
-        Collection<OntologyTerm> parentC = geneOntologyService.getAllParents( ontoC, partOf );
-        parentC.add( ontoC );
-
+        GeneOntologyClosure closure = geneOntologyService.getClosure( partOf );
         double pMin = 1;
-
-        for ( OntologyTerm termM : parentM ) {
-            if ( this.isRoot( termM ) )
-                continue;
-
-            for ( OntologyTerm termC : parentC ) {
-                if ( this.isRoot( termC ) )
-                    continue;
-
-                if ( ( termM.getUri().equalsIgnoreCase( termC.getUri() ) ) && ( GOProbMap.get( termM.getUri() ) != null ) ) {
-
-                    double value = GOProbMap.get( termM.getUri() );
-                    if ( value < pMin ) {
-                        pMin = value;
-                        break;
-                    }
-                }
+        if ( closure == null )
+            return pMin;
+
+        int m = closure.getIndex( ontoM.getUri() );
+        int c = closure.getIndex( ontoC.getUri() );
+        if ( m < 0 || c < 0 )
+            return pMin;
+
+        BitSet shared = closure.getAncestors( m );
+        shared.set( m );
+        BitSet parentC = closure.getAncestors( c );
+        parentC.set( c );
+        shared.and( parentC );
+        shared.andNot( this.getRoots( closure ) );
+
+        for ( String uri : closure.getUris( shared ) ) {
+            Double value = GOProbMap.get( uri );
+            if ( value != null && value < pMin ) {
+                pMin = value;
             }
         }
         return pMin;
@@ -543,27 +543,11 @@ public class GoMetric {
         if ( !geneOntologyService.isReady() )
             GoMetric.log.error( "computeSimpleOverlap called before geneOntologyService is ready!!!" );
 
-        Double avgScore = 0.0;
-        Collection<OntologyTerm> masterGO = geneOntologyService.getGOTerms( gene1, includePartOf, null );
-        Collection<OntologyTerm> coExpGO = geneOntologyService.getGOTerms( gene2, includePartOf, null );
+        BitSet masterGO = geneOntologyService.getGOTermBits( gene1, includePartOf );
+        BitSet coExpGO = geneOntologyService.getGOTermBits( gene2, includePartOf );
 
-        Collection<OntologyTerm> overlappingTerms = new HashSet<>();
-        for ( OntologyTerm o : masterGO ) {
-            if ( coExpGO.contains( o ) && !this.isRoot( o ) )
-                overlappingTerms.add( o );
-        }
-
-        if ( masterGO.size() < coExpGO.size() ) {
-            avgScore = ( double ) overlappingTerms.size() / masterGO.size();
-        }
-        if ( coExpGO.size() < masterGO.size() ) {
-            avgScore = ( double ) overlappingTerms.size() / coExpGO.size();
-        }
-        if ( coExpGO.size() == masterGO.size() ) {
-            avgScore = ( double ) overlappingTerms.size() / coExpGO.size();
-        }
-
-        return avgScore;
+        int smaller = Math.min( masterGO.cardinality(), coExpGO.cardinality() );
+        return ( double ) this.countOverlap( masterGO, coExpGO, includePartOf ) / smaller;
     }
 
     /**
@@ -576,16 +560,36 @@ public class GoMetric {
         if ( !geneOntologyService.isReady() )
             GoMetric.log.error( "computeSimpleOverlap called before geneOntologyService is ready!!!" );
 
-        Collection<OntologyTerm> masterGO = geneOntologyService.getGOTerms( gene1, includePartOf, null );
-        Collection<OntologyTerm> coExpGO = geneOntologyService.getGOTerms( gene2, includePartOf, null );
+        BitSet masterGO = geneOntologyService.getGOTermBits( gene1, includePartOf );
+        BitSet coExpGO = geneOntologyService.getGOTermBits( gene2, includePartOf );
 
-        Collection<OntologyTerm> overlappingTerms = new HashSet<>();
-        for ( OntologyTerm o : masterGO ) {
-            if ( coExpGO.contains( o ) && !this.isRoot( o ) )
-                overlappingTerms.add( o );
-        }
+        return ( double ) this.countOverlap( masterGO, coExpGO, includePartOf );
+    }
+
+    /**
+     * @return number of terms, other than the roots, in both sets.
+     */
+    private int countOverlap( BitSet terms1, BitSet terms2, boolean includePartOf ) {
+        GeneOntologyClosure closure = geneOntologyService.getClosure( includePartOf );
+        if ( closure == null )
+            return 0;
+        BitSet overlap = ( BitSet ) terms1.clone();
+        overlap.and( terms2 );
+        overlap.andNot( this.getRoots( closure ) );
+        return overlap.cardinality();
+    }
 
-        return ( double ) overlappingTerms.size();
+    /**
+     * @return the three aspect roots, as a set of terms of the closure.
+     */
+    private BitSet getRoots( GeneOntologyClosure closure ) {
+        BitSet roots = new BitSet();
+        for ( String id : new String[] { "GO_0008150", "GO_0003674", "GO_0005575" } ) {
+            int index = closure.getIndex( GeneOntologyService.BASE_GO_URI + id );
+            if ( index >= 0 )
+                roots.set( index );
+        }
+        return roots;
     }
 
     /**
@@ -0,0 +1,198 @@
+/*
+ * The Gemma project
+ *
+ * Copyright (c) 2026 University of British Columbia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package ubic.gemma.core.ontology.providers;
+
+import java.util.*;
+
+/**
+ * The transitive closure of the Gene Ontology hierarchy, compiled once after the ontology is loaded. Each term is
+ * given an integer index, so a set of terms, such as the propagated annotations of a gene, can be held in a
+ * {@link BitSet}; overlaps and group sizes are then bitset operations. Unmodifiable.
+ *
+ * @author agent
+ */
+public class GeneOntologyClosure {
+
+    private static final int[] NONE = new int[0];
+
+    private final String[] uris;
+    private final Map<String, Integer> indices;
+
+    /**
+     * Sorted indices of the ancestors of each term, not including the term itself.
+     */
+    private final int[][] ancestors;
+
+    private GeneOntologyClosure( String[] uris, Map<String, Integer> indices, int[][] ancestors ) {
+        this.uris = uris;
+        this.indices = indices;
+        this.ancestors = ancestors;
+    }
+
+    /**
+     * @param  terms   URIs of the terms
+     * @param  parents URIs of the direct parents of each term; parents that are not among the terms are ignored, as
+     *                 are relations that would make a cycle.
+     * @return         the closure
+     */
+    static GeneOntologyClosure compile( Collection<String> terms, Map<String, ? extends Collection<String>> parents ) {
+        String[] uris = new LinkedHashSet<>( terms ).toArray( new String[0] );
+        Map<String, Integer> indices = new HashMap<>( uris.length * 2 );
+        for ( int i = 0; i < uris.length; i++ ) {
+            indices.put( uris[i], i );
+        }
+
+        int[][] directParents = new int[uris.length][];
+        for ( int i = 0; i < uris.length; i++ ) {
+            Collection<String> p = parents.get( uris[i] );
+            if ( p == null || p.isEmpty() ) {
+                directParents[i] = GeneOntologyClosure.NONE;
+                continue;
+            }
+            BitSet b = new BitSet();
+            for ( String uri : p ) {
+                Integer j = indices.get( uri );
+                if ( j != null && j != i ) {
+                    b.set( j );
+                }
+            }
+            directParents[i] = b.stream().toArray();
+        }
+
+        int[][] ancestors = new int[uris.length][];
+        boolean[] visiting = new boolean[uris.length];
+        for ( int i = 0; i < uris.length; i++ ) {
+            GeneOntologyClosure.computeAncestors( i, directParents, ancestors, visiting );
+        }
+        return new GeneOntologyClosure( uris, indices, ancestors );
+    }
+
+    private static void computeAncestors( int term, int[][] directParents, int[][] ancestors, boolean[] visiting ) {
+        if ( ancestors[term] != null )
+            return;
+        visiting[term] = true;
+        BitSet b = new BitSet();
+        for ( int p : directParents[term] ) {
+            if ( visiting[p] ) {
+                continue; // cycle
+            }
+            GeneOntologyClosure.computeAncestors( p, directParents, ancestors, visiting );
+            b.set( p );
+            for ( int a : ancestors[p] ) {
+                b.set( a );
+            }
+        }
+        b.clear( term );
+        visiting[term] = false;
+        ancestors[term] = b.isEmpty() ? GeneOntologyClosure.NONE : b.stream().toArray();
+    }
+
+    /**
+     * @return number of terms.
+     */
+    public int size() {
+        return uris.length;
+    }
+
+    /**
+     * @param  uri URI of a term
+     * @return     its index, or -1 if it is not a term of the ontology.
+     */
+    public int getIndex( String uri ) {
+        Integer i = indices.get( uri );
+        return i == null ? -1 : i;
+    }
+
+    public String getUri( int index ) {
+        return uris[index];
+    }
+
+    /**
+     * @return the ancestors of the term, not including itself.
+     */
+    public BitSet getAncestors( int index ) {
+        BitSet b = new BitSet( uris.length );
+        for ( int a : ancestors[index] ) {
+            b.set( a );
+        }
+        return b;
+    }
+
+    /**
+     * Add terms and all their ancestors to a set.
+     *
+     * @param terms   indices of the terms
+     * @param addInto the set to add to
+     */
+    public void propagate( int[] terms, BitSet addInto ) {
+        for ( int t : terms ) {
+            addInto.set( t );
+            for ( int a : ancestors[t] ) {
+                addInto.set( a );
+            }
+        }
+    }
+
+    /**
+     * @param  uris URIs of terms; those that are not in the ontology are ignored.
+     * @return      the terms and all their ancestors.
+     */
+    public BitSet propagate( Collection<String> uris ) {
+        BitSet b = new BitSet( this.uris.length );
+        for ( String uri : uris ) {
+            int t = this.getIndex( uri );
+            if ( t >= 0 ) {
+                this.propagate( new int[] { t }, b );
+            }
+        }
+        return b;
+    }
+
+    /**
+     * @return the URIs of the terms in the set.
+     */
+    public Collection<String> getUris( BitSet terms ) {
+        Collection<String> result = new ArrayList<>( terms.cardinality() );
+        for ( int t = terms.nextSetBit( 0 ); t >= 0; t = terms.nextSetBit( t + 1 ) ) {
+            result.add( uris[t] );
+        }
+        return result;
+    }
+
+    /**
+     * @param  termSets sets of terms, such as the propagated annotations of each gene
+     * @return          for each term, how many of the sets contain it.
+     */
+    public int[] countOccurrences( Collection<BitSet> termSets ) {
+        int[] counts = new int[uris.length];
+        for ( BitSet terms : termSets ) {
+            for ( int t = terms.nextSetBit( 0 ); t >= 0; t = terms.nextSetBit( t + 1 ) ) {
+                counts[t]++;
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * @return number of terms in both sets.
+     */
+    public static int overlap( BitSet a, BitSet b ) {
+        if ( a.isEmpty() || b.isEmpty() )
+            return 0;
+        BitSet c = ( BitSet ) a.clone();
+        c.and( b );
+        return c.cardinality();
+    }
+}
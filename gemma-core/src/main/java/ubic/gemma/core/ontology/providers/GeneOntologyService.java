@@ -24,6 +24,7 @@ import ubic.gemma.model.genome.GeneOntologyTermValueObject;
 import ubic.gemma.model.genome.Taxon;
 
 import java.io.InputStream;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
@@ -117,6 +118,13 @@ public interface GeneOntologyService extends InitializingBean {
 
     Collection<OntologyTerm> getChildren( OntologyTerm entry, boolean includePartOf );
 
+    /**
+     * @param  includePartOf whether the hierarchy includes part-of relations as well as is-a
+     * @return               the compiled hierarchy, computed the first time it is needed; null if the ontology is not
+     *                       loaded.
+     */
+    GeneOntologyClosure getClosure( boolean includePartOf );
+
     /**
      * @param  taxon taxon
      * @param  goId  go id
@@ -126,6 +134,16 @@ public interface GeneOntologyService extends InitializingBean {
      */
     Collection<Gene> getGenes( String goId, Taxon taxon );
 
+    /**
+     * The same terms as {@link #getGOTerms(Gene, boolean)}, as indices in {@link #getClosure(boolean)}. They are read
+     * from the same cache, so the annotations of the gene are only fetched once.
+     *
+     * @param  gene          gene
+     * @param  includePartOf include part of
+     * @return               set of terms; empty if the ontology is not loaded.
+     */
+    BitSet getGOTermBits( Gene gene, boolean includePartOf );
+
     /**
      * @param  gene Take a gene and return a set of all GO terms including the parents of each GO term
      * @return      ontology terms
@@ -155,6 +173,14 @@ public interface GeneOntologyService extends InitializingBean {
 
     Collection<OntologyTerm> getGOTerms( Long geneId );
 
+    /**
+     * @param  annotations   GO annotations, such as those of a gene
+     * @param  includePartOf include part of
+     * @return               the annotated terms and all their parents, as indices in {@link #getClosure(boolean)};
+     *                       terms that are not in the ontology are skipped.
+     */
+    BitSet getPropagatedTerms( Collection<Characteristic> annotations, boolean includePartOf );
+
     /**
      * Return the immediate parent(s) of the given entry. The root node is never returned.
      *
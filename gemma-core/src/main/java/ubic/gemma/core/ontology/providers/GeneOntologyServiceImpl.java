@@ -139,10 +139,11 @@ public class GeneOntologyServiceImpl implements GeneOntologyService {
     private TaskExecutor taskExecutor;
 
     /**
-     * Cache of go term -> parent terms
+     * Compiled hierarchy, with and without part-of relations; built when first needed.
      */
-    private final Map<String, Collection<OntologyTerm>> parentsCache = Collections
-            .synchronizedMap( new HashMap<String, Collection<OntologyTerm>>() );
+    private volatile GeneOntologyClosure closure;
+    private volatile GeneOntologyClosure closureWithPartOf;
+    private final Object closureLock = new Object();
 
     @Override
     public void afterPropertiesSet() {
@@ -173,7 +174,7 @@ public class GeneOntologyServiceImpl implements GeneOntologyService {
 
         Collection<Gene> genes = this.geneService.load( geneIds );
 
-        this.putOverlapGenes( overlap, queryGeneTerms, genes );
+        this.putOverlapGenes( overlap, queryGene, genes );
 
         return overlap;
     }
@@ -184,10 +185,10 @@ public class GeneOntologyServiceImpl implements GeneOntologyService {
         if ( queryGene1 == null || queryGene2 == null )
             return null;
 
-        Collection<OntologyTerm> queryGeneTerms1 = this.getGOTerms( queryGene1 );
-        Collection<OntologyTerm> queryGeneTerms2 = this.getGOTerms( queryGene2 );
+        BitSet overlap = ( BitSet ) this.getGOTermBits( queryGene1, true ).clone();
+        overlap.and( this.getGOTermBits( queryGene2, true ) );
 
-        return this.computeOverlap( queryGeneTerms1, queryGeneTerms2 );
+        return this.toTerms( this.getClosure( true ), overlap );
     }
 
     @Override
@@ -198,14 +199,15 @@ public class GeneOntologyServiceImpl implements GeneOntologyService {
         if ( geneIds.size() == 0 )
             return overlap;
 
-        Collection<OntologyTerm> queryGeneTerms = this.getGOTerms( queryGene );
+        Gene query = geneService.load( queryGene );
+        Collection<OntologyTerm> queryGeneTerms = this.getGOTerms( query );
 
         overlap.put( queryGene, queryGeneTerms ); // include the query gene in the list. Clearly 100% overlap
         // with itself!
 
         Collection<Gene> genes = this.geneService.load( geneIds );
 
-        this.putOverlapGenes( overlap, queryGeneTerms, genes );
+        this.putOverlapGenes( overlap, query, genes );
 
         return overlap;
     }
@@ -332,6 +334,15 @@ public class GeneOntologyServiceImpl implements GeneOntologyService {
         return terms;
     }
 
+    @Override
+    public GeneOntologyClosure getClosure( boolean includePartOf ) {
+        GeneOntologyClosure c = includePartOf ? closureWithPartOf : closure;
+        if ( c == null && this.isReady() ) {
+            c = this.compileClosure( includePartOf );
+        }
+        return c;
+    }
+
     @Override
     public Collection<Gene> getGenes( String goId, Taxon taxon ) {
         OntologyTerm t = getTermForId( goId );
@@ -347,6 +358,26 @@ public class GeneOntologyServiceImpl implements GeneOntologyService {
         return results;
     }
 
+    @Override
+    public BitSet getGOTermBits( Gene gene, boolean includePartOf ) {
+        BitSet bits = new BitSet();
+        GeneOntologyClosure c = this.getClosure( includePartOf );
+        if ( c == null )
+            return bits;
+        // use the cached terms, as getGOTerms does; they may have been cached without part-of, so propagate them again
+        Collection<OntologyTerm> terms = this.getGOTerms( gene, includePartOf, null );
+        int[] indices = new int[terms.size()];
+        int n = 0;
+        for ( OntologyTerm term : terms ) {
+            int index = c.getIndex( term.getUri() );
+            if ( index >= 0 ) {
+                indices[n++] = index;
+            }
+        }
+        c.propagate( Arrays.copyOf( indices, n ), bits );
+        return bits;
+    }
+
     @Override
     public Collection<OntologyTerm> getGOTerms( Gene gene ) {
         return this.getGOTerms( gene, true, null );
@@ -446,6 +477,25 @@ public class GeneOntologyServiceImpl implements GeneOntologyService {
         return results;
     }
 
+    @Override
+    public BitSet getPropagatedTerms( Collection<Characteristic> annotations, boolean includePartOf ) {
+        BitSet bits = new BitSet();
+        GeneOntologyClosure c = this.getClosure( includePartOf );
+        if ( c == null )
+            return bits;
+        for ( Characteristic annotation : annotations ) {
+            // alternative ids map to the primary term
+            OntologyTerm term = GeneOntologyServiceImpl.uri2Term.get( annotation.getValueUri() );
+            if ( term == null )
+                continue;
+            int index = c.getIndex( term.getUri() );
+            if ( index >= 0 ) {
+                c.propagate( new int[] { index }, bits );
+            }
+        }
+        return bits;
+    }
+
     /**
      * @param  uri uri
      * @return     null if not found
@@ -612,6 +662,7 @@ public class GeneOntologyServiceImpl implements GeneOntologyService {
         Collection<OntologyResource> terms = OntologyLoader.initialize( null, model );
         this.indices.add( OntologyIndexer.indexOntology( "GeneOntology", model ) );
         GeneOntologyServiceImpl.uri2Term.clear();
+        this.clearClosures();
         this.addTerms( terms );
         GeneOntologyServiceImpl.ready.set( true );
     }
@@ -632,7 +683,7 @@ public class GeneOntologyServiceImpl implements GeneOntologyService {
             try {
                 this.goTerms.clear();
                 this.childrenCache.clear();
-                this.parentsCache.clear();
+                this.clearClosures();
                 GeneOntologyServiceImpl.term2Aspect.clear();
                 for ( IndexLARQ l : indices ) {
                     l.close();
@@ -657,6 +708,7 @@ public class GeneOntologyServiceImpl implements GeneOntologyService {
         this.indices.add( OntologyIndexer
                 .indexOntology( GeneOntologyServiceImpl.GO_URL.replaceFirst( ".*/", "" ).replace( ".owl", "" ),
                         model ) );
+        this.clearClosures();
         this.addTerms( terms );
     }
 
@@ -676,28 +728,79 @@ public class GeneOntologyServiceImpl implements GeneOntologyService {
         }
     }
 
-    private synchronized Collection<OntologyTerm> getAncestors( OntologyTerm entry, boolean includePartOf ) {
-
-        if ( entry == null ) {
-            return new HashSet<>();
+    private void clearClosures() {
+        synchronized ( closureLock ) {
+            this.closure = null;
+            this.closureWithPartOf = null;
         }
+    }
 
-        Collection<OntologyTerm> ancestors = parentsCache.get( entry.getUri() );
-        if ( ancestors == null ) {
-            ancestors = new HashSet<>();
+    /**
+     * Compile the hierarchy. The part-of relations are fetched with a single query rather than one per term.
+     */
+    private GeneOntologyClosure compileClosure( boolean includePartOf ) {
+        synchronized ( closureLock ) {
+            GeneOntologyClosure c = includePartOf ? closureWithPartOf : closure;
+            if ( c != null )
+                return c;
+
+            StopWatch timer = StopWatch.createStarted();
+            Map<String, OntologyTerm> terms = new HashMap<>();
+            for ( OntologyTerm term : GeneOntologyServiceImpl.uri2Term.values() ) {
+                terms.put( term.getUri(), term ); // skips the alternative ids
+            }
 
-            Collection<OntologyTerm> parents = this.getParents( entry, includePartOf );
-            if ( parents != null ) {
-                for ( OntologyTerm parent : parents ) {
-                    ancestors.add( parent );
-                    ancestors.addAll( this.getAncestors( parent, includePartOf ) );
+            Map<String, Collection<String>> parents = new HashMap<>();
+            for ( OntologyTerm term : terms.values() ) {
+                Collection<String> p = new HashSet<>();
+                for ( OntologyTerm parent : this.getParents( term, false ) ) {
+                    p.add( parent.getUri() );
                 }
+                parents.put( term.getUri(), p );
             }
 
-            ancestors = Collections.unmodifiableCollection( ancestors );
-            parentsCache.put( entry.getUri(), ancestors );
+            if ( includePartOf ) {
+                for ( Map.Entry<String, Collection<String>> e : this.getPartOfRelations().entrySet() ) {
+                    Collection<String> p = parents.get( e.getKey() );
+                    if ( p != null ) {
+                        p.addAll( e.getValue() );
+                    }
+                }
+            }
+
+            c = GeneOntologyClosure.compile( terms.keySet(), parents );
+            if ( includePartOf ) {
+                this.closureWithPartOf = c;
+            } else {
+                this.closure = c;
+            }
+            GeneOntologyServiceImpl.log.info( "Compiled Gene Ontology hierarchy for " + c.size() + " terms" + (
+                    includePartOf ?
+                            " (including part-of)" :
+                            "" ) + " in " + timer.getTime() + "ms" );
+            return c;
         }
-        return new HashSet<>( ancestors );
+    }
+
+    private Collection<OntologyTerm> getAncestors( OntologyTerm entry, boolean includePartOf ) {
+
+        if ( entry == null ) {
+            return new HashSet<>();
+        }
+
+        GeneOntologyClosure c = this.getClosure( includePartOf );
+        int index = c == null ? -1 : c.getIndex( entry.getUri() );
+        if ( index < 0 ) {
+            // not a term of the loaded ontology
+            Collection<OntologyTerm> ancestors = new HashSet<>();
+            for ( OntologyTerm parent : this.getParents( entry, includePartOf ) ) {
+                ancestors.add( parent );
+                ancestors.addAll( this.getAncestors( parent, includePartOf ) );
+            }
+            return ancestors;
+        }
+
+        return this.toTerms( c, c.getAncestors( index ) );
     }
 
     /**
@@ -755,6 +858,37 @@ public class GeneOntologyServiceImpl implements GeneOntologyService {
         return r;
     }
 
+    /**
+     * @return map of terms to the terms they are "part_of", for the whole ontology.
+     */
+    private Map<String, Collection<String>> getPartOfRelations() {
+        Map<String, Collection<String>> r = new HashMap<>();
+        String queryString = "SELECT ?x ?y WHERE { ?x <http://www.w3.org/2000/01/rdf-schema#subClassOf> ?v . "
+                + "?v <http://www.w3.org/2002/07/owl#onProperty> <" + GeneOntologyServiceImpl.PART_OF_URI + "> . "
+                + "?v <http://www.w3.org/2002/07/owl#someValuesFrom> ?y . }";
+        Query q = QueryFactory.create( queryString );
+        QueryExecution qexec = QueryExecutionFactory.create( q, model );
+        try {
+            ResultSet results = qexec.execSelect();
+            while ( results.hasNext() ) {
+                QuerySolution soln = results.nextSolution();
+                Resource x = soln.getResource( "x" );
+                Resource y = soln.getResource( "y" );
+                if ( x.isAnon() || y.isAnon() )
+                    continue; // some reasoners will return these.
+                Collection<String> p = r.get( x.getURI() );
+                if ( p == null ) {
+                    p = new HashSet<>();
+                    r.put( x.getURI(), p );
+                }
+                p.add( y.getURI() );
+            }
+        } finally {
+            qexec.close();
+        }
+        return r;
+    }
+
     /**
      * Return terms which have "part_of" relation with the given term (they are "part_of" the given term).
      */
@@ -841,6 +975,9 @@ public class GeneOntologyServiceImpl implements GeneOntologyService {
 
                     GeneOntologyServiceImpl.log.info( "Done loading GO" );
                     loadTime.stop();
+
+                    GeneOntologyServiceImpl.this.getClosure( false );
+                    GeneOntologyServiceImpl.this.getClosure( true );
                 } catch ( Throwable e ) {
                     GeneOntologyServiceImpl.log.error( e, e );
                     GeneOntologyServiceImpl.ready.set( false );
@@ -865,24 +1002,29 @@ public class GeneOntologyServiceImpl implements GeneOntologyService {
         GeneOntologyServiceImpl.log.trace( buf.toString() );
     }
 
-    private void putOverlapGenes( Map<Long, Collection<OntologyTerm>> overlap, Collection<OntologyTerm> queryGeneTerms,
+    private void putOverlapGenes( Map<Long, Collection<OntologyTerm>> overlap, Gene queryGene,
             Collection<Gene> genes ) {
-        for ( Object obj : genes ) {
-            Gene gene = ( Gene ) obj;
-            if ( queryGeneTerms.isEmpty() ) {
-                overlap.put( gene.getId(), new HashSet<OntologyTerm>() );
-                continue;
-            }
-
-            Collection<OntologyTerm> comparisonOntos = this.getGOTerms( gene );
-
-            if ( comparisonOntos == null || comparisonOntos.isEmpty() ) {
+        GeneOntologyClosure c = this.getClosure( true );
+        BitSet queryBits = this.getGOTermBits( queryGene, true );
+        for ( Gene gene : genes ) {
+            if ( queryBits.isEmpty() ) {
                 overlap.put( gene.getId(), new HashSet<OntologyTerm>() );
                 continue;
             }
 
-            overlap.put( gene.getId(), this.computeOverlap( queryGeneTerms, comparisonOntos ) );
+            BitSet comparison = ( BitSet ) this.getGOTermBits( gene, true ).clone();
+            comparison.and( queryBits );
+            overlap.put( gene.getId(), this.toTerms( c, comparison ) );
         }
     }
 
-}
\ No newline at end of file
+    private Collection<OntologyTerm> toTerms( GeneOntologyClosure c, BitSet terms ) {
+        Collection<OntologyTerm> result = new HashSet<>();
+        if ( c == null )
+            return result;
+        for ( String uri : c.getUris( terms ) ) {
+            result.add( GeneOntologyServiceImpl.uri2Term.get( uri ) );
+        }
+        return result;
+    }
+}
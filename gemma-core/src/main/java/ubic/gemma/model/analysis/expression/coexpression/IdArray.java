@@ -55,6 +55,43 @@ public abstract class IdArray implements Serializable {
         }
     }
 
+    /**
+     * @param ids ids, which are cast to ints
+     * @return a bitmap of the ids
+     * @throws IllegalArgumentException if a value is too large to be stored as an integer.
+     */
+    public static EWAHCompressedBitmap toBitmap( Collection<Long> ids ) {
+        int[] sorted = new int[ids.size()];
+        int k = 0;
+        for ( Long id : ids ) {
+            if ( id > Integer.MAX_VALUE ) {
+                throw new IllegalArgumentException( "Cannot store values larger than " + Integer.MAX_VALUE );
+            }
+            sorted[k++] = id.intValue();
+        }
+        Arrays.sort( sorted );
+
+        // bits have to be set in order.
+        EWAHCompressedBitmap b = new EWAHCompressedBitmap();
+        for ( int id : sorted ) {
+            b.set( id );
+        }
+        return b;
+    }
+
+    /**
+     * @param bitmap bitmap
+     * @return the ids in the bitmap, as a set
+     */
+    public static Set<Long> toSet( EWAHCompressedBitmap bitmap ) {
+        int[] array = bitmap.toArray();
+        Set<Long> result = new HashSet<>( 2 * array.length );
+        for ( int i : array ) {
+            result.add( ( long ) i );
+        }
+        return result;
+    }
+
     public synchronized void addEntities( Collection<Long> ids ) {
         List<Long> idl = new ArrayList<>( ids );
         Collections.sort( idl );
@@ -120,6 +157,16 @@ public abstract class IdArray implements Serializable {
         return result;
     }
 
+    /**
+     * Changes to this are never made in place, so the bitmap can be used for fast set operations, but it must not be
+     * modified.
+     *
+     * @return the bitmap backing this
+     */
+    public EWAHCompressedBitmap getBitmap() {
+        return data;
+    }
+
     public byte[] getBytes() {
         return IdArray.pack( this.data );
     }
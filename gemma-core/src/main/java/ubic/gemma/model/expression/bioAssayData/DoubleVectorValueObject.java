@@ -106,6 +106,29 @@ public class DoubleVectorValueObject extends DataVectorValueObject {
         this.data = ArrayUtils.toPrimitive( values.toArray( new Double[] {} ) );
     }
 
+    /**
+     * Create a copy of a vector, with the given data in place of its own. The p-value is not copied.
+     *
+     * @param vec VO to copy
+     * @param data the values of the copy, which are not copied; may be null.
+     */
+    public DoubleVectorValueObject( DoubleVectorValueObject vec, double[] data ) {
+        super( vec.getId() );
+        this.sourceVectorId = vec.sourceVectorId;
+        this.sliced = vec.sliced;
+        this.masked = vec.masked;
+        this.reorganized = vec.reorganized;
+        this.rank = vec.rank;
+        this.rankByMax = vec.rankByMax;
+        this.rankByMean = vec.rankByMean;
+        this.expressionExperiment = vec.getExpressionExperiment();
+        this.setGenes( vec.getGenes() );
+        this.setDesignElement( vec.getDesignElement() );
+        this.setQuantitationType( vec.getQuantitationType() );
+        this.setBioAssayDimension( vec.getBioAssayDimension() );
+        this.data = data;
+    }
+
     public DoubleVectorValueObject( DesignElementDataVector dedv, BioAssayDimensionValueObject badVo ) {
         this( dedv, null, badVo );
     }
@@ -0,0 +1,178 @@
+/*
+ * The Gemma project
+ *
+ * Copyright (c) 2026 University of British Columbia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ubic.gemma.model.expression.bioAssayData;
+
+import cern.colt.list.DoubleArrayList;
+import cern.colt.list.LongArrayList;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.util.*;
+
+/**
+ * The processed data of an experiment for a set of design elements that share a bioassay dimension, kept as a single
+ * row-major array of values rather than as one object per vector. Values for outlier samples are NaN.
+ *
+ * @author agent
+ */
+public class ProcessedDataMatrix implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Long expressionExperimentId;
+    private final Long bioAssayDimensionId;
+    private final long[] designElementIds;
+    private final List<Collection<Long>> genes;
+    private final int columns;
+
+    /**
+     * values[row * columns + column]
+     */
+    private final double[] values;
+
+    private ProcessedDataMatrix( Long expressionExperimentId, Long bioAssayDimensionId, long[] designElementIds,
+            List<Collection<Long>> genes, int columns, double[] values ) {
+        this.expressionExperimentId = expressionExperimentId;
+        this.bioAssayDimensionId = bioAssayDimensionId;
+        this.designElementIds = designElementIds;
+        this.genes = genes;
+        this.columns = columns;
+        this.values = values;
+    }
+
+    public Long getExpressionExperimentId() {
+        return expressionExperimentId;
+    }
+
+    /**
+     * @return the id of the dimension that gives the bioassays of the columns, in order.
+     */
+    public Long getBioAssayDimensionId() {
+        return bioAssayDimensionId;
+    }
+
+    public int rows() {
+        return designElementIds.length;
+    }
+
+    public int columns() {
+        return columns;
+    }
+
+    public long getDesignElementId( int row ) {
+        return designElementIds[row];
+    }
+
+    /**
+     * @return ids of the genes the design element of the row maps to.
+     */
+    public Collection<Long> getGenes( int row ) {
+        return genes.get( row );
+    }
+
+    public double get( int row, int column ) {
+        if ( row < 0 || row >= designElementIds.length || column < 0 || column >= columns ) {
+            throw new IndexOutOfBoundsException( "No value at (" + row + ", " + column + ")" );
+        }
+        return values[row * columns + column];
+    }
+
+    /**
+     * @return a copy of the values of the row.
+     */
+    public double[] getRow( int row ) {
+        if ( row < 0 || row >= designElementIds.length ) {
+            throw new IndexOutOfBoundsException( "No row " + row );
+        }
+        return Arrays.copyOfRange( values, row * columns, ( row + 1 ) * columns );
+    }
+
+    /**
+     * Accumulates vectors, in their stored form, for a matrix.
+     */
+    public static class Builder {
+
+        private final Long expressionExperimentId;
+        private final Long bioAssayDimensionId;
+        private final LongArrayList designElementIds = new LongArrayList();
+        private final List<Collection<Long>> genes = new ArrayList<>();
+        private final DoubleArrayList values = new DoubleArrayList();
+        private final Set<Integer> maskedColumns = new HashSet<>();
+        private int columns = -1;
+
+        public Builder( Long expressionExperimentId, Long bioAssayDimensionId ) {
+            this.expressionExperimentId = expressionExperimentId;
+            this.bioAssayDimensionId = bioAssayDimensionId;
+        }
+
+        /**
+         * @param data    the vector as stored, that is, as big-endian doubles.
+         * @param geneIds genes the design element maps to, may be null.
+         */
+        public void add( long designElementId, byte[] data, Collection<Long> geneIds ) {
+            if ( data.length % 8 != 0 ) {
+                throw new IllegalArgumentException(
+                        "Data for design element with id=" + designElementId + " is not an array of doubles" );
+            }
+            int length = data.length / 8;
+            if ( columns < 0 ) {
+                columns = length;
+            } else if ( length != columns ) {
+                throw new IllegalArgumentException(
+                        "Vector for design element with id=" + designElementId + " has " + length + " values, expected "
+                                + columns + " from its bioassay dimension" );
+            }
+            DoubleBuffer buf = ByteBuffer.wrap( data ).asDoubleBuffer();
+            while ( buf.hasRemaining() ) {
+                values.add( buf.get() );
+            }
+            designElementIds.add( designElementId );
+            genes.add( geneIds == null ? Collections.<Long>emptySet() : geneIds );
+        }
+
+        /**
+         * @param column column whose values are to be NaN, e.g. that of an outlier sample.
+         */
+        public void mask( int column ) {
+            maskedColumns.add( column );
+        }
+
+        /**
+         * The builder must not be used afterwards, as the matrix takes over its arrays.
+         */
+        public ProcessedDataMatrix build() {
+            int rows = designElementIds.size();
+            int cols = Math.max( columns, 0 );
+            values.trimToSize();
+            designElementIds.trimToSize();
+            double[] result = values.elements();
+            for ( Integer j : maskedColumns ) {
+                if ( j >= cols ) {
+                    continue;
+                }
+                for ( int i = 0; i < rows; i++ ) {
+                    result[i * cols + j] = Double.NaN;
+                }
+            }
+            return new ProcessedDataMatrix( expressionExperimentId, bioAssayDimensionId,
+                    designElementIds.elements(), genes, cols, result );
+        }
+    }
+}
@@ -20,8 +20,10 @@ package ubic.gemma.persistence.persister;
 
 import org.apache.commons.lang3.time.StopWatch;
 import org.hibernate.FlushMode;
+import org.hibernate.Session;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.transaction.annotation.Transactional;
+import ubic.basecode.util.BatchIterator;
 import ubic.gemma.model.common.auditAndSecurity.Contact;
 import ubic.gemma.model.common.description.BibliographicReference;
 import ubic.gemma.model.common.description.Characteristic;
@@ -41,7 +43,10 @@ import ubic.gemma.persistence.service.expression.biomaterial.BioMaterialDao;
 import ubic.gemma.persistence.service.expression.biomaterial.CompoundDao;
 import ubic.gemma.persistence.service.expression.experiment.*;
 import ubic.gemma.persistence.util.ArrayDesignsForExperimentCache;
+import ubic.gemma.persistence.util.DataVectorSpool;
+import ubic.gemma.persistence.util.Settings;
 
+import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -75,6 +80,13 @@ abstract public class ExpressionPersister extends ArrayDesignPersister {
     @Override
     @Transactional
     public ExpressionExperiment persist( ExpressionExperiment ee, ArrayDesignsForExperimentCache cachedArrays ) {
+        return this.persist( ee, cachedArrays, null );
+    }
+
+    @Override
+    @Transactional
+    public ExpressionExperiment persist( ExpressionExperiment ee, ArrayDesignsForExperimentCache cachedArrays,
+            DataVectorSpool spool ) {
 
         if ( ee == null )
             return null;
@@ -122,7 +134,15 @@ abstract public class ExpressionPersister extends ArrayDesignPersister {
             // This does most of the preparatory work.
             this.processBioAssays( ee, cachedArrays );
 
-            ee = expressionExperimentDao.create( ee );
+            if ( spool != null && spool.size() > 0 ) {
+                // withhold the vectors, so they are not all saved (and held by the session) at once via the cascade.
+                Set<RawExpressionDataVector> vectors = ee.getRawExpressionDataVectors();
+                ee.setRawExpressionDataVectors( new HashSet<RawExpressionDataVector>() );
+                ee = expressionExperimentDao.create( ee );
+                this.persistDataVectors( ee, vectors, spool );
+            } else {
+                ee = expressionExperimentDao.create( ee );
+            }
 
         } finally {
             this.getSessionFactory().getCurrentSession().setFlushMode( FlushMode.AUTO );
@@ -315,6 +335,44 @@ abstract public class ExpressionPersister extends ArrayDesignPersister {
         return bioAssayDimension;
     }
 
+    /**
+     * Save the vectors of a new experiment in batches, restoring their data from the spool just before and releasing
+     * it once the batch is flushed.
+     */
+    private void persistDataVectors( ExpressionExperiment ee, Collection<RawExpressionDataVector> vectors,
+            DataVectorSpool spool ) {
+        Session session = this.getSessionFactory().getCurrentSession();
+        int batchSize = Settings.getInt( "gemma.loader.vectors.batchSize", 1000 );
+        StopWatch timer = StopWatch.createStarted();
+        int count = 0;
+        for ( Collection<RawExpressionDataVector> batch : BatchIterator.batches( vectors, batchSize ) ) {
+            try {
+                spool.restore( batch );
+            } catch ( IOException e ) {
+                throw new RuntimeException( "Could not read spooled vector data", e );
+            }
+            for ( RawExpressionDataVector vector : batch ) {
+                vector.setExpressionExperiment( ee );
+                session.save( vector );
+            }
+            session.flush();
+            for ( RawExpressionDataVector vector : batch ) {
+                session.evict( vector );
+            }
+            spool.release( batch );
+            count += batch.size();
+            if ( timer.getTime() > 5000 ) {
+                AbstractPersister.log.info( "Persisted " + count + "/" + vectors.size() + " data vectors" );
+                timer.reset();
+                timer.start();
+            }
+        }
+        // the collection was empty when the experiment was saved
+        this.getSessionFactory().getCache()
+                .evictCollection( ExpressionExperiment.class.getName() + ".rawExpressionDataVectors", ee.getId() );
+        AbstractPersister.log.info( "Persisted " + count + " data vectors in batches of " + batchSize );
+    }
+
     private void fillInExperimentalFactorAssociations( ExperimentalFactor experimentalFactor ) {
         if ( experimentalFactor == null )
             return;
@@ -21,6 +21,7 @@ package ubic.gemma.persistence.persister;
 import org.springframework.security.access.annotation.Secured;
 import ubic.gemma.model.expression.experiment.ExpressionExperiment;
 import ubic.gemma.persistence.util.ArrayDesignsForExperimentCache;
+import ubic.gemma.persistence.util.DataVectorSpool;
 
 import java.util.Collection;
 
@@ -69,6 +70,18 @@ public interface Persister {
     @Secured({ "GROUP_USER" })
     ExpressionExperiment persist( ExpressionExperiment ee, ArrayDesignsForExperimentCache c );
 
+    /**
+     * Special case for experiments whose vector data were spilled to a scratch file while they were converted; the
+     * vectors are then persisted in batches, and are not left in the persistent experiment's collection of vectors.
+     *
+     * @param  ee    experiment
+     * @param  c     array design cache (see caller)
+     * @param  spool holding the data of (some of) the raw vectors, or null
+     * @return       persisted experiment
+     */
+    @Secured({ "GROUP_USER" })
+    ExpressionExperiment persist( ExpressionExperiment ee, ArrayDesignsForExperimentCache c, DataVectorSpool spool );
+
     /**
      * Persist or update a single object. If the object already exists in the system, it will be replaced with the
      * supplied instance. This means that any existing data may be lost. Otherwise a new persistent instance will be
@@ -36,6 +36,7 @@ import ubic.gemma.model.expression.arrayDesign.ArrayDesign;
 import ubic.gemma.persistence.model.Gene2CsStatus;
 import ubic.gemma.persistence.service.common.auditAndSecurity.AuditEventService;
 import ubic.gemma.persistence.service.genome.GeneDao;
+import ubic.gemma.persistence.util.Gene2CsIndex;
 import ubic.gemma.persistence.util.MailEngine;
 import ubic.gemma.persistence.util.Settings;
 
@@ -76,6 +77,9 @@ public class TableMaintenanceUtilImpl implements TableMaintenanceUtil {
     @Autowired
     private AuditEventService auditEventService;
 
+    @Autowired
+    private Gene2CsIndex gene2CsIndex;
+
     @Autowired
     private MailEngine mailEngine;
 
@@ -141,6 +145,7 @@ public class TableMaintenanceUtilImpl implements TableMaintenanceUtil {
             if ( needToRefresh ) {
                 TableMaintenanceUtilImpl.log.debug( "Update of GENE2CS initiated" );
                 this.generateGene2CsEntries();
+                gene2CsIndex.clear();
                 Gene2CsStatus updatedStatus = this.writeUpdateStatus( annotation, null );
                 this.sendEmail( updatedStatus );
 
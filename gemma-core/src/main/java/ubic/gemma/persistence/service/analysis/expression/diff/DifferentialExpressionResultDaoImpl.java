@@ -29,6 +29,8 @@ import ubic.basecode.io.ByteArrayConverter;
 import ubic.basecode.math.distribution.Histogram;
 import ubic.basecode.util.BatchIterator;
 import ubic.basecode.util.SQLUtils;
+import ubic.gemma.core.analysis.expression.diff.DifferentialExpressionResultColumns;
+import ubic.gemma.core.analysis.expression.diff.DifferentialExpressionResultColumnsService;
 import ubic.gemma.model.analysis.expression.diff.ExpressionAnalysisResultSet;
 import ubic.gemma.model.analysis.expression.diff.*;
 import ubic.gemma.model.expression.designElement.CompositeSequence;
@@ -36,8 +38,8 @@ import ubic.gemma.model.expression.experiment.*;
 import ubic.gemma.model.genome.Gene;
 import ubic.gemma.model.genome.gene.GeneValueObject;
 import ubic.gemma.persistence.service.AbstractDao;
-import ubic.gemma.persistence.util.CommonQueries;
 import ubic.gemma.persistence.util.EntityUtils;
+import ubic.gemma.persistence.util.Gene2CsIndex;
 import ubic.gemma.persistence.util.TaskCancelledException;
 
 import java.math.BigInteger;
@@ -111,12 +113,17 @@ public class DifferentialExpressionResultDaoImpl extends AbstractDao<Differentia
             + " where rs in (:resultsSets)"; // no order by clause, we add it later; 'e' is not used in this query.
 
     private final DifferentialExpressionResultCache differentialExpressionResultCache;
+    private final Gene2CsIndex gene2CsIndex;
+    private final DifferentialExpressionResultColumnsService differentialExpressionResultColumnsService;
 
     @Autowired
     public DifferentialExpressionResultDaoImpl( SessionFactory sessionFactory,
-            DifferentialExpressionResultCache differentialExpressionResultCache ) {
+            DifferentialExpressionResultCache differentialExpressionResultCache, Gene2CsIndex gene2CsIndex,
+            DifferentialExpressionResultColumnsService differentialExpressionResultColumnsService ) {
         super( DifferentialExpressionAnalysisResult.class, sessionFactory );
         this.differentialExpressionResultCache = differentialExpressionResultCache;
+        this.gene2CsIndex = gene2CsIndex;
+        this.differentialExpressionResultColumnsService = differentialExpressionResultColumnsService;
         setLoadBatchSize( 1000 ); // previously: 500
     }
 
@@ -371,7 +378,7 @@ public class DifferentialExpressionResultDaoImpl extends AbstractDao<Differentia
                         .abbreviate( StringUtils.join( resultSetIdBatch, "," ), 100 ) );
 
             /*
-             * Get the probes using the CommonQueries gene2cs. Otherwise we (in effect) end up doing this over and over
+             * Get the probes using the in-memory gene2cs index. Otherwise we (in effect) end up doing this over and over
              * again.
              */
             Map<Long, Collection<Long>> cs2GeneIdMap = this
@@ -529,6 +536,19 @@ public class DifferentialExpressionResultDaoImpl extends AbstractDao<Differentia
             return results;
         }
 
+        // the rows are sorted by corrected p-value, so the top hits are the first ones
+        DifferentialExpressionResultColumns columns = differentialExpressionResultColumnsService
+                .load( resultSet.getId() );
+        if ( columns != null ) {
+            int n = columns.countTopHits( threshold != null ? threshold : -1.0, limit, minNumberOfResults );
+            results = new ArrayList<>( n );
+            for ( int i = 0; i < n; i++ ) {
+                results.add( this.toValueObject( columns, i ) );
+            }
+            differentialExpressionResultCache.addToTopHitsCache( resultSet, results );
+            return results;
+        }
+
         results = new ArrayList<>();
 
         // get it.
@@ -582,6 +602,23 @@ public class DifferentialExpressionResultDaoImpl extends AbstractDao<Differentia
         return results;
     }
 
+    private DifferentialExpressionValueObject toValueObject( DifferentialExpressionResultColumns columns, int row ) {
+        DifferentialExpressionValueObject vo = new DifferentialExpressionValueObject( columns.getResultId( row ) );
+        vo.setP( columns.getPvalue( row ) );
+        vo.setCorrP( columns.getCorrectedPvalue( row ) );
+        vo.setProbe( columns.getProbeName( row ) );
+        vo.setProbeId( columns.getProbeId( row ) );
+        vo.setResultSetId( columns.getResultSetId() );
+        for ( int c = 0; c < columns.getNumContrasts(); c++ ) {
+            Long contrastId = columns.getContrastId( c, row );
+            if ( contrastId != null ) {
+                vo.addContrast( contrastId, columns.getFactorValueId( c ), columns.getContrastPvalue( c, row ),
+                        columns.getLogFoldChange( c, row ), columns.getSecondFactorValueId( c ) );
+            }
+        }
+        return vo;
+    }
+
     /**
      * Given a list of result sets finds the results that met the given threshold
      *
@@ -932,7 +969,18 @@ public class DifferentialExpressionResultDaoImpl extends AbstractDao<Differentia
                 "select rs.pvalueDistribution from ExpressionAnalysisResultSet rs where rs.id=:rsid ", "rsid",
                 resultSetId );
         if ( pvds.isEmpty() ) {
-            return null;
+            // not stored, but it can be computed from the columns if there are any
+            DifferentialExpressionResultColumns columns = differentialExpressionResultColumnsService
+                    .load( resultSetId );
+            if ( columns == null ) {
+                return null;
+            }
+            double[] counts = columns.getPvalueDistribution( 100 );
+            Histogram hist = new Histogram( resultSetId.toString(), counts.length, 0.0, 1.0 );
+            for ( int i = 0; i < counts.length; i++ ) {
+                hist.fill( i, ( int ) counts[i] );
+            }
+            return hist;
         }
 
         assert pvds.size() == 1;
@@ -1126,7 +1174,7 @@ public class DifferentialExpressionResultDaoImpl extends AbstractDao<Differentia
              * only include a dummy for probes which are from this result set.
              */
             Collection<Long> arrayDesignIds = resultSetIds.get( resultSetId ).getArrayDesignsUsed();
-            Collection<Long> probesForResultSet = CommonQueries.filterProbesByPlatform( pbL, arrayDesignIds, session );
+            Collection<Long> probesForResultSet = gene2CsIndex.filterProbesByPlatform( pbL, arrayDesignIds, session );
 
             for ( Long probeId : probesForResultSet ) {
                 for ( Long geneId : cs2GeneIdMap.get( probeId ) ) {
@@ -1161,7 +1209,7 @@ public class DifferentialExpressionResultDaoImpl extends AbstractDao<Differentia
             assert arrayDesignsUsed != null;
             adUsed.addAll( arrayDesignsUsed );
         }
-        return CommonQueries.getCs2GeneIdMap( geneIds, adUsed, session );
+        return gene2CsIndex.getCs2GeneIdMap( geneIds, adUsed, session );
     }
 
     /**
@@ -75,6 +75,16 @@ public interface ExpressionAnalysisResultSetDao extends AnalysisResultSetDao<Dif
      */
     Map<DifferentialExpressionAnalysisResult, List<Gene>> loadResultToGenesMap( ExpressionAnalysisResultSet resultSet );
 
+    /**
+     * Load a probe ID to {@link Gene} multi-map, for when the results themselves are not loaded.
+     *
+     * Like {@link #loadResultToGenesMap(ExpressionAnalysisResultSet)}, this relies on the GENE2CS table, through its
+     * in-memory copy, and probes without genes are left out.
+     *
+     * @param probeIds IDs of the probes
+     */
+    Map<Long, List<Gene>> loadProbeToGenesMap( Collection<Long> probeIds );
+
     /**
      * Retrieve result sets associated to a set of {@link BioAssaySet} and external database entries.
      *
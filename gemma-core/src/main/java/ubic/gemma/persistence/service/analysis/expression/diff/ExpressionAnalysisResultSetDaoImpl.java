@@ -25,6 +25,7 @@ import org.hibernate.criterion.Projections;
 import org.hibernate.criterion.Restrictions;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
+import ubic.basecode.util.BatchIterator;
 import ubic.gemma.model.analysis.expression.diff.DifferentialExpressionAnalysis;
 import ubic.gemma.model.analysis.expression.diff.DifferentialExpressionAnalysisResult;
 import ubic.gemma.model.analysis.expression.diff.ExpressionAnalysisResultSet;
@@ -37,10 +38,7 @@ import ubic.gemma.persistence.service.AbstractCriteriaFilteringVoEnabledDao;
 import ubic.gemma.persistence.service.AbstractDao;
 import ubic.gemma.persistence.util.*;
 
-import java.util.Collection;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
@@ -52,9 +50,12 @@ import java.util.stream.Collectors;
 public class ExpressionAnalysisResultSetDaoImpl extends AbstractCriteriaFilteringVoEnabledDao<ExpressionAnalysisResultSet, ExpressionAnalysisResultSetValueObject>
         implements ExpressionAnalysisResultSetDao {
 
+    private final Gene2CsIndex gene2CsIndex;
+
     @Autowired
-    public ExpressionAnalysisResultSetDaoImpl( SessionFactory sessionFactory ) {
+    public ExpressionAnalysisResultSetDaoImpl( SessionFactory sessionFactory, Gene2CsIndex gene2CsIndex ) {
         super( ExpressionAnalysisResultSet.class, sessionFactory );
+        this.gene2CsIndex = gene2CsIndex;
     }
 
     @Override
@@ -255,4 +256,41 @@ public class ExpressionAnalysisResultSetDaoImpl extends AbstractCriteriaFilterin
                                         .map( l -> ( Gene ) l[1] )
                                         .collect( Collectors.toList() ) ) ) );
     }
+
+    @Override
+    public Map<Long, List<Gene>> loadProbeToGenesMap( Collection<Long> probeIds ) {
+        Map<Long, List<Gene>> result = new HashMap<>();
+        if ( probeIds.isEmpty() )
+            return result;
+
+        Session session = getSessionFactory().getCurrentSession();
+        Map<Long, Collection<Long>> cs2genes = gene2CsIndex.getCs2GeneMapForProbes( probeIds, session );
+        Set<Long> geneIds = new HashSet<>();
+        for ( Collection<Long> genes : cs2genes.values() ) {
+            geneIds.addAll( genes );
+        }
+
+        Map<Long, Gene> genesById = new HashMap<>( geneIds.size() * 2 );
+        for ( Collection<Long> batch : BatchIterator.batches( geneIds, 1000 ) ) {
+            //noinspection unchecked
+            List<Gene> genes = session.createQuery( "select g from Gene g where g.id in (:ids)" )
+                    .setParameterList( "ids", batch )
+                    .list();
+            for ( Gene g : genes ) {
+                genesById.put( g.getId(), g );
+            }
+        }
+
+        for ( Map.Entry<Long, Collection<Long>> e : cs2genes.entrySet() ) {
+            List<Gene> genes = new ArrayList<>( e.getValue().size() );
+            for ( Long geneId : e.getValue() ) {
+                Gene g = genesById.get( geneId );
+                if ( g != null ) {
+                    genes.add( g );
+                }
+            }
+            result.put( e.getKey(), genes );
+        }
+        return result;
+    }
 }
\ No newline at end of file
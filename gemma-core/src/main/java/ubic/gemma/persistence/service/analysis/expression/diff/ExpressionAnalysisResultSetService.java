@@ -30,5 +30,7 @@ public interface ExpressionAnalysisResultSetService extends AnalysisResultSetSer
 
     Map<DifferentialExpressionAnalysisResult, List<Gene>> loadResultToGenesMap( ExpressionAnalysisResultSet ears );
 
+    Map<Long, List<Gene>> loadProbeToGenesMap( Collection<Long> probeIds );
+
     Slice<ExpressionAnalysisResultSetValueObject> findByBioAssaySetInAndDatabaseEntryInLimit( Collection<BioAssaySet> bioAssaySets, Collection<DatabaseEntry> externalIds, Filters objectFilters, int offset, int limit, Sort sort );
 }
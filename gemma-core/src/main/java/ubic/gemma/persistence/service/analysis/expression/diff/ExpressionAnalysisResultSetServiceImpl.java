@@ -63,6 +63,12 @@ public class ExpressionAnalysisResultSetServiceImpl extends AbstractFilteringVoE
         return voDao.loadResultToGenesMap( resultSet );
     }
 
+    @Override
+    @Transactional(readOnly = true)
+    public Map<Long, List<Gene>> loadProbeToGenesMap( Collection<Long> probeIds ) {
+        return voDao.loadProbeToGenesMap( probeIds );
+    }
+
     @Override
     @Transactional(readOnly = true)
     public Slice<ExpressionAnalysisResultSetValueObject> findByBioAssaySetInAndDatabaseEntryInLimit( Collection<BioAssaySet> bioAssaySets, Collection<DatabaseEntry> externalIds, Filters objectFilters, int offset, int limit, Sort sort ) {
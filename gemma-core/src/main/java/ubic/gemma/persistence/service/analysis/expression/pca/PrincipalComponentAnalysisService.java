@@ -31,10 +31,14 @@ import java.util.List;
  */
 public interface PrincipalComponentAnalysisService extends BaseService<PrincipalComponentAnalysis> {
 
+    /**
+     * @param totalVariance the sum of all the eigenvalues, which is more than the sum of those given if not all the
+     *                      components were computed; used for the fractions of variance.
+     */
     @Secured({ "GROUP_USER", "ACL_SECURABLE_EDIT" })
     PrincipalComponentAnalysis create( ExpressionExperiment ee, DoubleMatrix<CompositeSequence, Integer> u,
-            double[] eigenvalues, DoubleMatrix<Integer, BioMaterial> v, BioAssayDimension bad, int numComponentsToStore,
-            int numLoadingsToStore );
+            double[] eigenvalues, double totalVariance, DoubleMatrix<Integer, BioMaterial> v, BioAssayDimension bad,
+            int numComponentsToStore, int numLoadingsToStore );
 
     @Secured({ "IS_AUTHENTICATED_ANONYMOUSLY", "ACL_SECURABLE_READ" })
     List<ProbeLoading> getTopLoadedProbes( ExpressionExperiment ee, int component, int count );
@@ -51,8 +51,8 @@ public class PrincipalComponentAnalysisServiceImpl extends AbstractService<Princ
     @Override
     @Transactional
     public PrincipalComponentAnalysis create( ExpressionExperiment ee, DoubleMatrix<CompositeSequence, Integer> u,
-            double[] eigenvalues, DoubleMatrix<Integer, BioMaterial> v, BioAssayDimension bad, int numComponentsToStore,
-            int numLoadingsToStore ) {
+            double[] eigenvalues, double totalVariance, DoubleMatrix<Integer, BioMaterial> v, BioAssayDimension bad,
+            int numComponentsToStore, int numLoadingsToStore ) {
 
         PrincipalComponentAnalysis pca = PrincipalComponentAnalysis.Factory.newInstance();
         int actualNumberOfComponentsStored = Math.min( numComponentsToStore, v.columns() );
@@ -91,11 +91,9 @@ public class PrincipalComponentAnalysisServiceImpl extends AbstractService<Princ
         /*
          * Deal with eigenvalues; note we store all of them.
          */
-        double sum = 0.0;
         List<Eigenvalue> eigv = new ArrayList<>();
         for ( int i = 0; i < eigenvalues.length; i++ ) {
             double d = eigenvalues[i];
-            sum += d;
             Eigenvalue ev = Eigenvalue.Factory.newInstance();
             ev.setComponentNumber( i + 1 );
             ev.setValue( d );
@@ -104,7 +102,7 @@ public class PrincipalComponentAnalysisServiceImpl extends AbstractService<Princ
 
         for ( int i = 0; i < eigenvalues.length; i++ ) {
             Eigenvalue eigenvalue = eigv.get( i );
-            eigenvalue.setVarianceFraction( eigenvalue.getValue() / sum );
+            eigenvalue.setVarianceFraction( eigenvalue.getValue() / totalVariance );
             pca.getEigenValues().add( eigenvalue );
         }
 
@@ -93,17 +93,27 @@ public class SampleCoexpressionAnalysisServiceImpl implements SampleCoexpression
 
     @Autowired
     private ExpressionExperimentService expressionExperimentService;
+    @Autowired
+    private SampleCoexpressionCache sampleCoexpressionCache;
 
     @Override
     @Transactional(isolation = Isolation.SERIALIZABLE)
     public DoubleMatrix<BioAssay, BioAssay> loadFullMatrix( ExpressionExperiment ee ) throws FilteringException {
-        return this.toDoubleMatrix( this.load( ee ).getFullCoexpressionMatrix() );
+        DoubleMatrix<BioAssay, BioAssay> cached = sampleCoexpressionCache.getFull( ee.getId() );
+        if ( cached != null ) {
+            return cached;
+        }
+        return this.toDoubleMatrix( this.loadAndCache( ee ).getFullCoexpressionMatrix() );
     }
 
     @Override
     @Transactional(isolation = Isolation.SERIALIZABLE)
     public DoubleMatrix<BioAssay, BioAssay> loadTryRegressedThenFull( ExpressionExperiment ee ) throws FilteringException {
-        SampleCoexpressionAnalysis analysis = this.load( ee );
+        DoubleMatrix<BioAssay, BioAssay> cached = sampleCoexpressionCache.getRegressedOrFull( ee.getId() );
+        if ( cached != null ) {
+            return cached;
+        }
+        SampleCoexpressionAnalysis analysis = this.loadAndCache( ee );
         SampleCoexpressionMatrix matrix = analysis.getRegressedCoexpressionMatrix();
         if ( matrix == null ) {
             SampleCoexpressionAnalysisServiceImpl.log.warn( String
@@ -149,7 +159,7 @@ public class SampleCoexpressionAnalysisServiceImpl implements SampleCoexpression
 
         ExpressionExperiment thawedee = this.expressionExperimentService.thawLite( ee );
 
-        // Remove any old data
+        // Remove any old data; this also drops the cached matrices
         this.removeForExperiment( thawedee );
 
         // Create new analysis
@@ -167,9 +177,23 @@ public class SampleCoexpressionAnalysisServiceImpl implements SampleCoexpression
     @Override
     @Transactional
     public void removeForExperiment( ExpressionExperiment ee ) {
+        sampleCoexpressionCache.evictMatrices( ee.getId() );
         this.sampleCoexpressionAnalysisDao.remove( this.sampleCoexpressionAnalysisDao.findByInvestigation( ee ) );
     }
 
+    /**
+     * Load (or compute) the analysis, and cache its decoded matrices for the next callers.
+     */
+    private SampleCoexpressionAnalysis loadAndCache( ExpressionExperiment ee ) throws FilteringException {
+        SampleCoexpressionAnalysis analysis = this.load( ee );
+        DoubleMatrix<BioAssay, BioAssay> full = this.toDoubleMatrix( analysis.getFullCoexpressionMatrix() );
+        if ( full != null ) {
+            sampleCoexpressionCache.putMatrices( ee.getId(), full,
+                    this.toDoubleMatrix( analysis.getRegressedCoexpressionMatrix() ) );
+        }
+        return analysis;
+    }
+
     /**
      * Checks whether the regressed matrix should be computed for the given ee.
      *
@@ -234,7 +258,17 @@ public class SampleCoexpressionAnalysisServiceImpl implements SampleCoexpression
             return null;
         }
 
-        DoubleMatrix<BioAssay, BioAssay> cormat = this.dataToDoubleMat( mat );
+        /*
+         * The residuals depend on all the samples, so the regressed matrix is always computed from scratch. The full one
+         * only needs the samples whose data changed since it was last computed, since the filtering only selects rows
+         * (see getFilterConfig).
+         */
+        DoubleMatrix<BioAssay, BioAssay> cormat;
+        if ( regress ) {
+            cormat = this.dataToDoubleMat( mat );
+        } else {
+            cormat = this.updateCorrelations( ee, mat );
+        }
         // Check consistency
         BioAssayDimension bestBioAssayDimension = mat.getBestBioAssayDimension();
         if ( cormat.rows() != bestBioAssayDimension.getBioAssays().size() ) {
@@ -261,6 +295,42 @@ public class SampleCoexpressionAnalysisServiceImpl implements SampleCoexpression
         return MatrixStats.correlationMatrix( transpose );
     }
 
+    private DoubleMatrix<BioAssay, BioAssay> updateCorrelations( ExpressionExperiment ee,
+            ExpressionDataDoubleMatrix matrix ) {
+        DoubleMatrix<CompositeSequence, BioMaterial> data = matrix.getMatrix();
+
+        long rowFingerprint = data.rows();
+        for ( CompositeSequence cs : data.getRowNames() ) {
+            rowFingerprint = 31 * rowFingerprint + cs.getId();
+        }
+
+        List<BioAssay> bioAssays = new ArrayList<>( data.columns() );
+        long[] keys = new long[data.columns()];
+        double[][] columns = new double[data.columns()][];
+        for ( int j = 0; j < data.columns(); j++ ) {
+            BioAssay ba = data.getColName( j ).getBioAssaysUsedIn().iterator().next();
+            bioAssays.add( ba );
+            keys[j] = ba.getId();
+            columns[j] = data.getColumn( j );
+        }
+
+        SampleCorrelationStatistics previous = sampleCoexpressionCache.getStatistics( ee.getId() );
+        if ( previous != null && previous.getRowFingerprint() != rowFingerprint ) {
+            // the rows kept by the filtering depend on all the samples
+            SampleCoexpressionAnalysisServiceImpl.log.info( "Filtered rows changed for ee " + ee.getId()
+                    + ", sample correlations are computed from scratch" );
+            previous = null;
+        }
+        SampleCorrelationStatistics statistics = SampleCorrelationStatistics
+                .compute( previous, rowFingerprint, keys, columns );
+        sampleCoexpressionCache.putStatistics( ee.getId(), statistics );
+
+        DoubleMatrix<BioAssay, BioAssay> cormat = new DenseDoubleMatrix<>( statistics.getCorrelations() );
+        cormat.setRowNames( bioAssays );
+        cormat.setColumnNames( bioAssays );
+        return cormat;
+    }
+
     private ExpressionDataDoubleMatrix loadDataMatrix( ExpressionExperiment ee, boolean useRegression,
             Collection<ProcessedExpressionDataVector> vectors ) throws FilteringException {
         if ( vectors == null || vectors.isEmpty() ) {
@@ -286,12 +356,17 @@ public class SampleCoexpressionAnalysisServiceImpl implements SampleCoexpression
 
     private ExpressionDataDoubleMatrix loadFilteredDataMatrix( ExpressionExperiment ee,
             Collection<ProcessedExpressionDataVector> vectors, boolean requireSequences ) throws FilteringException {
+        return expressionDataMatrixService.getFilteredMatrix( ee, this.getFilterConfig( requireSequences ), vectors );
+    }
+
+    private FilterConfig getFilterConfig( boolean requireSequences ) {
         FilterConfig fConfig = new FilterConfig();
         fConfig.setIgnoreMinimumRowsThreshold( true );
         fConfig.setIgnoreMinimumSampleThreshold( true );
         fConfig.setRequireSequences( requireSequences );
         // Loads using new array designs will fail. So we allow special case where there are no sequences.
-        return expressionDataMatrixService.getFilteredMatrix( ee, fConfig, vectors );
+        // The values must not be transformed, or the correlations could not be updated for the changed samples only.
+        return fConfig;
     }
 
     /**
@@ -0,0 +1,175 @@
+/*
+ * The Gemma project
+ *
+ * Copyright (c) 2026 University of British Columbia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package ubic.gemma.persistence.service.analysis.expression.sampleCoexpression;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.stereotype.Component;
+import ubic.basecode.dataStructure.matrix.DoubleMatrix;
+import ubic.gemma.model.expression.bioAssay.BioAssay;
+import ubic.gemma.persistence.util.Settings;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * In-memory cache of the sample correlation matrices of the experiments, so the GEEQ scoring and outlier detection
+ * don't each load and decode them again, and of the {@link SampleCorrelationStatistics} used to update the matrices
+ * when the data change. The matrices are dropped whenever they are recomputed or the processed data are replaced; the
+ * statistics are kept, as they check themselves against the data. Matrices are returned as copies, so callers can
+ * modify them. The size of the cache is limited in bytes; the least recently used experiments are dropped first.
+ *
+ * @author agent
+ */
+@Component
+public class SampleCoexpressionCache implements InitializingBean {
+
+    private static final Logger log = LoggerFactory.getLogger( SampleCoexpressionCache.class );
+
+    private static final long DEFAULT_MAX_BYTES = 128L * 1024 * 1024;
+
+    private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<>( 16, 0.75f, true );
+
+    private long bytes = 0;
+
+    private long maxBytes = SampleCoexpressionCache.DEFAULT_MAX_BYTES;
+
+    public SampleCoexpressionCache() {
+    }
+
+    /**
+     * @param maxBytes the maximum size of the cache, in bytes.
+     */
+    SampleCoexpressionCache( long maxBytes ) {
+        this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        this.maxBytes = Settings.getLong( "gemma.cache.samplecorrelation.maxbytes",
+                SampleCoexpressionCache.DEFAULT_MAX_BYTES );
+    }
+
+    /**
+     * @return a copy of the full matrix, or null if it is not cached.
+     */
+    synchronized DoubleMatrix<BioAssay, BioAssay> getFull( Long eeId ) {
+        Entry entry = entries.get( eeId );
+        return entry == null || entry.full == null ? null : entry.full.copy();
+    }
+
+    /**
+     * @return a copy of the regressed matrix if there is one, otherwise of the full matrix; null if the matrices are not
+     *         cached.
+     */
+    synchronized DoubleMatrix<BioAssay, BioAssay> getRegressedOrFull( Long eeId ) {
+        Entry entry = entries.get( eeId );
+        if ( entry == null || entry.full == null )
+            return null;
+        return entry.regressed == null ? entry.full.copy() : entry.regressed.copy();
+    }
+
+    /**
+     * @param regressed may be null, if the experiment has no regressed matrix
+     */
+    synchronized void putMatrices( Long eeId, DoubleMatrix<BioAssay, BioAssay> full,
+            DoubleMatrix<BioAssay, BioAssay> regressed ) {
+        Entry entry = this.entry( eeId );
+        bytes -= entry.getBytes();
+        entry.full = full == null ? null : full.copy();
+        entry.regressed = regressed == null ? null : regressed.copy();
+        bytes += entry.getBytes();
+        this.evictIfNeeded( eeId );
+    }
+
+    synchronized SampleCorrelationStatistics getStatistics( Long eeId ) {
+        Entry entry = entries.get( eeId );
+        return entry == null ? null : entry.statistics;
+    }
+
+    synchronized void putStatistics( Long eeId, SampleCorrelationStatistics statistics ) {
+        Entry entry = this.entry( eeId );
+        bytes -= entry.getBytes();
+        entry.statistics = statistics;
+        bytes += entry.getBytes();
+        this.evictIfNeeded( eeId );
+    }
+
+    /**
+     * Drop the matrices of an experiment, for example because its data changed.
+     */
+    public synchronized void evictMatrices( Long eeId ) {
+        Entry entry = entries.get( eeId );
+        if ( entry != null ) {
+            bytes -= entry.getBytes();
+            entry.full = null;
+            entry.regressed = null;
+            bytes += entry.getBytes();
+        }
+    }
+
+    /**
+     * @return approximate number of bytes used by the cached matrices and statistics.
+     */
+    synchronized long getBytesUsed() {
+        return bytes;
+    }
+
+    private Entry entry( Long eeId ) {
+        Entry entry = entries.get( eeId );
+        if ( entry == null ) {
+            entry = new Entry();
+            entries.put( eeId, entry );
+        }
+        return entry;
+    }
+
+    /**
+     * Drop the least recently used experiments until the cache fits in its limit, the one just added to last.
+     */
+    private void evictIfNeeded( Long justUsed ) {
+        Iterator<Map.Entry<Long, Entry>> it = entries.entrySet().iterator();
+        while ( bytes > maxBytes && it.hasNext() ) {
+            Map.Entry<Long, Entry> eldest = it.next();
+            if ( eldest.getKey().equals( justUsed ) && it.hasNext() )
+                continue;
+            if ( eldest.getKey().equals( justUsed ) ) {
+                SampleCoexpressionCache.log.warn( "Sample correlations for experiment with id=" + justUsed
+                        + " do not fit in the cache, consider increasing gemma.cache.samplecorrelation.maxbytes" );
+            }
+            bytes -= eldest.getValue().getBytes();
+            it.remove();
+        }
+    }
+
+    private static class Entry {
+        private DoubleMatrix<BioAssay, BioAssay> full;
+        private DoubleMatrix<BioAssay, BioAssay> regressed;
+        private SampleCorrelationStatistics statistics;
+
+        private long getBytes() {
+            long result = 0;
+            if ( full != null )
+                result += 8L * full.rows() * full.columns();
+            if ( regressed != null )
+                result += 8L * regressed.rows() * regressed.columns();
+            if ( statistics != null )
+                result += statistics.getBytes();
+            return result;
+        }
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ * The Gemma project
+ *
+ * Copyright (c) 2026 University of British Columbia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package ubic.gemma.persistence.service.analysis.expression.sampleCoexpression;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * The sums from which the Pearson correlations between the columns (samples) of a data matrix are computed, using the
+ * rows where both columns have a value. Each column is identified by a key and a checksum of its values, so when the
+ * data change, only the pairs involving a column that was added or changed are recomputed from the data; the others
+ * are carried over, and columns that are gone are simply dropped. This makes flagging an outlier, which replaces a
+ * column by missing values, cost one pass over the data instead of one per pair of samples.
+ * <p>
+ * If every column is either complete or entirely missing (the usual case), only the per-column sums and the cross
+ * products are kept. Otherwise the sums are kept for each pair.
+ * </p>
+ *
+ * @author agent
+ */
+class SampleCorrelationStatistics {
+
+    private final long rowFingerprint;
+    private final int rows;
+    private final long[] keys;
+
+    /*
+     * Per column, over its values that are not missing.
+     */
+    private final int[] hashes;
+    private final int[] counts;
+    private final double[] sums;
+    private final double[] sumSquares;
+
+    /*
+     * Per pair (hi, lo) with hi > lo, at index hi * (hi - 1) / 2 + lo. The pair arrays are only used if some column is
+     * partially missing, and are null otherwise.
+     */
+    private final double[] cross;
+    private final int[] pairCounts;
+    private final double[] pairSumsHi;
+    private final double[] pairSumsLo;
+    private final double[] pairSumSquaresHi;
+    private final double[] pairSumSquaresLo;
+
+    /**
+     * @param previous       statistics computed earlier for the same experiment, or null
+     * @param rowFingerprint identifies the rows of the data and their order; nothing is carried over if it changed
+     * @param keys           identifiers of the columns
+     * @param columns        the data, by column
+     * @return the statistics for the data
+     */
+    static SampleCorrelationStatistics compute( SampleCorrelationStatistics previous, long rowFingerprint,
+            long[] keys, double[][] columns ) {
+        return new SampleCorrelationStatistics( previous, rowFingerprint, keys, columns );
+    }
+
+    private SampleCorrelationStatistics( SampleCorrelationStatistics previous, long rowFingerprint, long[] keys,
+            final double[][] columns ) {
+        int s = keys.length;
+        this.rowFingerprint = rowFingerprint;
+        this.rows = s == 0 ? 0 : columns[0].length;
+        this.keys = keys.clone();
+        this.hashes = new int[s];
+        this.counts = new int[s];
+        this.sums = new double[s];
+        this.sumSquares = new double[s];
+
+        boolean partial = false;
+        for ( int i = 0; i < s; i++ ) {
+            double[] column = columns[i];
+            if ( column.length != rows ) {
+                throw new IllegalArgumentException( "All columns must have the same length" );
+            }
+            hashes[i] = Arrays.hashCode( column );
+            for ( double d : column ) {
+                if ( !Double.isNaN( d ) ) {
+                    counts[i]++;
+                    sums[i] += d;
+                    sumSquares[i] += d * d;
+                }
+            }
+            partial |= counts[i] > 0 && counts[i] < rows;
+        }
+
+        // where each column was in the previous statistics, if it can be reused
+        final int[] previousIndex = new int[s];
+        Arrays.fill( previousIndex, -1 );
+        int reused = 0;
+        if ( previous != null && previous.rowFingerprint == rowFingerprint && previous.rows == rows ) {
+            Map<Long, Integer> index = new HashMap<>();
+            for ( int i = 0; i < previous.keys.length; i++ ) {
+                index.put( previous.keys[i], i );
+            }
+            for ( int i = 0; i < s; i++ ) {
+                Integer p = index.get( keys[i] );
+                if ( p != null && previous.hashes[p] == hashes[i] && previous.counts[p] == counts[i]
+                        && Double.compare( previous.sums[p], sums[i] ) == 0 ) {
+                    previousIndex[i] = p;
+                    reused++;
+                }
+            }
+        }
+        final SampleCorrelationStatistics prev = reused > 0 ? previous : null;
+
+        int numPairs = s * ( s - 1 ) / 2;
+        this.cross = new double[numPairs];
+        if ( partial ) {
+            this.pairCounts = new int[numPairs];
+            this.pairSumsHi = new double[numPairs];
+            this.pairSumsLo = new double[numPairs];
+            this.pairSumSquaresHi = new double[numPairs];
+            this.pairSumSquaresLo = new double[numPairs];
+        } else {
+            this.pairCounts = null;
+            this.pairSumsHi = null;
+            this.pairSumsLo = null;
+            this.pairSumSquaresHi = null;
+            this.pairSumSquaresLo = null;
+        }
+
+        IntStream.range( 1, s ).parallel().forEach( hi -> {
+            double[] pair = new double[6];
+            for ( int lo = 0; lo < hi; lo++ ) {
+                if ( prev != null && previousIndex[hi] >= 0 && previousIndex[lo] >= 0 ) {
+                    prev.getPair( previousIndex[hi], previousIndex[lo], pair );
+                } else {
+                    SampleCorrelationStatistics.computePair( columns[hi], columns[lo], pair );
+                }
+                this.setPair( hi, lo, pair );
+            }
+        } );
+    }
+
+    /**
+     * @return the number of columns
+     */
+    int size() {
+        return keys.length;
+    }
+
+    long getRowFingerprint() {
+        return rowFingerprint;
+    }
+
+    long getKey( int i ) {
+        return keys[i];
+    }
+
+    /**
+     * @return approximate number of bytes used by the statistics.
+     */
+    long getBytes() {
+        long perColumn = 8 + 4 + 4 + 8 + 8;
+        long perPair = pairCounts == null ? 8 : 8 + 4 + 4 * 8;
+        return perColumn * keys.length + perPair * cross.length;
+    }
+
+    /**
+     * @return the correlation of columns i and j, over the rows where both have a value; NaN if it is not defined.
+     */
+    double getCorrelation( int i, int j ) {
+        if ( i == j ) {
+            return 1.0;
+        }
+        double[] pair = new double[6];
+        this.getPair( i, j, pair );
+        double n = pair[0];
+        if ( n < 2 ) {
+            return Double.NaN;
+        }
+        double varI = n * pair[3] - pair[1] * pair[1];
+        double varJ = n * pair[4] - pair[2] * pair[2];
+        double denom = Math.sqrt( varI * varJ );
+        if ( !( denom > 0 ) ) {
+            return Double.NaN;
+        }
+        return ( n * pair[5] - pair[1] * pair[2] ) / denom;
+    }
+
+    /**
+     * @return the correlation matrix, by rows.
+     */
+    double[][] getCorrelations() {
+        int s = keys.length;
+        double[][] result = new double[s][s];
+        for ( int i = 0; i < s; i++ ) {
+            for ( int j = 0; j <= i; j++ ) {
+                double r = this.getCorrelation( i, j );
+                result[i][j] = r;
+                result[j][i] = r;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param out filled with: count, sum of i, sum of j, sum of squares of i, sum of squares of j, sum of products, over
+     *            the rows where both have a value.
+     */
+    private void getPair( int i, int j, double[] out ) {
+        int hi = Math.max( i, j );
+        int lo = Math.min( i, j );
+        int k = SampleCorrelationStatistics.index( hi, lo );
+        out[5] = cross[k];
+        if ( pairCounts != null ) {
+            out[0] = pairCounts[k];
+            out[1] = i == hi ? pairSumsHi[k] : pairSumsLo[k];
+            out[2] = i == hi ? pairSumsLo[k] : pairSumsHi[k];
+            out[3] = i == hi ? pairSumSquaresHi[k] : pairSumSquaresLo[k];
+            out[4] = i == hi ? pairSumSquaresLo[k] : pairSumSquaresHi[k];
+        } else if ( counts[i] == 0 || counts[j] == 0 ) {
+            Arrays.fill( out, 0.0 );
+        } else {
+            // both are complete
+            out[0] = rows;
+            out[1] = sums[i];
+            out[2] = sums[j];
+            out[3] = sumSquares[i];
+            out[4] = sumSquares[j];
+        }
+    }
+
+    private void setPair( int hi, int lo, double[] pair ) {
+        int k = SampleCorrelationStatistics.index( hi, lo );
+        cross[k] = pair[5];
+        if ( pairCounts != null ) {
+            pairCounts[k] = ( int ) pair[0];
+            pairSumsHi[k] = pair[1];
+            pairSumsLo[k] = pair[2];
+            pairSumSquaresHi[k] = pair[3];
+            pairSumSquaresLo[k] = pair[4];
+        }
+    }
+
+    private static void computePair( double[] a, double[] b, double[] out ) {
+        int n = 0;
+        double sa = 0.0, sb = 0.0, saa = 0.0, sbb = 0.0, sab = 0.0;
+        for ( int r = 0; r < a.length; r++ ) {
+            double x = a[r];
+            double y = b[r];
+            if ( Double.isNaN( x ) || Double.isNaN( y ) )
+                continue;
+            n++;
+            sa += x;
+            sb += y;
+            saa += x * x;
+            sbb += y * y;
+            sab += x * y;
+        }
+        out[0] = n;
+        out[1] = sa;
+        out[2] = sb;
+        out[3] = saa;
+        out[4] = sbb;
+        out[5] = sab;
+    }
+
+    private static int index( int hi, int lo ) {
+        return hi * ( hi - 1 ) / 2 + lo;
+    }
+}
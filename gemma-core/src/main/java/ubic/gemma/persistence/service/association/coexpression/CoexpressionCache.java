@@ -52,6 +52,22 @@ public interface CoexpressionCache {
      */
     List<CoexpressionValueObject> get( Long g );
 
+    /**
+     * Like {@link #get(Long)}, but only the links that are wanted are made into value objects.
+     *
+     * @param g            gene id
+     * @param stringency   minimum support of the links to return
+     * @param coexpGeneIds if not null, only return links to these genes
+     * @return results sorted in descending order of support, or null if the gene was not in the cache
+     */
+    List<CoexpressionValueObject> get( Long g, int stringency, Collection<Long> coexpGeneIds );
+
+    /**
+     * @param g gene id
+     * @return true if the results for the gene are in the cache, without fetching them
+     */
+    boolean contains( Long g );
+
     boolean isEnabled();
 
     /**
@@ -0,0 +1,185 @@
+/*
+ * The Gemma project
+ *
+ * Copyright (c) 2026 University of British Columbia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package ubic.gemma.persistence.service.association.coexpression;
+
+import cern.colt.GenericSorting;
+import cern.colt.Swapper;
+import cern.colt.function.IntComparator;
+import com.googlecode.javaewah.EWAHCompressedBitmap;
+
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * The cached coexpression results for one query gene, in all experiments. The links are stored column-wise, sorted by
+ * coexpressed gene, with the data sets kept as compressed bitmaps; value objects are only created for the links that
+ * are asked for. Unmodifiable.
+ *
+ * @author agent
+ */
+class CoexpressionCacheEntry implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final long NO_SUPPORT_DETAILS = Long.MIN_VALUE;
+
+    private final long queryGene;
+    private final String queryGeneSymbol;
+
+    /*
+     * One element per link.
+     */
+    private final long[] coexpGenes;
+    private final String[] coexpGeneSymbols;
+    private final int[] support;
+    private final BitSet positiveCorrelation;
+    private final long[] supportDetailsIds;
+    private final EWAHCompressedBitmap[] supportingDatasets;
+    private final EWAHCompressedBitmap[] testedInDatasets;
+
+    /**
+     * Indices of the links in descending order of support, as the cache returns them.
+     */
+    private final int[] bySupport;
+
+    /**
+     * @param queryGene query gene
+     * @param vos       links of the query gene, which must not have had any constraints
+     */
+    CoexpressionCacheEntry( Long queryGene, List<CoexpressionValueObject> vos ) {
+        for ( CoexpressionValueObject vo : vos ) {
+            if ( vo.isEeConstraint() || vo.getMaxResults() > 0
+                    || vo.getQueryStringency() > CoexpressionCache.CACHE_QUERY_STRINGENCY ) {
+                throw new IllegalArgumentException( "Cannot cache a result that had constraints" );
+            }
+        }
+
+        final List<CoexpressionValueObject> sorted = new ArrayList<>( vos );
+        Collections.sort( sorted, new Comparator<CoexpressionValueObject>() {
+            @Override
+            public int compare( CoexpressionValueObject o1, CoexpressionValueObject o2 ) {
+                return o1.getCoexGeneId().compareTo( o2.getCoexGeneId() );
+            }
+        } );
+
+        int n = sorted.size();
+        this.queryGene = queryGene;
+        this.queryGeneSymbol = n > 0 ? sorted.get( 0 ).getQueryGeneSymbol() : null;
+        this.coexpGenes = new long[n];
+        this.coexpGeneSymbols = new String[n];
+        this.support = new int[n];
+        this.positiveCorrelation = new BitSet( n );
+        this.supportDetailsIds = new long[n];
+        this.supportingDatasets = new EWAHCompressedBitmap[n];
+        this.testedInDatasets = new EWAHCompressedBitmap[n];
+        for ( int i = 0; i < n; i++ ) {
+            CoexpressionValueObject vo = sorted.get( i );
+            coexpGenes[i] = vo.getCoexGeneId();
+            coexpGeneSymbols[i] = vo.getCoexGeneSymbol();
+            support[i] = vo.getNumDatasetsSupporting();
+            positiveCorrelation.set( i, vo.isPositiveCorrelation() );
+            supportDetailsIds[i] = vo.getSupportDetailsId() == null ?
+                    CoexpressionCacheEntry.NO_SUPPORT_DETAILS :
+                    vo.getSupportDetailsId();
+            // value objects never modify these in place, so they can be shared
+            supportingDatasets[i] = vo.getSupportingDatasetsBitmap();
+            testedInDatasets[i] = vo.getTestedInDatasetsBitmap();
+        }
+
+        this.bySupport = new int[n];
+        for ( int i = 0; i < n; i++ ) {
+            bySupport[i] = i;
+        }
+        // stable, so links with the same support stay in order of coexpressed gene
+        GenericSorting.mergeSort( 0, n, new IntComparator() {
+            @Override
+            public int compare( int a, int b ) {
+                return Integer.compare( support[bySupport[b]], support[bySupport[a]] );
+            }
+        }, new Swapper() {
+            @Override
+            public void swap( int a, int b ) {
+                int t = bySupport[a];
+                bySupport[a] = bySupport[b];
+                bySupport[b] = t;
+            }
+        } );
+    }
+
+    /**
+     * @return number of links
+     */
+    int size() {
+        return coexpGenes.length;
+    }
+
+    /**
+     * @param stringency minimum support of the links to return
+     * @param coexpGeneIds if not null, only links to these genes are returned
+     * @return the links, in descending order of support
+     */
+    List<CoexpressionValueObject> get( int stringency, Collection<Long> coexpGeneIds ) {
+        if ( coexpGeneIds == null ) {
+            List<CoexpressionValueObject> result = new ArrayList<>();
+            for ( int i : bySupport ) {
+                if ( support[i] < stringency )
+                    break;
+                result.add( this.toValueObject( i ) );
+            }
+            return result;
+        }
+
+        // look up the genes instead of scanning, as there are usually few of them.
+        final List<Integer> rows = new ArrayList<>();
+        for ( Long g : new HashSet<>( coexpGeneIds ) ) {
+            int i = Arrays.binarySearch( coexpGenes, g );
+            if ( i < 0 )
+                continue;
+            // there can be a link of each sign
+            while ( i > 0 && coexpGenes[i - 1] == g )
+                i--;
+            for ( ; i < coexpGenes.length && coexpGenes[i] == g; i++ ) {
+                if ( support[i] >= stringency )
+                    rows.add( i );
+            }
+        }
+        Collections.sort( rows, new Comparator<Integer>() {
+            @Override
+            public int compare( Integer a, Integer b ) {
+                int c = Integer.compare( support[b], support[a] );
+                return c != 0 ? c : a.compareTo( b );
+            }
+        } );
+        List<CoexpressionValueObject> result = new ArrayList<>( rows.size() );
+        for ( Integer i : rows ) {
+            result.add( this.toValueObject( i ) );
+        }
+        return result;
+    }
+
+    private CoexpressionValueObject toValueObject( int i ) {
+        CoexpressionValueObject vo = new CoexpressionValueObject( coexpGenes[i], coexpGeneSymbols[i],
+                positiveCorrelation.get( i ), queryGene, queryGeneSymbol, support[i],
+                supportDetailsIds[i] == CoexpressionCacheEntry.NO_SUPPORT_DETAILS ? null : supportDetailsIds[i],
+                supportingDatasets[i], testedInDatasets[i] );
+        vo.setFromCache( true );
+        return vo;
+    }
+}
@@ -86,17 +86,18 @@ public class CoexpressionCacheImpl implements InitializingBean, CoexpressionCach
 
         assert r != null; // but can be empty, if there is no coexpression.
         assert geneId != null;
-        List<CoexpressionCacheValueObject> forCache = new ArrayList<>();
+        List<CoexpressionValueObject> forCache = new ArrayList<>();
         for ( CoexpressionValueObject g2g : r ) {
             if ( g2g.isFromCache() )
                 continue;
             assert g2g.getNumDatasetsSupporting() > 0;
             if ( g2g.getNumDatasetsSupporting() < CoexpressionCache.CACHE_QUERY_STRINGENCY )
                 continue;
-            forCache.add( new CoexpressionCacheValueObject( g2g ) );
+            forCache.add( g2g );
         }
+        CoexpressionCacheEntry entry = new CoexpressionCacheEntry( geneId, forCache );
         synchronized ( cache ) {
-            this.cache.put( new Element( new GeneCached( geneId ), forCache ) );
+            this.cache.put( new Element( new GeneCached( geneId ), entry ) );
         }
     }
 
@@ -131,25 +132,32 @@ public class CoexpressionCacheImpl implements InitializingBean, CoexpressionCach
         }
     }
 
-    @SuppressWarnings("unchecked")
     @Override
     public List<CoexpressionValueObject> get( Long g ) {
+        return this.get( g, CoexpressionCache.CACHE_QUERY_STRINGENCY, null );
+    }
+
+    @Override
+    public List<CoexpressionValueObject> get( Long g, int stringency, Collection<Long> coexpGeneIds ) {
         if ( !this.enabled.get() )
             return null;
 
+        Element element;
         synchronized ( cache ) {
-            Element element = this.cache.get( new GeneCached( g ) );
-            if ( element == null )
-                return null;
-            List<CoexpressionValueObject> result = new ArrayList<>();
-
-            for ( CoexpressionCacheValueObject co : ( List<CoexpressionCacheValueObject> ) element.getObjectValue() ) {
-                CoexpressionValueObject vo = co.toModifiable();
-                vo.setFromCache( true );
-                assert vo.getNumDatasetsSupporting() > 0;
-                result.add( vo );
-            }
-            return result;
+            element = this.cache.get( new GeneCached( g ) );
+        }
+        if ( element == null )
+            return null;
+        // entries are unmodifiable, so the value objects can be made outside the lock.
+        return ( ( CoexpressionCacheEntry ) element.getObjectValue() ).get( stringency, coexpGeneIds );
+    }
+
+    @Override
+    public boolean contains( Long g ) {
+        if ( !this.enabled.get() )
+            return false;
+        synchronized ( cache ) {
+            return this.cache.isKeyInCache( new GeneCached( g ) );
         }
     }
 
@@ -165,7 +173,7 @@ public class CoexpressionCacheImpl implements InitializingBean, CoexpressionCach
         synchronized ( cache ) {
             int affected = 0;
             for ( Long long1 : genes ) {
-                if ( this.cache.remove( long1 ) )
+                if ( this.cache.remove( new GeneCached( long1 ) ) )
                     affected++;
             }
             return affected;
@@ -124,6 +124,15 @@ public interface CoexpressionDao {
      */
     int queryAndCache( Gene gene );
 
+    /**
+     * Query the given genes together and cache their links; genes with no links are cached as such.
+     *
+     * @param taxon   taxon of the genes
+     * @param geneIds gene IDs, which should not already be in the cache
+     * @return number of links that were cached
+     */
+    int queryAndCache( Taxon taxon, Collection<Long> geneIds );
+
     Map<SupportDetails, Gene2GeneCoexpression> initializeFromOldData( Gene gene, Map<Long, Gene> geneIdMap,
             Map<NonPersistentNonOrderedCoexpLink, SupportDetails> linksSoFar, Set<Long> skipGenes );
 
@@ -18,6 +18,7 @@
  */
 package ubic.gemma.persistence.service.association.coexpression;
 
+import com.googlecode.javaewah.EWAHCompressedBitmap;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.time.StopWatch;
@@ -33,6 +34,7 @@ import ubic.basecode.io.ByteArrayConverter;
 import ubic.basecode.util.BatchIterator;
 import ubic.gemma.model.analysis.expression.coexpression.GeneCoexpressedGenes;
 import ubic.gemma.model.analysis.expression.coexpression.GeneCoexpressionTestedIn;
+import ubic.gemma.model.analysis.expression.coexpression.IdArray;
 import ubic.gemma.model.analysis.expression.coexpression.IdArrayValueObject;
 import ubic.gemma.model.analysis.expression.coexpression.SupportDetails;
 import ubic.gemma.model.association.coexpression.ExperimentCoexpressionLink;
@@ -154,14 +156,11 @@ public class CoexpressionDaoImpl extends HibernateDaoSupport implements Coexpres
         /*
          * Attempt to save database trips
          */
+        StopWatch stageTimer = StopWatch.createStarted();
         Map<NonPersistentNonOrderedCoexpLink, Boolean> existingResults = this.preFetch( links );
+        this.logStage( "Prefetch", links.size(), stageTimer );
 
-        String s = "from " + geneLinkClassName + " where firstGene =:f and secondGene=:s and positiveCorrelation=:pc";
-        Query q = sess.createQuery(s );
-
-        SQLQuery updateFlippedLinkQuery = sess.createSQLQuery(
-                "UPDATE " + CoexpressionQueryUtils.getGeneLinkTableName( gene.getTaxon() )
-                        + " SET SUPPORT=:s WHERE FIRST_GENE_FK=:g2 AND SECOND_GENE_FK=:g1 AND POSITIVE=:po" );
+        LinkBulkWriter writer = new LinkBulkWriter( sess, gene.getTaxon() );
 
         // map of linkid to links, for establishing the EE-level links.
         TreeMap<Long, NonPersistentNonOrderedCoexpLink> linkIds = new TreeMap<>(); // keep order so for this experiment
@@ -184,121 +183,115 @@ public class CoexpressionDaoImpl extends HibernateDaoSupport implements Coexpres
 
         // for each link see if there is already an entry; make a new one if necessary or update the old one.
         CoexpressionDaoImpl.log.info( "Starting link processing" );
-        for ( NonPersistentNonOrderedCoexpLink proposedG2G : links ) {
+        stageTimer.reset();
+        stageTimer.start();
+        for ( BatchIterator<NonPersistentNonOrderedCoexpLink> chunks = BatchIterator
+                .batches( links, BATCH_SIZE ); chunks.hasNext(); ) {
+            Collection<NonPersistentNonOrderedCoexpLink> chunk = chunks.next();
 
-            Long firstGene = proposedG2G.getFirstGene();
-            Long secondGene = proposedG2G.getSecondGene();
+            // The links are sorted by first gene, so this takes roughly one query per gene rather than one per link.
+            Map<NonPersistentNonOrderedCoexpLink, Gene2GeneCoexpression> existingLinks = this
+                    .findLinks( sess, geneLinkClassName, chunk, existingResults );
+            List<Gene2GeneCoexpression> updatedLinks = new ArrayList<>();
 
-            // There is an index for f+s, but querying one-at-a-time is going to be slow. I attempted to speed it up by
-            // fetching all links for a gene when we see it, but this causes problems with data being stale. Prefetching
-            // with just the ability to tell if a link is new or not takes a lot of memory and doesn't speed things up
-            // much. Trying keeping an index of which links a gene has, so we know whether we need to check the database
-            // or not.
-            //
-            // Currently it takes about 1 minute to process 10k links on a relatively small database, much of this is
-            // the findLink call.
-            Gene2GeneCoexpression existingLink = this.findLink( q, proposedG2G, existingResults );
+            for ( NonPersistentNonOrderedCoexpLink proposedG2G : chunk ) {
 
-            /*
-             * To speed this up?
-             *
-             * - Fetch all links for a gene in one batch, instead of looping over them one at a time. The problem is the
-             * flipped links involve other genes that we fetch later in the same transaction, and this all has to be
-             * done in one transaction. I experimented with this already
-             */
+                Long firstGene = proposedG2G.getFirstGene();
+                Long secondGene = proposedG2G.getSecondGene();
 
-            if ( existingLink == null ) {
-                // initialize the supportdetails
-                SupportDetails sd = c
-                        .createSupportDetails( firstGene, secondGene, proposedG2G.isPositiveCorrelation() );
-                sd.addEntity( bioAssaySet.getId() );
+                Gene2GeneCoexpression existingLink = existingLinks.get( proposedG2G );
 
-                assert sd.getNumIds() > 0;
-                assert sd.isIncluded( bioAssaySet.getId() );
+                if ( existingLink == null ) {
+                    // initialize the supportdetails
+                    SupportDetails sd = c
+                            .createSupportDetails( firstGene, secondGene, proposedG2G.isPositiveCorrelation() );
+                    sd.addEntity( bioAssaySet.getId() );
 
-                // Must be unique
-                assert !seenNewSupportDetails.contains( sd ) : "Already saw " + sd + " while processing " + proposedG2G;
+                    assert sd.getNumIds() > 0;
+                    assert sd.isIncluded( bioAssaySet.getId() );
 
-                assert proposedG2G.getLink() != null;
-                batchToCreate.put( sd, proposedG2G.getLink() );
+                    // Must be unique
+                    assert !seenNewSupportDetails.contains( sd ) :
+                            "Already saw " + sd + " while processing " + proposedG2G;
 
-                if ( seenNewLinks.contains( proposedG2G ) ) {
-                    CoexpressionDaoImpl.log
-                            .warn( "The data passed had the same new link represented more than once: " + proposedG2G );
-                    continue;
-                }
+                    assert proposedG2G.getLink() != null;
+                    batchToCreate.put( sd, proposedG2G.getLink() );
 
-                seenNewSupportDetails.add( sd );
-                seenNewLinks.add( proposedG2G );
+                    if ( seenNewLinks.contains( proposedG2G ) ) {
+                        CoexpressionDaoImpl.log
+                                .warn( "The data passed had the same new link represented more than once: "
+                                        + proposedG2G );
+                        continue;
+                    }
 
-                if ( CoexpressionDaoImpl.log.isDebugEnabled() )
-                    CoexpressionDaoImpl.log.debug( "New: " + proposedG2G );
-                numNew++;
-            } else {
-                // This code assumes that the flipped version is in the database, but we don't retrieve it
-                // yet. also note that the support of the existing link could be zero, if DELETE_ORPHAN_LINKS = false
-                // (or if initializeLinksFromExistingData was used)
-
-                // Sanity check. If this happens, there must be two versions of the same link already in the input.
-                if ( seenExistingLinks.contains( existingLink.getId() ) ) {
-                    throw new IllegalStateException(
-                            "The data passed had the same existing link represented more than once: " + existingLink );
-                }
+                    seenNewSupportDetails.add( sd );
+                    seenNewLinks.add( proposedG2G );
 
-                /* sanity check that we aren't adding dataset twice; we might be able make this an assertion instead. */
-                if ( existingLink.isSupportedBy( bioAssaySet ) ) {
-                    throw new IllegalStateException( "Support for this experiment already exists for " + existingLink
-                            + ", must be deleted first" );
-                }
+                    if ( CoexpressionDaoImpl.log.isDebugEnabled() )
+                        CoexpressionDaoImpl.log.debug( "New: " + proposedG2G );
+                    numNew++;
+                } else {
+                    // This code assumes that the flipped version is in the database, but we don't retrieve it
+                    // yet. also note that the support of the existing link could be zero, if DELETE_ORPHAN_LINKS = false
+                    // (or if initializeLinksFromExistingData was used)
+
+                    // Sanity check. If this happens, there must be two versions of the same link already in the input.
+                    if ( seenExistingLinks.contains( existingLink.getId() ) ) {
+                        throw new IllegalStateException(
+                                "The data passed had the same existing link represented more than once: "
+                                        + existingLink );
+                    }
 
-                // cache old support for sanity check
-                int oldSupport = existingLink.getSupportDetails().getNumIds();
+                    /* sanity check that we aren't adding dataset twice; we might be able make this an assertion instead. */
+                    if ( existingLink.isSupportedBy( bioAssaySet ) ) {
+                        throw new IllegalStateException( "Support for this experiment already exists for " + existingLink
+                                + ", must be deleted first" );
+                    }
 
-                // update the support
-                existingLink.getSupportDetails().addEntity( bioAssaySet.getId() );
-                existingLink.updateNumDatasetsSupporting();
+                    // cache old support for sanity check
+                    int oldSupport = existingLink.getSupportDetails().getNumIds();
 
-                // there is no cascade... on purpose.
-                sess.update( existingLink.getSupportDetails() );
+                    // update the support
+                    existingLink.getSupportDetails().addEntity( bioAssaySet.getId() );
+                    existingLink.updateNumDatasetsSupporting();
 
-                assert oldSupport + 1 == existingLink.getNumDatasetsSupporting();
-                assert existingLink.getSupportDetails().getNumIds() == oldSupport + 1;
+                    // there is no cascade... on purpose.
+                    sess.update( existingLink.getSupportDetails() );
 
-                // track so we add corresponding Experiment-level links later.
-                linkIds.put( existingLink.getId(), new NonPersistentNonOrderedCoexpLink( existingLink ) );
-                seenExistingLinks.add( existingLink.getId() );
+                    assert oldSupport + 1 == existingLink.getNumDatasetsSupporting();
+                    assert existingLink.getSupportDetails().getNumIds() == oldSupport + 1;
 
-                /*
-                 * The flipped link is asserted to be in the database. The support details is already dealt with; we
-                 * just have to update the support value.
-                 */
+                    // track so we add corresponding Experiment-level links later.
+                    linkIds.put( existingLink.getId(), new NonPersistentNonOrderedCoexpLink( existingLink ) );
+                    seenExistingLinks.add( existingLink.getId() );
 
-                int numFlippedUpdated = updateFlippedLinkQuery
-                        .setParameter( "s", existingLink.getNumDatasetsSupporting() )
-                        .setParameter( "g2", proposedG2G.getSecondGene() )
-                        .setParameter( "g1", proposedG2G.getFirstGene() )
-                        .setParameter( "po", proposedG2G.isPositiveCorrelation() ? 1 : 0 ).executeUpdate();
-                assert numFlippedUpdated == 1 :
-                        "Flipped link missing for " + proposedG2G + " [" + numFlippedUpdated + "]";
+                    /*
+                     * The flipped link is asserted to be in the database. The support details is already dealt with;
+                     * we just have to update the support value, which is done for the whole chunk at once.
+                     */
+                    updatedLinks.add( existingLink );
 
-                numUpdated++;
-                if ( CoexpressionDaoImpl.log.isDebugEnabled() )
-                    CoexpressionDaoImpl.log.debug( "Updated: " + proposedG2G );
+                    numUpdated++;
+                    if ( CoexpressionDaoImpl.log.isDebugEnabled() )
+                        CoexpressionDaoImpl.log.debug( "Updated: " + proposedG2G );
 
-            }
+                }
 
-            genesWithUpdatedData.add( firstGene );
-            genesWithUpdatedData.add( secondGene );
+                genesWithUpdatedData.add( firstGene );
+                genesWithUpdatedData.add( secondGene );
 
-            if ( ++progress % 5000 == 0 ) {
-                CoexpressionDaoImpl.log
-                        .info( "Processed " + progress + "/" + links.size() + " gene-level links..." + numUpdated
-                                + " updated, " + numNew + " new" );
+                if ( ++progress % 5000 == 0 ) {
+                    CoexpressionDaoImpl.log
+                            .info( "Processed " + progress + "/" + links.size() + " gene-level links..." + numUpdated
+                                    + " updated, " + numNew + " new" );
+                }
             }
 
+            writer.updateFlippedSupport( updatedLinks );
+
             if ( batchToCreate.size() >= BATCH_SIZE ) {
-                newFlippedLinks.addAll( this.saveBatchAndMakeFlipped( sess, linkIds, batchToCreate, c ) );
-            } else if ( numUpdated > 0 && numUpdated % BATCH_SIZE == 0 ) {
+                newFlippedLinks.addAll( this.saveBatchAndMakeFlipped( sess, writer, linkIds, batchToCreate, c ) );
+            } else {
                 sess.flush();
                 sess.clear();
             }
@@ -308,24 +301,21 @@ public class CoexpressionDaoImpl extends HibernateDaoSupport implements Coexpres
         // tail end batch
         if ( !batchToCreate.isEmpty() ) {
             // we make the flipped links later to optimize their ordering.
-            newFlippedLinks.addAll( this.saveBatchAndMakeFlipped( sess, linkIds, batchToCreate, c ) );
-        }
-
-        // flush the updated ones one last time...
-        if ( numUpdated > 0 ) {
-            sess.flush();
-            sess.clear();
+            newFlippedLinks.addAll( this.saveBatchAndMakeFlipped( sess, writer, linkIds, batchToCreate, c ) );
         }
 
         assert links.size() == linkIds.size();
 
         CoexpressionDaoImpl.log.info( numUpdated + " updated, " + numNew + " new links" );
+        this.logStage( "Gene-level links", links.size(), stageTimer );
 
         /*
          * sort and save the accumulated new flipped versions of the new links, which reuse the supportDetails. In the
          * flipped links, the first gene is the second gene and vice versa. Continue to accumulate the flipped links.
          */
         CoexpressionDaoImpl.log.info( "Saving " + newFlippedLinks.size() + " flipped versions of new links ..." );
+        stageTimer.reset();
+        stageTimer.start();
         Collections.sort( newFlippedLinks, new Comparator<Gene2GeneCoexpression>() {
             @Override
             public int compare( Gene2GeneCoexpression o1, Gene2GeneCoexpression o2 ) {
@@ -334,29 +324,35 @@ public class CoexpressionDaoImpl extends HibernateDaoSupport implements Coexpres
         } );
 
         progress = 0;
-        for ( Gene2GeneCoexpression gl : newFlippedLinks ) {
-            sess.save( gl );
-            if ( ++progress % 5000 == 0 ) {
-                CoexpressionDaoImpl.log.info( "Processed " + progress + "/" + newFlippedLinks.size()
-                        + " new flipped gene-level links..." );
-            }
-            if ( progress % BATCH_SIZE == 0 ) {
-                sess.flush();
-                sess.clear();
-            }
+        for ( BatchIterator<Gene2GeneCoexpression> it = BatchIterator
+                .batches( newFlippedLinks, 50 * BATCH_SIZE ); it.hasNext(); ) {
+            progress += writer.insertGeneLinks( new ArrayList<>( it.next() ) ).size();
+            CoexpressionDaoImpl.log
+                    .info( "Processed " + progress + "/" + newFlippedLinks.size() + " new flipped gene-level links..." );
         }
+        this.logStage( "Flipped gene-level links", newFlippedLinks.size(), stageTimer );
 
         /*
          * Save experiment-level links
          */
         CoexpressionDaoImpl.log
                 .info( "Saving " + linkIds.size() + " experiment-level links (plus flipped versions) ..." );
-        this.saveExperimentLevelLinks( sess, c, linkIds, bioAssaySet );
-
-        if ( genesTested != null )
+        stageTimer.reset();
+        stageTimer.start();
+        this.saveExperimentLevelLinks( writer, c, linkIds, bioAssaySet );
+        this.logStage( "Experiment-level links", 2 * linkIds.size(), stageTimer );
+
+        if ( genesTested != null ) {
+            stageTimer.reset();
+            stageTimer.start();
             this.updatedTestedIn( bioAssaySet, genesTested );
+            this.logStage( "Genes tested in", genesTested.size(), stageTimer );
+        }
 
+        stageTimer.reset();
+        stageTimer.start();
         this.updateGeneCoexpressedWith( links );
+        this.logStage( "Coexpressed genes", links.size(), stageTimer );
 
         // kick anything we updated out of the cache.
         int numRemovedFromCache = this.gene2GeneCoexpressionCache.remove( genesWithUpdatedData );
@@ -686,30 +682,35 @@ public class CoexpressionDaoImpl extends HibernateDaoSupport implements Coexpres
     @Transactional(readOnly = true)
     public int queryAndCache( Gene gene ) {
 
-        if ( gene2GeneCoexpressionCache.get( gene.getId() ) != null ) {
+        if ( gene2GeneCoexpressionCache.contains( gene.getId() ) ) {
             // already in the cache.
             return -1;
         }
 
         CoexpressionDaoImpl.log.debug( "Fetching data for gene=" + gene.getId() + " for cache" );
-        Collection<Long> gg = new HashSet<>();
-        gg.add( gene.getId() );
-        // Map<Long, List<CoexpressionValueObject>> rr = getCoexpressionFromDbViaGenes( gg,
-        // CoexpressionQueryUtils.getGeneLinkClassName( gene ), CoexpressionCache.CACHE_QUERY_STRINGENCY, true,
-        // true );
-        Map<Long, List<CoexpressionValueObject>> rr = this
-                .getCoexpressionFromDbViaGenes2( gg, gene.getTaxon(), CoexpressionCache.CACHE_QUERY_STRINGENCY, true );
-
-        List<CoexpressionValueObject> results = rr.get( gene.getId() );
+        return this.queryAndCache( gene.getTaxon(), Collections.singleton( gene.getId() ) );
+    }
 
-        if ( results == null || results.isEmpty() ) {
-            // it is necessary to avoid searching again when there are no results.
-            gene2GeneCoexpressionCache.cacheCoexpression( gene.getId(), new ArrayList<CoexpressionValueObject>() );
-            return 0;
+    @Override
+    @Transactional(readOnly = true)
+    public int queryAndCache( Taxon taxon, Collection<Long> geneIds ) {
+        // the taxon may come from another session, e.g. when the cache is warmed in the background
+        Taxon t = ( Taxon ) this.getSessionFactory().getCurrentSession().get( Taxon.class, taxon.getId() );
+        Map<Long, List<CoexpressionValueObject>> rr = this
+                .getCoexpressionFromDbViaGenes2( geneIds, t, CoexpressionCache.CACHE_QUERY_STRINGENCY, true );
+
+        int numCached = 0;
+        for ( Long geneId : geneIds ) {
+            List<CoexpressionValueObject> results = rr.get( geneId );
+            if ( results == null || results.isEmpty() ) {
+                // it is necessary to avoid searching again when there are no results.
+                gene2GeneCoexpressionCache.cacheCoexpression( geneId, new ArrayList<CoexpressionValueObject>() );
+                continue;
+            }
+            gene2GeneCoexpressionCache.cacheCoexpression( geneId, results );
+            numCached += results.size();
         }
-
-        gene2GeneCoexpressionCache.cacheCoexpression( gene.getId(), results );
-        return results.size();
+        return numCached;
     }
 
     /*
@@ -954,13 +955,16 @@ public class CoexpressionDaoImpl extends HibernateDaoSupport implements Coexpres
     }
 
     /**
-     * Importantly, this method does not filter by stringency or anything.
+     * Only links that could meet the stringency are fetched, but the results still need to be filtered, for example if
+     * the query is constrained to some data sets.
      *
-     * @param genes   genes
-     * @param results will go here, each list is sorted
+     * @param genes      genes
+     * @param results    will go here, each list is sorted
+     * @param stringency minimum support over all data sets
      * @return genes which were not found in the cache
      */
-    private Collection<Long> checkCache( Collection<Long> genes, Map<Long, List<CoexpressionValueObject>> results ) {
+    private Collection<Long> checkCache( Collection<Long> genes, Map<Long, List<CoexpressionValueObject>> results,
+            int stringency ) {
         assert results != null;
         assert !genes.isEmpty();
         /*
@@ -970,7 +974,7 @@ public class CoexpressionDaoImpl extends HibernateDaoSupport implements Coexpres
         int resultsFound = 0;
         for ( Long g : genes ) {
 
-            List<CoexpressionValueObject> cachedResults = this.gene2GeneCoexpressionCache.get( g );
+            List<CoexpressionValueObject> cachedResults = this.gene2GeneCoexpressionCache.get( g, stringency, null );
             if ( cachedResults != null ) {
                 resultsFound += cachedResults.size();
                 results.put( g, cachedResults );
@@ -1006,7 +1010,8 @@ public class CoexpressionDaoImpl extends HibernateDaoSupport implements Coexpres
         Collection<Long> genesNeeded = new HashSet<>();
         int resultsFound = 0;
         for ( Long gid : genes ) {
-            List<CoexpressionValueObject> e = this.gene2GeneCoexpressionCache.get( gid );
+            // only the links to the other genes, at the stringency.
+            List<CoexpressionValueObject> e = this.gene2GeneCoexpressionCache.get( gid, stringency, genes );
             if ( e != null ) {
                 for ( CoexpressionValueObject g2g : e ) {
                     // check stringency AND *both* genes are in the link.
@@ -1043,14 +1048,14 @@ public class CoexpressionDaoImpl extends HibernateDaoSupport implements Coexpres
         Set<NonPersistentNonOrderedCoexpLink> allSeen = new HashSet<>( rawResults.size() );
 
         // unwrap the supportDetails into a map.
-        Map<Long, Set<Long>> supportDetailsLists = null;
+        Map<Long, EWAHCompressedBitmap> supportDetailsLists = null;
         if ( supportDetails != null ) {
             supportDetailsLists = new HashMap<>();
             for ( Object[] oa : supportDetails ) {
                 Long id = ( ( BigInteger ) oa[0] ).longValue();
                 byte[] data = ( byte[] ) oa[1];
                 IdArrayValueObject vo = new IdArrayValueObject( data );
-                supportDetailsLists.put( id, vo.getIdsSet() );
+                supportDetailsLists.put( id, vo.getBitmap() );
             }
         }
 
@@ -1212,36 +1217,57 @@ public class CoexpressionDaoImpl extends HibernateDaoSupport implements Coexpres
      *                        zero)
      * @return gene 2 gene coexp
      */
-    private Gene2GeneCoexpression findLink( Query q, NonPersistentNonOrderedCoexpLink g2g,
+    /**
+     * Fetch the existing links among the given ones, with their support details. Only links that preFetch found to
+     * possibly exist are looked for.
+     *
+     * @param links           proposed links, sorted by first gene
+     * @param existingResults from preFetch
+     * @return map of the proposed links to the existing ones
+     */
+    private Map<NonPersistentNonOrderedCoexpLink, Gene2GeneCoexpression> findLinks( Session sess,
+            String geneLinkClassName, Collection<NonPersistentNonOrderedCoexpLink> links,
             Map<NonPersistentNonOrderedCoexpLink, Boolean> existingResults ) {
 
-        Long firstGene = g2g.getFirstGene();
-        Long secondGene = g2g.getSecondGene();
-
-        assert firstGene < secondGene;
-
-        if ( existingResults.containsKey( g2g ) && existingResults.get( g2g ) ) {
-            try {
-                q.setParameter( "f", firstGene );
-                q.setParameter( "s", secondGene );
-                q.setParameter( "pc", g2g.isPositiveCorrelation() );
-                Gene2GeneCoexpression existingLink = ( Gene2GeneCoexpression ) q.uniqueResult();
-                if ( CoexpressionDaoImpl.log.isDebugEnabled() && existingLink != null && existingResults
-                        .containsKey( g2g ) && existingResults.get( g2g ) )
-                    CoexpressionDaoImpl.log
-                            .debug( "fetched existing link: " + existingLink + " (" + g2g + ") " + existingResults
-                                    .get( g2g ) );
-                return existingLink; // which can be null
-            } catch ( HibernateException e ) {
-                CoexpressionDaoImpl.log.error( "Error while searching for: " + g2g + ": " + e.getMessage() );
-                throw e;
+        Map<Long, Collection<Long>> secondGenesByFirst = new LinkedHashMap<>();
+        for ( NonPersistentNonOrderedCoexpLink g2g : links ) {
+            assert g2g.getFirstGene() < g2g.getSecondGene();
+            if ( !existingResults.containsKey( g2g ) || !existingResults.get( g2g ) ) {
+                // it isn't in the existing results we fetched already, so we don't bother checking
+                continue;
+            }
+            if ( !secondGenesByFirst.containsKey( g2g.getFirstGene() ) ) {
+                secondGenesByFirst.put( g2g.getFirstGene(), new HashSet<Long>() );
+            }
+            secondGenesByFirst.get( g2g.getFirstGene() ).add( g2g.getSecondGene() );
+        }
+
+        Map<NonPersistentNonOrderedCoexpLink, Gene2GeneCoexpression> result = new HashMap<>();
+        if ( secondGenesByFirst.isEmpty() )
+            return result;
+
+        Query q = sess.createQuery( "select l from " + geneLinkClassName
+                + " l join fetch l.supportDetails where l.firstGene = :f and l.secondGene in (:s)" );
+        for ( Long firstGene : secondGenesByFirst.keySet() ) {
+            for ( BatchIterator<Long> it = BatchIterator
+                    .batches( secondGenesByFirst.get( firstGene ), CoexpressionDaoImpl.BATCH_SIZE ); it.hasNext(); ) {
+                List<Gene2GeneCoexpression> existing = q.setParameter( "f", firstGene )
+                        .setParameterList( "s", it.next() ).list();
+                for ( Gene2GeneCoexpression link : existing ) {
+                    NonPersistentNonOrderedCoexpLink key = new NonPersistentNonOrderedCoexpLink( link.getFirstGene(),
+                            link.getSecondGene(), link.isPositiveCorrelation() );
+                    // the link of the other sign might not have been asked for
+                    if ( existingResults.containsKey( key ) ) {
+                        result.put( key, link );
+                    }
+                }
             }
         }
-        // // it isn't in the existing results we fetched already, so we don't bother checking
         if ( CoexpressionDaoImpl.log.isDebugEnabled() )
-            CoexpressionDaoImpl.log.debug( "No existing link for " + g2g );
-        return null;
-
+            CoexpressionDaoImpl.log
+                    .debug( "Fetched " + result.size() + " existing links for " + secondGenesByFirst.size()
+                            + " genes" );
+        return result;
     }
 
     /**
@@ -1394,7 +1420,7 @@ public class CoexpressionDaoImpl extends HibernateDaoSupport implements Coexpres
          */
         Collection<Long> genesNeeded = new HashSet<>( genes );
         if ( stringency >= CoexpressionCache.CACHE_QUERY_STRINGENCY ) {
-            genesNeeded = this.checkCache( genes, results );
+            genesNeeded = this.checkCache( genes, results, stringency );
             if ( genesNeeded.isEmpty() ) {
                 return results;
             }
@@ -1471,7 +1497,7 @@ public class CoexpressionDaoImpl extends HibernateDaoSupport implements Coexpres
          */
         Collection<Long> genesNeeded = new HashSet<>( genes );
         if ( stringency >= CoexpressionCache.CACHE_QUERY_STRINGENCY ) {
-            genesNeeded = this.checkCache( genes, finalResult );
+            genesNeeded = this.checkCache( genes, finalResult, stringency );
             if ( genesNeeded.isEmpty() ) {
                 return finalResult;
             }
@@ -2003,9 +2029,10 @@ public class CoexpressionDaoImpl extends HibernateDaoSupport implements Coexpres
                         .join( geneCoexpressionTestedIn2.getIds(), "," ) );
             }
 
-            Set<Long> testedIn = geneCoexpressionTestedIn1.andSet( geneCoexpressionTestedIn2 );
+            EWAHCompressedBitmap testedIn = geneCoexpressionTestedIn1.getBitmap()
+                    .and( geneCoexpressionTestedIn2.getBitmap() );
 
-            if ( testedIn.isEmpty() ) {
+            if ( testedIn.cardinality() == 0 ) {
                 throw new IllegalStateException( g2g + ": had no data sets tested in: " + StringUtils
                         .join( geneCoexpressionTestedIn1.getIds(), "," ) + " :: " + StringUtils
                         .join( geneCoexpressionTestedIn2.getIds(), "," ) );
@@ -2138,7 +2165,7 @@ public class CoexpressionDaoImpl extends HibernateDaoSupport implements Coexpres
      * @param c       to create flipped versions of appropriate class
      * @return flipped versions which we will accumulate, sort and save later.
      */
-    private List<Gene2GeneCoexpression> saveBatchAndMakeFlipped( Session session,
+    private List<Gene2GeneCoexpression> saveBatchAndMakeFlipped( Session session, LinkBulkWriter writer,
             Map<Long, NonPersistentNonOrderedCoexpLink> linkIds, Map<SupportDetails, Gene2GeneCoexpression> batch,
             LinkCreator c ) {
 
@@ -2171,9 +2198,11 @@ public class CoexpressionDaoImpl extends HibernateDaoSupport implements Coexpres
             assert flippedG2g.getSecondGene().equals( g2g.getFirstGene() );
         }
 
-        for ( Gene2GeneCoexpression g2g : batch.values() ) {
-            Long id = ( Long ) session.save( g2g );
-            linkIds.put( id, new NonPersistentNonOrderedCoexpLink( g2g ) );
+        // this flushes the support details first.
+        List<Gene2GeneCoexpression> toSave = new ArrayList<>( batch.values() );
+        List<Long> ids = writer.insertGeneLinks( toSave );
+        for ( int i = 0; i < toSave.size(); i++ ) {
+            linkIds.put( ids.get( i ), new NonPersistentNonOrderedCoexpLink( toSave.get( i ) ) );
         }
 
         session.flush();
@@ -2187,15 +2216,15 @@ public class CoexpressionDaoImpl extends HibernateDaoSupport implements Coexpres
         return flipped;
     }
 
-    private void saveExperimentLevelLinks( Session sess, LinkCreator c,
+    private void saveExperimentLevelLinks( LinkBulkWriter writer, LinkCreator c,
             TreeMap<Long, NonPersistentNonOrderedCoexpLink> links, BioAssaySet bioAssaySet ) {
         int progress = 0;
-        int BATCH_SIZE = 1024;
+        int BATCH_SIZE = 50000;
+        List<ExperimentCoexpressionLink> batch = new ArrayList<>( Math.min( BATCH_SIZE, links.size() ) );
         List<ExperimentCoexpressionLink> flippedLinks = new ArrayList<>();
         for ( Long linkid : links.keySet() ) {
             NonPersistentNonOrderedCoexpLink link = links.get( linkid );
-            ExperimentCoexpressionLink ecl = c
-                    .createEELink( bioAssaySet, linkid, link.getFirstGene(), link.getSecondGene() );
+            batch.add( c.createEELink( bioAssaySet, linkid, link.getFirstGene(), link.getSecondGene() ) );
 
             /*
              * At same time, create flipped versions, but save them later for ordering. Notice that we use the SAME link
@@ -2208,21 +2237,14 @@ public class CoexpressionDaoImpl extends HibernateDaoSupport implements Coexpres
              */
             flippedLinks.add( c.createEELink( bioAssaySet, linkid, link.getSecondGene(), link.getFirstGene() ) );
 
-            sess.save( ecl );
-
-            if ( ++progress % 50000 == 0 ) {
+            if ( ++progress % BATCH_SIZE == 0 ) {
+                writer.insertExperimentLinks( batch );
+                batch.clear();
                 CoexpressionDaoImpl.log
                         .info( "Created " + progress + "/" + links.size() + " experiment-level links..." );
             }
-
-            if ( progress % BATCH_SIZE == 0 ) {
-                sess.flush();
-                sess.clear();
-            }
         }
-
-        sess.flush();
-        sess.clear();
+        writer.insertExperimentLinks( batch );
 
         /*
          * Sort the flipped links by the first gene
@@ -2238,23 +2260,21 @@ public class CoexpressionDaoImpl extends HibernateDaoSupport implements Coexpres
          * Save the flipped ones.
          */
         progress = 0;
-        for ( ExperimentCoexpressionLink fl : flippedLinks ) {
-            sess.save( fl );
-
-            if ( ++progress % 50000 == 0 ) {
-                CoexpressionDaoImpl.log
-                        .info( "Created " + progress + "/" + links.size() + " flipped experiment-level links..." );
-            }
-
-            if ( progress % BATCH_SIZE == 0 ) {
-                sess.flush();
-                sess.clear();
-            }
+        for ( BatchIterator<ExperimentCoexpressionLink> it = BatchIterator
+                .batches( flippedLinks, BATCH_SIZE ); it.hasNext(); ) {
+            Collection<ExperimentCoexpressionLink> flippedBatch = it.next();
+            writer.insertExperimentLinks( new ArrayList<>( flippedBatch ) );
+            progress += flippedBatch.size();
+            CoexpressionDaoImpl.log
+                    .info( "Created " + progress + "/" + links.size() + " flipped experiment-level links..." );
         }
+    }
 
-        // one for the road.
-        sess.flush();
-        sess.clear();
+    private void logStage( String stage, int count, StopWatch timer ) {
+        long millis = Math.max( 1, timer.getTime() );
+        CoexpressionDaoImpl.log
+                .info( String.format( "%s: %d in %.1fs (%.0f/s)", stage, count, millis / 1000.0,
+                        count * 1000.0 / millis ) );
     }
 
     /**
@@ -2274,6 +2294,9 @@ public class CoexpressionDaoImpl extends HibernateDaoSupport implements Coexpres
         assert stringency > 0;
         assert !bas.isEmpty();
 
+        // restricting each link to the data sets is then an AND and a count
+        EWAHCompressedBitmap basBitmap = IdArray.toBitmap( bas );
+
         Set<Long> toRemove = new HashSet<>();
         for ( Long g : results.keySet() ) {
             /*
@@ -2285,7 +2308,7 @@ public class CoexpressionDaoImpl extends HibernateDaoSupport implements Coexpres
             for ( Iterator<CoexpressionValueObject> it = results.get( g ).iterator(); it.hasNext(); ) {
                 CoexpressionValueObject g2g = it.next();
 
-                if ( g2g.getNumDatasetsSupporting() < stringency || !g2g.trimDatasets( bas, stringency ) ) {
+                if ( g2g.getNumDatasetsSupporting() < stringency || !g2g.trimDatasets( basBitmap, stringency ) ) {
                     it.remove();
                 } else if ( maxResults > 0 && kept >= maxResults && !g2g.isInterQueryLink() ) {
                     // only keep up to maxResults, but always keep inter-query links.
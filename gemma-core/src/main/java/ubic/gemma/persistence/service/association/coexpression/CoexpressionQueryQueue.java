@@ -20,21 +20,33 @@
 package ubic.gemma.persistence.service.association.coexpression;
 
 import ubic.gemma.model.genome.Gene;
+import ubic.gemma.model.genome.Taxon;
 
 import java.util.Collection;
 
 /**
  * For internal use. A queue of genes lined up for querying so the cache is warmed up. Genes are added to the queue if
- * they were not queried originally in a suitable "unrestricted" way usable across any query for that gene.
+ * they were not queried originally in a suitable "unrestricted" way usable across any query for that gene. Genes that
+ * users searched for are queried before the others.
  *
  * @author Paul
  */
 interface CoexpressionQueryQueue {
 
-    void addToFullQueryQueue( Collection<Long> geneIds );
-
+    /**
+     * Queue a gene that a user searched for.
+     *
+     * @param gene gene
+     */
     void addToFullQueryQueue( Gene gene );
 
+    /**
+     * @param taxon         taxon of the genes
+     * @param geneIds       gene IDs
+     * @param userRequested if the genes are ones users searched for, in which case they are queried first
+     */
+    void addToFullQueryQueue( Taxon taxon, Collection<Long> geneIds, boolean userRequested );
+
     /**
      * Remove genes from the queue; for example if we know their data is about to become stale.
      *
@@ -42,4 +54,93 @@ interface CoexpressionQueryQueue {
      */
     void removeFromQueue( Collection<Long> geneIds );
 
+    /**
+     * @return false if genes are not queried in the background, in which case adding them to the queue does nothing.
+     */
+    boolean isEnabled();
+
+    Statistics getStatistics();
+
+    /**
+     * Counts of what the queue did so far.
+     */
+    class Statistics {
+        private final int queueDepth;
+        private final long dropped;
+        private final long alreadyCached;
+        private final long warmed;
+        private final long failed;
+        private final long linksCached;
+        private final long warmTimeMillis;
+
+        Statistics( int queueDepth, long dropped, long alreadyCached, long warmed, long failed, long linksCached,
+                long warmTimeMillis ) {
+            this.queueDepth = queueDepth;
+            this.dropped = dropped;
+            this.alreadyCached = alreadyCached;
+            this.warmed = warmed;
+            this.failed = failed;
+            this.linksCached = linksCached;
+            this.warmTimeMillis = warmTimeMillis;
+        }
+
+        /**
+         * @return number of genes waiting in the queue
+         */
+        public int getQueueDepth() {
+            return queueDepth;
+        }
+
+        /**
+         * @return number of genes that were not queued because the queue was full
+         */
+        public long getDropped() {
+            return dropped;
+        }
+
+        /**
+         * @return number of queued genes that turned out to be in the cache already
+         */
+        public long getAlreadyCached() {
+            return alreadyCached;
+        }
+
+        /**
+         * @return number of genes that were queried and cached
+         */
+        public long getWarmed() {
+            return warmed;
+        }
+
+        public long getFailed() {
+            return failed;
+        }
+
+        public long getLinksCached() {
+            return linksCached;
+        }
+
+        /**
+         * @return fraction of the processed genes that were in the cache already
+         */
+        public double getHitRatio() {
+            long processed = alreadyCached + warmed;
+            return processed == 0 ? 0.0 : ( double ) alreadyCached / processed;
+        }
+
+        /**
+         * @return genes cached per second spent querying
+         */
+        public double getWarmRate() {
+            return warmTimeMillis == 0 ? 0.0 : warmed / ( warmTimeMillis / 1000.0 );
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "queue depth=%d, dropped=%d, warmed=%d (%.1f genes/s), links cached=%d, already cached=%d (hit ratio=%.2f), failed=%d",
+                    queueDepth, dropped, warmed, this.getWarmRate(), linksCached, alreadyCached, this.getHitRatio(),
+                    failed );
+        }
+    }
 }
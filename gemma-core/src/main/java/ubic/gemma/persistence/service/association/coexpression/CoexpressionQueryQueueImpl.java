@@ -19,65 +19,96 @@
 
 package ubic.gemma.persistence.service.association.coexpression;
 
-import org.hibernate.SessionFactory;
+import org.apache.commons.lang3.time.StopWatch;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.task.TaskExecutor;
-import org.springframework.orm.hibernate3.support.HibernateDaoSupport;
-import org.springframework.security.concurrent.DelegatingSecurityContextRunnable;
+import org.springframework.stereotype.Component;
 import ubic.gemma.model.genome.Gene;
-import ubic.gemma.persistence.service.genome.GeneDao;
+import ubic.gemma.model.genome.Taxon;
+import ubic.gemma.persistence.util.Settings;
 
-import java.util.Collection;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
+ * Warms the coexpression cache using a pool of workers that block on the queue while it is empty. Each worker takes
+ * up to a batch of genes at a time and queries them together, one query per taxon. The number of workers is set by
+ * gemma.cache.gene2gene.warm.threads; warming is disabled if it is zero.
+ *
  * @author Paul
  */
-// @Repository
-class CoexpressionQueryQueueImpl extends HibernateDaoSupport implements CoexpressionQueryQueue {
+@Component
+class CoexpressionQueryQueueImpl implements CoexpressionQueryQueue, InitializingBean, DisposableBean {
 
-    private static final int QUEUE_SIZE = 1000;
+    private static final int DEFAULT_QUEUE_SIZE = 100000;
+    private static final int DEFAULT_BATCH_SIZE = 10;
+    private static final int STATISTICS_INTERVAL = 1000;
+    /**
+     * Genes flagged as removed are purged from the priority queue once there are more of them than this, and than genes
+     * still queued.
+     */
+    private static final int MIN_REMOVED_TO_PURGE = 1000;
     private static final Logger log = LoggerFactory.getLogger( CoexpressionQueryQueueImpl.class );
-    private final BlockingQueue<QueuedGene> geneQueue = new ArrayBlockingQueue<>(
-            CoexpressionQueryQueueImpl.QUEUE_SIZE );
+
+    private final PriorityBlockingQueue<QueuedGene> geneQueue = new PriorityBlockingQueue<>();
+
+    /**
+     * Genes in the queue, by id; guarded by this. Genes removed from the queue, or queued again with a higher priority,
+     * are only flagged as removed in the priority queue, as removing them from it takes a linear scan. The workers
+     * skip them, and they are purged when they pile up (see {@link #removed(QueuedGene)}).
+     */
+    private final Map<Long, QueuedGene> queuedGenes = new HashMap<>();
+    /**
+     * Number of genes flagged as removed that are still in the priority queue; guarded by this.
+     */
+    private int numRemoved = 0;
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong alreadyCached = new AtomicLong();
+    private final AtomicLong warmed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong linksCached = new AtomicLong();
+    private final AtomicLong warmTimeMillis = new AtomicLong();
+
     @Autowired
     private CoexpressionDao coexpressionDao;
     @Autowired
-    private GeneDao geneDao;
-    @Autowired
-    private TaskExecutor taskExecutor;
+    private CoexpressionCache coexpressionCache;
 
-    @Autowired
-    public CoexpressionQueryQueueImpl( SessionFactory sessionFactory ) {
-        super.setSessionFactory( sessionFactory );
+    private ExecutorService workers;
+    private int maxQueueSize;
+    private int batchSize;
+    private boolean enabled = false;
+
+    @Override
+    public void addToFullQueryQueue( Gene gene ) {
+        this.addToFullQueryQueue( gene.getTaxon(), Collections.singleton( gene.getId() ), true );
     }
 
     @Override
-    public synchronized void addToFullQueryQueue( Collection<Long> geneIds ) {
-        if ( this.geneQueue.remainingCapacity() == 0 ) {
-            CoexpressionQueryQueueImpl.log.debug( "Queue is full, cannot add genes for cache warm." );
+    public synchronized void addToFullQueryQueue( Taxon taxon, Collection<Long> geneIds, boolean userRequested ) {
+        if ( !enabled )
             return;
-        }
-
         for ( Long id : geneIds ) {
-            this.addToFullQueryQueue( id );
+            this.addToFullQueryQueue( taxon, id, userRequested );
         }
     }
 
-    @Override
-    public synchronized void addToFullQueryQueue( Gene gene ) {
-        this.addToFullQueryQueue( gene.getId() );
-    }
-
     @Override
     public synchronized void removeFromQueue( Collection<Long> geneIds ) {
         int count = 0;
         for ( Long id : geneIds ) {
-            if ( geneQueue.remove( new QueuedGene( id ) ) )
+            QueuedGene queuedGene = queuedGenes.remove( id );
+            if ( queuedGene != null ) {
+                this.removed( queuedGene );
                 count++;
+            }
         }
 
         if ( count > 0 ) {
@@ -86,94 +117,244 @@ class CoexpressionQueryQueueImpl extends HibernateDaoSupport implements Coexpres
     }
 
     @Override
-    protected void initDao() throws Exception {
-        super.initDao();
-        taskExecutor.execute( new DelegatingSecurityContextRunnable( new Runnable() {
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public synchronized Statistics getStatistics() {
+        return new Statistics( queuedGenes.size(), dropped.get(), alreadyCached.get(), warmed.get(), failed.get(),
+                linksCached.get(), warmTimeMillis.get() );
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        int numThreads = Settings.getInt( "gemma.cache.gene2gene.warm.threads", 0 );
+        this.maxQueueSize = Settings
+                .getInt( "gemma.cache.gene2gene.warm.queueSize", CoexpressionQueryQueueImpl.DEFAULT_QUEUE_SIZE );
+        this.batchSize = Math.max( 1, Settings
+                .getInt( "gemma.cache.gene2gene.warm.batchSize", CoexpressionQueryQueueImpl.DEFAULT_BATCH_SIZE ) );
 
-            private final int MAX_WARNINGS = 5;
+        if ( numThreads <= 0 || !coexpressionCache.isEnabled() ) {
+            CoexpressionQueryQueueImpl.log.info( "Coexpression cache warming is disabled" );
+            return;
+        }
 
+        final AtomicInteger threadNumber = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool( numThreads, new ThreadFactory() {
             @Override
-            public void run() {
-                int numWarnings = 0;
-                //noinspection InfiniteLoopStatement // Expected
-                while ( true ) {
-                    QueuedGene gene;
-                    try {
-
-                        synchronized ( geneQueue ) {
-                            gene = geneQueue.poll();
-                        }
-
-                        if ( gene == null ) {
-                            Thread.sleep( 1000 );
-                            continue;
-                        }
-
-                        CoexpressionQueryQueueImpl.this.queryForCache( gene );
-
-                        Thread.sleep( 500 );
-
-                    } catch ( Exception e ) {
-                        // can happen during tests
-                        if ( numWarnings < MAX_WARNINGS ) {
-                            CoexpressionQueryQueueImpl.log
-                                    .error( "Error while caching coexpression: " + e.getMessage() );
-                        } else if ( numWarnings == MAX_WARNINGS ) {
-                            CoexpressionQueryQueueImpl.log.error( "Further warnings suppressed" );
-                        }
-                        numWarnings++;
-                    }
+            public Thread newThread( Runnable r ) {
+                Thread t = new Thread( r, "coexpression-cache-warmer-" + threadNumber.incrementAndGet() );
+                t.setDaemon( true );
+                return t;
+            }
+        } );
+        for ( int i = 0; i < numThreads; i++ ) {
+            workers.execute( new Runnable() {
+                @Override
+                public void run() {
+                    CoexpressionQueryQueueImpl.this.work();
                 }
+            } );
+        }
+        this.enabled = true;
+        CoexpressionQueryQueueImpl.log
+                .info( "Coexpression cache warming enabled with " + numThreads + " workers, batches of " + batchSize
+                        + " genes" );
+    }
+
+    @Override
+    public void destroy() {
+        if ( workers != null ) {
+            this.enabled = false;
+            workers.shutdownNow();
+        }
+    }
+
+    private void work() {
+        while ( !Thread.currentThread().isInterrupted() ) {
+            List<QueuedGene> batch = new ArrayList<>( batchSize );
+            try {
+                batch.add( geneQueue.take() );
+            } catch ( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            geneQueue.drainTo( batch, batchSize - 1 );
+            batch = this.dequeued( batch );
+            if ( batch.isEmpty() ) {
+                continue;
             }
 
-        } ) );
+            Map<Long, Taxon> taxa = new HashMap<>();
+            Map<Long, Collection<Long>> genesByTaxon = new LinkedHashMap<>();
+            for ( QueuedGene gene : batch ) {
+                Long taxonId = gene.getTaxon().getId();
+                if ( !genesByTaxon.containsKey( taxonId ) ) {
+                    taxa.put( taxonId, gene.getTaxon() );
+                    genesByTaxon.put( taxonId, new ArrayList<Long>() );
+                }
+                genesByTaxon.get( taxonId ).add( gene.getId() );
+            }
+
+            for ( Long taxonId : genesByTaxon.keySet() ) {
+                this.queryForCache( taxa.get( taxonId ), genesByTaxon.get( taxonId ) );
+            }
+        }
     }
 
-    private void queryForCache( QueuedGene gene ) {
+    private void queryForCache( Taxon taxon, Collection<Long> geneIds ) {
+        Collection<Long> toQuery = new ArrayList<>( geneIds.size() );
+        for ( Long id : geneIds ) {
+            if ( coexpressionCache.contains( id ) ) {
+                alreadyCached.incrementAndGet();
+            } else {
+                toQuery.add( id );
+            }
+        }
+        if ( toQuery.isEmpty() )
+            return;
 
-        int numCached = coexpressionDao.queryAndCache( geneDao.load( gene.getId() ) );
-        //noinspection StatementWithEmptyBody // Better readability
-        if ( numCached < 0 ) {
-            // it was already in the cache
-        } else if ( numCached > 0 ) {
-            CoexpressionQueryQueueImpl.log.debug( "Cached " + numCached + " coexpression links at stringency="
-                    + CoexpressionCache.CACHE_QUERY_STRINGENCY + " for " + gene.getId() );
-        } else {
+        StopWatch timer = StopWatch.createStarted();
+        try {
+            int numCached = coexpressionDao.queryAndCache( taxon, toQuery );
+            linksCached.addAndGet( numCached );
             CoexpressionQueryQueueImpl.log
-                    .debug( "No coexpression links to cache at stringency=" + CoexpressionCache.CACHE_QUERY_STRINGENCY
-                            + " for " + gene.getId() );
+                    .debug( "Cached " + numCached + " coexpression links at stringency="
+                            + CoexpressionCache.CACHE_QUERY_STRINGENCY + " for " + toQuery.size() + " genes" );
+        } catch ( Exception e ) {
+            // can happen during tests
+            if ( failed.get() < CoexpressionQueryQueueImpl.STATISTICS_INTERVAL ) {
+                CoexpressionQueryQueueImpl.log.error( "Error while caching coexpression: " + e.getMessage() );
+            }
+            failed.addAndGet( toQuery.size() );
+            return;
+        } finally {
+            warmTimeMillis.addAndGet( timer.getTime() );
+        }
+
+        long before = warmed.getAndAdd( toQuery.size() );
+        if ( before / CoexpressionQueryQueueImpl.STATISTICS_INTERVAL
+                != ( before + toQuery.size() ) / CoexpressionQueryQueueImpl.STATISTICS_INTERVAL ) {
+            CoexpressionQueryQueueImpl.log.info( "Coexpression cache warming: " + this.getStatistics() );
         }
     }
 
-    private synchronized void addToFullQueryQueue( Long id ) {
-        if ( this.geneQueue.remainingCapacity() == 0 ) {
-            CoexpressionQueryQueueImpl.log.debug( "Queue is full, cannot add genes for cache warm." );
+    private synchronized void addToFullQueryQueue( Taxon taxon, Long id, boolean userRequested ) {
+        QueuedGene existing = queuedGenes.get( id );
+        if ( existing != null ) {
+            if ( !userRequested || existing.isUserRequested() ) {
+                return; // already queued
+            }
+            // move it ahead
+            this.removed( existing );
+        } else if ( !userRequested && queuedGenes.size() >= maxQueueSize ) {
+            if ( dropped.getAndIncrement() % CoexpressionQueryQueueImpl.STATISTICS_INTERVAL == 0 ) {
+                CoexpressionQueryQueueImpl.log
+                        .warn( "Queue is full, cannot add genes for cache warm; " + this.getStatistics() );
+            }
             return;
         }
 
-        try {
-            CoexpressionQueryQueueImpl.log.debug( "Queuing gene=" + id + " for cache warm" );
-            this.geneQueue.add( new QueuedGene( id ) );
-        } catch ( Exception e ) {
-            // if JVM is finished (e.g. test) this will happen.
-            CoexpressionQueryQueueImpl.log.error( "Could not add to queue: " + e.getMessage() );
+        CoexpressionQueryQueueImpl.log.debug( "Queuing gene=" + id + " for cache warm" );
+        QueuedGene queuedGene = new QueuedGene( id, taxon, userRequested, sequence.incrementAndGet() );
+        queuedGenes.put( id, queuedGene );
+        geneQueue.add( queuedGene );
+    }
+
+    /**
+     * Flag a gene as removed from the priority queue. Once most of the queue is flagged genes, they are purged, so the
+     * queue does not grow without bound when genes are often removed or moved ahead.
+     */
+    private synchronized void removed( QueuedGene gene ) {
+        gene.setRemoved();
+        numRemoved++;
+        if ( numRemoved <= Math.max( CoexpressionQueryQueueImpl.MIN_REMOVED_TO_PURGE, queuedGenes.size() ) ) {
+            return;
+        }
+        // genes the workers take meanwhile are checked as usual; those put back are taken in the same order
+        List<QueuedGene> all = new ArrayList<>( geneQueue.size() );
+        geneQueue.drainTo( all );
+        int purged = 0;
+        for ( QueuedGene g : all ) {
+            if ( g.isRemoved() ) {
+                purged++;
+            } else {
+                geneQueue.add( g );
+            }
+        }
+        numRemoved -= purged;
+        CoexpressionQueryQueueImpl.log.debug( "Purged " + purged + " removed genes from the query queue" );
+    }
+
+    /**
+     * @return the genes that were not removed from the queue in the meantime.
+     */
+    private synchronized List<QueuedGene> dequeued( Collection<QueuedGene> genes ) {
+        List<QueuedGene> result = new ArrayList<>( genes.size() );
+        for ( QueuedGene gene : genes ) {
+            if ( gene.isRemoved() ) {
+                numRemoved--;
+                continue;
+            }
+            queuedGenes.remove( gene.getId() );
+            result.add( gene );
         }
+        return result;
     }
 }
 
-class QueuedGene {
+/**
+ * Genes users asked for come first, then genes are taken in the order they were queued. Equality is by gene id only.
+ */
+class QueuedGene implements Comparable<QueuedGene> {
 
     private final Long id;
+    private final Taxon taxon;
+    private final boolean userRequested;
+    private final long sequence;
+
+    /**
+     * Guarded by the queue.
+     */
+    private boolean removed = false;
 
-    QueuedGene( Long id ) {
+    QueuedGene( Long id, Taxon taxon, boolean userRequested, long sequence ) {
         super();
         this.id = id;
+        this.taxon = taxon;
+        this.userRequested = userRequested;
+        this.sequence = sequence;
     }
 
     public Long getId() {
         return id;
     }
 
+    public Taxon getTaxon() {
+        return taxon;
+    }
+
+    public boolean isUserRequested() {
+        return userRequested;
+    }
+
+    boolean isRemoved() {
+        return removed;
+    }
+
+    void setRemoved() {
+        this.removed = true;
+    }
+
+    @Override
+    public int compareTo( QueuedGene o ) {
+        if ( userRequested != o.userRequested ) {
+            return userRequested ? -1 : 1;
+        }
+        return Long.compare( sequence, o.sequence );
+    }
+
     @Override
     public int hashCode() {
         final int prime = 31;
@@ -156,6 +156,22 @@ public interface CoexpressionService {
     @Secured("GROUP_ADMIN")
     void updateNodeDegrees( Taxon taxon );
 
+    /**
+     * Queue all the known genes of the taxon so their coexpression is cached in the background, after any genes users
+     * searched for. Does nothing if cache warming is disabled.
+     *
+     * @param taxon taxon
+     */
+    @Secured("GROUP_ADMIN")
+    void warmCache( Taxon taxon );
+
+    /**
+     * Queue the known genes of all the taxa with usable genes for caching, as {@link #warmCache(Taxon)}. Run nightly
+     * by the scheduler.
+     */
+    @Secured("GROUP_AGENT")
+    void warmCache();
+
     GeneCoexpressionNodeDegreeValueObject getNodeDegree( Gene g );
 
     Map<Long, GeneCoexpressionNodeDegreeValueObject> getNodeDegrees( Collection<Long> genes );
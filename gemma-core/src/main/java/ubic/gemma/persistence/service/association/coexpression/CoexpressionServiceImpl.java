@@ -36,6 +36,7 @@ import ubic.gemma.model.genome.Gene;
 import ubic.gemma.model.genome.Taxon;
 import ubic.gemma.persistence.service.expression.experiment.ExpressionExperimentDao;
 import ubic.gemma.persistence.service.genome.GeneDao;
+import ubic.gemma.persistence.service.genome.taxon.TaxonDao;
 import ubic.gemma.persistence.util.EntityUtils;
 
 import java.util.*;
@@ -52,11 +53,8 @@ public class CoexpressionServiceImpl implements CoexpressionService {
     @Autowired
     private CoexpressionDao coexpressionDao;
 
-    // @Autowired
-    // private CoexpressionQueryQueue coexpressionQueryQueue;
-
-    // @Autowired
-    // private CoexpressionCache coexpressionCache;
+    @Autowired
+    private CoexpressionQueryQueue coexpressionQueryQueue;
 
     @Autowired
     private ExpressionExperimentDao experimentDao;
@@ -67,6 +65,9 @@ public class CoexpressionServiceImpl implements CoexpressionService {
     @Autowired
     private GeneDao geneDao;
 
+    @Autowired
+    private TaxonDao taxonDao;
+
     @Override
     @Transactional(readOnly = true)
     public Integer countLinks( BioAssaySet ee, Gene gene ) {
@@ -82,12 +83,12 @@ public class CoexpressionServiceImpl implements CoexpressionService {
         this.coexpressionDao.createOrUpdate( bioAssaySet, links, c, genesTested );
 
         // remove these from the queue, in case they are there.
-        // Collection<Long> genes = new HashSet<>();
-        // for ( NonPersistentNonOrderedCoexpLink link : links ) {
-        //     genes.add( link.getFirstGene() );
-        //     genes.add( link.getSecondGene() );
-        // }
-        // this.coexpressionQueryQueue.removeFromQueue( genes );
+        Collection<Long> genes = new HashSet<>();
+        for ( NonPersistentNonOrderedCoexpLink link : links ) {
+            genes.add( link.getFirstGene() );
+            genes.add( link.getSecondGene() );
+        }
+        this.coexpressionQueryQueue.removeFromQueue( genes );
     }
 
     @Override
@@ -102,9 +103,9 @@ public class CoexpressionServiceImpl implements CoexpressionService {
         List<CoexpressionValueObject> results = this.coexpressionDao
                 .findCoexpressionRelationships( gene, bas, maxResults, quick );
 
-        // if ( quick || maxResults > 0 ) {
-        //     this.coexpressionQueryQueue.addToFullQueryQueue( gene );
-        // }
+        if ( quick || maxResults > 0 ) {
+            this.coexpressionQueryQueue.addToFullQueryQueue( gene );
+        }
 
         return results;
     }
@@ -133,7 +134,7 @@ public class CoexpressionServiceImpl implements CoexpressionService {
 
         // since we require these links occur in all the given data sets, we assume we should cache (if not there
         // already) - don't bother checking 'quick' and 'maxResults'.
-        // this.possiblyAddToCacheQueue( results );
+        this.possiblyAddToCacheQueue( t, results );
 
         return results;
     }
@@ -141,20 +142,22 @@ public class CoexpressionServiceImpl implements CoexpressionService {
     @Override
     public Map<Long, List<CoexpressionValueObject>> findCoexpressionRelationships( Taxon t, Collection<Long> genes,
             Collection<Long> bas, int stringency, int maxResults, boolean quick ) {
-        // if ( stringency > CoexpressionCache.CACHE_QUERY_STRINGENCY || quick || maxResults > 0 ) {
-        //     this.possiblyAddToCacheQueue( results );
-        // }
-        return this.coexpressionDao
+        Map<Long, List<CoexpressionValueObject>> results = this.coexpressionDao
                 .findCoexpressionRelationships( t, genes, bas, stringency, maxResults, quick );
+        if ( stringency > CoexpressionCache.CACHE_QUERY_STRINGENCY || quick || maxResults > 0 ) {
+            this.possiblyAddToCacheQueue( t, results );
+        }
+        return results;
     }
 
     @Override
     public Map<Long, List<CoexpressionValueObject>> findInterCoexpressionRelationships( Taxon t, Collection<Long> genes,
             Collection<Long> bas, int stringency, boolean quick ) {
         // these are always candidates for queuing since the constraint on genes is done at the query level.
-        // this.possiblyAddToCacheQueue( results );
-        return this.coexpressionDao
+        Map<Long, List<CoexpressionValueObject>> results = this.coexpressionDao
                 .findInterCoexpressionRelationships( t, genes, bas, stringency, quick );
+        this.possiblyAddToCacheQueue( t, results );
+        return results;
     }
 
     @Override
@@ -194,6 +197,36 @@ public class CoexpressionServiceImpl implements CoexpressionService {
 
     }
 
+    @Override
+    @Transactional(readOnly = true)
+    public void warmCache( Taxon taxon ) {
+        if ( !coexpressionQueryQueue.isEnabled() ) {
+            CoexpressionServiceImpl.log.warn( "Coexpression cache warming is disabled" );
+            return;
+        }
+        Collection<Long> geneIds = new ArrayList<>();
+        for ( Gene g : geneDao.loadKnownGenes( taxon ) ) {
+            geneIds.add( g.getId() );
+        }
+        CoexpressionServiceImpl.log
+                .info( "Queuing " + geneIds.size() + " genes of " + taxon + " for coexpression cache warm" );
+        coexpressionQueryQueue.addToFullQueryQueue( taxon, geneIds, false );
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public void warmCache() {
+        if ( !coexpressionQueryQueue.isEnabled() ) {
+            CoexpressionServiceImpl.log.info( "Coexpression cache warming is disabled" );
+            return;
+        }
+        for ( Taxon taxon : taxonDao.loadAll() ) {
+            if ( Boolean.TRUE.equals( taxon.getIsGenesUsable() ) ) {
+                this.warmCache( taxon );
+            }
+        }
+    }
+
     @Override
     @Transactional(readOnly = true)
     public GeneCoexpressionNodeDegreeValueObject getNodeDegree( Gene g ) {
@@ -259,26 +292,27 @@ public class CoexpressionServiceImpl implements CoexpressionService {
     /**
      * Check for results which were not in the cache, and which were not cached; make sure we fully query them.
      */
-    // private void possiblyAddToCacheQueue( Map<Long, List<CoexpressionValueObject>> links ) {
-
-    //     if ( !coexpressionCache.isEnabled() )
-    //         return;
-
-    //     Set<Long> toQueue = new HashSet<>();
-    //     for ( Long id : links.keySet() ) {
-    //         for ( CoexpressionValueObject link : links.get( id ) ) {
-    //             if ( link.isFromCache() ) {
-    //                 continue;
-    //             }
-    //             toQueue.add( link.getQueryGeneId() );
-    //         }
-    //     }
-    //     if ( !toQueue.isEmpty() ) {
-    //         CoexpressionServiceImpl.log.info( "Queuing " + toQueue.size() + " genes for coexpression cache warm" );
-    //         coexpressionQueryQueue.addToFullQueryQueue( toQueue );
-    //     }
-
-    // }
+    private void possiblyAddToCacheQueue( Taxon t, Map<Long, List<CoexpressionValueObject>> links ) {
+
+        if ( t == null || !coexpressionQueryQueue.isEnabled() )
+            return;
+
+        Set<Long> toQueue = new HashSet<>();
+        for ( Long id : links.keySet() ) {
+            for ( CoexpressionValueObject link : links.get( id ) ) {
+                if ( link.isFromCache() ) {
+                    continue;
+                }
+                toQueue.add( link.getQueryGeneId() );
+            }
+        }
+        if ( !toQueue.isEmpty() ) {
+            CoexpressionServiceImpl.log.debug( "Queuing " + toQueue.size() + " genes for coexpression cache warm" );
+            coexpressionQueryQueue.addToFullQueryQueue( t, toQueue, true );
+        }
+
+    }
+
     private GeneCoexpressionNodeDegreeValueObject updateNodeDegree( Gene gene ) {
         GeneCoexpressionNodeDegree nd = this.geneCoexpressionNodeDegreeDao.findOrCreate( gene );
         return this.coexpressionDao.updateNodeDegree( gene, nd );
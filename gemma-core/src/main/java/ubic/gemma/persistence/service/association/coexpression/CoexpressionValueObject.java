@@ -19,10 +19,11 @@
 
 package ubic.gemma.persistence.service.association.coexpression;
 
+import com.googlecode.javaewah.EWAHCompressedBitmap;
 import org.apache.commons.lang3.StringUtils;
+import ubic.gemma.model.analysis.expression.coexpression.IdArray;
 import ubic.gemma.model.association.coexpression.Gene2GeneCoexpression;
 
-import java.util.Collection;
 import java.util.Set;
 
 /**
@@ -70,15 +71,15 @@ public class CoexpressionValueObject implements Comparable<CoexpressionValueObje
 
     /**
      * The data sets which supported the link. If eeConstraint = true, this reflects only data sets which were in the
-     * query.
+     * query. Kept as a bitmap so constraining to data sets is cheap; it is never modified in place, as it may be shared.
      */
-    private Set<Long> supportingDatasets = null;
+    private EWAHCompressedBitmap supportingDatasets = null;
 
     /**
      * The data sets in which the link was tested. If eeConstraint = true, this reflects only data sets which were in
-     * the query.
+     * the query. Never modified in place.
      */
-    private Set<Long> testedInDatasets = null;
+    private EWAHCompressedBitmap testedInDatasets = null;
 
     /**
      * Construct a value object. The "tested-in" component is not filled in, it must be done later.
@@ -91,8 +92,8 @@ public class CoexpressionValueObject implements Comparable<CoexpressionValueObje
         positiveCorrelation = g2g.isPositiveCorrelation();
 
         if ( g2g.getSupportDetails() != null ) {
-            this.supportingDatasets = g2g.getSupportDetails().getIdsSet();
-            support = this.supportingDatasets.size();
+            this.supportingDatasets = g2g.getSupportDetails().getBitmap();
+            support = this.supportingDatasets.cardinality();
             supportDetailsId = g2g.getSupportDetails().getId();
         } else if ( g2g.getNumDatasetsSupporting() != null ) {
             support = g2g.getNumDatasetsSupporting();
@@ -104,7 +105,7 @@ public class CoexpressionValueObject implements Comparable<CoexpressionValueObje
 
     @SuppressWarnings("WeakerAccess") // Consistency
     protected CoexpressionValueObject( Long queryGeneId, Long coexGeneId, Boolean positiveCorrelation, Integer support,
-            Long supportDetailsId, Set<Long> supportingDatasets ) {
+            Long supportDetailsId, EWAHCompressedBitmap supportingDatasets ) {
         super();
         this.coexGeneId = coexGeneId;
         this.positiveCorrelation = positiveCorrelation;
@@ -114,10 +115,9 @@ public class CoexpressionValueObject implements Comparable<CoexpressionValueObje
         this.supportingDatasets = supportingDatasets;
     }
 
-    @SuppressWarnings("WeakerAccess") // Consistency
-    protected CoexpressionValueObject( Long coexGeneId, String coexGeneSymbol, boolean positiveCorrelation,
-            Long queryGeneId, String queryGeneSymbol, Integer support, Long supportDetailsId,
-            Collection<Long> supportingDatasets, Collection<Long> testedInDatasets ) {
+    CoexpressionValueObject( Long coexGeneId, String coexGeneSymbol, boolean positiveCorrelation, Long queryGeneId,
+            String queryGeneSymbol, Integer support, Long supportDetailsId, EWAHCompressedBitmap supportingDatasets,
+            EWAHCompressedBitmap testedInDatasets ) {
         super();
         this.coexGeneId = coexGeneId;
         this.coexGeneSymbol = coexGeneSymbol;
@@ -126,23 +126,16 @@ public class CoexpressionValueObject implements Comparable<CoexpressionValueObje
         this.queryGeneSymbol = queryGeneSymbol;
         this.support = support;
         this.supportDetailsId = supportDetailsId;
-        this.supportingDatasets = ( Set<Long> ) supportingDatasets;
-        this.testedInDatasets = ( Set<Long> ) testedInDatasets;
+        this.supportingDatasets = supportingDatasets;
+        this.testedInDatasets = testedInDatasets;
     }
 
     protected CoexpressionValueObject( Long coexGeneId, String coexGeneSymbol, boolean positiveCorrelation,
             Long queryGeneId, String queryGeneSymbol, Integer support, Long supportDetailsId,
             Set<Long> supportingDatasets, Set<Long> testedInDatasets ) {
-        super();
-        this.coexGeneId = coexGeneId;
-        this.coexGeneSymbol = coexGeneSymbol;
-        this.positiveCorrelation = positiveCorrelation;
-        this.queryGeneId = queryGeneId;
-        this.queryGeneSymbol = queryGeneSymbol;
-        this.support = support;
-        this.supportDetailsId = supportDetailsId;
-        this.supportingDatasets = supportingDatasets;
-        this.testedInDatasets = testedInDatasets;
+        this( coexGeneId, coexGeneSymbol, positiveCorrelation, queryGeneId, queryGeneSymbol, support,
+                supportDetailsId, supportingDatasets == null ? null : IdArray.toBitmap( supportingDatasets ),
+                testedInDatasets == null ? null : IdArray.toBitmap( testedInDatasets ) );
     }
 
     @Override
@@ -182,10 +175,10 @@ public class CoexpressionValueObject implements Comparable<CoexpressionValueObje
      * is zero (which is basically an error).
      */
     public Integer getNumDatasetsTestedIn() {
-        if ( testedInDatasets == null || testedInDatasets.isEmpty() ) {
+        if ( testedInDatasets == null || testedInDatasets.cardinality() == 0 ) {
             return -1;
         }
-        return this.testedInDatasets.size();
+        return this.testedInDatasets.cardinality();
     }
 
     public Long getQueryGeneId() {
@@ -213,10 +206,10 @@ public class CoexpressionValueObject implements Comparable<CoexpressionValueObje
     }
 
     /**
-     * @return the IDs of the supporting data sets; or an empty collection if the information was not retrieved
+     * @return the IDs of the supporting data sets; or null if the information was not retrieved. This is a copy.
      */
     public Set<Long> getSupportingDatasets() {
-        return supportingDatasets;
+        return supportingDatasets == null ? null : IdArray.toSet( supportingDatasets );
     }
 
     /**
@@ -226,20 +219,38 @@ public class CoexpressionValueObject implements Comparable<CoexpressionValueObje
      */
     void setSupportingDatasets( Set<Long> ids ) {
         assert ids != null && !ids.isEmpty();
-        this.supportingDatasets = ids;
+        this.supportingDatasets = IdArray.toBitmap( ids );
     }
 
+    /**
+     * @return the IDs of the data sets the link was tested in, or null if the information was not retrieved. This is a
+     * copy.
+     */
     public Set<Long> getTestedInDatasets() {
-        return testedInDatasets;
+        return testedInDatasets == null ? null : IdArray.toSet( testedInDatasets );
     }
 
-    void setTestedInDatasets( Set<Long> ids ) {
-        assert ids != null && !ids.isEmpty();
-        assert this.testedInDatasets == null || this.testedInDatasets.isEmpty();
+    void setTestedInDatasets( EWAHCompressedBitmap ids ) {
+        assert ids != null && ids.cardinality() > 0;
+        assert this.testedInDatasets == null || this.testedInDatasets.cardinality() == 0;
 
         this.testedInDatasets = ids;
     }
 
+    /**
+     * @return the supporting data sets as a bitmap, which must not be modified; null if not retrieved
+     */
+    EWAHCompressedBitmap getSupportingDatasetsBitmap() {
+        return supportingDatasets;
+    }
+
+    /**
+     * @return the data sets the link was tested in as a bitmap, which must not be modified; null if not retrieved
+     */
+    EWAHCompressedBitmap getTestedInDatasetsBitmap() {
+        return testedInDatasets;
+    }
+
     @Override
     public int hashCode() {
         final int prime = 31;
@@ -279,7 +290,7 @@ public class CoexpressionValueObject implements Comparable<CoexpressionValueObje
     public String toString() {
         String[] fields = new String[] { queryGeneId.toString(), queryGeneSymbol, coexGeneId.toString(), coexGeneSymbol,
                 support.toString(),
-                ( this.testedInDatasets != null ? Integer.toString( this.testedInDatasets.size() ) : "?" ),
+                ( this.testedInDatasets != null ? Integer.toString( this.testedInDatasets.cardinality() ) : "?" ),
                 positiveCorrelation ? "+" : "-" };
         return StringUtils.join( fields, "\t" );
     }
@@ -315,20 +326,31 @@ public class CoexpressionValueObject implements Comparable<CoexpressionValueObje
      * eeConstraint will only be changed from its current value if the constraint had any effect (so running this twice
      * is okay).
      *
-     * @param bas        bas
+     * @param bas        bas, as a bitmap (see {@link IdArray#toBitmap(java.util.Collection)})
      * @param stringency stringency
      * @return true if this still meets the stringency. If it returns false, we assume that means it will be rejected so
      * we don't bother actually trimming.
      */
-    boolean trimDatasets( Collection<Long> bas, int stringency ) {
+    boolean trimDatasets( EWAHCompressedBitmap bas, int stringency ) {
 
-        boolean changed = this.supportingDatasets.retainAll( bas );
+        int trimmedSupport = this.supportingDatasets.andCardinality( bas );
+        if ( trimmedSupport < stringency ) {
+            return false;
+        }
 
-        this.support = this.supportingDatasets.size();
+        boolean changed = trimmedSupport != this.support;
+        if ( changed ) {
+            this.supportingDatasets = this.supportingDatasets.and( bas );
+            this.support = trimmedSupport;
+        }
 
         if ( this.testedInDatasets != null ) {
-            changed = this.testedInDatasets.retainAll( bas ) || changed;
-            assert this.testedInDatasets.size() >= this.supportingDatasets.size();
+            int trimmedTestedIn = this.testedInDatasets.andCardinality( bas );
+            if ( trimmedTestedIn != this.testedInDatasets.cardinality() ) {
+                this.testedInDatasets = this.testedInDatasets.and( bas );
+                changed = true;
+            }
+            assert trimmedTestedIn >= trimmedSupport;
         }
 
         this.eeConstraint = this.eeConstraint || changed;
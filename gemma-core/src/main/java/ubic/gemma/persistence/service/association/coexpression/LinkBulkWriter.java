@@ -0,0 +1,207 @@
+/*
+ * The Gemma project
+ *
+ * Copyright (c) 2026 University of British Columbia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package ubic.gemma.persistence.service.association.coexpression;
+
+import org.apache.commons.lang3.StringUtils;
+import org.hibernate.Session;
+import org.hibernate.engine.SessionImplementor;
+import org.hibernate.id.IdentifierGenerator;
+import org.hibernate.jdbc.Work;
+import ubic.gemma.model.association.coexpression.ExperimentCoexpressionLink;
+import ubic.gemma.model.association.coexpression.Gene2GeneCoexpression;
+import ubic.gemma.model.genome.Taxon;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes links with multi-row inserts and batched updates on the connection of the session, rather than one at a time
+ * through the session, for bulk loading. The identifiers still come from the generators of the mappings, so they don't
+ * clash with those of links saved by Hibernate. The session knows nothing about the inserted rows, so this is only
+ * for links that are not used again as entities in the same session. The support details of gene-level links must
+ * have been saved already.
+ *
+ * @author agent
+ */
+class LinkBulkWriter {
+
+    /**
+     * Number of rows in each insert statement.
+     */
+    private static final int ROWS_PER_STATEMENT = 256;
+
+    private final Session session;
+    private final String geneLinkTable;
+    private final String experimentLinkTable;
+
+    LinkBulkWriter( Session session, Taxon taxon ) {
+        this.session = session;
+        this.geneLinkTable = CoexpressionQueryUtils.getGeneLinkTableName( taxon );
+        this.experimentLinkTable = CoexpressionQueryUtils.getExperimentLinkTableName( taxon );
+    }
+
+    /**
+     * @param links gene-level links, with their support details saved
+     * @return the identifiers given to the links, in the same order
+     */
+    List<Long> insertGeneLinks( final List<Gene2GeneCoexpression> links ) {
+        final List<Long> ids = this.generateIds( links );
+        this.insert( geneLinkTable, new String[] { "ID", "POSITIVE", "SUPPORT", "FIRST_GENE_FK", "SECOND_GENE_FK",
+                "SUPPORT_DETAILS_FK" }, links.size(), new RowWriter() {
+            @Override
+            public int write( PreparedStatement ps, int col, int i ) throws SQLException {
+                Gene2GeneCoexpression link = links.get( i );
+                assert link.getSupportDetails() != null && link.getSupportDetails().getId() != null;
+                ps.setLong( col++, ids.get( i ) );
+                ps.setBoolean( col++, link.isPositiveCorrelation() );
+                ps.setInt( col++, link.getNumDatasetsSupporting() );
+                ps.setLong( col++, link.getFirstGene() );
+                ps.setLong( col++, link.getSecondGene() );
+                ps.setLong( col++, link.getSupportDetails().getId() );
+                return col;
+            }
+        } );
+        return ids;
+    }
+
+    /**
+     * @param links experiment-level links
+     */
+    void insertExperimentLinks( final List<ExperimentCoexpressionLink> links ) {
+        final List<Long> ids = this.generateIds( links );
+        this.insert( experimentLinkTable, new String[] { "ID", "EXPERIMENT_FK", "LINK_FK", "GENE1_FK", "GENE2_FK" },
+                links.size(), new RowWriter() {
+                    @Override
+                    public int write( PreparedStatement ps, int col, int i ) throws SQLException {
+                        ExperimentCoexpressionLink link = links.get( i );
+                        ps.setLong( col++, ids.get( i ) );
+                        ps.setLong( col++, link.getExperiment().getId() );
+                        ps.setLong( col++, link.getLinkId() );
+                        ps.setLong( col++, link.getFirstGene() );
+                        ps.setLong( col++, link.getSecondGene() );
+                        return col;
+                    }
+                } );
+    }
+
+    /**
+     * Set the support of the flipped versions of the given links to that of the links. The flipped versions are
+     * asserted to exist, and must not have been loaded in the session.
+     *
+     * @param links updated gene-level links
+     */
+    void updateFlippedSupport( final List<Gene2GeneCoexpression> links ) {
+        if ( links.isEmpty() )
+            return;
+        session.doWork( new Work() {
+            @Override
+            public void execute( Connection connection ) throws SQLException {
+                try (PreparedStatement ps = connection.prepareStatement( "UPDATE " + geneLinkTable
+                        + " SET SUPPORT=? WHERE FIRST_GENE_FK=? AND SECOND_GENE_FK=? AND POSITIVE=?" )) {
+                    for ( Gene2GeneCoexpression link : links ) {
+                        ps.setInt( 1, link.getNumDatasetsSupporting() );
+                        ps.setLong( 2, link.getSecondGene() );
+                        ps.setLong( 3, link.getFirstGene() );
+                        ps.setBoolean( 4, link.isPositiveCorrelation() );
+                        ps.addBatch();
+                    }
+                    int[] counts = ps.executeBatch();
+                    for ( int i = 0; i < counts.length; i++ ) {
+                        assert counts[i] == 1 || counts[i] == Statement.SUCCESS_NO_INFO :
+                                "Flipped link missing for " + links.get( i ) + " [" + counts[i] + "]";
+                    }
+                }
+            }
+        } );
+    }
+
+    private List<Long> generateIds( List<?> entities ) {
+        List<Long> ids = new ArrayList<>( entities.size() );
+        if ( entities.isEmpty() )
+            return ids;
+        SessionImplementor si = ( SessionImplementor ) session;
+        IdentifierGenerator generator = si.getFactory()
+                .getEntityPersister( si.bestGuessEntityName( entities.get( 0 ) ) ).getIdentifierGenerator();
+        for ( Object entity : entities ) {
+            ids.add( ( Long ) generator.generate( si, entity ) );
+        }
+        return ids;
+    }
+
+    private void insert( String table, final String[] columns, final int numRows, final RowWriter writer ) {
+        if ( numRows == 0 )
+            return;
+
+        final String row = "(" + StringUtils.repeat( "?", ",", columns.length ) + ")";
+        final String prefix = "INSERT INTO " + table + " (" + StringUtils.join( columns, "," ) + ") VALUES ";
+
+        // make sure anything pending, like support details, is written first.
+        session.flush();
+        session.doWork( new Work() {
+            @Override
+            public void execute( Connection connection ) throws SQLException {
+                PreparedStatement full = null;
+                try {
+                    for ( int start = 0; start < numRows; start += LinkBulkWriter.ROWS_PER_STATEMENT ) {
+                        int n = Math.min( LinkBulkWriter.ROWS_PER_STATEMENT, numRows - start );
+                        PreparedStatement ps;
+                        if ( n == LinkBulkWriter.ROWS_PER_STATEMENT ) {
+                            if ( full == null ) {
+                                full = connection.prepareStatement(
+                                        prefix + StringUtils.repeat( row, ",", LinkBulkWriter.ROWS_PER_STATEMENT ) );
+                            }
+                            ps = full;
+                        } else {
+                            ps = connection.prepareStatement( prefix + StringUtils.repeat( row, ",", n ) );
+                        }
+                        try {
+                            int col = 1;
+                            for ( int i = start; i < start + n; i++ ) {
+                                col = writer.write( ps, col, i );
+                            }
+                            ps.executeUpdate();
+                        } finally {
+                            if ( ps != full ) {
+                                ps.close();
+                            }
+                        }
+                    }
+                } finally {
+                    if ( full != null ) {
+                        full.close();
+                    }
+                }
+            }
+        } );
+    }
+
+    private interface RowWriter {
+        /**
+         * Set the parameters for a row, starting at the given parameter index.
+         *
+         * @return the index of the next parameter
+         */
+        int write( PreparedStatement ps, int col, int i ) throws SQLException;
+    }
+}
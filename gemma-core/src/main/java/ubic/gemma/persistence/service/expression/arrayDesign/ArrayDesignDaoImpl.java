@@ -1066,9 +1066,9 @@ public class ArrayDesignDaoImpl extends AbstractCuratableDao<ArrayDesign, ArrayD
 
     @Override
     protected Query getLoadValueObjectsQuery( Filters filters, Sort sort, EnumSet<QueryHint> hints ) {
-        // FIXME: the distinct is necessary because the ACL jointure creates duplicated platforms
+        // ACL entries are checked in a sub-query, so there is no need for a distinct
         String queryString =
-                "select distinct ad from ArrayDesign as ad "
+                "select ad from ArrayDesign as ad "
                         + "left join fetch ad.curationDetails s "
                         + "left join fetch ad.primaryTaxon t "
                         + "left join fetch ad.mergedInto m "
@@ -1084,8 +1084,8 @@ public class ArrayDesignDaoImpl extends AbstractCuratableDao<ArrayDesign, ArrayD
         // Restrict to non-troubled ADs for non-administrators
         addNonTroubledFilter( filters, getObjectAlias() );
 
-        queryString += AclQueryUtils.formAclJoinClause( "ad" );
-        queryString += AclQueryUtils.formAclRestrictionClause();
+        queryString += AclQueryUtils.formAclOwnerJoinClause( "ad" );
+        queryString += AclQueryUtils.formAclEntriesRestrictionClause();
         queryString += ObjectFilterQueryUtils.formRestrictionClause( filters );
 
         if ( sort != null ) {
@@ -1106,9 +1106,8 @@ public class ArrayDesignDaoImpl extends AbstractCuratableDao<ArrayDesign, ArrayD
 
     @Override
     protected Query getCountValueObjectsQuery( Filters filters ) {
-        // contain duplicated platforms
         String queryString =
-                "select count(distinct ad) from ArrayDesign as ad "
+                "select count(ad) from ArrayDesign as ad "
                         + "left join ad.curationDetails s "
                         + "left join ad.primaryTaxon t "
                         + "left join ad.mergedInto m "
@@ -1124,8 +1123,8 @@ public class ArrayDesignDaoImpl extends AbstractCuratableDao<ArrayDesign, ArrayD
         // Restrict to non-troubled ADs for non-administrators
         addNonTroubledFilter( filters, getObjectAlias() );
 
-        queryString += AclQueryUtils.formAclJoinClause( getObjectAlias() );
-        queryString += AclQueryUtils.formAclRestrictionClause();
+        queryString += AclQueryUtils.formAclOwnerJoinClause( getObjectAlias() );
+        queryString += AclQueryUtils.formAclEntriesRestrictionClause();
         queryString += ObjectFilterQueryUtils.formRestrictionClause( filters );
 
         Query query = this.getSessionFactory().getCurrentSession().createQuery( queryString );
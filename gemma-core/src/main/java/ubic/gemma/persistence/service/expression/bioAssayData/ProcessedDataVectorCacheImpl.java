@@ -18,26 +18,32 @@
  */
 package ubic.gemma.persistence.service.expression.bioAssayData;
 
-import net.sf.ehcache.Cache;
-import net.sf.ehcache.CacheManager;
-import net.sf.ehcache.Element;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.springframework.beans.factory.InitializingBean;
-import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
+import ubic.gemma.model.common.quantitationtype.QuantitationTypeValueObject;
+import ubic.gemma.model.expression.bioAssayData.BioAssayDimensionValueObject;
 import ubic.gemma.model.expression.bioAssayData.DoubleVectorValueObject;
 import ubic.gemma.model.expression.experiment.BioAssaySet;
-import ubic.gemma.persistence.util.CacheUtils;
 import ubic.gemma.persistence.util.Settings;
 
-import java.io.Serializable;
-import java.util.Collection;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Configures the cache for data vectors.
- * Implementation note: This uses ehCache. I have decided to make one cache per expression experiment. The reason for
- * this is that having complex keys for cached Elements based on expression experiment AND gene makes it difficult to
- * invalidate the cache when an expression experiment's data changes. The drawback is that there are potentially
- * hundreds of caches; I don't know if there are any performance considerations there.
+ * Cache for data vectors.
+ * Implementation note: the vectors are indexed by experiment, then by gene, so that all the vectors of an experiment
+ * can be dropped at once when its data changes. The values are kept outside the heap, in large direct buffers that are
+ * allocated for each experiment as it grows; only the rest of each vector (design element, genes etc.) is kept as an object, with
+ * the bioassay dimensions and quantitation types shared between the vectors of an experiment. Each call to
+ * {@link #get(BioAssaySet, Long)} returns fresh copies of the vectors, so callers can modify them. The size of the
+ * cache is limited in bytes; when it is exceeded, the experiments that were least recently used are dropped.
+ * Experiments with vectors too long to fit in a buffer are not cached.
  *
  * @author paul
  */
@@ -45,128 +51,301 @@ import java.util.Collection;
 @SuppressWarnings({ "unused", "WeakerAccess" }) // Possible external use
 public class ProcessedDataVectorCacheImpl implements InitializingBean, ProcessedDataVectorCache {
 
-    private static final String VECTOR_CACHE_NAME = "ProcessedExpressionDataVectorCache";
-    private static final boolean VECTOR_CACHE_DEFAULT_ETERNAL = true;
-    private static final boolean VECTOR_CACHE_DEFAULT_OVERFLOW_TO_DISK = true;
-    private static final int VECTOR_CACHE_DEFAULT_MAX_ELEMENTS = 100000;
-    private static final int VECTOR_CACHE_DEFAULT_TIME_TO_IDLE = 10000;
-    private static final int VECTOR_CACHE_DEFAULT_TIME_TO_LIVE = 10000;
+    private static final Log log = LogFactory.getLog( ProcessedDataVectorCacheImpl.class );
 
-    private Cache cache;
+    private static final long VECTOR_CACHE_DEFAULT_MAX_BYTES = 512L * 1024 * 1024;
 
-    @Autowired
-    private CacheManager cacheManager;
+    /**
+     * Largest number of values in one of the buffers allocated for an experiment (here, 1 MB worth). Buffers start
+     * small and double in size up to this.
+     */
+    private static final int SLAB_SIZE = 128 * 1024;
+
+    /**
+     * Rough number of bytes used by the objects describing a vector, besides its values.
+     */
+    private static final int VECTOR_OVERHEAD_BYTES = 256;
+
+    private final ConcurrentMap<Long, ExperimentVectors> experiments = new ConcurrentHashMap<>();
+    /**
+     * Experiments that have vectors too long to be cached, until their data changes.
+     */
+    private final Set<Long> uncacheable = Collections.newSetFromMap( new ConcurrentHashMap<Long, Boolean>() );
+    private final AtomicLong bytesUsed = new AtomicLong();
+    private final AtomicLong accessCounter = new AtomicLong();
+    private long maxBytes;
+
+    public ProcessedDataVectorCacheImpl() {
+    }
+
+    /**
+     * @param maxBytes the maximum size of the cache, in bytes.
+     */
+    ProcessedDataVectorCacheImpl( long maxBytes ) {
+        this.maxBytes = maxBytes;
+    }
 
     @Override
     public void addToCache( Long eeId, Long g, Collection<DoubleVectorValueObject> collection ) {
-        cache.put( new Element( new CacheKey( eeId, g ), collection ) );
+        if ( uncacheable.contains( eeId ) )
+            return;
+        for ( DoubleVectorValueObject vec : collection ) {
+            if ( vec.getData() != null && vec.getData().length > ProcessedDataVectorCacheImpl.SLAB_SIZE ) {
+                ProcessedDataVectorCacheImpl.log.info( "Vectors for experiment with id=" + eeId + " have "
+                        + vec.getData().length + " values, more than the " + ProcessedDataVectorCacheImpl.SLAB_SIZE
+                        + " that can be cached; they will not be cached" );
+                uncacheable.add( eeId );
+                this.removeVectors( eeId );
+                return;
+            }
+        }
+        ExperimentVectors vectors = experiments.get( eeId );
+        if ( vectors == null ) {
+            ExperimentVectors newVectors = new ExperimentVectors();
+            vectors = experiments.putIfAbsent( eeId, newVectors );
+            if ( vectors == null ) {
+                vectors = newVectors;
+            }
+        }
+        final ExperimentVectors target = vectors;
+        final long added = vectors.put( g, collection, accessCounter.incrementAndGet() );
+        // counted atomically with respect to the removal of the experiment, which takes off all its bytes
+        ExperimentVectors current = experiments.computeIfPresent( eeId, ( id, v ) -> {
+            if ( v == target ) {
+                bytesUsed.addAndGet( added );
+            }
+            return v;
+        } );
+        if ( current == vectors ) {
+            this.evictIfNeeded( eeId );
+        }
+        // otherwise, the experiment was cleared in the meantime and its vectors are already discarded
     }
 
     @Override
     public void clearCache() {
-        cache.removeAll();
+        for ( Long eeId : experiments.keySet() ) {
+            this.clearCache( eeId );
+        }
     }
 
     @Override
     public void clearCache( Long eeId ) {
-        for ( Object o : cache.getKeys() ) {
-            CacheKey k = ( CacheKey ) o;
-            if ( k.getEeId().equals( eeId ) ) {
-                cache.remove( k );
-            }
-        }
+        uncacheable.remove( eeId );
+        this.removeVectors( eeId );
     }
 
     @Override
     public Collection<DoubleVectorValueObject> get( BioAssaySet ee, Long g ) {
-        Element element = cache.get( new CacheKey( ee.getId(), g ) );
-        if ( element == null )
+        ExperimentVectors vectors = experiments.get( ee.getId() );
+        if ( vectors == null )
             return null;
-        @SuppressWarnings("unchecked") Collection<DoubleVectorValueObject> result = ( Collection<DoubleVectorValueObject> ) element
-                .getObjectValue();
-
         /*
-         * See 2878 - we don't want to keep these values cached, so the vectors can be re-used.
+         * See 2878 - we don't want to keep p-values cached, so the vectors can be re-used; the copies don't have any.
          */
-        for ( DoubleVectorValueObject dvvo : result ) {
-            dvvo.setPvalue( null );
-        }
-        return result;
+        return vectors.get( g, accessCounter.incrementAndGet() );
     }
 
     @Override
     public int size() {
-        return this.cache.getSize();
+        int size = 0;
+        for ( ExperimentVectors vectors : experiments.values() ) {
+            size += vectors.size();
+        }
+        return size;
+    }
+
+    /**
+     * @return approximate number of bytes used by the cached vectors.
+     */
+    public long getBytesUsed() {
+        return bytesUsed.get();
     }
 
     @Override
     public void afterPropertiesSet() {
-        int maxElements = Settings.getInt( "gemma.cache.vectors.maxelements",
-                ProcessedDataVectorCacheImpl.VECTOR_CACHE_DEFAULT_MAX_ELEMENTS );
-        int timeToLive = Settings.getInt( "gemma.cache.vectors.timetolive",
-                ProcessedDataVectorCacheImpl.VECTOR_CACHE_DEFAULT_TIME_TO_LIVE );
-        int timeToIdle = Settings.getInt( "gemma.cache.vectors.timetoidle",
-                ProcessedDataVectorCacheImpl.VECTOR_CACHE_DEFAULT_TIME_TO_IDLE );
-        boolean overFlowToDisk = Settings.getBoolean( "gemma.cache.vectors.usedisk",
-                ProcessedDataVectorCacheImpl.VECTOR_CACHE_DEFAULT_OVERFLOW_TO_DISK );
-        boolean eternal = Settings.getBoolean( "gemma.cache.vectors.eternal",
-                ProcessedDataVectorCacheImpl.VECTOR_CACHE_DEFAULT_ETERNAL ) && timeToLive == 0;
-
-        this.cache = CacheUtils
-                .createOrLoadCache( cacheManager, ProcessedDataVectorCacheImpl.VECTOR_CACHE_NAME,
-                        maxElements, overFlowToDisk, eternal, timeToIdle, timeToLive );
+        this.maxBytes = Settings.getLong( "gemma.cache.vectors.maxbytes",
+                ProcessedDataVectorCacheImpl.VECTOR_CACHE_DEFAULT_MAX_BYTES );
+    }
 
+    private void removeVectors( Long eeId ) {
+        experiments.computeIfPresent( eeId, ( id, v ) -> {
+            bytesUsed.addAndGet( -v.getBytes() );
+            return null;
+        } );
     }
-}
 
-@SuppressWarnings({ "unused", "WeakerAccess" })
-        // Possible external use
-class CacheKey implements Serializable {
+    /**
+     * Drop the least recently used experiments until the cache fits in its limit. The experiment that was just added
+     * to is dropped last, and only if it doesn't fit by itself.
+     */
+    private void evictIfNeeded( Long justUsed ) {
+        while ( bytesUsed.get() > maxBytes ) {
+            Long lru = null;
+            long oldest = Long.MAX_VALUE;
+            for ( Map.Entry<Long, ExperimentVectors> e : experiments.entrySet() ) {
+                if ( e.getKey().equals( justUsed ) )
+                    continue;
+                long lastAccess = e.getValue().getLastAccess();
+                if ( lastAccess < oldest ) {
+                    oldest = lastAccess;
+                    lru = e.getKey();
+                }
+            }
+            if ( lru == null ) {
+                lru = justUsed;
+                ProcessedDataVectorCacheImpl.log.warn( "Vectors for experiment with id=" + justUsed
+                        + " do not fit in the vector cache, consider increasing gemma.cache.vectors.maxbytes" );
+            }
+            this.removeVectors( lru );
+            if ( lru.equals( justUsed ) )
+                return;
+        }
+    }
 
-    private static final long serialVersionUID = -7873367550383853137L;
-    private final Long eeId;
-    private final Long geneId;
+    /**
+     * The cached vectors of one experiment. The values of the vectors are stored, one after the other, in direct buffers
+     * that are only released when the whole experiment is dropped.
+     */
+    private static class ExperimentVectors {
 
-    CacheKey( Long eeId, Long geneId ) {
-        this.eeId = eeId;
-        this.geneId = geneId;
-    }
+        private final Map<Long, CachedVectors> byGene = new HashMap<>();
+        private final Map<Long, BioAssayDimensionValueObject> dimensions = new HashMap<>();
+        private final Map<Long, QuantitationTypeValueObject> quantitationTypes = new HashMap<>();
+        private final List<DoubleBuffer> slabs = new ArrayList<>();
+        private long bytes = 0;
+        private volatile long lastAccess;
 
-    public Long getEeId() {
-        return eeId;
-    }
+        /**
+         * @return the number of bytes added
+         */
+        private synchronized long put( Long g, Collection<DoubleVectorValueObject> vectors, long access ) {
+            lastAccess = access;
+            long before = bytes;
+            CachedVectors cached = new CachedVectors( vectors.size() );
+            long pending = 0;
+            for ( DoubleVectorValueObject vec : vectors ) {
+                if ( vec.getData() != null )
+                    pending += vec.getData().length;
+            }
+            int i = 0;
+            for ( DoubleVectorValueObject vec : vectors ) {
+                DoubleVectorValueObject template = new DoubleVectorValueObject( vec, null );
+                template.setBioAssayDimension( this.share( vec.getBioAssayDimension() ) );
+                template.setQuantitationType( this.share( vec.getQuantitationType() ) );
+                cached.templates[i] = template;
+                double[] data = vec.getData();
+                if ( data != null ) {
+                    cached.lengths[i] = data.length;
+                    cached.offsets[i] = this.store( data, pending );
+                    pending -= data.length;
+                } else {
+                    cached.lengths[i] = -1;
+                }
+                bytes += ProcessedDataVectorCacheImpl.VECTOR_OVERHEAD_BYTES;
+                i++;
+            }
+            // a replaced entry is not reclaimed until the experiment is dropped, so it still counts
+            byGene.put( g, cached );
+            return bytes - before;
+        }
 
-    public Long getGeneId() {
-        return geneId;
-    }
+        private synchronized Collection<DoubleVectorValueObject> get( Long g, long access ) {
+            CachedVectors cached = byGene.get( g );
+            if ( cached == null )
+                return null;
+            lastAccess = access;
+            Collection<DoubleVectorValueObject> result = new ArrayList<>( cached.templates.length );
+            for ( int i = 0; i < cached.templates.length; i++ ) {
+                double[] data = null;
+                if ( cached.lengths[i] >= 0 ) {
+                    data = new double[cached.lengths[i]];
+                    long offset = cached.offsets[i];
+                    DoubleBuffer slab = slabs.get( ( int ) ( offset / ProcessedDataVectorCacheImpl.SLAB_SIZE ) );
+                    int position = ( int ) ( offset % ProcessedDataVectorCacheImpl.SLAB_SIZE );
+                    for ( int j = 0; j < data.length; j++ ) {
+                        data[j] = slab.get( position + j );
+                    }
+                }
+                result.add( new DoubleVectorValueObject( cached.templates[i], data ) );
+            }
+            return result;
+        }
 
-    @Override
-    public int hashCode() {
-        final int prime = 31;
-        int result = 1;
-        result = prime * result + ( eeId == null ? 0 : eeId.hashCode() );
-        result = prime * result + ( geneId == null ? 0 : geneId.hashCode() );
-        return result;
-    }
+        private synchronized int size() {
+            return byGene.size();
+        }
 
-    @Override
-    public boolean equals( Object obj ) {
-        if ( this == obj )
-            return true;
-        if ( obj == null )
-            return false;
-        if ( this.getClass() != obj.getClass() )
-            return false;
-        CacheKey other = ( CacheKey ) obj;
-        if ( eeId == null ) {
-            if ( other.eeId != null )
-                return false;
-        } else if ( !eeId.equals( other.eeId ) )
-            return false;
-        if ( geneId == null ) {
-            return other.geneId == null;
-        } else
-            return geneId.equals( other.geneId );
+        private synchronized long getBytes() {
+            return bytes;
+        }
+
+        private long getLastAccess() {
+            return lastAccess;
+        }
+
+        /**
+         * Copy values to the current slab, or to a new one if they don't fit. A new slab is made big enough for all the
+         * values still to be stored, and at least twice as big as the previous one, up to SLAB_SIZE.
+         *
+         * @param pending the number of values still to be stored, including these
+         * @return the offset of the values, counting from the start of the first slab.
+         */
+        private long store( double[] data, long pending ) {
+            assert data.length <= ProcessedDataVectorCacheImpl.SLAB_SIZE;
+            DoubleBuffer slab = slabs.isEmpty() ? null : slabs.get( slabs.size() - 1 );
+            if ( slab == null || slab.remaining() < data.length ) {
+                long wanted = Math.max( pending, slab == null ? 0 : 2L * slab.capacity() );
+                int capacity = ( int ) Math.min( wanted, ProcessedDataVectorCacheImpl.SLAB_SIZE );
+                slab = ByteBuffer.allocateDirect( capacity * 8 ).asDoubleBuffer();
+                slabs.add( slab );
+                bytes += capacity * 8L;
+            }
+            // slabs are no bigger than SLAB_SIZE, so this can be decoded with it
+            long offset = ( long ) ( slabs.size() - 1 ) * ProcessedDataVectorCacheImpl.SLAB_SIZE + slab.position();
+            slab.put( data );
+            return offset;
+        }
+
+        private BioAssayDimensionValueObject share( BioAssayDimensionValueObject dimension ) {
+            // reordered or padded dimensions are specific to their vector
+            if ( dimension == null || dimension.getId() == null || dimension.isReordered()
+                    || dimension.getSourceBioAssayDimension() != null ) {
+                return dimension;
+            }
+            BioAssayDimensionValueObject shared = dimensions.get( dimension.getId() );
+            if ( shared == null ) {
+                dimensions.put( dimension.getId(), dimension );
+                return dimension;
+            }
+            return shared;
+        }
+
+        private QuantitationTypeValueObject share( QuantitationTypeValueObject quantitationType ) {
+            if ( quantitationType == null || quantitationType.getId() == null ) {
+                return quantitationType;
+            }
+            QuantitationTypeValueObject shared = quantitationTypes.get( quantitationType.getId() );
+            if ( shared == null ) {
+                quantitationTypes.put( quantitationType.getId(), quantitationType );
+                return quantitationType;
+            }
+            return shared;
+        }
     }
 
-}
\ No newline at end of file
+    /**
+     * The vectors for one gene: everything but the values, and where to find the values.
+     */
+    private static class CachedVectors {
+        private final DoubleVectorValueObject[] templates;
+        private final long[] offsets;
+        private final int[] lengths;
+
+        private CachedVectors( int size ) {
+            this.templates = new DoubleVectorValueObject[size];
+            this.offsets = new long[size];
+            this.lengths = new int[size];
+        }
+    }
+}
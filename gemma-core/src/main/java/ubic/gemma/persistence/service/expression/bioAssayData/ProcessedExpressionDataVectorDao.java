@@ -20,6 +20,7 @@
 package ubic.gemma.persistence.service.expression.bioAssayData;
 
 import ubic.gemma.model.expression.bioAssayData.DoubleVectorValueObject;
+import ubic.gemma.model.expression.bioAssayData.ProcessedDataMatrix;
 import ubic.gemma.model.expression.bioAssayData.ProcessedExpressionDataVector;
 import ubic.gemma.model.expression.designElement.CompositeSequence;
 import ubic.gemma.model.expression.experiment.BioAssaySet;
@@ -63,6 +64,16 @@ public interface ProcessedExpressionDataVectorDao extends DesignElementDataVecto
 
     Collection<DoubleVectorValueObject> getProcessedDataArraysByProbeIds( BioAssaySet ee, Collection<Long> probes );
 
+    /**
+     * Fetch the processed data for genes in experiments in bulk, without loading the vectors as entities or going
+     * through the vector cache.
+     *
+     * @param  ees   ids of experiments (not subsets)
+     * @param  genes ids of genes
+     * @return       one matrix for each experiment and bioassay dimension that has data for the genes.
+     */
+    Collection<ProcessedDataMatrix> getProcessedDataMatrices( Collection<Long> ees, Collection<Long> genes );
+
     /**
      * @param expressionExperiment ee
      * @return Processed data for the given experiment. NOTE the vectors are thawed before returning.
@@ -89,6 +100,14 @@ public interface ProcessedExpressionDataVectorDao extends DesignElementDataVecto
 
     void removeProcessedDataVectors( final ExpressionExperiment expressionExperiment );
 
+    /**
+     * Delete the processed vectors of the experiment in bulk, without loading them. Unlike
+     * {@link #removeProcessedDataVectors(ExpressionExperiment)}, the quantitation types are left alone.
+     *
+     * @return number of vectors deleted
+     */
+    int removeProcessedDataVectors( Long eeId );
+
     //    /**
     //     * When the processed data is being computed separately.
     //     *
@@ -20,11 +20,10 @@ package ubic.gemma.persistence.service.expression.bioAssayData;
 
 import org.apache.commons.lang3.time.StopWatch;
 import org.hibernate.*;
+import org.hibernate.type.BinaryType;
 import org.hibernate.type.LongType;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
-import ubic.basecode.dataStructure.matrix.DenseDoubleMatrix;
-import ubic.basecode.dataStructure.matrix.DoubleMatrix;
 import ubic.basecode.util.BatchIterator;
 import ubic.gemma.core.analysis.preprocess.normalize.QuantileNormalizer;
 import ubic.gemma.core.datastructure.matrix.ExpressionDataDoubleMatrix;
@@ -48,6 +47,7 @@ import ubic.gemma.model.genome.Gene;
 import ubic.gemma.persistence.service.AbstractDao;
 import ubic.gemma.persistence.util.CommonQueries;
 import ubic.gemma.persistence.util.EntityUtils;
+import ubic.gemma.persistence.util.Gene2CsIndex;
 
 import java.util.*;
 
@@ -65,12 +65,14 @@ public class ProcessedExpressionDataVectorDaoImpl extends DesignElementDataVecto
     private static final int MIN_SIZE_FOR_RENORMALIZATION = 4000;
 
     private final ProcessedDataVectorCache processedDataVectorCache;
+    private final Gene2CsIndex gene2CsIndex;
 
     @Autowired
     public ProcessedExpressionDataVectorDaoImpl( SessionFactory sessionFactory,
-            ProcessedDataVectorCache processedDataVectorCache ) {
+            ProcessedDataVectorCache processedDataVectorCache, Gene2CsIndex gene2CsIndex ) {
         super( ProcessedExpressionDataVector.class, sessionFactory );
         this.processedDataVectorCache = processedDataVectorCache;
+        this.gene2CsIndex = gene2CsIndex;
     }
 
     @Override
@@ -221,7 +223,7 @@ public class ProcessedExpressionDataVectorDaoImpl extends DesignElementDataVecto
             return this.unpack( pedvs ).values();
         }
 
-        Map<Long, Collection<Long>> cs2gene = CommonQueries
+        Map<Long, Collection<Long>> cs2gene = gene2CsIndex
                 .getCs2GeneMapForProbes( probes, this.getSessionFactory().getCurrentSession() );
 
         Collection<BioAssayDimension> bioAssayDimensions = this.getBioAssayDimensions( ee );
@@ -267,6 +269,79 @@ public class ProcessedExpressionDataVectorDaoImpl extends DesignElementDataVecto
         return this.getProcessedDataArraysByProbeIds( Collections.singleton( ee ), probes );
     }
 
+    @Override
+    public Collection<ProcessedDataMatrix> getProcessedDataMatrices( Collection<Long> ees, Collection<Long> genes ) {
+        Collection<ProcessedDataMatrix> result = new ArrayList<>();
+        if ( ees.isEmpty() || genes.isEmpty() ) {
+            return result;
+        }
+
+        StopWatch timer = new StopWatch();
+        timer.start();
+
+        Session session = this.getSessionFactory().getCurrentSession();
+        Collection<ArrayDesign> arrays = CommonQueries.getArrayDesignsUsed( ees, session ).keySet();
+        if ( arrays.isEmpty() ) {
+            return result;
+        }
+        Map<Long, Collection<Long>> cs2gene = gene2CsIndex
+                .getCs2GeneIdMap( genes, EntityUtils.getIds( arrays ), session );
+        if ( cs2gene.isEmpty() ) {
+            return result;
+        }
+
+        // Do not do in clause for experiments, as it can't use the indices
+        SQLQuery queryObject = session.createSQLQuery(
+                "SELECT DESIGN_ELEMENT_FK AS csId, BIO_ASSAY_DIMENSION_FK AS badId, DATA AS data "
+                        + "FROM PROCESSED_EXPRESSION_DATA_VECTOR "
+                        + "WHERE EXPRESSION_EXPERIMENT_FK = :ee AND DESIGN_ELEMENT_FK IN (:cs)" );
+        queryObject.addScalar( "csId", LongType.INSTANCE );
+        queryObject.addScalar( "badId", LongType.INSTANCE );
+        queryObject.addScalar( "data", BinaryType.INSTANCE );
+        queryObject.setReadOnly( true );
+        queryObject.setFlushMode( FlushMode.MANUAL );
+
+        int numVectors = 0;
+        for ( Long ee : ees ) {
+            Map<Long, ProcessedDataMatrix.Builder> builders = new LinkedHashMap<>();
+            queryObject.setLong( "ee", ee );
+            for ( Collection<Long> batch : new BatchIterator<>( cs2gene.keySet(), 500 ) ) {
+                queryObject.setParameterList( "cs", batch );
+                ScrollableResults results = queryObject.scroll( ScrollMode.FORWARD_ONLY );
+                while ( results.next() ) {
+                    Long csId = results.getLong( 0 );
+                    Long badId = results.getLong( 1 );
+                    byte[] data = ( byte[] ) results.get( 2 );
+                    ProcessedDataMatrix.Builder builder = builders.get( badId );
+                    if ( builder == null ) {
+                        builder = new ProcessedDataMatrix.Builder( ee, badId );
+                        builders.put( badId, builder );
+                    }
+                    builder.add( csId, data, cs2gene.get( csId ) );
+                    numVectors++;
+                }
+                results.close();
+            }
+            for ( Map.Entry<Long, ProcessedDataMatrix.Builder> e : builders.entrySet() ) {
+                ProcessedDataMatrix.Builder builder = e.getValue();
+                BioAssayDimension bad = ( BioAssayDimension ) session.get( BioAssayDimension.class, e.getKey() );
+                List<BioAssay> bioAssays = bad.getBioAssays();
+                for ( int i = 0; i < bioAssays.size(); i++ ) {
+                    if ( Boolean.TRUE.equals( bioAssays.get( i ).getIsOutlier() ) ) {
+                        builder.mask( i );
+                    }
+                }
+                result.add( builder.build() );
+            }
+        }
+
+        if ( timer.getTime() > 1000 ) {
+            AbstractDao.log.info( "Fetched " + numVectors + " vectors for " + genes.size() + " genes in " + ees.size()
+                    + " experiments in bulk: " + timer.getTime() + "ms" );
+        }
+        return result;
+    }
+
     @Override
     public Collection<ProcessedExpressionDataVector> getProcessedVectors( ExpressionExperiment ee ) {
         //language=HQL
@@ -483,6 +558,17 @@ public class ProcessedExpressionDataVectorDaoImpl extends DesignElementDataVecto
         }
     }
 
+    @Override
+    public int removeProcessedDataVectors( Long eeId ) {
+        int removed = this.getSessionFactory().getCurrentSession()
+                .createQuery( "delete from ProcessedExpressionDataVector v where v.expressionExperiment.id = :ee" )
+                .setParameter( "ee", eeId ).executeUpdate();
+        this.getSessionFactory().getCache()
+                .evictCollection( ExpressionExperiment.class.getName() + ".processedExpressionDataVectors", eeId );
+        this.processedDataVectorCache.clearCache( eeId );
+        return removed;
+    }
+
     /**
      * Make sure the data are on a log2 scale
      *
@@ -712,23 +798,6 @@ public class ProcessedExpressionDataVectorDaoImpl extends DesignElementDataVecto
         return longestBad;
     }
 
-    private void doQuantileNormalization( DoubleMatrix<CompositeSequence, Integer> matrix,
-            Map<CompositeSequence, DoubleVectorValueObject> vectors ) {
-
-        QuantileNormalizer<CompositeSequence, Integer> normalizer = new QuantileNormalizer<>();
-
-        DoubleMatrix<CompositeSequence, Integer> normalized = normalizer.normalize( matrix );
-
-        for ( int i = 0; i < normalized.rows(); i++ ) {
-            double[] row = normalized.getRow( i );
-            CompositeSequence cs = normalized.getRowName( i );
-            DoubleVectorValueObject vec = vectors.get( cs );
-            double[] data = vec.getData();
-            System.arraycopy( row, 0, data, 0, row.length );
-        }
-
-    }
-
     private Collection<BioAssayDimension> getBioAssayDimensions( BioAssaySet ee ) {
         if ( ee instanceof ExpressionExperiment ) {
             StopWatch timer = new StopWatch();
@@ -916,7 +985,7 @@ public class ProcessedExpressionDataVectorDaoImpl extends DesignElementDataVecto
             Collection<Long> probeIds ) {
         Collection<DoubleVectorValueObject> results = new HashSet<>();
 
-        Map<Long, Collection<Long>> cs2gene = CommonQueries
+        Map<Long, Collection<Long>> cs2gene = gene2CsIndex
                 .getCs2GeneMapForProbes( probeIds, this.getSessionFactory().getCurrentSession() );
 
         Map<Long, Collection<Long>> noGeneProbes = new HashMap<>();
@@ -1114,7 +1183,7 @@ public class ProcessedExpressionDataVectorDaoImpl extends DesignElementDataVecto
                         this.getSessionFactory().getCurrentSession() )
                 .keySet();
         assert !arrays.isEmpty();
-        Map<Long, Collection<Long>> cs2gene = CommonQueries
+        Map<Long, Collection<Long>> cs2gene = gene2CsIndex
                 .getCs2GeneIdMap( genesToSearch, EntityUtils.getIds( arrays ),
                         this.getSessionFactory().getCurrentSession() );
 
@@ -1130,7 +1199,7 @@ public class ProcessedExpressionDataVectorDaoImpl extends DesignElementDataVecto
          * Fill in the map, because we want to track information on the specificity of the probes used in the data
          * vectors.
          */
-        cs2gene = CommonQueries
+        cs2gene = gene2CsIndex
                 .getCs2GeneMapForProbes( cs2gene.keySet(), this.getSessionFactory().getCurrentSession() );
 
         Map<ProcessedExpressionDataVector, Collection<Long>> processedDataVectors = this
@@ -1343,14 +1412,10 @@ public class ProcessedExpressionDataVectorDaoImpl extends DesignElementDataVecto
     private void renormalize( Map<CompositeSequence, DoubleVectorValueObject> vectors ) {
 
         int cols = vectors.values().iterator().next().getBioAssayDimension().getBioAssays().size();
-        DoubleMatrix<CompositeSequence, Integer> mat = new DenseDoubleMatrix<>( vectors.size(), cols );
-        for ( int i = 0; i < cols; i++ ) {
-            mat.setColumnName( i, i );
-        }
+        double[][] columns = new double[cols][vectors.size()];
 
         int i = 0;
-        for ( CompositeSequence c : vectors.keySet() ) {
-            DoubleVectorValueObject v = vectors.get( c );
+        for ( DoubleVectorValueObject v : vectors.values() ) {
             double[] data = v.getData();
 
             if ( data.length != cols ) {
@@ -1360,16 +1425,21 @@ public class ProcessedExpressionDataVectorDaoImpl extends DesignElementDataVecto
                                         .getBioAssayDimension().getId() );
             }
             for ( int j = 0; j < cols; j++ ) {
-                mat.set( i, j, data[j] );
+                columns[j][i] = data[j];
             }
-            mat.setRowName( c, i );
             i++;
         }
 
-        this.doQuantileNormalization( mat, vectors );
-
-        assert mat.rows() == vectors.size();
+        QuantileNormalizer.normalizeColumns( columns );
 
+        i = 0;
+        for ( DoubleVectorValueObject v : vectors.values() ) {
+            double[] data = v.getData();
+            for ( int j = 0; j < cols; j++ ) {
+                data[j] = columns[j][i];
+            }
+            i++;
+        }
     }
 
     /**
@@ -23,6 +23,7 @@ import org.springframework.transaction.annotation.Transactional;
 import ubic.gemma.core.analysis.preprocess.PreprocessorService;
 import ubic.gemma.model.expression.bioAssayData.DoubleVectorValueObject;
 import ubic.gemma.model.expression.bioAssayData.ExperimentExpressionLevelsValueObject;
+import ubic.gemma.model.expression.bioAssayData.ProcessedDataMatrix;
 import ubic.gemma.model.expression.bioAssayData.ProcessedExpressionDataVector;
 import ubic.gemma.model.expression.designElement.CompositeSequence;
 import ubic.gemma.model.expression.experiment.BioAssaySet;
@@ -141,6 +142,19 @@ public interface ProcessedExpressionDataVectorService
     Collection<DoubleVectorValueObject> getProcessedDataArraysByProbeIds( BioAssaySet analyzedSet,
             Collection<Long> probes );
 
+    /**
+     * Retrieve the processed data for genes in experiments in bulk. This is much faster than
+     * {@link #getProcessedDataArrays(Collection, Collection)} for many experiments, as no entities or value objects are
+     * created for the vectors, but the data are not sliced for subsets. As there, values for outlier samples are NaN.
+     *
+     * @param ees   experiments
+     * @param genes ids of genes
+     * @return one matrix for each experiment and bioassay dimension that has data for the genes.
+     */
+    @Secured({ "IS_AUTHENTICATED_ANONYMOUSLY", "ACL_SECURABLE_COLLECTION_READ" })
+    Collection<ProcessedDataMatrix> getProcessedDataMatrices( Collection<ExpressionExperiment> ees,
+            Collection<Long> genes );
+
     Collection<ProcessedExpressionDataVector> getProcessedDataVectors( ExpressionExperiment expressionExperiment );
 
     @Secured({ "IS_AUTHENTICATED_ANONYMOUSLY", "ACL_AFTER_MAP_READ", "ACL_SECURABLE_COLLECTION_READ" })
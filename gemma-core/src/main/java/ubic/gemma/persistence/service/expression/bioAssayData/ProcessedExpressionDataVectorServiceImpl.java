@@ -13,6 +13,7 @@ import ubic.gemma.model.analysis.expression.diff.ExpressionAnalysisResultSet;
 import ubic.gemma.model.common.auditAndSecurity.eventType.FailedProcessedVectorComputationEvent;
 import ubic.gemma.model.expression.bioAssayData.DoubleVectorValueObject;
 import ubic.gemma.model.expression.bioAssayData.ExperimentExpressionLevelsValueObject;
+import ubic.gemma.model.expression.bioAssayData.ProcessedDataMatrix;
 import ubic.gemma.model.expression.bioAssayData.ProcessedExpressionDataVector;
 import ubic.gemma.model.expression.designElement.CompositeSequence;
 import ubic.gemma.model.expression.experiment.BioAssaySet;
@@ -20,6 +21,7 @@ import ubic.gemma.model.expression.experiment.ExpressionExperiment;
 import ubic.gemma.model.genome.Gene;
 import ubic.gemma.persistence.service.analysis.expression.diff.DifferentialExpressionResultService;
 import ubic.gemma.persistence.service.analysis.expression.diff.ExpressionAnalysisResultSetService;
+import ubic.gemma.persistence.service.analysis.expression.sampleCoexpression.SampleCoexpressionCache;
 import ubic.gemma.persistence.service.common.auditAndSecurity.AuditTrailService;
 import ubic.gemma.persistence.service.expression.bioAssayData.ProcessedExpressionDataVectorDao.RankMethod;
 import ubic.gemma.persistence.util.EntityUtils;
@@ -51,6 +53,8 @@ public class ProcessedExpressionDataVectorServiceImpl
     private AuditTrailService auditTrailService;
     @Autowired
     private ExpressionAnalysisResultSetService expressionAnalysisResultSetService;
+    @Autowired
+    private SampleCoexpressionCache sampleCoexpressionCache;
 
     @Autowired
     protected ProcessedExpressionDataVectorServiceImpl( ProcessedExpressionDataVectorDao mainDao ) {
@@ -65,6 +69,7 @@ public class ProcessedExpressionDataVectorServiceImpl
 
             // transaction
             ee = helperService.createProcessedDataVectors( ee, vectors );
+            sampleCoexpressionCache.evictMatrices( ee.getId() );
 
             assert ee.getNumberOfDataVectors() != null;
 
@@ -89,6 +94,7 @@ public class ProcessedExpressionDataVectorServiceImpl
     @Override
     @Transactional
     public ExpressionExperiment createProcessedDataVectors( ExpressionExperiment expressionExperiment ) {
+        sampleCoexpressionCache.evictMatrices( expressionExperiment.getId() );
         return this.processedExpressionDataVectorDao.createProcessedDataVectors( expressionExperiment );
     }
 
@@ -198,6 +204,13 @@ public class ProcessedExpressionDataVectorServiceImpl
         return this.processedExpressionDataVectorDao.getProcessedDataArraysByProbeIds( ee, probes );
     }
 
+    @Override
+    @Transactional(readOnly = true)
+    public Collection<ProcessedDataMatrix> getProcessedDataMatrices( Collection<ExpressionExperiment> ees,
+            Collection<Long> genes ) {
+        return this.processedExpressionDataVectorDao.getProcessedDataMatrices( EntityUtils.getIds( ees ), genes );
+    }
+
     @Override
     @Transactional(readOnly = true)
     public Collection<ProcessedExpressionDataVector> getProcessedDataVectors(
@@ -235,6 +248,7 @@ public class ProcessedExpressionDataVectorServiceImpl
     @Override
     @Transactional
     public void removeProcessedDataVectors( ExpressionExperiment expressionExperiment ) {
+        sampleCoexpressionCache.evictMatrices( expressionExperiment.getId() );
         this.processedExpressionDataVectorDao.removeProcessedDataVectors( expressionExperiment );
     }
 
@@ -314,6 +328,7 @@ public class ProcessedExpressionDataVectorServiceImpl
     @Override
     public void reorderByDesign( Long eeId ) {
         this.helperService.reorderByDesign( eeId );
+        sampleCoexpressionCache.evictMatrices( eeId );
     }
 
     /**
@@ -8,6 +8,7 @@
  */
 package ubic.gemma.persistence.service.expression.bioAssayData;
 
+import ubic.gemma.model.common.quantitationtype.QuantitationType;
 import ubic.gemma.model.expression.bioAssayData.RawExpressionDataVector;
 import ubic.gemma.model.expression.experiment.ExpressionExperiment;
 
@@ -19,4 +20,19 @@ import java.util.Collection;
 public interface RawExpressionDataVectorDao extends DesignElementDataVectorDao<RawExpressionDataVector> {
 
     ExpressionExperiment addVectors( Long eeId, Collection<RawExpressionDataVector> vectors );
+
+    /**
+     * Delete the vectors of the experiment for the quantitation type in bulk, without loading them.
+     *
+     * @return number of vectors deleted
+     */
+    int removeVectors( Long eeId, QuantitationType qt );
+
+    /**
+     * Delete the vectors of the experiment for all the quantitation types but the given one in bulk, without loading
+     * them.
+     *
+     * @return number of vectors deleted
+     */
+    int removeOtherVectors( Long eeId, QuantitationType qt );
 }
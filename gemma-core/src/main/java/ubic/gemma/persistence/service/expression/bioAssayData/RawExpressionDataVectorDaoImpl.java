@@ -9,6 +9,8 @@
 
 package ubic.gemma.persistence.service.expression.bioAssayData;
 
+import org.hibernate.Hibernate;
+import org.hibernate.Session;
 import org.hibernate.SessionFactory;
 import org.hibernate.criterion.DetachedCriteria;
 import org.hibernate.criterion.Restrictions;
@@ -46,11 +48,43 @@ public class RawExpressionDataVectorDaoImpl extends DesignElementDataVectorDaoIm
         if ( ee == null ) {
             throw new IllegalArgumentException( "Experiment with id=" + eeId + " not found" );
         }
-        ee.getRawExpressionDataVectors().addAll( vectors );
-        this.getHibernateTemplate().update( ee );
+        if ( Hibernate.isInitialized( ee.getRawExpressionDataVectors() ) ) {
+            ee.getRawExpressionDataVectors().addAll( vectors );
+            this.getHibernateTemplate().update( ee );
+            return ee;
+        }
+
+        // don't load all the existing vectors just to add to them; this is the other side of the association anyway.
+        Session session = this.getSessionFactory().getCurrentSession();
+        for ( RawExpressionDataVector vector : vectors ) {
+            vector.setExpressionExperiment( ee );
+            session.save( vector );
+        }
+        this.getSessionFactory().getCache()
+                .evictCollection( ExpressionExperiment.class.getName() + ".rawExpressionDataVectors", eeId );
         return ee;
     }
 
+    @Override
+    public int removeVectors( Long eeId, QuantitationType qt ) {
+        int removed = this.getSessionFactory().getCurrentSession().createQuery(
+                "delete from RawExpressionDataVector v where v.expressionExperiment.id = :ee and v.quantitationType = :qt" )
+                .setParameter( "ee", eeId ).setParameter( "qt", qt ).executeUpdate();
+        this.getSessionFactory().getCache()
+                .evictCollection( ExpressionExperiment.class.getName() + ".rawExpressionDataVectors", eeId );
+        return removed;
+    }
+
+    @Override
+    public int removeOtherVectors( Long eeId, QuantitationType qt ) {
+        int removed = this.getSessionFactory().getCurrentSession().createQuery(
+                "delete from RawExpressionDataVector v where v.expressionExperiment.id = :ee and v.quantitationType <> :qt" )
+                .setParameter( "ee", eeId ).setParameter( "qt", qt ).executeUpdate();
+        this.getSessionFactory().getCache()
+                .evictCollection( ExpressionExperiment.class.getName() + ".rawExpressionDataVectors", eeId );
+        return removed;
+    }
+
     @Override
     public Collection<RawExpressionDataVector> find( BioAssayDimension bioAssayDimension ) {
         //noinspection unchecked
@@ -1423,14 +1423,18 @@ public class ExpressionExperimentDaoImpl
         }
 
         // parts of this query (above) are only needed for administrators: the notes, so it could theoretically be sped up even more
-        queryString += AclQueryUtils.formAclJoinClause( getObjectAlias() );
+        // ACL entries are checked in a sub-query, so the jointure yields one row per EE
+        queryString += AclQueryUtils.formAclOwnerJoinClause( getObjectAlias() );
 
-        queryString += AclQueryUtils.formAclRestrictionClause();
+        queryString += AclQueryUtils.formAclEntriesRestrictionClause();
         queryString += ObjectFilterQueryUtils.formRestrictionClause( filters );
 
-        // FIXME: this is necessary because of the ACL jointure, it can also become necessary if bioAssays are included as well
+        // only the characteristics and bioAssays jointures can duplicate EEs
         // unlike in ArrayDesignDaoImpl, a distinct is not possible because we select the ACL AOI and SID
-        queryString += " group by " + getObjectAlias();
+        if ( FiltersUtils.containsAnyAlias( filters, CharacteristicDao.OBJECT_ALIAS, BioAssayDao.OBJECT_ALIAS,
+                ArrayDesignDao.OBJECT_ALIAS ) ) {
+            queryString += " group by " + getObjectAlias();
+        }
 
         if ( sort != null ) {
             queryString += ObjectFilterQueryUtils.formOrderByClause( sort );
@@ -1492,9 +1496,9 @@ public class ExpressionExperimentDaoImpl
         }
 
         // parts of this query (above) are only needed for administrators: the notes, so it could theoretically be sped up even more
-        queryString += AclQueryUtils.formAclJoinClause( getObjectAlias() );
+        queryString += AclQueryUtils.formAclOwnerJoinClause( getObjectAlias() );
 
-        queryString += AclQueryUtils.formAclRestrictionClause();
+        queryString += AclQueryUtils.formAclEntriesRestrictionClause();
         queryString += ObjectFilterQueryUtils.formRestrictionClause( filters );
 
         Query query = this.getSessionFactory().getCurrentSession().createQuery( queryString );
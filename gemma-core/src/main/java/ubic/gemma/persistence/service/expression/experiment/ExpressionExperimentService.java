@@ -470,6 +470,17 @@ public interface ExpressionExperimentService
     @Secured({ "GROUP_USER", "ACL_SECURABLE_EDIT" })
     int removeRawVectors( ExpressionExperiment ee, QuantitationType qt );
 
+    /**
+     * Remove the raw vectors of all the quantitation types but the given one, and clear out the processed data. Used to
+     * finish replacing data whose new vectors were added separately, with {@link #addRawVectors}.
+     *
+     * @param ee experiment
+     * @param qt quantitation type of the vectors to keep
+     * @return the updated Experiment
+     */
+    @Secured({ "GROUP_USER", "ACL_SECURABLE_EDIT" })
+    ExpressionExperiment removeOtherRawVectors( ExpressionExperiment ee, QuantitationType qt );
+
     /**
      * Used when we are replacing data, such as when converting an experiment from one platform to another. Examples
      * would be exon array or RNA-seq data sets, or other situations where we are replacing data. Does not take care of
@@ -91,6 +91,7 @@ import ubic.gemma.persistence.service.common.description.CharacteristicDao;
 import ubic.gemma.persistence.service.common.quantitationtype.QuantitationTypeService;
 import ubic.gemma.persistence.service.expression.bioAssay.BioAssayDao;
 import ubic.gemma.persistence.service.expression.bioAssayData.BioAssayDimensionService;
+import ubic.gemma.persistence.service.expression.bioAssayData.ProcessedExpressionDataVectorDao;
 import ubic.gemma.persistence.service.expression.bioAssayData.ProcessedExpressionDataVectorService;
 import ubic.gemma.persistence.service.expression.bioAssayData.RawExpressionDataVectorDao;
 import ubic.gemma.persistence.service.genome.taxon.TaxonDao;
@@ -132,6 +133,8 @@ public class ExpressionExperimentServiceImpl
     @Autowired
     private RawExpressionDataVectorDao rawExpressionDataVectorDao;
     @Autowired
+    private ProcessedExpressionDataVectorDao processedExpressionDataVectorDao;
+    @Autowired
     private OntologyService ontologyService;
     @Autowired
     private PrincipalComponentAnalysisService principalComponentAnalysisService;
@@ -242,7 +245,7 @@ public class ExpressionExperimentServiceImpl
             ee.getQuantitationTypes().add( newQt );
         }
 
-        AbstractService.log.info( ee.getRawExpressionDataVectors().size() + " vectors for experiment" );
+        AbstractService.log.info( newVectors.size() + " vectors added to experiment" );
 
         return ee;
     }
@@ -899,21 +902,30 @@ public class ExpressionExperimentServiceImpl
     @Transactional
     public int removeRawVectors( ExpressionExperiment ee, QuantitationType qt ) {
         ExpressionExperiment eeToUpdate = this.load( ee.getId() );
-        Collection<RawExpressionDataVector> vectorsToRemove = new ArrayList<>();
-        for ( RawExpressionDataVector oldV : eeToUpdate.getRawExpressionDataVectors() ) {
-            if ( oldV.getQuantitationType().equals( qt ) ) {
-                vectorsToRemove.add( oldV );
-            }
-        }
+        // in bulk, so the vectors aren't loaded
+        int numRemoved = this.rawExpressionDataVectorDao.removeVectors( eeToUpdate.getId(), qt );
 
-        if ( vectorsToRemove.isEmpty() ) {
+        if ( numRemoved == 0 ) {
             throw new IllegalArgumentException( "No vectors to remove for quantitation type=" + qt );
         }
 
-        eeToUpdate.getRawExpressionDataVectors().removeAll( vectorsToRemove );
         AbstractService.log.info( "Removing unused quantitation type: " + qt );
         eeToUpdate.getQuantitationTypes().remove( qt );
-        return vectorsToRemove.size();
+        return numRemoved;
+    }
+
+    @Override
+    @Transactional
+    public ExpressionExperiment removeOtherRawVectors( ExpressionExperiment ee, QuantitationType qt ) {
+        // to attach to session correctly.
+        ExpressionExperiment eeToUpdate = this.load( ee.getId() );
+
+        // in bulk, so neither the old vectors nor the new ones are loaded
+        int numProcessed = this.processedExpressionDataVectorDao.removeProcessedDataVectors( eeToUpdate.getId() );
+        int numRaw = this.rawExpressionDataVectorDao.removeOtherVectors( eeToUpdate.getId(), qt );
+        AbstractService.log.info( "Removed " + numRaw + " replaced vectors and " + numProcessed + " processed vectors" );
+
+        return eeToUpdate;
     }
 
     @Override
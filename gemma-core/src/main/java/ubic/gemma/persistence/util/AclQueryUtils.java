@@ -28,8 +28,9 @@ public class AclQueryUtils {
      * <p>
      * Ensure that you use {@link #addAclJoinParameters(Query, Class)} afterward to bind the query parameters.
      *
-     * FIXME: this ACL jointure is really annoying because it is one-to-many, maybe handling everything in a sub-query
-     * would be preferable?
+     * This jointure is one-to-many for non-administrators, so results have to be made distinct. Prefer
+     * {@link #formAclOwnerJoinClause(String)} with {@link #formAclEntriesRestrictionClause()}, which check the entries in
+     * a sub-query.
      *
      * @param alias   placeholder for the identifier e.g. "ee.id"
      * @return clause to add to the query
@@ -49,7 +50,28 @@ public class AclQueryUtils {
     }
 
     /**
-     * Bind {@link Query} parameters to a join clause generated with {@link #formAclJoinClause(String)}.
+     * Create an HQL join clause from ACL OI -{@literal >} ACL SID only, regardless of the current user.
+     * <p>
+     * Unlike {@link #formAclJoinClause(String)}, this yields at most one row per object, so it can be used with
+     * pagination without a distinct or group by clause. ACL entries must then be checked with
+     * {@link #formAclEntriesRestrictionClause()}.
+     * <p>
+     * Ensure that you use {@link #addAclJoinParameters(Query, Class)} afterward to bind the query parameters.
+     *
+     * @param alias placeholder for the identifier e.g. "ee.id"
+     * @return clause to add to the query
+     */
+    public static String formAclOwnerJoinClause( String alias ) {
+        if ( Strings.isNullOrEmpty( alias ) )
+            throw new IllegalArgumentException( "Alias cannot be null or empty." );
+        return ", AclObjectIdentity as aoi inner join aoi.ownerSid sid "
+                + "where aoi.identifier = " + ObjectFilterQueryUtils.formPropertyName( alias, "id" ) + " "
+                + "and aoi.type = :aoiType";
+    }
+
+    /**
+     * Bind {@link Query} parameters to a join clause generated with {@link #formAclJoinClause(String)} or
+     * {@link #formAclOwnerJoinClause(String)}.
      *
      * @param query   a {@link Query} object that contains the join clause
      * @param aoiType the AOI type to be bound in the query
@@ -90,7 +112,37 @@ public class AclQueryUtils {
     }
 
     /**
-     * Add ACL restriction parameters defined in {@link #formAclRestrictionClause()}.
+     * Creates a restriction clause equivalent to {@link #formAclRestrictionClause()}, but which checks the ACL entries
+     * in a correlated sub-query instead of relying on a jointure with them.
+     * <p>
+     * Bind its parameters with {@link #addAclRestrictionParameters(Query)}.
+     *
+     * @return a string that can be appended to a query string that was created using {@link #formAclOwnerJoinClause(String)}.
+     */
+    public static String formAclEntriesRestrictionClause() {
+        if ( SecurityUtil.isUserAnonymous() ) {
+            //language=HQL
+            return " and exists (select ace.id from AclObjectIdentity as aoi2 inner join aoi2.entries ace "
+                    + "where aoi2 = aoi and ace.mask = :readMask and ace.sid.id = 4)";
+        } else if ( SecurityUtil.isUserAdmin() ) {
+            return "";
+        } else {
+            //language=HQL
+            return " and ("
+                    // user own the object
+                    + "sid.principal = :userName "
+                    + "or exists (select ace.id from AclObjectIdentity as aoi2 inner join aoi2.entries ace "
+                    + "where aoi2 = aoi and ("
+                    // specific rights to the object
+                    + "(ace.sid.id in (" + CURRENT_USER_SIDS_SQL + ") and (ace.mask = :readMask or ace.mask = :writeMask)) "
+                    // publicly available
+                    + "or (ace.sid.id = 4 and ace.mask = :readMask))))";
+        }
+    }
+
+    /**
+     * Add ACL restriction parameters defined in {@link #formAclRestrictionClause()} or
+     * {@link #formAclEntriesRestrictionClause()}.
      * @param query
      * @throws QueryParameterException if any defined parameters are missing, which is typically due to a missing {@link #formAclRestrictionClause()}.
      */
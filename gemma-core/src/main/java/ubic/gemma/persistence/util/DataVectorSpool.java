@@ -0,0 +1,171 @@
+/*
+ * The Gemma project
+ *
+ * Copyright (c) 2026 University of British Columbia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package ubic.gemma.persistence.util;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import ubic.gemma.model.expression.bioAssayData.DataVector;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Scratch file holding the data of vectors while a very large experiment is being loaded. The data of a vector are
+ * {@link #spill(DataVector) spilled} as soon as the vector is made, leaving only the vector and its associations in
+ * memory; they are {@link #restore(Collection) restored} batch by batch just before being persisted, and
+ * {@link #release(Collection) released} once the batch is flushed. Reading is done through a memory-mapped window on
+ * the file, so restoring the vectors in the order they were spilled is cheap.
+ * Not thread-safe. The file is deleted on {@link #close()}.
+ *
+ * @author agent
+ */
+public class DataVectorSpool implements Closeable {
+
+    private static final Log log = LogFactory.getLog( DataVectorSpool.class );
+
+    /**
+     * Size of the part of the file that is mapped at once.
+     */
+    private static final long WINDOW_SIZE = 256L * 1024 * 1024;
+
+    private final Path file;
+    private final long windowSize;
+    private final DataOutputStream out;
+    private final RandomAccessFile in;
+
+    /**
+     * Offset and length of the data of each spilled vector.
+     */
+    private final Map<DataVector, long[]> offsets = new IdentityHashMap<>();
+
+    private long length = 0;
+    private MappedByteBuffer window;
+    private long windowStart;
+
+    /**
+     * @return a spool on a new file in the download directory.
+     */
+    public static DataVectorSpool create() throws IOException {
+        Path dir = Paths.get( Settings.getDownloadPath() );
+        Files.createDirectories( dir );
+        return new DataVectorSpool( Files.createTempFile( dir, "vectors", ".spool" ), DataVectorSpool.WINDOW_SIZE );
+    }
+
+    /**
+     * @param file       the file to write to, which is deleted on {@link #close()}, or if this fails
+     * @param windowSize size of the part of the file that is mapped at once
+     */
+    DataVectorSpool( Path file, long windowSize ) throws IOException {
+        this.file = file;
+        this.windowSize = windowSize;
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( file.toFile() ) ) );
+            this.in = new RandomAccessFile( file.toFile(), "r" );
+        } catch ( IOException e ) {
+            if ( out != null ) {
+                out.close();
+            }
+            Files.deleteIfExists( file );
+            throw e;
+        }
+        this.out = out;
+        DataVectorSpool.log.info( "Spooling vector data to " + file );
+    }
+
+    /**
+     * Write the data of the vector to the file and remove it from the vector.
+     */
+    public void spill( DataVector vector ) throws IOException {
+        byte[] data = vector.getData();
+        if ( data == null )
+            throw new IllegalArgumentException( "Vector has no data to spill" );
+        out.write( data );
+        offsets.put( vector, new long[] { length, data.length } );
+        length += data.length;
+        vector.setData( null );
+    }
+
+    /**
+     * @return true if the data of the vector are in this spool.
+     */
+    public boolean contains( DataVector vector ) {
+        return offsets.containsKey( vector );
+    }
+
+    /**
+     * @return number of vectors spilled.
+     */
+    public int size() {
+        return offsets.size();
+    }
+
+    /**
+     * Put back the data of the vectors; vectors that were not spilled are left alone.
+     */
+    public void restore( Collection<? extends DataVector> vectors ) throws IOException {
+        out.flush();
+        for ( DataVector vector : vectors ) {
+            long[] o = offsets.get( vector );
+            if ( o == null )
+                continue;
+            vector.setData( this.read( o[0], ( int ) o[1] ) );
+        }
+    }
+
+    /**
+     * Remove the data of the vectors from memory again; they can be restored later.
+     */
+    public void release( Collection<? extends DataVector> vectors ) {
+        for ( DataVector vector : vectors ) {
+            if ( offsets.containsKey( vector ) ) {
+                vector.setData( null );
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        try {
+            out.close();
+        } finally {
+            try {
+                in.close();
+            } finally {
+                Files.deleteIfExists( file );
+            }
+        }
+    }
+
+    private byte[] read( long offset, int size ) throws IOException {
+        if ( window == null || offset < windowStart || offset + size > windowStart + window.capacity() ) {
+            long mapSize = Math.min( Math.max( size, windowSize ), length - offset );
+            window = in.getChannel().map( FileChannel.MapMode.READ_ONLY, offset, mapSize );
+            windowStart = offset;
+        }
+        byte[] data = new byte[size];
+        window.position( ( int ) ( offset - windowStart ) );
+        window.get( data );
+        return data;
+    }
+}
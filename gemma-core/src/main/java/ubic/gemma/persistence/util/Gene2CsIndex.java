@@ -0,0 +1,74 @@
+/*
+ * The Gemma project
+ *
+ * Copyright (c) 2026 University of British Columbia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ubic.gemma.persistence.util;
+
+import org.hibernate.Session;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * In-memory copy of the probe to gene map held in the GENE2CS table, loaded one platform at a time when it is first
+ * needed. It answers the same questions as the corresponding methods of {@link CommonQueries}, without going to the
+ * database once the platforms involved are loaded. The session is only used to load platforms.
+ *
+ * @author agent
+ */
+public interface Gene2CsIndex {
+
+    /**
+     * @param genes        gene IDs
+     * @param arrayDesigns platform IDs
+     * @param session      session
+     * @return map of probe IDs, on the given platforms, to the genes among the given ones they map to.
+     * @see CommonQueries#getCs2GeneIdMap(Collection, Collection, Session)
+     */
+    Map<Long, Collection<Long>> getCs2GeneIdMap( Collection<Long> genes, Collection<Long> arrayDesigns,
+            Session session );
+
+    /**
+     * @param probes  probe IDs
+     * @param session session
+     * @return map of probe IDs to all the genes they map to; probes that don't map to any gene are left out.
+     * @see CommonQueries#getCs2GeneMapForProbes(Collection, Session)
+     */
+    Map<Long, Collection<Long>> getCs2GeneMapForProbes( Collection<Long> probes, Session session );
+
+    /**
+     * @param probes         probe IDs
+     * @param arrayDesignIds platform IDs
+     * @param session        session
+     * @return the given probes that are on one of the given platforms and map to at least one gene.
+     * @see CommonQueries#filterProbesByPlatform(Collection, Collection, Session)
+     */
+    Collection<Long> filterProbesByPlatform( Collection<Long> probes, Collection<Long> arrayDesignIds,
+            Session session );
+
+    /**
+     * Drop a platform, for example because it was mapped again; it will be reloaded when next needed.
+     *
+     * @param arrayDesignId platform ID
+     */
+    void evict( Long arrayDesignId );
+
+    /**
+     * Drop all the platforms, for example because the GENE2CS table was regenerated.
+     */
+    void clear();
+}
@@ -0,0 +1,387 @@
+/*
+ * The Gemma project
+ *
+ * Copyright (c) 2026 University of British Columbia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ubic.gemma.persistence.util;
+
+import cern.colt.GenericSorting;
+import cern.colt.list.IntArrayList;
+import cern.colt.list.LongArrayList;
+import org.apache.commons.lang3.time.StopWatch;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.hibernate.*;
+import org.hibernate.type.LongType;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Implementation note: each platform is held as sorted primitive arrays, in both directions (probe to genes and gene
+ * to probes), so lookups are binary searches and there is no object per mapping. All the probes of a platform are
+ * kept, including those that don't map to any gene, so the platform of a probe can be found without asking the
+ * database. The size of the index is limited in bytes; when it is exceeded, the platforms that were least recently
+ * used are dropped.
+ *
+ * @author agent
+ */
+@Component
+public class Gene2CsIndexImpl implements Gene2CsIndex, InitializingBean {
+
+    private static final Log log = LogFactory.getLog( Gene2CsIndexImpl.class );
+
+    private static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+
+    private static final String LOAD_QUERY = "SELECT cs.ID AS csid, g.GENE AS geneId FROM COMPOSITE_SEQUENCE cs "
+            + "LEFT JOIN GENE2CS g ON g.CS = cs.ID WHERE cs.ARRAY_DESIGN_FK = :ad ORDER BY cs.ID, g.GENE";
+
+    private static final String PLATFORMS_QUERY = "SELECT DISTINCT ARRAY_DESIGN_FK AS ad FROM COMPOSITE_SEQUENCE "
+            + "WHERE ID IN (:probes)";
+
+    private final ConcurrentMap<Long, PlatformIndex> platforms = new ConcurrentHashMap<>();
+    private final AtomicLong bytesUsed = new AtomicLong();
+    private final AtomicLong accessCounter = new AtomicLong();
+
+    /**
+     * Incremented by each eviction, so a platform that was being loaded meanwhile is not kept.
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    private long maxBytes = Gene2CsIndexImpl.DEFAULT_MAX_BYTES;
+
+    @Override
+    public void afterPropertiesSet() {
+        this.maxBytes = Settings.getLong( "gemma.cache.gene2cs.maxbytes", Gene2CsIndexImpl.DEFAULT_MAX_BYTES );
+    }
+
+    @Override
+    public Map<Long, Collection<Long>> getCs2GeneIdMap( Collection<Long> genes, Collection<Long> arrayDesigns,
+            Session session ) {
+        Map<Long, Collection<Long>> cs2genes = new HashMap<>();
+        for ( Long ad : arrayDesigns ) {
+            PlatformIndex index = this.get( ad, session );
+            for ( Long gene : genes ) {
+                for ( long probe : index.getProbes( gene ) ) {
+                    Collection<Long> g = cs2genes.get( probe );
+                    if ( g == null ) {
+                        g = new HashSet<>();
+                        cs2genes.put( probe, g );
+                    }
+                    g.add( gene );
+                }
+            }
+        }
+        return cs2genes;
+    }
+
+    @Override
+    public Map<Long, Collection<Long>> getCs2GeneMapForProbes( Collection<Long> probes, Session session ) {
+        Map<Long, Collection<Long>> cs2genes = new HashMap<>();
+        if ( probes.isEmpty() )
+            return cs2genes;
+
+        Collection<Long> unresolved = this.addGenes( probes, cs2genes );
+        if ( !unresolved.isEmpty() ) {
+            // find which platforms the remaining probes are on, and load them
+            SQLQuery queryObject = session.createSQLQuery( Gene2CsIndexImpl.PLATFORMS_QUERY );
+            queryObject.addScalar( "ad", LongType.INSTANCE );
+            queryObject.setParameterList( "probes", unresolved, LongType.INSTANCE );
+            queryObject.setReadOnly( true );
+            queryObject.setFlushMode( FlushMode.MANUAL );
+            //noinspection unchecked
+            for ( Long ad : ( List<Long> ) queryObject.list() ) {
+                this.get( ad, session );
+            }
+            this.addGenes( unresolved, cs2genes );
+        }
+        return cs2genes;
+    }
+
+    @Override
+    public Collection<Long> filterProbesByPlatform( Collection<Long> probes, Collection<Long> arrayDesignIds,
+            Session session ) {
+        Collection<Long> result = new ArrayList<>();
+        List<PlatformIndex> indices = new ArrayList<>( arrayDesignIds.size() );
+        for ( Long ad : arrayDesignIds ) {
+            indices.add( this.get( ad, session ) );
+        }
+        for ( Long probe : probes ) {
+            for ( PlatformIndex index : indices ) {
+                long[] genes = index.getGenes( probe );
+                if ( genes != null && genes.length > 0 ) {
+                    result.add( probe );
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void evict( Long arrayDesignId ) {
+        generation.incrementAndGet();
+        PlatformIndex removed = platforms.remove( arrayDesignId );
+        if ( removed != null ) {
+            bytesUsed.addAndGet( -removed.getBytes() );
+        }
+    }
+
+    @Override
+    public void clear() {
+        generation.incrementAndGet();
+        for ( Long ad : platforms.keySet() ) {
+            this.evict( ad );
+        }
+    }
+
+    /**
+     * Look up probes in the platforms that are loaded.
+     *
+     * @return the probes that are not on any of the loaded platforms
+     */
+    private Collection<Long> addGenes( Collection<Long> probes, Map<Long, Collection<Long>> cs2genes ) {
+        Collection<Long> unresolved = new ArrayList<>();
+        Collection<PlatformIndex> loaded = platforms.values();
+        for ( Long probe : probes ) {
+            long[] genes = null;
+            for ( PlatformIndex index : loaded ) {
+                genes = index.getGenes( probe );
+                if ( genes != null ) {
+                    index.touch( accessCounter.incrementAndGet() );
+                    break;
+                }
+            }
+            if ( genes == null ) {
+                unresolved.add( probe );
+            } else if ( genes.length > 0 ) {
+                Collection<Long> g = new HashSet<>();
+                for ( long gene : genes ) {
+                    g.add( gene );
+                }
+                cs2genes.put( probe, g );
+            }
+        }
+        return unresolved;
+    }
+
+    private PlatformIndex get( Long ad, Session session ) {
+        PlatformIndex index = platforms.get( ad );
+        if ( index == null ) {
+            long gen = generation.get();
+            index = this.load( ad, session );
+            // don't keep it if the platform was evicted while loading, it may be out of date
+            if ( generation.get() == gen && platforms.putIfAbsent( ad, index ) == null ) {
+                bytesUsed.addAndGet( index.getBytes() );
+                this.evictIfNeeded( ad );
+            }
+        }
+        index.touch( accessCounter.incrementAndGet() );
+        return index;
+    }
+
+    private PlatformIndex load( Long ad, Session session ) {
+        StopWatch timer = StopWatch.createStarted();
+        SQLQuery queryObject = session.createSQLQuery( Gene2CsIndexImpl.LOAD_QUERY );
+        queryObject.addScalar( "csid", LongType.INSTANCE );
+        queryObject.addScalar( "geneId", LongType.INSTANCE );
+        queryObject.setParameter( "ad", ad );
+        queryObject.setReadOnly( true );
+        queryObject.setFlushMode( FlushMode.MANUAL );
+
+        LongArrayList probes = new LongArrayList();
+        LongArrayList genes = new LongArrayList();
+        ScrollableResults results = queryObject.scroll( ScrollMode.FORWARD_ONLY );
+        try {
+            while ( results.next() ) {
+                probes.add( results.getLong( 0 ) );
+                Long gene = results.getLong( 1 );
+                genes.add( gene == null ? PlatformIndex.NO_GENE : gene );
+            }
+        } finally {
+            results.close();
+        }
+        PlatformIndex index = new PlatformIndex( probes, genes );
+        if ( timer.getTime() > 1000 ) {
+            Gene2CsIndexImpl.log.info( "Loaded probe to gene map of platform with id=" + ad + " (" + probes.size()
+                    + " rows): " + timer.getTime() + "ms" );
+        }
+        return index;
+    }
+
+    /**
+     * Drop the least recently used platforms until the index fits in its limit. The platform that was just added is
+     * dropped last, and only if it doesn't fit by itself.
+     */
+    private void evictIfNeeded( Long justUsed ) {
+        while ( bytesUsed.get() > maxBytes ) {
+            Long lru = null;
+            long oldest = Long.MAX_VALUE;
+            for ( Map.Entry<Long, PlatformIndex> e : platforms.entrySet() ) {
+                if ( e.getKey().equals( justUsed ) )
+                    continue;
+                long lastAccess = e.getValue().getLastAccess();
+                if ( lastAccess < oldest ) {
+                    oldest = lastAccess;
+                    lru = e.getKey();
+                }
+            }
+            if ( lru == null ) {
+                Gene2CsIndexImpl.log.warn( "Probe to gene map of platform with id=" + justUsed
+                        + " does not fit in the index, consider increasing gemma.cache.gene2cs.maxbytes" );
+                return;
+            }
+            PlatformIndex removed = platforms.remove( lru );
+            if ( removed != null ) {
+                bytesUsed.addAndGet( -removed.getBytes() );
+            }
+        }
+    }
+
+    /**
+     * The probe to gene map of one platform. Unmodifiable, except for the time of last access.
+     */
+    static class PlatformIndex {
+
+        static final long NO_GENE = -1L;
+
+        private static final long[] EMPTY = new long[0];
+
+        /*
+         * All the probes, sorted; the genes of probes[i] are probeGenes[probeStarts[i]] to probeGenes[probeStarts[i+1]-1].
+         */
+        private final long[] probes;
+        private final int[] probeStarts;
+        private final long[] probeGenes;
+
+        /*
+         * The genes that are mapped to, sorted, in the same layout.
+         */
+        private final long[] genes;
+        private final int[] geneStarts;
+        private final long[] geneProbes;
+
+        private volatile long lastAccess;
+
+        /**
+         * @param rowProbes probe of each mapping, sorted
+         * @param rowGenes  gene of each mapping, sorted within each probe, or NO_GENE for a probe without any
+         */
+        PlatformIndex( LongArrayList rowProbes, LongArrayList rowGenes ) {
+            int n = rowProbes.size();
+            LongArrayList distinctProbes = new LongArrayList();
+            IntArrayList starts = new IntArrayList( n + 1 );
+            LongArrayList mappedProbes = new LongArrayList();
+            LongArrayList mappedGenes = new LongArrayList();
+            for ( int i = 0; i < n; i++ ) {
+                long probe = rowProbes.getQuick( i );
+                long gene = rowGenes.getQuick( i );
+                boolean newProbe =
+                        distinctProbes.isEmpty() || distinctProbes.getQuick( distinctProbes.size() - 1 ) != probe;
+                if ( newProbe ) {
+                    distinctProbes.add( probe );
+                    starts.add( mappedGenes.size() );
+                }
+                if ( gene == PlatformIndex.NO_GENE ) {
+                    continue;
+                }
+                // skip duplicate rows
+                if ( !newProbe && !mappedGenes.isEmpty() && mappedProbes.getQuick( mappedProbes.size() - 1 ) == probe
+                        && mappedGenes.getQuick( mappedGenes.size() - 1 ) == gene ) {
+                    continue;
+                }
+                mappedProbes.add( probe );
+                mappedGenes.add( gene );
+            }
+            starts.add( mappedGenes.size() );
+
+            distinctProbes.trimToSize();
+            starts.trimToSize();
+            mappedProbes.trimToSize();
+            mappedGenes.trimToSize();
+            this.probes = distinctProbes.elements();
+            this.probeStarts = starts.elements();
+            this.probeGenes = mappedGenes.elements();
+
+            // the reverse direction: sort the mappings by gene, then probe
+            final long[] byGeneGenes = mappedGenes.elements().clone();
+            final long[] byGeneProbes = mappedProbes.elements().clone();
+            int m = byGeneGenes.length;
+            GenericSorting.quickSort( 0, m, ( a, b ) -> {
+                int c = Long.compare( byGeneGenes[a], byGeneGenes[b] );
+                return c != 0 ? c : Long.compare( byGeneProbes[a], byGeneProbes[b] );
+            }, ( a, b ) -> {
+                long t = byGeneGenes[a];
+                byGeneGenes[a] = byGeneGenes[b];
+                byGeneGenes[b] = t;
+                t = byGeneProbes[a];
+                byGeneProbes[a] = byGeneProbes[b];
+                byGeneProbes[b] = t;
+            } );
+            LongArrayList distinctGenes = new LongArrayList();
+            IntArrayList gStarts = new IntArrayList( m + 1 );
+            for ( int i = 0; i < m; i++ ) {
+                if ( i == 0 || byGeneGenes[i] != byGeneGenes[i - 1] ) {
+                    distinctGenes.add( byGeneGenes[i] );
+                    gStarts.add( i );
+                }
+            }
+            gStarts.add( m );
+            gStarts.trimToSize();
+            distinctGenes.trimToSize();
+            this.genes = distinctGenes.elements();
+            this.geneStarts = gStarts.elements();
+            this.geneProbes = byGeneProbes;
+        }
+
+        /**
+         * @return the genes the probe maps to, or null if the probe is not on this platform.
+         */
+        long[] getGenes( long probe ) {
+            int i = Arrays.binarySearch( probes, probe );
+            if ( i < 0 )
+                return null;
+            return Arrays.copyOfRange( probeGenes, probeStarts[i], probeStarts[i + 1] );
+        }
+
+        /**
+         * @return the probes on this platform that map to the gene.
+         */
+        long[] getProbes( long gene ) {
+            int i = Arrays.binarySearch( genes, gene );
+            if ( i < 0 )
+                return PlatformIndex.EMPTY;
+            return Arrays.copyOfRange( geneProbes, geneStarts[i], geneStarts[i + 1] );
+        }
+
+        long getBytes() {
+            return 8L * ( probes.length + probeGenes.length + genes.length + geneProbes.length ) + 4L * (
+                    probeStarts.length + geneStarts.length );
+        }
+
+        long getLastAccess() {
+            return lastAccess;
+        }
+
+        void touch( long access ) {
+            this.lastAccess = access;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * The Gemma project
+ *
+ * Copyright (c) 2026 University of British Columbia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ubic.gemma.core.analysis.expression.coexpression.links;
+
+import org.junit.Before;
+import org.junit.Test;
+import ubic.gemma.core.datastructure.matrix.ExpressionDataDoubleMatrix;
+import ubic.gemma.core.datastructure.matrix.ExpressionDataTestMatrix;
+import ubic.gemma.model.expression.designElement.CompositeSequence;
+import ubic.gemma.model.genome.Gene;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the multithreaded, blocked computation and the computation without a correlation cache give the same
+ * results as the single-threaded one.
+ *
+ * @author agent
+ */
+public class PearsonMetricsTest {
+
+    private ExpressionDataDoubleMatrix testData;
+    private Map<CompositeSequence, Set<Gene>> probeToGeneMap;
+
+    @Before
+    public void setUp() throws Exception {
+        testData = new ExpressionDataTestMatrix();
+        probeToGeneMap = new HashMap<>();
+        long id = 0;
+        for ( CompositeSequence cs : testData.getRowNames() ) {
+            Gene g = Gene.Factory.newInstance();
+            g.setId( ++id );
+            probeToGeneMap.put( cs, Collections.singleton( g ) );
+        }
+        // probes on the same gene should be rejected as cross-hybridizing
+        CompositeSequence first = testData.getRowNames().get( 0 );
+        probeToGeneMap.put( testData.getRowNames().get( 1 ), probeToGeneMap.get( first ) );
+    }
+
+    @Test
+    public void testBlockedPearson() {
+        PearsonMetrics sequential = new PearsonMetrics( testData, 0.8 );
+        PearsonMetrics blocked = new PearsonMetrics( testData, 0.8 );
+        this.compare( sequential, blocked );
+        assertEquals( sequential.numCached(), blocked.numCached() );
+    }
+
+    @Test
+    public void testBlockedSpearman() {
+        this.compare( new SpearmanMetrics( testData, 0.8 ), new SpearmanMetrics( testData, 0.8 ) );
+    }
+
+    @Test
+    public void testStreamingPearson() {
+        PearsonMetrics streaming = new PearsonMetrics( testData, 0.8 );
+        streaming.nullMatrix();
+        this.compare( new PearsonMetrics( testData, 0.8 ), streaming, 1 );
+    }
+
+    @Test
+    public void testStreamingBlockedSpearman() {
+        SpearmanMetrics streaming = new SpearmanMetrics( testData, 0.8 );
+        streaming.nullMatrix();
+        this.compare( new SpearmanMetrics( testData, 0.8 ), streaming, 4 );
+    }
+
+    private void compare( PearsonMetrics sequential, PearsonMetrics other ) {
+        this.compare( sequential, other, 4 );
+    }
+
+    private void compare( PearsonMetrics sequential, PearsonMetrics other, int numThreads ) {
+        assertTrue( testData.rows() > PearsonMetrics.TILE_SIZE );
+        this.configure( sequential, 1 );
+        this.configure( other, numThreads );
+
+        assertEquals( sequential.getHistogramArrayList(), other.getHistogramArrayList() );
+        assertEquals( sequential.getCrossHybridizationRejections(), other.getCrossHybridizationRejections() );
+
+        LinkList expected = sequential.getKeepers();
+        LinkList actual = other.getKeepers();
+        assertTrue( expected.size() > 0 );
+        assertEquals( expected.size(), actual.size() );
+        for ( int k = 0; k < expected.size(); k++ ) {
+            assertEquals( expected.getx( k ), actual.getx( k ) );
+            assertEquals( expected.gety( k ), actual.gety( k ) );
+            assertEquals( expected.getWeight( k ), actual.getWeight( k ), 0.0 );
+        }
+    }
+
+    private void configure( PearsonMetrics metrics, int numThreads ) {
+        metrics.setDuplicateMap( probeToGeneMap );
+        metrics.setNumThreads( numThreads );
+        metrics.calculateMetrics();
+        metrics.setUsePvalueThreshold( false );
+        metrics.setUpperTailThreshold( 0.5 );
+        metrics.setLowerTailThreshold( -0.5 );
+        metrics.calculateMetrics();
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * The Gemma project
+ *
+ * Copyright (c) 2026 University of British Columbia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package ubic.gemma.core.analysis.expression.diff;
+
+import org.junit.Before;
+import org.junit.Test;
+import ubic.gemma.model.analysis.expression.diff.ContrastResult;
+import ubic.gemma.model.analysis.expression.diff.DifferentialExpressionAnalysisResult;
+import ubic.gemma.model.analysis.expression.diff.ExpressionAnalysisResultSet;
+import ubic.gemma.model.expression.designElement.CompositeSequence;
+import ubic.gemma.model.expression.experiment.FactorValue;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author agent
+ */
+public class DifferentialExpressionResultColumnsTest {
+
+    private DifferentialExpressionResultColumns columns;
+
+    /*
+     * Three results with two contrasts; the third result has no p-values and is missing the second contrast.
+     */
+    @Before
+    public void setUp() {
+        FactorValue fv1 = this.factorValue( 20L );
+        FactorValue fv2 = this.factorValue( 10L );
+
+        ExpressionAnalysisResultSet rs = ExpressionAnalysisResultSet.Factory.newInstance();
+        rs.setId( 1L );
+        rs.setResults( new HashSet<>() );
+        rs.getResults().add( this.result( 100L, "p1", 0.01, 0.2, fv1, fv2 ) );
+        rs.getResults().add( this.result( 101L, "p2", 0.001, 0.02, fv1, fv2 ) );
+        rs.getResults().add( this.result( 102L, "p3", null, null, fv1, null ) );
+        columns = DifferentialExpressionResultColumns.fromResultSet( rs );
+    }
+
+    @Test
+    public void testColumns() {
+        assertEquals( 3, columns.size() );
+        assertEquals( 2, columns.getNumContrasts() );
+        assertEquals( Long.valueOf( 1L ), columns.getResultSetId() );
+
+        // sorted by corrected p-value, missing last
+        assertEquals( 101L, columns.getResultId( 0 ) );
+        assertEquals( 100L, columns.getResultId( 1 ) );
+        assertEquals( 102L, columns.getResultId( 2 ) );
+        assertEquals( "p2", columns.getProbeName( 0 ) );
+        assertEquals( 1101L, columns.getProbeId( 0 ) );
+        assertEquals( 0.02, columns.getCorrectedPvalue( 0 ), 1e-10 );
+        assertNull( columns.getPvalue( 2 ) );
+
+        // contrasts are ordered by factor value ID
+        assertEquals( Long.valueOf( 10L ), columns.getFactorValueId( 0 ) );
+        assertEquals( Long.valueOf( 20L ), columns.getFactorValueId( 1 ) );
+        assertNull( columns.getSecondFactorValueId( 0 ) );
+        assertEquals( Long.valueOf( 101L * 10 + 10 ), columns.getContrastId( 0, 0 ) );
+        assertEquals( 10.0, columns.getLogFoldChange( 0, 0 ), 1e-10 );
+        assertNull( columns.getContrastId( 0, 2 ) );
+        assertNull( columns.getLogFoldChange( 0, 2 ) );
+        assertNotNull( columns.getContrastId( 1, 2 ) );
+    }
+
+    @Test
+    public void testCountTopHits() {
+        assertEquals( 1, columns.countTopHits( 0.05, null, 1 ) );
+        assertEquals( 2, columns.countTopHits( 0.5, null, 1 ) );
+        assertEquals( 1, columns.countTopHits( 0.5, 1, 1 ) );
+        // too few meet the threshold, so the top ones are returned
+        assertEquals( 2, columns.countTopHits( 0.001, null, 2 ) );
+        assertEquals( 3, columns.countTopHits( 1.0, null, 10 ) );
+    }
+
+    @Test
+    public void testPvalueDistribution() {
+        double[] counts = columns.getPvalueDistribution( 100 );
+        assertEquals( 100, counts.length );
+        assertEquals( 1.0, counts[0], 0.0 );
+        assertEquals( 1.0, counts[1], 0.0 );
+        assertEquals( 2.0, counts[0] + counts[1] + counts[99], 0.0 );
+    }
+
+    @Test
+    public void testWriteAndRead() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        columns.write( new DataOutputStream( bytes ) );
+        DifferentialExpressionResultColumns copy = DifferentialExpressionResultColumns
+                .read( new DataInputStream( new ByteArrayInputStream( bytes.toByteArray() ) ) );
+        assertEquals( columns.getResultSetId(), copy.getResultSetId() );
+        assertEquals( columns.size(), copy.size() );
+        assertEquals( columns.getNumContrasts(), copy.getNumContrasts() );
+        for ( int i = 0; i < columns.size(); i++ ) {
+            assertEquals( columns.getResultId( i ), copy.getResultId( i ) );
+            assertEquals( columns.getProbeName( i ), copy.getProbeName( i ) );
+            assertEquals( columns.getPvalue( i ), copy.getPvalue( i ) );
+            for ( int j = 0; j < columns.getNumContrasts(); j++ ) {
+                assertEquals( columns.getContrastId( j, i ), copy.getContrastId( j, i ) );
+                assertEquals( columns.getTstat( j, i ), copy.getTstat( j, i ) );
+            }
+        }
+        assertEquals( columns.getFactorValueId( 1 ), copy.getFactorValueId( 1 ) );
+        assertNull( copy.getSecondFactorValueId( 1 ) );
+    }
+
+    @Test
+    public void testReadOtherVersion() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        columns.write( new DataOutputStream( bytes ) );
+        byte[] b = bytes.toByteArray();
+        b[7]++; // last byte of the version
+        try {
+            DifferentialExpressionResultColumns.read( new DataInputStream( new ByteArrayInputStream( b ) ) );
+            fail( "Expected an exception" );
+        } catch ( IOException e ) {
+            assertTrue( e.getMessage().contains( "version" ) );
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testReadNotColumns() throws IOException {
+        DifferentialExpressionResultColumns
+                .read( new DataInputStream( new ByteArrayInputStream( "not columns".getBytes() ) ) );
+    }
+
+    @Test(expected = EOFException.class)
+    public void testReadTruncated() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        columns.write( new DataOutputStream( bytes ) );
+        byte[] b = Arrays.copyOf( bytes.toByteArray(), bytes.size() - 1 );
+        DifferentialExpressionResultColumns.read( new DataInputStream( new ByteArrayInputStream( b ) ) );
+    }
+
+    private FactorValue factorValue( Long id ) {
+        FactorValue fv = FactorValue.Factory.newInstance();
+        fv.setId( id );
+        return fv;
+    }
+
+    private DifferentialExpressionAnalysisResult result( Long id, String probeName, Double pvalue,
+            Double correctedPvalue, FactorValue fv1, FactorValue fv2 ) {
+        CompositeSequence probe = CompositeSequence.Factory.newInstance();
+        probe.setId( id + 1000 );
+        probe.setName( probeName );
+
+        DifferentialExpressionAnalysisResult r = DifferentialExpressionAnalysisResult.Factory.newInstance();
+        r.setId( id );
+        r.setProbe( probe );
+        r.setPvalue( pvalue );
+        r.setCorrectedPvalue( correctedPvalue );
+        r.setRank( 0.5 );
+        r.setContrasts( new HashSet<>() );
+        for ( FactorValue fv : new FactorValue[] { fv1, fv2 } ) {
+            if ( fv == null )
+                continue;
+            ContrastResult c = ContrastResult.Factory.newInstance();
+            c.setId( id * 10 + fv.getId() );
+            c.setFactorValue( fv );
+            c.setLogFoldChange( fv.getId().doubleValue() );
+            c.setTstat( 1.0 );
+            c.setPvalue( pvalue );
+            r.getContrasts().add( c );
+        }
+        return r;
+    }
+}
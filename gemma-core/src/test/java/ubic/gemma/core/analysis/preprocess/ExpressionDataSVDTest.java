@@ -128,6 +128,38 @@ public class ExpressionDataSVDTest {
         assertTrue( RegressionTesting.closeEnough( actualEigenValues, eigenvalues, 0.01 ) );
     }
 
+    @Test
+    public void testTruncated() {
+        ExpressionDataSVD full = new ExpressionDataSVD( new ExpressionDataTestMatrix(), true );
+        ExpressionDataSVD truncated = new ExpressionDataSVD( new ExpressionDataTestMatrix(), true, 5 );
+
+        assertTrue( truncated.isTruncated() );
+        assertEquals( 5, truncated.getNumComponents() );
+        assertEquals( 5, truncated.getV().columns() );
+        assertEquals( full.getV().rows(), truncated.getV().rows() );
+        assertEquals( full.getU().rows(), truncated.getU().rows() );
+
+        double[] expected = full.getSingularValues();
+        double[] actual = truncated.getSingularValues();
+        for ( int i = 0; i < actual.length; i++ ) {
+            assertEquals( expected[i], actual[i], 0.02 * expected[i] );
+        }
+
+        assertEquals( full.getTotalVariance(), truncated.getTotalVariance(), 1e-6 * full.getTotalVariance() );
+        assertEquals( full.getVarianceFractions()[0], truncated.getVarianceFractions()[0], 0.01 );
+        assertTrue( truncated.getTruncationError() > 0 && truncated.getTruncationError() < 1 );
+
+        ExpressionDataDoubleMatrix svdNormalize = truncated.removeHighestComponents( 1 );
+        assertEquals( full.getU().rows(), svdNormalize.rows() );
+
+        try {
+            truncated.equalize();
+            fail( "Should have gotten an exception" );
+        } catch ( IllegalStateException e ) {
+            //
+        }
+    }
+
     /*
      * See testEigenvalues
      * 
@@ -44,7 +44,11 @@ import org.junit.Test;
 import ubic.basecode.dataStructure.matrix.DoubleMatrix;
 import ubic.basecode.io.reader.DoubleMatrixReader;
 import ubic.gemma.core.analysis.preprocess.normalize.QuantileNormalizer;
+import ubic.gemma.core.analysis.preprocess.normalize.StreamingQuantileNormalizer;
 
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
 /**
@@ -86,4 +90,30 @@ public class QuantileNormalizerTest {
             assertEquals( tester.getRowName( i ), result.getRowName( i ) );
         }
     }
+
+    @Test
+    public void testNormalizeColumnsWithMissingAndTies() {
+        double[][] columns = new double[][] { { 5.0, 2.0, 3.0 }, { 4.0, 1.0, 4.0 }, { 3.0, Double.NaN, 6.0 } };
+        QuantileNormalizer.normalizeColumns( columns );
+
+        // quantile means: (2 + 1 + 3) / 3, (3 + 4 + 6) / 3, (5 + 4) / 2
+        assertArrayEquals( new double[] { 4.5, 2.0, 13.0 / 3.0 }, columns[0], 1e-10 );
+        // tied values share the means of the quantiles they span
+        double tied = ( 13.0 / 3.0 + 4.5 ) / 2;
+        assertArrayEquals( new double[] { tied, 2.0, tied }, columns[1], 1e-10 );
+        assertArrayEquals( new double[] { 2.0, Double.NaN, 13.0 / 3.0 }, columns[2], 1e-10 );
+    }
+
+    @Test
+    public void testStreamingNormalize() throws IOException {
+        DoubleMatrix<String, String> result = qn.normalize( tester );
+        try ( StreamingQuantileNormalizer sqn = new StreamingQuantileNormalizer( tester.rows(), null ) ) {
+            for ( int j = 0; j < tester.columns(); j++ ) {
+                assertEquals( j, sqn.addColumn( tester.getColumn( j ) ) );
+            }
+            for ( int j = 0; j < tester.columns(); j++ ) {
+                assertArrayEquals( result.getColumn( j ), sqn.getNormalizedColumn( j ), 1e-10 );
+            }
+        }
+    }
 }
@@ -16,15 +16,26 @@ package ubic.gemma.core.analysis.preprocess;
 
 import org.junit.Test;
 import org.springframework.beans.factory.annotation.Autowired;
+import ubic.basecode.dataStructure.matrix.DenseDoubleMatrix;
 import ubic.basecode.dataStructure.matrix.DoubleMatrix;
+import ubic.basecode.io.ByteArrayConverter;
+import ubic.basecode.math.MatrixStats;
+import ubic.gemma.core.analysis.preprocess.filter.FilterConfig;
 import ubic.gemma.core.analysis.preprocess.filter.FilteringException;
 import ubic.gemma.core.analysis.preprocess.filter.NoRowsLeftAfterFilteringException;
+import ubic.gemma.core.analysis.service.ExpressionDataMatrixService;
+import ubic.gemma.core.datastructure.matrix.ExpressionDataDoubleMatrix;
 import ubic.gemma.core.util.test.BaseSpringContextTest;
 import ubic.gemma.model.expression.bioAssay.BioAssay;
+import ubic.gemma.model.expression.bioAssayData.ProcessedExpressionDataVector;
+import ubic.gemma.model.expression.biomaterial.BioMaterial;
+import ubic.gemma.model.expression.designElement.CompositeSequence;
 import ubic.gemma.model.expression.experiment.ExpressionExperiment;
 import ubic.gemma.persistence.service.analysis.expression.sampleCoexpression.SampleCoexpressionAnalysisService;
 import ubic.gemma.persistence.service.expression.bioAssayData.ProcessedExpressionDataVectorService;
 
+import java.util.Collection;
+
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
@@ -37,6 +48,8 @@ public class SampleCoexpressionAnalysisServiceTest extends BaseSpringContextTest
     private ProcessedExpressionDataVectorService processedExpressionDataVectorService;
     @Autowired
     private SampleCoexpressionAnalysisService sampleCoexpressionAnalysisService;
+    @Autowired
+    private ExpressionDataMatrixService expressionDataMatrixService;
 
     @Test
     public void test() throws FilteringException {
@@ -59,6 +72,61 @@ public class SampleCoexpressionAnalysisServiceTest extends BaseSpringContextTest
         this.check( matrix );
     }
 
+    /**
+     * The correlations are updated from the previous ones when only some samples changed; they must be the same as
+     * those computed directly from the filtered processed data.
+     */
+    @Test
+    public void testRecomputeAfterSampleChanged() throws FilteringException {
+        ExpressionExperiment ee = super.getTestPersistentCompleteExpressionExperiment( false );
+
+        processedExpressionDataVectorService.computeProcessedExpressionData( ee );
+        sampleCoexpressionAnalysisService.compute( ee );
+
+        // change the data of the first sample only
+        ByteArrayConverter converter = new ByteArrayConverter();
+        Collection<ProcessedExpressionDataVector> vectors = processedExpressionDataVectorService
+                .getProcessedDataVectors( ee );
+        processedExpressionDataVectorService.thaw( vectors );
+        for ( ProcessedExpressionDataVector v : vectors ) {
+            double[] data = converter.byteArrayToDoubles( v.getData() );
+            data[0] = 2 * data[0] + 1;
+            v.setData( converter.doubleArrayToBytes( data ) );
+        }
+        processedExpressionDataVectorService.update( vectors );
+
+        sampleCoexpressionAnalysisService.compute( ee );
+        DoubleMatrix<BioAssay, BioAssay> matrix = sampleCoexpressionAnalysisService.loadFullMatrix( ee );
+        this.check( matrix );
+
+        DoubleMatrix<BioAssay, BioAssay> expected = this.correlations( ee );
+        for ( BioAssay a : matrix.getRowNames() ) {
+            for ( BioAssay b : matrix.getColNames() ) {
+                assertEquals( expected.get( expected.getRowIndexByName( a ), expected.getColIndexByName( b ) ),
+                        matrix.get( matrix.getRowIndexByName( a ), matrix.getColIndexByName( b ) ), 1e-10 );
+            }
+        }
+    }
+
+    /**
+     * @return the correlations computed from scratch, from the data filtered the same way as the service does.
+     */
+    private DoubleMatrix<BioAssay, BioAssay> correlations( ExpressionExperiment ee ) throws FilteringException {
+        FilterConfig config = new FilterConfig();
+        config.setIgnoreMinimumRowsThreshold( true );
+        config.setIgnoreMinimumSampleThreshold( true );
+        config.setRequireSequences( true );
+        ExpressionDataDoubleMatrix data = expressionDataMatrixService
+                .getFilteredMatrix( ee, config, processedExpressionDataVectorService.getProcessedDataVectors( ee ) );
+        DoubleMatrix<BioMaterial, CompositeSequence> transposeR = data.getMatrix().transpose();
+        DoubleMatrix<BioAssay, CompositeSequence> transpose = new DenseDoubleMatrix<>( transposeR.getRawMatrix() );
+        transpose.setColumnNames( transposeR.getColNames() );
+        for ( int i = 0; i < transpose.rows(); i++ ) {
+            transpose.setRowName( transposeR.getRowName( i ).getBioAssaysUsedIn().iterator().next(), i );
+        }
+        return MatrixStats.correlationMatrix( transpose );
+    }
+
     /**
      * Sanity checks: should be symmetric etc.
      *
@@ -0,0 +1,200 @@
+/*
+ * The Gemma project
+ *
+ * Copyright (c) 2026 University of British Columbia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ubic.gemma.core.analysis.report;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import ubic.gemma.core.visualization.ExperimentalDesignVisualizationService;
+import ubic.gemma.model.expression.experiment.ExpressionExperiment;
+import ubic.gemma.model.expression.experiment.ExpressionExperimentDetailsValueObject;
+import ubic.gemma.persistence.service.analysis.expression.diff.DifferentialExpressionAnalysisService;
+import ubic.gemma.persistence.service.expression.bioAssayData.ProcessedDataVectorCache;
+import ubic.gemma.persistence.service.expression.experiment.ExpressionExperimentService;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.InputStream;
+import java.util.*;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Regenerating only the reports of the experiments updated since the last refresh, without a database.
+ *
+ * @author agent
+ */
+public class ExpressionExperimentReportRefreshTest {
+
+    @Rule
+    public MockitoRule rule = MockitoJUnit.rule();
+
+    @Mock
+    private ExpressionExperimentService expressionExperimentService;
+
+    @Mock
+    private DifferentialExpressionAnalysisService differentialExpressionAnalysisService;
+
+    @Mock
+    private ExperimentalDesignVisualizationService experimentalDesignVisualizationService;
+
+    @Mock
+    private ProcessedDataVectorCache processedDataVectorCache;
+
+    @Mock
+    private CacheManager cacheManager;
+
+    @InjectMocks
+    private ExpressionExperimentReportServiceImpl reportService;
+
+    private final List<Collection<Long>> generated = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        Cache cache = new Cache( "test", 100, false, true, 0, 0 );
+        cache.initialise();
+        when( cacheManager.cacheExists( anyString() ) ).thenReturn( true );
+        when( cacheManager.getCache( anyString() ) ).thenReturn( cache );
+
+        List<ExpressionExperiment> ees = new ArrayList<>();
+        for ( long id = 1; id <= 3; id++ ) {
+            ees.add( this.ee( id ) );
+        }
+        when( expressionExperimentService.loadAll() ).thenReturn( ees );
+        when( expressionExperimentService.loadDetailsValueObjects( anyCollection() ) ).thenAnswer( invocation -> {
+            Collection<Long> ids = invocation.getArgument( 0 );
+            generated.add( new HashSet<>( ids ) );
+            List<ExpressionExperimentDetailsValueObject> vos = new ArrayList<>();
+            for ( Long id : ids ) {
+                ExpressionExperimentDetailsValueObject vo = new ExpressionExperimentDetailsValueObject();
+                vo.setId( id );
+                vo.setLastUpdated( new Date() );
+                vos.add( vo );
+            }
+            return vos;
+        } );
+
+        reportService.afterPropertiesSet();
+    }
+
+    @Test
+    public void testRefreshUpdatedOnly() {
+        Date beforeGenerating = new Date();
+        reportService.generateSummaryObjects();
+        assertEquals( 1, generated.size() );
+        assertEquals( new HashSet<>( Arrays.asList( 1L, 2L, 3L ) ), generated.get( 0 ) );
+
+        generated.clear();
+        when( expressionExperimentService.findUpdatedAfter( any( Date.class ) ) )
+                .thenReturn( Collections.singleton( this.ee( 2L ) ) );
+        reportService.refreshSummaryObjects();
+
+        // only the updated experiment is regenerated, and it is evicted first
+        assertEquals( Collections.singletonList( Collections.singleton( 2L ) ), generated );
+        verify( processedDataVectorCache ).clearCache( 2L );
+        verify( processedDataVectorCache, never() ).clearCache( 1L );
+        verify( expressionExperimentService, times( 1 ) ).loadAll();
+
+        // updates are looked for since the full generation started
+        verify( expressionExperimentService ).findUpdatedAfter( argThat( d -> !d.before( beforeGenerating ) ) );
+    }
+
+    @Test
+    public void testRefreshNothingUpdated() {
+        reportService.generateSummaryObjects();
+        generated.clear();
+        when( expressionExperimentService.findUpdatedAfter( any( Date.class ) ) )
+                .thenReturn( Collections.<ExpressionExperiment>emptySet() );
+        reportService.refreshSummaryObjects();
+        assertTrue( generated.isEmpty() );
+    }
+
+    /**
+     * The time of the last refresh is only in memory: a fresh instance, as after a restart, regenerates everything.
+     */
+    @Test
+    public void testFirstRefreshGeneratesAll() {
+        reportService.refreshSummaryObjects();
+        assertEquals( 1, generated.size() );
+        assertEquals( new HashSet<>( Arrays.asList( 1L, 2L, 3L ) ), generated.get( 0 ) );
+        verify( expressionExperimentService, never() ).findUpdatedAfter( any( Date.class ) );
+    }
+
+    /**
+     * The refresh is scheduled, run on the report service and registered with the scheduler.
+     */
+    @Test
+    public void testRefreshIsScheduled() throws Exception {
+        Document doc;
+        try ( InputStream is = this.getClass().getResourceAsStream( "/ubic/gemma/applicationContext-schedule.xml" ) ) {
+            assertNotNull( is );
+            doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse( is );
+        }
+        Map<String, Element> beans = new HashMap<>();
+        NodeList nodes = doc.getElementsByTagName( "bean" );
+        for ( int i = 0; i < nodes.getLength(); i++ ) {
+            Element bean = ( Element ) nodes.item( i );
+            beans.put( bean.getAttribute( "id" ), bean );
+        }
+
+        Element trigger = beans.get( "expressionExperimentReportRefreshTrigger" );
+        assertNotNull( trigger );
+        Element jobDetail = beans.get( this.property( trigger, "jobDetail" ).getAttribute( "ref" ) );
+        assertNotNull( jobDetail );
+        assertEquals( "expressionExperimentReportService", jobDetail.getAttribute( "p:targetObject-ref" ) );
+        assertEquals( "refreshSummaryObjects", this.property( jobDetail, "targetMethod" ).getAttribute( "value" ) );
+        assertFalse( this.property( trigger, "cronExpression" ).getAttribute( "value" ).isEmpty() );
+
+        boolean registered = false;
+        NodeList refs = this.property( beans.get( "schedulerFactoryBean" ), "triggers" ).getElementsByTagName( "ref" );
+        for ( int i = 0; i < refs.getLength(); i++ ) {
+            registered |= "expressionExperimentReportRefreshTrigger"
+                    .equals( ( ( Element ) refs.item( i ) ).getAttribute( "local" ) );
+        }
+        assertTrue( registered );
+    }
+
+    private Element property( Element bean, String name ) {
+        NodeList properties = bean.getElementsByTagName( "property" );
+        for ( int i = 0; i < properties.getLength(); i++ ) {
+            Element property = ( Element ) properties.item( i );
+            if ( name.equals( property.getAttribute( "name" ) ) ) {
+                return property;
+            }
+        }
+        fail( "No property " + name + " on " + bean.getAttribute( "id" ) );
+        return null;
+    }
+
+    private ExpressionExperiment ee( Long id ) {
+        ExpressionExperiment ee = ExpressionExperiment.Factory.newInstance();
+        ee.setId( id );
+        return ee;
+    }
+}
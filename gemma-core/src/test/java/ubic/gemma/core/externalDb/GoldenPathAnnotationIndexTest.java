@@ -0,0 +1,164 @@
+/*
+ * The Gemma project
+ *
+ * Copyright (c) 2026 University of British Columbia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ubic.gemma.core.externalDb;
+
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author agent
+ */
+public class GoldenPathAnnotationIndexTest {
+
+    @Test
+    public void testFindAlignments() throws SQLException {
+        FakeJdbcTemplate jdbcTemplate = new FakeJdbcTemplate();
+        jdbcTemplate.rows.add( GoldenPathAnnotationIndexTest.alignment( "exact", 100, 200, "+" ) );
+        jdbcTemplate.rows.add( GoldenPathAnnotationIndexTest.alignment( "inside", 120, 180, "+" ) );
+        jdbcTemplate.rows.add( GoldenPathAnnotationIndexTest.alignment( "touchesStart", 50, 100, "+" ) );
+        jdbcTemplate.rows.add( GoldenPathAnnotationIndexTest.alignment( "sameStart", 100, 150, "+" ) );
+        jdbcTemplate.rows.add( GoldenPathAnnotationIndexTest.alignment( "sameEnd", 150, 200, "+" ) );
+        jdbcTemplate.rows.add( GoldenPathAnnotationIndexTest.alignment( "spans", 50, 250, "+" ) );
+        jdbcTemplate.rows.add( GoldenPathAnnotationIndexTest.alignment( "otherStrand", 120, 180, "-" ) );
+        jdbcTemplate.rows.add( GoldenPathAnnotationIndexTest.alignment( "after", 300, 400, "+" ) );
+
+        GoldenPathAnnotationIndex index = new GoldenPathAnnotationIndex( jdbcTemplate,
+                Collections.singleton( GoldenPathAnnotationIndex.Track.MRNA ) );
+        assertTrue( index.isIndexed( GoldenPathAnnotationIndex.Track.MRNA ) );
+        assertFalse( index.isIndexed( GoldenPathAnnotationIndex.Track.EST ) );
+
+        // same as the strict comparisons of the query: alignments with exactly the bounds of the region are left out
+        assertEquals( new HashSet<>( Arrays.asList( "inside", "sameStart", "sameEnd", "spans" ) ),
+                GoldenPathAnnotationIndexTest
+                        .names( index.find( GoldenPathAnnotationIndex.Track.MRNA, "chr1", 100, 200, "+" ) ) );
+        assertEquals( new HashSet<>( Arrays.asList( "inside", "sameStart", "sameEnd", "spans", "otherStrand" ) ),
+                GoldenPathAnnotationIndexTest
+                        .names( index.find( GoldenPathAnnotationIndex.Track.MRNA, "chr1", 100, 200, null ) ) );
+        assertTrue( index.find( GoldenPathAnnotationIndex.Track.MRNA, "chr1", 401, 500, "+" ).isEmpty() );
+
+        // the chromosome is only loaded once
+        assertEquals( 1, jdbcTemplate.numQueries );
+    }
+
+    @Test
+    public void testFindTranscripts() throws SQLException {
+        FakeJdbcTemplate jdbcTemplate = new FakeJdbcTemplate();
+        jdbcTemplate.rows.add( GoldenPathAnnotationIndexTest.transcript( "exact", 100, 200, "+" ) );
+        jdbcTemplate.rows.add( GoldenPathAnnotationIndexTest.transcript( "touchesStart", 50, 100, "+" ) );
+        jdbcTemplate.rows.add( GoldenPathAnnotationIndexTest.transcript( "touchesEnd", 200, 300, "+" ) );
+        jdbcTemplate.rows.add( GoldenPathAnnotationIndexTest.transcript( "after", 201, 300, "+" ) );
+        jdbcTemplate.rows.add( GoldenPathAnnotationIndexTest.transcript( null, 100, 200, "+" ) );
+
+        GoldenPathAnnotationIndex index = new GoldenPathAnnotationIndex( jdbcTemplate,
+                Collections.singleton( GoldenPathAnnotationIndex.Track.REF_GENE ) );
+
+        // transcripts only have to touch the region, and those without a name are left out
+        assertEquals( new HashSet<>( Arrays.asList( "exact", "touchesStart", "touchesEnd" ) ),
+                GoldenPathAnnotationIndexTest
+                        .names( index.find( GoldenPathAnnotationIndex.Track.REF_GENE, "chr1", 100, 200, "+" ) ) );
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testFindNotIndexed() {
+        GoldenPathAnnotationIndex index = new GoldenPathAnnotationIndex( new FakeJdbcTemplate(),
+                Collections.singleton( GoldenPathAnnotationIndex.Track.MRNA ) );
+        index.find( GoldenPathAnnotationIndex.Track.EST, "chr1", 100, 200, "+" );
+    }
+
+    @Test
+    public void testOverlapsAlignmentQuery() {
+        assertTrue( GoldenPathAnnotationIndex.overlapsAlignmentQuery( 120, 180, 100, 200 ) );
+        assertTrue( GoldenPathAnnotationIndex.overlapsAlignmentQuery( 50, 250, 100, 200 ) );
+        assertTrue( GoldenPathAnnotationIndex.overlapsAlignmentQuery( 50, 101, 100, 200 ) );
+        assertTrue( GoldenPathAnnotationIndex.overlapsAlignmentQuery( 199, 250, 100, 200 ) );
+        assertFalse( GoldenPathAnnotationIndex.overlapsAlignmentQuery( 100, 200, 100, 200 ) );
+        assertFalse( GoldenPathAnnotationIndex.overlapsAlignmentQuery( 50, 100, 100, 200 ) );
+        assertFalse( GoldenPathAnnotationIndex.overlapsAlignmentQuery( 200, 250, 100, 200 ) );
+        assertFalse( GoldenPathAnnotationIndex.overlapsAlignmentQuery( 100, 250, 100, 200 ) );
+        assertFalse( GoldenPathAnnotationIndex.overlapsAlignmentQuery( 50, 200, 100, 200 ) );
+    }
+
+    private static Set<String> names( Collection<GoldenPathAnnotationIndex.Feature> features ) {
+        Set<String> names = new HashSet<>();
+        for ( GoldenPathAnnotationIndex.Feature feature : features ) {
+            names.add( feature.getName() );
+        }
+        return names;
+    }
+
+    /**
+     * A row of the mRNA query, without blocks.
+     */
+    private static ResultSet alignment( String name, int start, int end, String strand ) throws SQLException {
+        ResultSet rs = mock( ResultSet.class );
+        when( rs.getString( 1 ) ).thenReturn( name );
+        when( rs.getString( 2 ) ).thenReturn( name );
+        when( rs.getInt( 3 ) ).thenReturn( start );
+        when( rs.getInt( 4 ) ).thenReturn( end );
+        when( rs.getString( 5 ) ).thenReturn( strand );
+        return rs;
+    }
+
+    /**
+     * A row of the refSeq query, without exons, indexed at its own location.
+     */
+    private static ResultSet transcript( String name, int start, int end, String strand ) throws SQLException {
+        ResultSet rs = mock( ResultSet.class );
+        when( rs.getString( 1 ) ).thenReturn( name );
+        when( rs.getString( 2 ) ).thenReturn( name );
+        when( rs.getInt( 3 ) ).thenReturn( start );
+        when( rs.getInt( 4 ) ).thenReturn( end );
+        when( rs.getString( 5 ) ).thenReturn( strand );
+        when( rs.getString( 8 ) ).thenReturn( "Refseq gene: " + name );
+        when( rs.getInt( 9 ) ).thenReturn( start );
+        when( rs.getInt( 10 ) ).thenReturn( end );
+        when( rs.getString( 11 ) ).thenReturn( strand );
+        return rs;
+    }
+
+    /**
+     * Gives the same rows for every query.
+     */
+    private static class FakeJdbcTemplate extends JdbcTemplate {
+
+        private final List<ResultSet> rows = new ArrayList<>();
+        private int numQueries = 0;
+
+        @Override
+        public void query( String sql, Object[] args, RowCallbackHandler rch ) {
+            numQueries++;
+            for ( ResultSet rs : rows ) {
+                try {
+                    rch.processRow( rs );
+                } catch ( SQLException e ) {
+                    throw new IllegalStateException( e );
+                }
+            }
+        }
+    }
+}
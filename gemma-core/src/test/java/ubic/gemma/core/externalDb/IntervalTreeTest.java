@@ -0,0 +1,77 @@
+/*
+ * The Gemma project
+ *
+ * Copyright (c) 2026 University of British Columbia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ubic.gemma.core.externalDb;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author agent
+ */
+public class IntervalTreeTest {
+
+    @Test
+    public void testFind() {
+        IntervalTree<String> tree = new IntervalTree.Builder<String>().add( 100, 200, "a" ).add( 150, 160, "b" )
+                .add( 300, 400, "c" ).add( 10, 1000, "d" ).build();
+        assertEquals( 4, tree.size() );
+        assertEquals( new HashSet<>( Arrays.asList( "a", "b", "d" ) ), new HashSet<>( tree.find( 155, 155 ) ) );
+        assertEquals( new HashSet<>( Arrays.asList( "a", "c", "d" ) ), new HashSet<>( tree.find( 200, 300 ) ) );
+        assertEquals( Collections.singletonList( "d" ), tree.find( 201, 299 ) );
+        assertTrue( tree.find( 1001, 2000 ).isEmpty() );
+        assertTrue( tree.find( 0, 9 ).isEmpty() );
+        assertTrue( tree.find( 300, 200 ).isEmpty() );
+    }
+
+    @Test
+    public void testFindAgainstScan() {
+        Random random = new Random( 1 );
+        int[][] intervals = new int[1000][];
+        IntervalTree.Builder<Integer> builder = new IntervalTree.Builder<>();
+        for ( int i = 0; i < intervals.length; i++ ) {
+            int start = random.nextInt( 100000 );
+            int end = start + random.nextInt( 5000 );
+            intervals[i] = new int[] { start, end };
+            builder.add( start, end, i );
+        }
+        IntervalTree<Integer> tree = builder.build();
+
+        for ( int q = 0; q < 200; q++ ) {
+            int start = random.nextInt( 100000 );
+            int end = start + random.nextInt( 1000 );
+            Set<Integer> expected = new HashSet<>();
+            for ( int i = 0; i < intervals.length; i++ ) {
+                if ( intervals[i][0] <= end && intervals[i][1] >= start ) {
+                    expected.add( i );
+                }
+            }
+            Collection<Integer> found = tree.find( start, end );
+            assertEquals( expected.size(), found.size() );
+            assertEquals( expected, new HashSet<>( found ) );
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidInterval() {
+        new IntervalTree.Builder<String>().add( 10, 5, "a" );
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * The Gemma project
+ *
+ * Copyright (c) 2026 University of British Columbia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ubic.gemma.core.loader.expression;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+import ubic.basecode.dataStructure.matrix.DenseDoubleMatrix;
+import ubic.basecode.dataStructure.matrix.DoubleMatrix;
+import ubic.gemma.core.datastructure.matrix.ExpressionDataDoubleMatrix;
+import ubic.gemma.model.common.quantitationtype.QuantitationType;
+import ubic.gemma.model.expression.arrayDesign.ArrayDesign;
+import ubic.gemma.model.expression.bioAssay.BioAssay;
+import ubic.gemma.model.expression.bioAssayData.BioAssayDimension;
+import ubic.gemma.model.expression.biomaterial.BioMaterial;
+import ubic.gemma.model.expression.designElement.CompositeSequence;
+import ubic.gemma.model.expression.experiment.ExpressionExperiment;
+import ubic.gemma.persistence.service.expression.bioAssayData.BioAssayDimensionService;
+import ubic.gemma.persistence.service.expression.experiment.ExpressionExperimentService;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Persisting large data in batches, without a database.
+ *
+ * @author agent
+ */
+public class DataUpdaterBatchTest {
+
+    @Rule
+    public MockitoRule rule = MockitoJUnit.rule();
+
+    @Mock
+    private ExpressionExperimentService experimentService;
+
+    @Mock
+    private BioAssayDimensionService assayDimensionService;
+
+    @InjectMocks
+    private DataUpdater dataUpdater;
+
+    private ExpressionExperiment ee;
+    private ArrayDesign platform;
+    private QuantitationType qt;
+    private ExpressionDataDoubleMatrix data;
+
+    @Before
+    public void setUp() {
+        platform = ArrayDesign.Factory.newInstance();
+        platform.setId( 1L );
+        platform.setShortName( "test" );
+
+        ee = ExpressionExperiment.Factory.newInstance();
+        ee.setId( 1L );
+        ee.setShortName( "test" );
+        List<BioMaterial> samples = new ArrayList<>();
+        for ( long i = 1; i <= 2; i++ ) {
+            BioMaterial bm = BioMaterial.Factory.newInstance();
+            bm.setId( i );
+            bm.setName( "sample" + i );
+            BioAssay ba = BioAssay.Factory.newInstance();
+            ba.setId( i );
+            ba.setName( "assay" + i );
+            ba.setSampleUsed( bm );
+            bm.getBioAssaysUsedIn().add( ba );
+            ee.getBioAssays().add( ba );
+            samples.add( bm );
+        }
+
+        List<CompositeSequence> elements = new ArrayList<>();
+        for ( long i = 1; i <= 5; i++ ) {
+            CompositeSequence cs = CompositeSequence.Factory.newInstance();
+            cs.setId( i );
+            cs.setName( "probe" + i );
+            cs.setArrayDesign( platform );
+            elements.add( cs );
+        }
+
+        DoubleMatrix<CompositeSequence, BioMaterial> matrix = new DenseDoubleMatrix<>( new double[5][2] );
+        matrix.setRowNames( elements );
+        matrix.setColumnNames( samples );
+        qt = QuantitationType.Factory.newInstance();
+        qt.setName( "test" );
+        data = new ExpressionDataDoubleMatrix( ee, qt, matrix );
+
+        when( assayDimensionService.findOrCreate( any( BioAssayDimension.class ) ) )
+                .then( invocation -> invocation.getArgument( 0 ) );
+    }
+
+    @Test
+    public void testReplace() {
+        when( experimentService.addRawVectors( eq( ee ), anyCollection() ) ).thenReturn( ee );
+        when( experimentService.removeOtherRawVectors( ee, qt ) ).thenReturn( ee );
+
+        assertSame( ee, dataUpdater.persistVectorsInBatches( ee, platform, data, qt, true, 2 ) );
+
+        // the old vectors are only removed once all the new ones are in
+        verify( experimentService, times( 3 ) ).addRawVectors( eq( ee ), anyCollection() );
+        verify( experimentService ).removeOtherRawVectors( ee, qt );
+        verify( experimentService, never() ).removeRawVectors( any( ExpressionExperiment.class ),
+                any( QuantitationType.class ) );
+    }
+
+    @Test
+    public void testReplaceFailsPartWay() {
+        RuntimeException failure = new RuntimeException( "second batch failed" );
+        when( experimentService.addRawVectors( eq( ee ), anyCollection() ) ).thenReturn( ee ).thenThrow( failure );
+
+        try {
+            dataUpdater.persistVectorsInBatches( ee, platform, data, qt, true, 2 );
+            fail( "Expected the failure of the second batch" );
+        } catch ( RuntimeException e ) {
+            assertSame( failure, e );
+        }
+
+        // the first batch is removed again, and the old vectors are left alone
+        verify( experimentService ).removeRawVectors( ee, qt );
+        verify( experimentService, never() ).removeOtherRawVectors( any( ExpressionExperiment.class ),
+                any( QuantitationType.class ) );
+    }
+
+    @Test
+    public void testFailureOfFirstBatchRemovesNothing() {
+        when( experimentService.addRawVectors( eq( ee ), anyCollection() ) )
+                .thenThrow( new RuntimeException( "first batch failed" ) );
+
+        try {
+            dataUpdater.persistVectorsInBatches( ee, platform, data, qt, false, 2 );
+            fail( "Expected the failure of the first batch" );
+        } catch ( RuntimeException e ) {
+            // expected
+        }
+
+        verify( experimentService, never() ).removeRawVectors( any( ExpressionExperiment.class ),
+                any( QuantitationType.class ) );
+        verify( experimentService, never() ).removeOtherRawVectors( any( ExpressionExperiment.class ),
+                any( QuantitationType.class ) );
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * The Gemma project
+ *
+ * Copyright (c) 2026 University of British Columbia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ubic.gemma.core.loader.expression.arrayDesign;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+import ubic.gemma.model.expression.designElement.CompositeSequence;
+import ubic.gemma.model.genome.Gene;
+import ubic.gemma.model.genome.gene.GeneProduct;
+import ubic.gemma.model.genome.sequenceAnalysis.BlatAssociation;
+import ubic.gemma.persistence.persister.Persister;
+import ubic.gemma.persistence.service.genome.gene.GeneProductService;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Writing blat associations from the queue of
+ * {@link ArrayDesignProbeMapperServiceImpl.AssociationWriter}, without a database.
+ *
+ * @author agent
+ */
+public class AssociationWriterTest {
+
+    @Rule
+    public MockitoRule rule = MockitoJUnit.rule();
+
+    @Mock
+    private Persister persister;
+
+    @Mock
+    private GeneProductService geneProductService;
+
+    @InjectMocks
+    private ArrayDesignProbeMapperServiceImpl service;
+
+    private GeneProduct existing;
+
+    private final List<Collection<?>> persisted = Collections.synchronizedList( new ArrayList<Collection<?>>() );
+
+    @Before
+    public void setUp() {
+        existing = GeneProduct.Factory.newInstance();
+        existing.setId( 1L );
+        existing.setName( "NM_1" );
+
+        when( geneProductService.find( argThat( gp -> gp != null && "NM_1".equals( gp.getName() ) ) ) )
+                .thenReturn( existing );
+        when( geneProductService.findByName( anyString(), any() ) ).thenReturn( Collections.emptySet() );
+    }
+
+    @Test
+    public void testWriteInBatches() throws InterruptedException {
+        // hold the first batch, so the rest pile up in the queue and are drained together
+        final CountDownLatch firstBatch = new CountDownLatch( 1 );
+        when( persister.persist( anyCollection() ) ).thenAnswer( invocation -> {
+            firstBatch.await( 10, TimeUnit.SECONDS );
+            persisted.add( new ArrayList<>( ( Collection<?> ) invocation.getArgument( 0 ) ) );
+            return invocation.getArgument( 0 );
+        } );
+
+        ArrayDesignProbeMapperServiceImpl.AssociationWriter writer = service.new AssociationWriter( true, 3, 1 );
+        List<BlatAssociation> associations = new ArrayList<>();
+        for ( int i = 0; i < 10; i++ ) {
+            BlatAssociation ba = this.association( "NM_1" );
+            associations.add( ba );
+            writer.add( service.new BACS( CompositeSequence.Factory.newInstance(), ba ) );
+        }
+        for ( int i = 0; i < 5; i++ ) {
+            writer.add( service.new BACS( CompositeSequence.Factory.newInstance(), this.association( "NM_2" ) ) );
+        }
+        firstBatch.countDown();
+        writer.finish();
+
+        int numPersisted = 0;
+        boolean fullBatch = false;
+        for ( Collection<?> batch : persisted ) {
+            assertTrue( batch.size() <= 3 );
+            fullBatch |= batch.size() == 3;
+            numPersisted += batch.size();
+        }
+        assertTrue( fullBatch );
+        // the ones not in Gemma are skipped
+        assertEquals( 10, numPersisted );
+        for ( BlatAssociation ba : associations ) {
+            assertSame( existing, ba.getGeneProduct() );
+        }
+
+        // each gene product is only looked up once, whether it is in Gemma or not
+        verify( geneProductService, times( 1 ) ).find( argThat( gp -> gp != null && "NM_1".equals( gp.getName() ) ) );
+        verify( geneProductService, times( 1 ) ).find( argThat( gp -> gp != null && "NM_2".equals( gp.getName() ) ) );
+    }
+
+    @Test(timeout = 30000)
+    public void testWriteFailure() throws InterruptedException {
+        when( persister.persist( anyCollection() ) ).thenThrow( new IllegalStateException( "failed on purpose" ) );
+
+        ArrayDesignProbeMapperServiceImpl.AssociationWriter writer = service.new AssociationWriter( true, 3, 1 );
+
+        // the failure is reported to the thread adding, once the writer has hit it
+        RuntimeException failure = null;
+        while ( failure == null ) {
+            try {
+                writer.add( service.new BACS( CompositeSequence.Factory.newInstance(), this.association( "NM_1" ) ) );
+                Thread.sleep( 10 );
+            } catch ( RuntimeException e ) {
+                failure = e;
+            }
+        }
+        assertTrue( failure.getCause() instanceof IllegalStateException );
+
+        // and again when finishing
+        try {
+            writer.finish();
+            fail( "Expected the failure to be reported" );
+        } catch ( RuntimeException e ) {
+            assertTrue( e.getCause() instanceof IllegalStateException );
+        }
+    }
+
+    /**
+     * What the mapping does when it fails: abort, then finish. The writers must drop the queue and stop.
+     */
+    @Test(timeout = 30000)
+    public void testAbort() {
+        final CountDownLatch firstBatch = new CountDownLatch( 1 );
+        when( persister.persist( anyCollection() ) ).thenAnswer( invocation -> {
+            firstBatch.await( 10, TimeUnit.SECONDS );
+            return invocation.getArgument( 0 );
+        } );
+
+        ArrayDesignProbeMapperServiceImpl.AssociationWriter writer = service.new AssociationWriter( true, 3, 1 );
+        for ( int i = 0; i < 100; i++ ) {
+            writer.add( service.new BACS( CompositeSequence.Factory.newInstance(), this.association( "NM_1" ) ) );
+        }
+        writer.abort();
+        firstBatch.countDown();
+        writer.finish();
+
+        // at most the batch being written when it was aborted
+        verify( persister, atMost( 1 ) ).persist( anyCollection() );
+    }
+
+    private BlatAssociation association( String geneProductName ) {
+        Gene gene = Gene.Factory.newInstance();
+        gene.setOfficialSymbol( "G" + geneProductName );
+        GeneProduct geneProduct = GeneProduct.Factory.newInstance();
+        geneProduct.setName( geneProductName );
+        geneProduct.setGene( gene );
+        BlatAssociation ba = BlatAssociation.Factory.newInstance();
+        ba.setGeneProduct( geneProduct );
+        return ba;
+    }
+}
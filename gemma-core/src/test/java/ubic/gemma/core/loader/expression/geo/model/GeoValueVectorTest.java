@@ -0,0 +1,104 @@
+/*
+ * The Gemma project
+ *
+ * Copyright (c) 2026 University of British Columbia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ubic.gemma.core.loader.expression.geo.model;
+
+import org.apache.commons.lang3.SerializationUtils;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author agent
+ */
+public class GeoValueVectorTest {
+
+    @Test
+    public void testIntegers() {
+        GeoValueVector v = this.vector( "1", " ", "-3", "+4" );
+        v.pad( 5 );
+        assertTrue( v.isInteger() );
+        assertEquals( 5, v.size() );
+        assertEquals( 2, v.getNumMissing() );
+        assertEquals( Arrays.asList( "1", "", "-3", "4", null ), v.toList() );
+        assertArrayEquals( new int[] { 1, 0, -3, 4, 0 }, v.getInts() );
+        double[] d = v.getDoubles();
+        assertEquals( 1.0, d[0], 0.0 );
+        assertTrue( Double.isNaN( d[1] ) );
+        assertTrue( Double.isNaN( d[4] ) );
+    }
+
+    @Test
+    public void testDoubles() {
+        GeoValueVector v = this.vector( "1", "2.5", "1e-3", "NaN", "12345678901" );
+        assertTrue( v.isNumeric() );
+        assertFalse( v.isInteger() );
+        assertEquals( 0, v.getNumMissing() );
+        assertEquals( "1", v.get( 0 ) );
+        assertEquals( 0.001, Double.parseDouble( ( String ) v.get( 2 ) ), 0.0 );
+        assertEquals( 12345678901.0, v.getDoubles()[4], 0.0 );
+        assertTrue( Double.isNaN( v.getDoubles()[3] ) );
+    }
+
+    @Test
+    public void testNonNumericValuesAreKeptAsGiven() {
+        GeoValueVector v = this.vector( "1", "2.5", "", "Error", " 3" );
+        assertFalse( v.isNumeric() );
+        assertEquals( Arrays.asList( "1", "2.5", "", "Error", " 3" ), v.toList() );
+        assertEquals( 1, v.getNumMissing() );
+    }
+
+    @Test
+    public void testSlice() {
+        GeoValueVector v = this.vector( "1", "2", "3.5" );
+        GeoValueVector s = v.slice( new Integer[] { 2, null, 0 } );
+        assertEquals( Arrays.asList( "3.5", null, "1" ), s.toList() );
+        assertTrue( s.hasValues() );
+        assertFalse( new GeoValueVector().slice( new Integer[] { null } ).hasValues() );
+    }
+
+    @Test
+    public void testAddFromOtherVector() {
+        GeoValueVector ints = this.vector( "1", "2" );
+        GeoValueVector doubles = this.vector( "0.5" );
+        GeoValueVector strings = this.vector( "A" );
+
+        GeoValueVector v = new GeoValueVector();
+        v.add( ints, 1 );
+        v.add( doubles, 0 );
+        assertTrue( v.isNumeric() );
+        v.add( strings, 0 );
+        assertEquals( Arrays.asList( "2", "0.5", "A" ), v.toList() );
+    }
+
+    @Test
+    public void testSerialization() {
+        GeoValueVector v = this.vector( "1", "2.5", "" );
+        assertEquals( v.toList(), SerializationUtils.clone( v ).toList() );
+    }
+
+    private GeoValueVector vector( String... values ) {
+        GeoValueVector v = new GeoValueVector();
+        for ( String s : values ) {
+            v.add( s );
+        }
+        return v;
+    }
+}
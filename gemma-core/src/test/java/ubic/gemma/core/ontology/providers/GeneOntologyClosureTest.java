@@ -0,0 +1,77 @@
+/*
+ * The Gemma project
+ *
+ * Copyright (c) 2026 University of British Columbia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package ubic.gemma.core.ontology.providers;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author agent
+ */
+public class GeneOntologyClosureTest {
+
+    private GeneOntologyClosure closure;
+
+    /*
+     * a is the root; b and c are children of a; d is a child of both b and c; e is a child of d; f is alone.
+     */
+    @Before
+    public void setUp() {
+        Map<String, Collection<String>> parents = new HashMap<>();
+        parents.put( "b", Collections.singleton( "a" ) );
+        parents.put( "c", Collections.singleton( "a" ) );
+        parents.put( "d", Arrays.asList( "b", "c", "unknown" ) );
+        parents.put( "e", Collections.singleton( "d" ) );
+        closure = GeneOntologyClosure.compile( Arrays.asList( "a", "b", "c", "d", "e", "f" ), parents );
+    }
+
+    @Test
+    public void testAncestors() {
+        assertEquals( 6, closure.size() );
+        assertEquals( new HashSet<>( Arrays.asList( "a", "b", "c", "d" ) ),
+                new HashSet<>( closure.getUris( closure.getAncestors( closure.getIndex( "e" ) ) ) ) );
+        assertTrue( closure.getAncestors( closure.getIndex( "a" ) ).isEmpty() );
+        assertTrue( closure.getAncestors( closure.getIndex( "f" ) ).isEmpty() );
+        assertEquals( -1, closure.getIndex( "unknown" ) );
+    }
+
+    @Test
+    public void testPropagateAndOverlap() {
+        BitSet gene1 = closure.propagate( Arrays.asList( "e", "unknown" ) );
+        BitSet gene2 = closure.propagate( Arrays.asList( "c", "f" ) );
+        assertEquals( 5, gene1.cardinality() );
+        assertEquals( 3, gene2.cardinality() );
+        assertEquals( 2, GeneOntologyClosure.overlap( gene1, gene2 ) );
+        assertEquals( 0, GeneOntologyClosure.overlap( gene1, new BitSet() ) );
+
+        int[] counts = closure.countOccurrences( Arrays.asList( gene1, gene2 ) );
+        assertEquals( 2, counts[closure.getIndex( "a" )] );
+        assertEquals( 1, counts[closure.getIndex( "b" )] );
+        assertEquals( 1, counts[closure.getIndex( "f" )] );
+    }
+
+    @Test
+    public void testCycleIsIgnored() {
+        Map<String, Collection<String>> parents = new HashMap<>();
+        parents.put( "x", Collections.singleton( "y" ) );
+        parents.put( "y", Collections.singleton( "x" ) );
+        GeneOntologyClosure c = GeneOntologyClosure.compile( Arrays.asList( "x", "y" ), parents );
+        assertFalse( c.getAncestors( c.getIndex( "x" ) ).get( c.getIndex( "x" ) ) );
+    }
+}
@@ -122,6 +122,19 @@ public class ProcessedExpressionDataVectorServiceTest extends AbstractGeoService
         v = processedDataVectorService.getProcessedDataArrays( ees, EntityUtils.getIds( genes ) );
         assertTrue( "got " + v.size() + ", expected at least 40", 40 <= v.size() );
 
+        Collection<ProcessedDataMatrix> matrices = processedDataVectorService
+                .getProcessedDataMatrices( ees, EntityUtils.getIds( genes ) );
+        int rows = 0;
+        for ( ProcessedDataMatrix m : matrices ) {
+            assertEquals( ee.getId(), m.getExpressionExperimentId() );
+            for ( int i = 0; i < m.rows(); i++ ) {
+                assertEquals( m.columns(), m.getRow( i ).length );
+                assertFalse( m.getGenes( i ).isEmpty() );
+            }
+            rows += m.rows();
+        }
+        assertEquals( 40, rows );
+
         processedDataVectorService.clearCache();
 
     }
@@ -0,0 +1,71 @@
+/*
+ * The Gemma project
+ *
+ * Copyright (c) 2026 University of British Columbia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package ubic.gemma.persistence.service.analysis.expression.sampleCoexpression;
+
+import org.junit.Test;
+import ubic.basecode.dataStructure.matrix.DenseDoubleMatrix;
+import ubic.basecode.dataStructure.matrix.DoubleMatrix;
+import ubic.gemma.model.expression.bioAssay.BioAssay;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author agent
+ */
+public class SampleCoexpressionCacheTest {
+
+    @Test
+    public void testEvictMatrices() {
+        SampleCoexpressionCache cache = new SampleCoexpressionCache( 1024 * 1024 );
+        SampleCorrelationStatistics statistics = SampleCorrelationStatistics
+                .compute( null, 1L, new long[] { 1L, 2L }, new double[][] { { 1.0, 2.0 }, { 2.0, 1.0 } } );
+        cache.putMatrices( 1L, this.matrix( 10 ), null );
+        cache.putStatistics( 1L, statistics );
+        assertNotNull( cache.getFull( 1L ) );
+        assertEquals( 10 * 10 * 8 + statistics.getBytes(), cache.getBytesUsed() );
+
+        cache.evictMatrices( 1L );
+        assertNull( cache.getFull( 1L ) );
+        assertNull( cache.getRegressedOrFull( 1L ) );
+        // the statistics check themselves against the data, so they are kept
+        assertSame( statistics, cache.getStatistics( 1L ) );
+        assertEquals( statistics.getBytes(), cache.getBytesUsed() );
+    }
+
+    @Test
+    public void testEvictLeastRecentlyUsed() {
+        // room for two 10 x 10 matrices
+        SampleCoexpressionCache cache = new SampleCoexpressionCache( 2 * 10 * 10 * 8 + 100 );
+        cache.putMatrices( 1L, this.matrix( 10 ), null );
+        cache.putMatrices( 2L, this.matrix( 10 ), null );
+        // make experiment 1 the most recently used
+        assertNotNull( cache.getFull( 1L ) );
+
+        cache.putMatrices( 3L, this.matrix( 10 ), null );
+        assertNotNull( cache.getFull( 1L ) );
+        assertNull( cache.getFull( 2L ) );
+        assertNotNull( cache.getFull( 3L ) );
+        assertEquals( 2 * 10 * 10 * 8, cache.getBytesUsed() );
+
+        // too big to be cached at all
+        cache.putMatrices( 4L, this.matrix( 20 ), null );
+        assertNull( cache.getFull( 4L ) );
+        assertTrue( cache.getBytesUsed() <= 2 * 10 * 10 * 8 + 100 );
+    }
+
+    private DoubleMatrix<BioAssay, BioAssay> matrix( int size ) {
+        return new DenseDoubleMatrix<>( new double[size][size] );
+    }
+}
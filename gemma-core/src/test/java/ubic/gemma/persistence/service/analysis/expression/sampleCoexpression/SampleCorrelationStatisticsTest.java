@@ -0,0 +1,125 @@
+/*
+ * The Gemma project
+ *
+ * Copyright (c) 2026 University of British Columbia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package ubic.gemma.persistence.service.analysis.expression.sampleCoexpression;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author agent
+ */
+public class SampleCorrelationStatisticsTest {
+
+    private static final int ROWS = 50;
+
+    @Test
+    public void testMatchesDirectComputation() {
+        double[][] columns = this.randomColumns( 6, 1 );
+        columns[2][3] = Double.NaN;
+        columns[2][7] = Double.NaN;
+        columns[4][7] = Double.NaN;
+
+        SampleCorrelationStatistics stats = SampleCorrelationStatistics
+                .compute( null, 1L, new long[] { 1, 2, 3, 4, 5, 6 }, columns );
+
+        for ( int i = 0; i < columns.length; i++ ) {
+            for ( int j = 0; j < columns.length; j++ ) {
+                assertEquals( this.correlation( columns[i], columns[j] ), stats.getCorrelation( i, j ), 1e-10 );
+            }
+        }
+    }
+
+    @Test
+    public void testIncrementalUpdate() {
+        double[][] columns = this.randomColumns( 5, 2 );
+        SampleCorrelationStatistics first = SampleCorrelationStatistics
+                .compute( null, 1L, new long[] { 10, 20, 30, 40, 50 }, columns );
+
+        // sample 20 becomes an outlier, 40 is removed, 60 is added and the order changes
+        double[][] changed = new double[][] { columns[4], new double[ROWS], columns[0], columns[2],
+                this.randomColumns( 1, 3 )[0] };
+        Arrays.fill( changed[1], Double.NaN );
+        long[] keys = new long[] { 50, 20, 10, 30, 60 };
+
+        SampleCorrelationStatistics updated = SampleCorrelationStatistics.compute( first, 1L, keys, changed );
+        SampleCorrelationStatistics fresh = SampleCorrelationStatistics.compute( null, 1L, keys, changed );
+
+        assertEquals( 5, updated.size() );
+        for ( int i = 0; i < changed.length; i++ ) {
+            assertEquals( keys[i], updated.getKey( i ) );
+            for ( int j = 0; j < changed.length; j++ ) {
+                if ( i != j && ( i == 1 || j == 1 ) ) {
+                    assertTrue( Double.isNaN( updated.getCorrelation( i, j ) ) );
+                    continue;
+                }
+                assertEquals( fresh.getCorrelation( i, j ), updated.getCorrelation( i, j ), 1e-12 );
+            }
+        }
+        assertEquals( first.getCorrelation( 4, 0 ), updated.getCorrelation( 0, 2 ), 1e-12 );
+    }
+
+    @Test
+    public void testRowsChanged() {
+        double[][] columns = this.randomColumns( 3, 4 );
+        SampleCorrelationStatistics first = SampleCorrelationStatistics
+                .compute( null, 1L, new long[] { 1, 2, 3 }, columns );
+        double[][] other = this.randomColumns( 3, 5 );
+        SampleCorrelationStatistics updated = SampleCorrelationStatistics
+                .compute( first, 2L, new long[] { 1, 2, 3 }, other );
+        assertEquals( this.correlation( other[0], other[1] ), updated.getCorrelation( 0, 1 ), 1e-10 );
+    }
+
+    private double[][] randomColumns( int n, long seed ) {
+        Random random = new Random( seed );
+        double[][] columns = new double[n][ROWS];
+        for ( double[] column : columns ) {
+            for ( int r = 0; r < ROWS; r++ ) {
+                column[r] = random.nextGaussian() + r * 0.05;
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * Two-pass Pearson correlation over the rows where both have a value.
+     */
+    private double correlation( double[] a, double[] b ) {
+        double ma = 0.0, mb = 0.0;
+        int n = 0;
+        for ( int r = 0; r < a.length; r++ ) {
+            if ( Double.isNaN( a[r] ) || Double.isNaN( b[r] ) )
+                continue;
+            ma += a[r];
+            mb += b[r];
+            n++;
+        }
+        ma /= n;
+        mb /= n;
+        double sab = 0.0, saa = 0.0, sbb = 0.0;
+        for ( int r = 0; r < a.length; r++ ) {
+            if ( Double.isNaN( a[r] ) || Double.isNaN( b[r] ) )
+                continue;
+            sab += ( a[r] - ma ) * ( b[r] - mb );
+            saa += ( a[r] - ma ) * ( a[r] - ma );
+            sbb += ( b[r] - mb ) * ( b[r] - mb );
+        }
+        return sab / Math.sqrt( saa * sbb );
+    }
+}
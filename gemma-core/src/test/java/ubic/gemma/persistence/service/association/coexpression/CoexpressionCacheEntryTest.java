@@ -0,0 +1,96 @@
+/*
+ * The Gemma project
+ *
+ * Copyright (c) 2026 University of British Columbia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package ubic.gemma.persistence.service.association.coexpression;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author agent
+ */
+public class CoexpressionCacheEntryTest {
+
+    @Test
+    public void testGetAll() {
+        CoexpressionCacheEntry entry = new CoexpressionCacheEntry( 1L,
+                Arrays.asList( this.link( 30L, true, 10L, 11L, 12L ), this.link( 20L, false, 10L, 11L ),
+                        this.link( 40L, true, 10L, 11L, 12L, 13L ), this.link( 20L, true, 12L ) ) );
+        assertEquals( 4, entry.size() );
+
+        List<CoexpressionValueObject> result = entry.get( 1, null );
+        assertEquals( 4, result.size() );
+        // by descending support, then by coexpressed gene
+        assertEquals( Long.valueOf( 40L ), result.get( 0 ).getCoexGeneId() );
+        assertEquals( Long.valueOf( 30L ), result.get( 1 ).getCoexGeneId() );
+        assertEquals( Long.valueOf( 20L ), result.get( 2 ).getCoexGeneId() );
+        assertFalse( result.get( 2 ).isPositiveCorrelation() );
+        assertEquals( Long.valueOf( 20L ), result.get( 3 ).getCoexGeneId() );
+        assertTrue( result.get( 3 ).isPositiveCorrelation() );
+
+        CoexpressionValueObject first = result.get( 0 );
+        assertTrue( first.isFromCache() );
+        assertEquals( Long.valueOf( 1L ), first.getQueryGeneId() );
+        assertEquals( "q", first.getQueryGeneSymbol() );
+        assertEquals( "g40", first.getCoexGeneSymbol() );
+        assertEquals( Integer.valueOf( 4 ), first.getNumDatasetsSupporting() );
+        assertEquals( Long.valueOf( 400L ), first.getSupportDetailsId() );
+        assertEquals( new HashSet<>( Arrays.asList( 10L, 11L, 12L, 13L ) ), first.getSupportingDatasets() );
+        assertEquals( new HashSet<>( Arrays.asList( 10L, 11L, 12L, 13L, 14L ) ), first.getTestedInDatasets() );
+    }
+
+    @Test
+    public void testGetFiltered() {
+        CoexpressionCacheEntry entry = new CoexpressionCacheEntry( 1L,
+                Arrays.asList( this.link( 30L, true, 10L, 11L, 12L ), this.link( 20L, false, 10L, 11L ),
+                        this.link( 40L, true, 10L, 11L, 12L, 13L ), this.link( 20L, true, 12L ) ) );
+
+        assertEquals( 2, entry.get( 3, null ).size() );
+        assertTrue( entry.get( 5, null ).isEmpty() );
+
+        List<CoexpressionValueObject> result = entry.get( 1, Arrays.asList( 20L, 40L, 50L ) );
+        assertEquals( 3, result.size() );
+        assertEquals( Long.valueOf( 40L ), result.get( 0 ).getCoexGeneId() );
+        assertEquals( Long.valueOf( 20L ), result.get( 1 ).getCoexGeneId() );
+        assertEquals( Long.valueOf( 20L ), result.get( 2 ).getCoexGeneId() );
+
+        result = entry.get( 2, Collections.singleton( 20L ) );
+        assertEquals( 1, result.size() );
+        assertFalse( result.get( 0 ).isPositiveCorrelation() );
+    }
+
+    @Test
+    public void testEmpty() {
+        CoexpressionCacheEntry entry = new CoexpressionCacheEntry( 1L, new ArrayList<CoexpressionValueObject>() );
+        assertEquals( 0, entry.size() );
+        assertTrue( entry.get( 1, null ).isEmpty() );
+        assertTrue( entry.get( 1, Collections.singleton( 2L ) ).isEmpty() );
+    }
+
+    private CoexpressionValueObject link( Long coexGene, boolean positive, Long... supporting ) {
+        Set<Long> supportingDatasets = new HashSet<>( Arrays.asList( supporting ) );
+        Set<Long> testedIn = new HashSet<>( supportingDatasets );
+        testedIn.add( 14L );
+        return new CoexpressionValueObject( coexGene, "g" + coexGene, positive, 1L, "q", supporting.length,
+                coexGene * 10, supportingDatasets, testedIn );
+    }
+}
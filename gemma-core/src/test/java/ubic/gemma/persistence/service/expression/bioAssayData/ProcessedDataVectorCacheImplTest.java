@@ -0,0 +1,155 @@
+/*
+ * The Gemma project
+ *
+ * Copyright (c) 2026 University of British Columbia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ubic.gemma.persistence.service.expression.bioAssayData;
+
+import org.junit.Test;
+import ubic.gemma.model.expression.bioAssayData.BioAssayDimensionValueObject;
+import ubic.gemma.model.expression.bioAssayData.DoubleVectorValueObject;
+import ubic.gemma.model.expression.experiment.ExpressionExperiment;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author agent
+ */
+public class ProcessedDataVectorCacheImplTest {
+
+    private final BioAssayDimensionValueObject dimension = new BioAssayDimensionValueObject( 1L );
+
+    @Test
+    public void testAddAndGet() {
+        ProcessedDataVectorCacheImpl cache = new ProcessedDataVectorCacheImpl( 100L * 1024 * 1024 );
+        ExpressionExperiment ee = this.experiment( 1L );
+        cache.addToCache( 1L, 10L, Arrays.asList( this.vector( 100L, 1.0, 2.0, 3.0 ), this.vector( 101L, 4.0, 5.0 ) ) );
+
+        Collection<DoubleVectorValueObject> result = cache.get( ee, 10L );
+        assertNotNull( result );
+        assertEquals( 2, result.size() );
+        Iterator<DoubleVectorValueObject> it = result.iterator();
+        DoubleVectorValueObject first = it.next();
+        assertEquals( Long.valueOf( 100L ), first.getId() );
+        assertArrayEquals( new double[] { 1.0, 2.0, 3.0 }, first.getData(), 0.0 );
+        assertArrayEquals( new double[] { 4.0, 5.0 }, it.next().getData(), 0.0 );
+        assertSame( dimension, first.getBioAssayDimension() );
+
+        assertNull( cache.get( ee, 11L ) );
+        assertNull( cache.get( this.experiment( 2L ), 10L ) );
+        assertEquals( 1, cache.size() );
+    }
+
+    @Test
+    public void testCopiesAreIndependent() {
+        ProcessedDataVectorCacheImpl cache = new ProcessedDataVectorCacheImpl( 100L * 1024 * 1024 );
+        ExpressionExperiment ee = this.experiment( 1L );
+        cache.addToCache( 1L, 10L, Collections.singletonList( this.vector( 100L, 1.0, 2.0 ) ) );
+
+        DoubleVectorValueObject v = cache.get( ee, 10L ).iterator().next();
+        v.getData()[0] = 42.0;
+        v.setPvalue( 0.01 );
+
+        DoubleVectorValueObject again = cache.get( ee, 10L ).iterator().next();
+        assertEquals( 1.0, again.getData()[0], 0.0 );
+        assertNull( again.getPvalue() );
+    }
+
+    @Test
+    public void testClearExperiment() {
+        ProcessedDataVectorCacheImpl cache = new ProcessedDataVectorCacheImpl( 100L * 1024 * 1024 );
+        cache.addToCache( 1L, 10L, Collections.singletonList( this.vector( 100L, 1.0 ) ) );
+        cache.addToCache( 1L, 11L, Collections.singletonList( this.vector( 101L, 1.0 ) ) );
+        cache.addToCache( 2L, 10L, Collections.singletonList( this.vector( 200L, 1.0 ) ) );
+        assertEquals( 3, cache.size() );
+
+        cache.clearCache( 1L );
+        assertNull( cache.get( this.experiment( 1L ), 10L ) );
+        assertNull( cache.get( this.experiment( 1L ), 11L ) );
+        assertNotNull( cache.get( this.experiment( 2L ), 10L ) );
+        assertEquals( 1, cache.size() );
+
+        cache.clearCache();
+        assertEquals( 0, cache.size() );
+        assertEquals( 0, cache.getBytesUsed() );
+    }
+
+    @Test
+    public void testEvictLeastRecentlyUsedExperiment() {
+        // enough room for two experiments, each using one slab just big enough for its values
+        long perExperiment = 1000 * 8 + 256;
+        ProcessedDataVectorCacheImpl cache = new ProcessedDataVectorCacheImpl( 2 * perExperiment + 100 );
+        cache.addToCache( 1L, 10L, Collections.singletonList( this.vector( 100L, new double[1000] ) ) );
+        cache.addToCache( 2L, 10L, Collections.singletonList( this.vector( 200L, new double[1000] ) ) );
+        assertEquals( 2 * perExperiment, cache.getBytesUsed() );
+        // make experiment 1 the most recently used
+        assertNotNull( cache.get( this.experiment( 1L ), 10L ) );
+
+        cache.addToCache( 3L, 10L, Collections.singletonList( this.vector( 300L, new double[1000] ) ) );
+        assertNotNull( cache.get( this.experiment( 1L ), 10L ) );
+        assertNull( cache.get( this.experiment( 2L ), 10L ) );
+        assertNotNull( cache.get( this.experiment( 3L ), 10L ) );
+        assertEquals( 2 * perExperiment, cache.getBytesUsed() );
+    }
+
+    @Test
+    public void testSlabsGrow() {
+        ProcessedDataVectorCacheImpl cache = new ProcessedDataVectorCacheImpl( 100L * 1024 * 1024 );
+        cache.addToCache( 1L, 10L, Arrays.asList( this.vector( 100L, 1.0, 2.0 ), this.vector( 101L, 3.0 ) ) );
+        // one slab for the three values
+        assertEquals( 3 * 8 + 2 * 256, cache.getBytesUsed() );
+        cache.addToCache( 1L, 11L, Collections.singletonList( this.vector( 102L, 4.0 ) ) );
+        // a second slab, twice as big as the first
+        assertEquals( 3 * 8 + 6 * 8 + 3 * 256, cache.getBytesUsed() );
+        assertArrayEquals( new double[] { 1.0, 2.0 },
+                cache.get( this.experiment( 1L ), 10L ).iterator().next().getData(), 0.0 );
+        assertArrayEquals( new double[] { 4.0 }, cache.get( this.experiment( 1L ), 11L ).iterator().next().getData(),
+                0.0 );
+    }
+
+    @Test
+    public void testVectorTooLong() {
+        ProcessedDataVectorCacheImpl cache = new ProcessedDataVectorCacheImpl( 100L * 1024 * 1024 );
+        cache.addToCache( 1L, 10L, Collections.singletonList( this.vector( 100L, 1.0 ) ) );
+        cache.addToCache( 1L, 11L, Collections.singletonList( this.vector( 101L, new double[128 * 1024 + 1] ) ) );
+        cache.addToCache( 1L, 12L, Collections.singletonList( this.vector( 102L, 1.0 ) ) );
+        assertNull( cache.get( this.experiment( 1L ), 10L ) );
+        assertNull( cache.get( this.experiment( 1L ), 11L ) );
+        assertNull( cache.get( this.experiment( 1L ), 12L ) );
+        assertEquals( 0, cache.getBytesUsed() );
+
+        // the data changed, so it can be cached again
+        cache.clearCache( 1L );
+        cache.addToCache( 1L, 10L, Collections.singletonList( this.vector( 100L, 1.0 ) ) );
+        assertNotNull( cache.get( this.experiment( 1L ), 10L ) );
+    }
+
+    private ExpressionExperiment experiment( Long id ) {
+        ExpressionExperiment ee = ExpressionExperiment.Factory.newInstance();
+        ee.setId( id );
+        return ee;
+    }
+
+    private DoubleVectorValueObject vector( Long id, double... data ) {
+        DoubleVectorValueObject template = new DoubleVectorValueObject();
+        template.setId( id );
+        // a distinct but equivalent dimension, which should be replaced by the shared one
+        template.setBioAssayDimension( id % 2 == 0 ? dimension : new BioAssayDimensionValueObject( 1L ) );
+        return new DoubleVectorValueObject( template, data );
+    }
+}
@@ -10,7 +10,9 @@ import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static ubic.gemma.persistence.util.AclQueryUtils.addAclJoinParameters;
+import static ubic.gemma.persistence.util.AclQueryUtils.formAclEntriesRestrictionClause;
 import static ubic.gemma.persistence.util.AclQueryUtils.formAclJoinClause;
+import static ubic.gemma.persistence.util.AclQueryUtils.formAclOwnerJoinClause;
 
 public class AclQueryUtilsTest extends BaseSpringContextTest {
 
@@ -42,6 +44,23 @@ public class AclQueryUtilsTest extends BaseSpringContextTest {
                 .contains( "inner join aoi.entries ace" );
     }
 
+    @Test
+    public void testFormAclOwnerJoinClauseAsNonAdminExcludesAoiEntriesInnerJointure() {
+        super.runAsAnonymous( this.applicationContext );
+        assertThat( formAclOwnerJoinClause( "ee" ) )
+                .contains( "ee.id" )
+                .doesNotContain( "aoi.entries" );
+        assertThat( formAclEntriesRestrictionClause() )
+                .contains( "exists (select ace.id from AclObjectIdentity as aoi2 inner join aoi2.entries ace" )
+                .contains( ":readMask" );
+    }
+
+    @Test
+    public void testFormAclEntriesRestrictionClauseAsAdmin() {
+        super.runAsAdmin();
+        assertThat( formAclEntriesRestrictionClause() ).isEmpty();
+    }
+
     @Test
     public void testAddAclJoinParameters() {
         Query query = mock( Query.class );
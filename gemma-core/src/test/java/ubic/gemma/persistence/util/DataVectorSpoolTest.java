@@ -0,0 +1,155 @@
+/*
+ * The Gemma project
+ *
+ * Copyright (c) 2026 University of British Columbia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package ubic.gemma.persistence.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import ubic.gemma.model.expression.bioAssayData.RawExpressionDataVector;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author agent
+ */
+public class DataVectorSpoolTest {
+
+    private Path file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = Files.createTempFile( "vectors", ".spool" );
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists( file );
+    }
+
+    @Test
+    public void testSpillAndRestore() throws IOException {
+        try ( DataVectorSpool spool = new DataVectorSpool( file, 1024 ) ) {
+            RawExpressionDataVector v = this.vector( 1, 2, 3 );
+            RawExpressionDataVector notSpilled = this.vector( 4 );
+            spool.spill( v );
+            assertNull( v.getData() );
+            assertTrue( spool.contains( v ) );
+            assertFalse( spool.contains( notSpilled ) );
+            assertEquals( 1, spool.size() );
+
+            spool.restore( Arrays.asList( v, notSpilled ) );
+            assertArrayEquals( new byte[] { 1, 2, 3 }, v.getData() );
+            assertArrayEquals( new byte[] { 4 }, notSpilled.getData() );
+
+            spool.release( Arrays.asList( v, notSpilled ) );
+            assertNull( v.getData() );
+            // only spilled vectors are released
+            assertArrayEquals( new byte[] { 4 }, notSpilled.getData() );
+
+            // and can be restored again
+            spool.restore( Collections.singletonList( v ) );
+            assertArrayEquals( new byte[] { 1, 2, 3 }, v.getData() );
+        }
+    }
+
+    @Test
+    public void testRestoreInBatchesAcrossWindows() throws IOException {
+        // vectors of 7 bytes in a window of 16, so some of them straddle the end of a window
+        List<RawExpressionDataVector> vectors = new ArrayList<>();
+        try ( DataVectorSpool spool = new DataVectorSpool( file, 16 ) ) {
+            for ( int i = 0; i < 20; i++ ) {
+                RawExpressionDataVector v = this.vector( this.bytes( i, 7 ) );
+                spool.spill( v );
+                vectors.add( v );
+            }
+
+            for ( int from = 0; from < vectors.size(); from += 6 ) {
+                List<RawExpressionDataVector> batch = vectors.subList( from, Math.min( from + 6, vectors.size() ) );
+                spool.restore( batch );
+                for ( int i = 0; i < batch.size(); i++ ) {
+                    assertArrayEquals( this.bytes( from + i, 7 ), batch.get( i ).getData() );
+                }
+                spool.release( batch );
+                for ( RawExpressionDataVector v : batch ) {
+                    assertNull( v.getData() );
+                }
+            }
+
+            // out of order, and bigger than a window
+            RawExpressionDataVector big = this.vector( this.bytes( 99, 40 ) );
+            spool.spill( big );
+            List<RawExpressionDataVector> reversed = new ArrayList<>( vectors );
+            Collections.reverse( reversed );
+            reversed.add( 10, big );
+            spool.restore( reversed );
+            for ( int i = 0; i < vectors.size(); i++ ) {
+                assertArrayEquals( this.bytes( i, 7 ), vectors.get( i ).getData() );
+            }
+            assertArrayEquals( this.bytes( 99, 40 ), big.getData() );
+        }
+    }
+
+    @Test
+    public void testFileDeletedOnClose() throws IOException {
+        DataVectorSpool spool = new DataVectorSpool( file, 1024 );
+        spool.spill( this.vector( 1, 2, 3 ) );
+        assertTrue( Files.exists( file ) );
+        spool.close();
+        assertFalse( Files.exists( file ) );
+    }
+
+    @Test
+    public void testFileDeletedOnException() throws IOException {
+        try ( DataVectorSpool spool = new DataVectorSpool( file, 1024 ) ) {
+            spool.spill( this.vector( 1, 2, 3 ) );
+            // a vector without data can't be spilled
+            spool.spill( RawExpressionDataVector.Factory.newInstance() );
+            fail( "Expected an IllegalArgumentException" );
+        } catch ( IllegalArgumentException e ) {
+            // expected
+        }
+        assertFalse( Files.exists( file ) );
+    }
+
+    private RawExpressionDataVector vector( int... values ) {
+        byte[] data = new byte[values.length];
+        for ( int i = 0; i < values.length; i++ ) {
+            data[i] = ( byte ) values[i];
+        }
+        return this.vector( data );
+    }
+
+    private RawExpressionDataVector vector( byte[] data ) {
+        RawExpressionDataVector v = RawExpressionDataVector.Factory.newInstance();
+        v.setData( data );
+        return v;
+    }
+
+    private byte[] bytes( int seed, int length ) {
+        byte[] data = new byte[length];
+        for ( int i = 0; i < length; i++ ) {
+            data[i] = ( byte ) ( seed * 31 + i );
+        }
+        return data;
+    }
+}
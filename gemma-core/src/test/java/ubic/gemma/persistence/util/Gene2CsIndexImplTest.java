@@ -0,0 +1,57 @@
+/*
+ * The Gemma project
+ *
+ * Copyright (c) 2026 University of British Columbia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package ubic.gemma.persistence.util;
+
+import cern.colt.list.LongArrayList;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author agent
+ */
+public class Gene2CsIndexImplTest {
+
+    @Test
+    public void testPlatformIndex() {
+        Gene2CsIndexImpl.PlatformIndex index = this
+                .index( new long[] { 1, 1, 2, 3, 3, 3, 5 }, new long[] { 100, 200, -1, 100, 100, 300, 200 } );
+
+        assertArrayEquals( new long[] { 100, 200 }, index.getGenes( 1 ) );
+        assertArrayEquals( new long[0], index.getGenes( 2 ) );
+        // duplicate rows are dropped
+        assertArrayEquals( new long[] { 100, 300 }, index.getGenes( 3 ) );
+        assertArrayEquals( new long[] { 200 }, index.getGenes( 5 ) );
+        assertNull( index.getGenes( 4 ) );
+        assertNull( index.getGenes( 6 ) );
+
+        assertArrayEquals( new long[] { 1, 3 }, index.getProbes( 100 ) );
+        assertArrayEquals( new long[] { 1, 5 }, index.getProbes( 200 ) );
+        assertArrayEquals( new long[] { 3 }, index.getProbes( 300 ) );
+        assertArrayEquals( new long[0], index.getProbes( 400 ) );
+        assertTrue( index.getBytes() > 0 );
+    }
+
+    @Test
+    public void testEmptyPlatform() {
+        Gene2CsIndexImpl.PlatformIndex index = this.index( new long[0], new long[0] );
+        assertNull( index.getGenes( 1 ) );
+        assertArrayEquals( new long[0], index.getProbes( 1 ) );
+    }
+
+    private Gene2CsIndexImpl.PlatformIndex index( long[] probes, long[] genes ) {
+        return new Gene2CsIndexImpl.PlatformIndex( new LongArrayList( probes ), new LongArrayList( genes ) );
+    }
+}
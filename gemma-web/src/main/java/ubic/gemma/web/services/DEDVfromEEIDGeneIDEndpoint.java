@@ -23,7 +23,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
-import ubic.gemma.model.expression.bioAssayData.DoubleVectorValueObject;
+import ubic.gemma.model.expression.bioAssayData.ProcessedDataMatrix;
 import ubic.gemma.model.expression.experiment.ExpressionExperiment;
 import ubic.gemma.persistence.service.expression.bioAssayData.ProcessedExpressionDataVectorService;
 import ubic.gemma.persistence.service.expression.experiment.ExpressionExperimentService;
@@ -95,8 +95,12 @@ public class DEDVfromEEIDGeneIDEndpoint extends AbstractGemmaEndpoint {
                 .debug( "XML input read: " + eeIdResult.size() + " experiment ids & " + geneIdResult.size()
                         + " gene ids" );
 
-        Collection<DoubleVectorValueObject> vectors = processedExpressionDataVectorService
-                .getProcessedDataArrays( eeObjs, geneIDLong );
+        Collection<ProcessedDataMatrix> matrices = processedExpressionDataVectorService
+                .getProcessedDataMatrices( eeObjs, geneIDLong );
+        int numVectors = 0;
+        for ( ProcessedDataMatrix matrix : matrices ) {
+            numVectors += matrix.rows();
+        }
 
         // start building the wrapper
         // xml is built manually here instead of using the buildWrapper method inherited from AbstractGemmaEndpoint
@@ -112,7 +116,7 @@ public class DEDVfromEEIDGeneIDEndpoint extends AbstractGemmaEndpoint {
                 DEDVfromEEIDGeneIDEndpoint.EXPERIMENT_LOCAL_NAME + AbstractGemmaEndpoint.RESPONSE );
         responseWrapper.appendChild( responseElement );
 
-        if ( vectors == null || vectors.isEmpty() )
+        if ( numVectors == 0 )
             return this.buildBadResponse( document, "No " + elementName1 + " result" );
         // responseElement.appendChild( document.createTextNode( "No " + elementName1 + " result" ) );
 
@@ -121,31 +125,34 @@ public class DEDVfromEEIDGeneIDEndpoint extends AbstractGemmaEndpoint {
         // also necessary to do each data vector at a time because we
         // already have a mapping to the genes
         // of the design elements
-        for ( DoubleVectorValueObject dedv : vectors ) {
+        for ( ProcessedDataMatrix matrix : matrices ) {
+
+            String elementString3 = matrix.getExpressionExperimentId().toString();
 
-            double[] convertedDEDV = dedv.getData();
+            for ( int i = 0; i < matrix.rows(); i++ ) {
 
-            // data vector string for output
-            String elementString1 = this.encode( convertedDEDV );
+                double[] convertedDEDV = matrix.getRow( i );
 
-            Collection<Long> geneidCol = dedv.getGenes(); //
+                // data vector string for output
+                String elementString1 = this.encode( convertedDEDV );
 
-            // gene ids, space delimited for output
-            String elementString2 = this.encode( geneidCol.toArray() );
+                Collection<Long> geneidCol = matrix.getGenes( i ); //
 
-            String elementString3 = dedv.getExpressionExperiment().getId().toString();
+                // gene ids, space delimited for output
+                String elementString2 = this.encode( geneidCol.toArray() );
 
-            Element e1 = document.createElement( elementName1 );
-            e1.appendChild( document.createTextNode( elementString1 ) );
-            responseElement.appendChild( e1 );
+                Element e1 = document.createElement( elementName1 );
+                e1.appendChild( document.createTextNode( elementString1 ) );
+                responseElement.appendChild( e1 );
 
-            Element e2 = document.createElement( elementName2 );
-            e2.appendChild( document.createTextNode( elementString2 ) );
-            responseElement.appendChild( e2 );
+                Element e2 = document.createElement( elementName2 );
+                e2.appendChild( document.createTextNode( elementString2 ) );
+                responseElement.appendChild( e2 );
 
-            Element e3 = document.createElement( elementName3 );
-            e3.appendChild( document.createTextNode( elementString3 ) );
-            responseElement.appendChild( e3 );
+                Element e3 = document.createElement( elementName3 );
+                e3.appendChild( document.createTextNode( elementString3 ) );
+                responseElement.appendChild( e3 );
+            }
 
         }
 
@@ -26,6 +26,8 @@ import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import ubic.gemma.core.analysis.expression.diff.DifferentialExpressionResultColumns;
+import ubic.gemma.core.analysis.expression.diff.DifferentialExpressionResultColumnsService;
 import ubic.gemma.core.analysis.service.ExpressionAnalysisResultSetFileService;
 import ubic.gemma.model.analysis.AnalysisResultSet;
 import ubic.gemma.model.analysis.expression.diff.DifferentialExpressionAnalysisResult;
@@ -71,6 +73,9 @@ public class AnalysisResultSetsWebService {
     @Autowired
     private ExpressionAnalysisResultSetFileService expressionAnalysisResultSetFileService;
 
+    @Autowired
+    private DifferentialExpressionResultColumnsService differentialExpressionResultColumnsService;
+
     /**
      * Retrieve all {@link AnalysisResultSet} matching a set of criteria.
      *
@@ -164,6 +169,21 @@ public class AnalysisResultSetsWebService {
             @ApiResponse(responseCode = "404", description = "The analysis result set could not be found.") })
     public StreamingOutput getResultSetAsTsv(
             @PathParam("resultSet_") ExpressionAnalysisResultSetArg analysisResultSet ) {
+        // when the results are stored as columns, there is no need to load them as entities
+        final ExpressionAnalysisResultSet rs = analysisResultSet.getEntity( expressionAnalysisResultSetService );
+        if ( rs == null ) {
+            throw new NotFoundException( "Could not find ExpressionAnalysisResultSet for " + analysisResultSet + "." );
+        }
+        final DifferentialExpressionResultColumns columns = differentialExpressionResultColumnsService.load( rs.getId() );
+        if ( columns != null ) {
+            final Map<Long, List<Gene>> probe2Genes = expressionAnalysisResultSetService.loadProbeToGenesMap( columns.getProbeIds() );
+            return outputStream -> {
+                try ( OutputStreamWriter writer = new OutputStreamWriter( outputStream ) ) {
+                    expressionAnalysisResultSetFileService.writeTsvToAppendable( rs, columns, probe2Genes, writer );
+                }
+            };
+        }
+
         final ExpressionAnalysisResultSet ears = analysisResultSet.getEntityWithContrastsAndResults( expressionAnalysisResultSetService );
         if ( ears == null ) {
             throw new NotFoundException( "Could not find ExpressionAnalysisResultSet for " + analysisResultSet + "." );